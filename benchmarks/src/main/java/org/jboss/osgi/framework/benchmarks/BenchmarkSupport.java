@@ -0,0 +1,192 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.jboss.osgi.framework.launch.FrameworkFactoryImpl;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.launch.Framework;
+import org.osgi.service.packageadmin.PackageAdmin;
+
+/**
+ * Boots an embedded framework and generates the bundles for the benchmarks.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 21-Jan-2011
+ */
+public final class BenchmarkSupport
+{
+   // The service interface that is registered by the benchmarks
+   public static final String SERVICE_INTERFACE = BenchmarkService.class.getName();
+
+   // Unique bundle names across the benchmark iterations
+   private static final AtomicInteger bundleCount = new AtomicInteger();
+
+   // Hide ctor
+   private BenchmarkSupport()
+   {
+   }
+
+   /**
+    * A service that does nothing
+    */
+   public interface BenchmarkService
+   {
+      void execute();
+   }
+
+   /**
+    * Start a framework with a clean storage area of the given name
+    */
+   public static Framework startFramework(String storageName) throws BundleException
+   {
+      Map<String, String> props = new HashMap<String, String>();
+      File storageDir = new File("target/osgi-store-" + storageName);
+      props.put(Constants.FRAMEWORK_STORAGE, storageDir.getAbsolutePath());
+      props.put(Constants.FRAMEWORK_STORAGE_CLEAN, Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+
+      Framework framework = new FrameworkFactoryImpl().newFramework(props);
+      framework.start();
+      return framework;
+   }
+
+   public static void stopFramework(Framework framework) throws Exception
+   {
+      if (framework != null)
+      {
+         framework.stop();
+         framework.waitForStop(10000);
+      }
+   }
+
+   /**
+    * Install a generated bundle with the given manifest headers and classes
+    */
+   public static Bundle installBundle(BundleContext context, String namePrefix, Map<String, String> headers, Class<?>... classes) throws BundleException, IOException
+   {
+      String symbolicName = namePrefix + "-" + bundleCount.incrementAndGet();
+      InputStream input = createBundle(symbolicName, headers, classes);
+      return context.installBundle(symbolicName, input);
+   }
+
+   /**
+    * Create the content of a bundle with the given manifest headers and classes
+    */
+   public static InputStream createBundle(String symbolicName, Map<String, String> headers, Class<?>... classes) throws IOException
+   {
+      Manifest manifest = new Manifest();
+      Attributes attributes = manifest.getMainAttributes();
+      attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+      attributes.putValue(Constants.BUNDLE_MANIFESTVERSION, "2");
+      attributes.putValue(Constants.BUNDLE_SYMBOLICNAME, symbolicName);
+      if (headers != null)
+      {
+         for (Entry<String, String> entry : headers.entrySet())
+            attributes.putValue(entry.getKey(), entry.getValue());
+      }
+
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      JarOutputStream jar = new JarOutputStream(baos, manifest);
+      try
+      {
+         for (Class<?> clazz : classes)
+         {
+            String path = clazz.getName().replace('.', '/') + ".class";
+            jar.putNextEntry(new JarEntry(path));
+            InputStream classInput = clazz.getClassLoader().getResourceAsStream(path);
+            if (classInput == null)
+               throw new IOException("Cannot find class file: " + path);
+            try
+            {
+               byte[] buffer = new byte[4096];
+               int read;
+               while ((read = classInput.read(buffer)) != -1)
+                  jar.write(buffer, 0, read);
+            }
+            finally
+            {
+               classInput.close();
+            }
+            jar.closeEntry();
+         }
+      }
+      finally
+      {
+         jar.close();
+      }
+      return new ByteArrayInputStream(baos.toByteArray());
+   }
+
+   public static PackageAdmin getPackageAdmin(BundleContext context)
+   {
+      ServiceReference sref = context.getServiceReference(PackageAdmin.class.getName());
+      return (PackageAdmin)context.getService(sref);
+   }
+
+   /**
+    * Refresh the given bundles and wait for the refresh to complete
+    */
+   public static void refreshPackages(BundleContext context, Bundle[] bundles) throws InterruptedException
+   {
+      final CountDownLatch latch = new CountDownLatch(1);
+      FrameworkListener listener = new FrameworkListener()
+      {
+         public void frameworkEvent(FrameworkEvent event)
+         {
+            if (event.getType() == FrameworkEvent.PACKAGES_REFRESHED)
+               latch.countDown();
+         }
+      };
+      context.addFrameworkListener(listener);
+      try
+      {
+         getPackageAdmin(context).refreshPackages(bundles);
+         if (latch.await(30, TimeUnit.SECONDS) == false)
+            throw new IllegalStateException("Packages not refreshed");
+      }
+      finally
+      {
+         context.removeFrameworkListener(listener);
+      }
+   }
+}
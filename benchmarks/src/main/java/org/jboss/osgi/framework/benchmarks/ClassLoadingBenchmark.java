@@ -0,0 +1,169 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.osgi.framework.benchmarks.payload.PayloadA;
+import org.jboss.osgi.framework.benchmarks.payload.PayloadB;
+import org.jboss.osgi.framework.benchmarks.payload.PayloadC;
+import org.jboss.osgi.framework.benchmarks.payload.PayloadD;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+
+/**
+ * Class loading through the bundle class loader.
+ *
+ * The cold benchmark installs a new bundle for every invocation, so that every class is
+ * defined by a fresh module class loader. The warm benchmark loads classes that have
+ * already been loaded, as well as a class that cannot be found.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 21-Jan-2011
+ */
+@Fork(1)
+public class ClassLoadingBenchmark
+{
+   static final String PAYLOAD_PACKAGE = PayloadA.class.getPackage().getName();
+   static final Class<?>[] PAYLOAD_CLASSES = new Class<?>[] { PayloadA.class, PayloadB.class, PayloadC.class, PayloadD.class };
+
+   static Map<String, String> getPayloadHeaders()
+   {
+      Map<String, String> headers = new HashMap<String, String>();
+      headers.put(Constants.EXPORT_PACKAGE, PAYLOAD_PACKAGE);
+      headers.put(Constants.IMPORT_PACKAGE, "org.osgi.framework");
+      return headers;
+   }
+
+   @State(Scope.Benchmark)
+   public static class FrameworkState
+   {
+      Framework framework;
+      BundleContext context;
+
+      @Setup(Level.Trial)
+      public void setUp() throws Exception
+      {
+         framework = BenchmarkSupport.startFramework("classloading");
+         context = framework.getBundleContext();
+      }
+
+      @TearDown(Level.Trial)
+      public void tearDown() throws Exception
+      {
+         BenchmarkSupport.stopFramework(framework);
+      }
+   }
+
+   @State(Scope.Thread)
+   public static class ColdState
+   {
+      Bundle bundle;
+
+      @Setup(Level.Invocation)
+      public void installBundle(FrameworkState state) throws Exception
+      {
+         bundle = BenchmarkSupport.installBundle(state.context, "payload-cold", getPayloadHeaders(), PAYLOAD_CLASSES);
+         bundle.start();
+      }
+
+      @TearDown(Level.Invocation)
+      public void uninstallBundle(FrameworkState state) throws Exception
+      {
+         bundle.uninstall();
+         BenchmarkSupport.refreshPackages(state.context, new Bundle[] { bundle });
+         bundle = null;
+      }
+   }
+
+   @State(Scope.Benchmark)
+   public static class WarmState
+   {
+      Bundle bundle;
+
+      @Setup(Level.Trial)
+      public void installBundle(FrameworkState state) throws Exception
+      {
+         bundle = BenchmarkSupport.installBundle(state.context, "payload-warm", getPayloadHeaders(), PAYLOAD_CLASSES);
+         bundle.start();
+         for (Class<?> clazz : PAYLOAD_CLASSES)
+            bundle.loadClass(clazz.getName());
+      }
+   }
+
+   @Benchmark
+   @BenchmarkMode(Mode.SingleShotTime)
+   @OutputTimeUnit(TimeUnit.MICROSECONDS)
+   @Warmup(iterations = 10, batchSize = 1)
+   @Measurement(iterations = 50, batchSize = 1)
+   public void loadClassesCold(ColdState state, Blackhole blackhole) throws Exception
+   {
+      for (Class<?> clazz : PAYLOAD_CLASSES)
+         blackhole.consume(state.bundle.loadClass(clazz.getName()));
+   }
+
+   @Benchmark
+   @BenchmarkMode(Mode.AverageTime)
+   @OutputTimeUnit(TimeUnit.NANOSECONDS)
+   @Warmup(iterations = 5, time = 1)
+   @Measurement(iterations = 10, time = 1)
+   public void loadClassesWarm(WarmState state, Blackhole blackhole) throws Exception
+   {
+      for (Class<?> clazz : PAYLOAD_CLASSES)
+         blackhole.consume(state.bundle.loadClass(clazz.getName()));
+   }
+
+   @Benchmark
+   @BenchmarkMode(Mode.AverageTime)
+   @OutputTimeUnit(TimeUnit.NANOSECONDS)
+   @Warmup(iterations = 5, time = 1)
+   @Measurement(iterations = 10, time = 1)
+   public boolean loadClassNotFound(WarmState state) throws Exception
+   {
+      try
+      {
+         state.bundle.loadClass(PAYLOAD_PACKAGE + ".NotThere");
+         return true;
+      }
+      catch (ClassNotFoundException ex)
+      {
+         return false;
+      }
+   }
+}
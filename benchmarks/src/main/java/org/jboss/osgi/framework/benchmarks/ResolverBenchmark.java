@@ -0,0 +1,119 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+import org.osgi.service.packageadmin.PackageAdmin;
+
+/**
+ * Resolve a chain of installed bundles.
+ *
+ * Every bundle exports its own package and imports the package of its predecessor, so that
+ * the resolver has to wire the complete chain. The bundles are installed before and
+ * uninstalled after every invocation, which makes this a single shot measurement.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 21-Jan-2011
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = 1)
+@Measurement(iterations = 20, batchSize = 1)
+@Fork(1)
+public class ResolverBenchmark
+{
+   @Param({ "10", "100", "500" })
+   public int bundleCount;
+
+   private Framework framework;
+   private BundleContext context;
+   private PackageAdmin packageAdmin;
+   private Bundle[] bundles;
+
+   @Setup(Level.Trial)
+   public void setUp() throws Exception
+   {
+      framework = BenchmarkSupport.startFramework("resolver");
+      context = framework.getBundleContext();
+      packageAdmin = BenchmarkSupport.getPackageAdmin(context);
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() throws Exception
+   {
+      BenchmarkSupport.stopFramework(framework);
+   }
+
+   @Setup(Level.Invocation)
+   public void installBundles() throws Exception
+   {
+      bundles = new Bundle[bundleCount];
+      for (int i = 0; i < bundleCount; i++)
+      {
+         Map<String, String> headers = new HashMap<String, String>();
+         headers.put(Constants.EXPORT_PACKAGE, "org.jboss.osgi.benchmark.chain" + i + ";version=1.0");
+         if (i > 0)
+            headers.put(Constants.IMPORT_PACKAGE, "org.jboss.osgi.benchmark.chain" + (i - 1) + ";version=\"[1.0,2.0)\"");
+         bundles[i] = BenchmarkSupport.installBundle(context, "chain", headers);
+      }
+   }
+
+   @TearDown(Level.Invocation)
+   public void uninstallBundles() throws Exception
+   {
+      for (Bundle bundle : bundles)
+         bundle.uninstall();
+
+      BenchmarkSupport.refreshPackages(context, bundles);
+      bundles = null;
+   }
+
+   @Benchmark
+   public boolean resolveBundles()
+   {
+      boolean resolved = packageAdmin.resolveBundles(bundles);
+      if (resolved == false)
+         throw new IllegalStateException("Cannot resolve bundle chain");
+      return resolved;
+   }
+}
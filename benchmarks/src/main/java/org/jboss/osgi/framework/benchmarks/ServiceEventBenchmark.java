@@ -0,0 +1,133 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.benchmarks;
+
+import static org.jboss.osgi.framework.benchmarks.BenchmarkSupport.SERVICE_INTERFACE;
+
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.osgi.framework.benchmarks.BenchmarkSupport.BenchmarkService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.launch.Framework;
+
+/**
+ * Service event delivery with a given number of registered service listeners.
+ *
+ * Every invocation registers and unregisters a service, which fires a REGISTERED and an
+ * UNREGISTERING event. Half of the listeners filter on the registered interface, the other
+ * half on an interface that is never registered.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 21-Jan-2011
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ServiceEventBenchmark
+{
+   @Param({ "10", "100", "1000" })
+   public int listenerCount;
+
+   @Param({ "true" })
+   public boolean filtered;
+
+   private final AtomicLong eventCount = new AtomicLong();
+   private Framework framework;
+   private BundleContext context;
+   private BenchmarkService service;
+   private Hashtable<String, Object> props;
+
+   @Setup
+   public void setUp() throws Exception
+   {
+      framework = BenchmarkSupport.startFramework("events");
+      context = framework.getBundleContext();
+      service = new BenchmarkService()
+      {
+         public void execute()
+         {
+         }
+      };
+
+      ServiceListener listener = new ServiceListener()
+      {
+         public void serviceChanged(ServiceEvent event)
+         {
+            eventCount.incrementAndGet();
+         }
+      };
+      for (int i = 0; i < listenerCount; i++)
+      {
+         // Every listener must be a distinct object to be registered multiple times
+         final ServiceListener delegate = listener;
+         ServiceListener aux = new ServiceListener()
+         {
+            public void serviceChanged(ServiceEvent event)
+            {
+               delegate.serviceChanged(event);
+            }
+         };
+         if (filtered == false)
+            context.addServiceListener(aux);
+         else if (i % 2 == 0)
+            context.addServiceListener(aux, "(objectClass=" + SERVICE_INTERFACE + ")");
+         else
+            context.addServiceListener(aux, "(objectClass=" + SERVICE_INTERFACE + "." + i + ")");
+      }
+
+      props = new Hashtable<String, Object>();
+      props.put("group", "transient");
+   }
+
+   @TearDown
+   public void tearDown() throws Exception
+   {
+      BenchmarkSupport.stopFramework(framework);
+   }
+
+   @Benchmark
+   public void fireServiceEvents()
+   {
+      ServiceRegistration registration = context.registerService(SERVICE_INTERFACE, service, props);
+      registration.unregister();
+   }
+}
@@ -0,0 +1,127 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.benchmarks;
+
+import static org.jboss.osgi.framework.benchmarks.BenchmarkSupport.SERVICE_INTERFACE;
+
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.osgi.framework.benchmarks.BenchmarkSupport.BenchmarkService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.launch.Framework;
+
+/**
+ * Service registration and lookup with a given number of registered services.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 21-Jan-2011
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ServiceRegistryBenchmark
+{
+   // The number of distinct group property values
+   static final int GROUP_COUNT = 10;
+
+   @Param({ "100", "1000", "10000" })
+   public int serviceCount;
+
+   private Framework framework;
+   private BundleContext context;
+   private BenchmarkService service;
+   private Hashtable<String, Object> props;
+
+   @Setup
+   public void setUp() throws Exception
+   {
+      framework = BenchmarkSupport.startFramework("registry");
+      context = framework.getBundleContext();
+      service = new BenchmarkService()
+      {
+         public void execute()
+         {
+         }
+      };
+
+      for (int i = 0; i < serviceCount; i++)
+      {
+         Hashtable<String, Object> aux = new Hashtable<String, Object>();
+         aux.put("index", Integer.valueOf(i));
+         aux.put("group", "group" + (i % GROUP_COUNT));
+         context.registerService(SERVICE_INTERFACE, service, aux);
+      }
+
+      props = new Hashtable<String, Object>();
+      props.put("group", "transient");
+   }
+
+   @TearDown
+   public void tearDown() throws Exception
+   {
+      BenchmarkSupport.stopFramework(framework);
+   }
+
+   @Benchmark
+   public void registerService()
+   {
+      ServiceRegistration registration = context.registerService(SERVICE_INTERFACE, service, props);
+      registration.unregister();
+   }
+
+   @Benchmark
+   public ServiceReference[] getServiceReferences() throws InvalidSyntaxException
+   {
+      return context.getServiceReferences(SERVICE_INTERFACE, null);
+   }
+
+   @Benchmark
+   public ServiceReference[] getServiceReferencesFiltered() throws InvalidSyntaxException
+   {
+      return context.getServiceReferences(SERVICE_INTERFACE, "(group=group3)");
+   }
+
+   @Benchmark
+   public ServiceReference getServiceReference()
+   {
+      return context.getServiceReference(SERVICE_INTERFACE);
+   }
+}
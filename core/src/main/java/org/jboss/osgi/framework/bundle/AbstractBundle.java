@@ -48,6 +48,8 @@ import org.jboss.osgi.framework.plugin.LifecycleInterceptorPlugin;
 import org.jboss.osgi.framework.plugin.ModuleManagerPlugin;
 import org.jboss.osgi.framework.plugin.ResolverPlugin;
 import org.jboss.osgi.framework.plugin.ServiceManagerPlugin;
+import org.jboss.osgi.framework.plugin.TracePlugin;
+import org.jboss.osgi.framework.plugin.TracePlugin.EventType;
 import org.jboss.osgi.metadata.CaseInsensitiveDictionary;
 import org.jboss.osgi.metadata.OSGiMetaData;
 import org.jboss.osgi.resolver.XCapability;
@@ -102,6 +104,8 @@ public abstract class AbstractBundle implements Bundle
    private final ResolverPlugin resolverPlugin;
    private final ModuleManagerPlugin moduleManager;
    private final ServiceManagerPlugin serviceManager;
+   // The trace plugin, null if tracing is disabled
+   private final TracePlugin tracePlugin;
 
    AbstractBundle(BundleManager bundleManager, String symbolicName, BundleStorageState storageState)
    {
@@ -126,6 +130,7 @@ public abstract class AbstractBundle implements Bundle
       this.moduleManager = bundleManager.getPlugin(ModuleManagerPlugin.class);
       this.resolverPlugin = bundleManager.getPlugin(ResolverPlugin.class);
       this.serviceManager = bundleManager.getPlugin(ServiceManagerPlugin.class);
+      this.tracePlugin = bundleManager.getOptionalPlugin(TracePlugin.class);
    }
 
    /**
@@ -427,6 +432,8 @@ public abstract class AbstractBundle implements Bundle
 
    public void changeState(int state, int bundleEvent)
    {
+      long startTime = (tracePlugin != null ? System.nanoTime() : 0);
+
       // Invoke the bundle lifecycle interceptors
       if (getBundleManager().isFrameworkActive() && getBundleId() != 0)
          interceptorPlugin.handleStateChange(state, getBundleWrapper());
@@ -435,6 +442,9 @@ public abstract class AbstractBundle implements Bundle
 
       // Fire the bundle event
       fireBundleEvent(bundleEvent);
+
+      if (tracePlugin != null)
+         tracePlugin.traceEvent(EventType.BUNDLE_STATE, startTime, System.nanoTime(), this, state);
    }
 
    protected abstract boolean isActivationLazy();
@@ -44,7 +44,6 @@ import org.osgi.framework.BundleException;
 import org.osgi.framework.BundleListener;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkListener;
-import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
@@ -407,7 +406,10 @@ public abstract class AbstractBundleContext implements BundleContext
    public Filter createFilter(String filter) throws InvalidSyntaxException
    {
       checkValidBundleContext();
-      return FrameworkUtil.createFilter(filter);
+      if (filter == null)
+         throw new NullPointerException("Null filter");
+
+      return bundleManager.getFilterCache().compile(filter);
    }
 
    void checkValidBundleContext()
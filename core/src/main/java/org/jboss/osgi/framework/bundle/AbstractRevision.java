@@ -61,6 +61,11 @@ public abstract class AbstractRevision
    private final ResolverPlugin resolverPlugin;
 
    AbstractRevision(AbstractBundle bundleState, OSGiMetaData metadata, XModule resModule, int revision) throws BundleException
+   {
+      this(bundleState, metadata, resModule, null, revision);
+   }
+
+   AbstractRevision(AbstractBundle bundleState, OSGiMetaData metadata, XModule resModule, XModuleBuilder prepared, int revision) throws BundleException
    {
       if (bundleState == null)
          throw new IllegalArgumentException("Null bundleState");
@@ -75,10 +80,12 @@ public abstract class AbstractRevision
       this.moduleManager = bundleManager.getPlugin(ModuleManagerPlugin.class);
       this.resolverPlugin = bundleManager.getPlugin(ResolverPlugin.class);
 
-      // Create the resolver module
+      // Create the resolver module, unless it was already prepared from the same metadata
       if (resModule == null)
       {
-         resModule = createResolverModule(metadata);
+         resModule = getPreparedModule(prepared);
+         if (resModule == null)
+            resModule = createResolverModule(metadata);
          refreshAllowed = true;
       }
 
@@ -128,6 +135,19 @@ public abstract class AbstractRevision
       return resModule;
    }
 
+   private XModule getPreparedModule(XModuleBuilder prepared)
+   {
+      if (prepared == null)
+         return null;
+
+      // The prepared module cannot be used if its identifier is taken already
+      XModule resModule = prepared.getModule();
+      if (resolverPlugin.getModuleById(resModule.getModuleId()) != null)
+         return null;
+
+      return resModule;
+   }
+
    abstract void refreshRevisionInternal(XModule resModule);
 
    public int getRevisionCount()
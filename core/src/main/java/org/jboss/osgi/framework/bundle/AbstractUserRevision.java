@@ -33,6 +33,7 @@ import org.jboss.modules.Module;
 import org.jboss.osgi.deployment.deployer.Deployment;
 import org.jboss.osgi.metadata.OSGiMetaData;
 import org.jboss.osgi.resolver.XModule;
+import org.jboss.osgi.resolver.XModuleBuilder;
 import org.jboss.osgi.vfs.AbstractVFS;
 import org.jboss.osgi.vfs.VirtualFile;
 import org.osgi.framework.BundleException;
@@ -54,7 +55,7 @@ public abstract class AbstractUserRevision extends AbstractRevision
 
    AbstractUserRevision(AbstractUserBundle bundleState, Deployment dep) throws BundleException
    {
-      super(bundleState, getOSGiMetaData(dep), getXModule(dep), getRevision(dep));
+      super(bundleState, getOSGiMetaData(dep), getXModule(dep), getPreparedModule(dep), getRevision(dep));
       this.deployment = dep;
 
       if (dep.getRoot() != null)
@@ -79,6 +80,11 @@ public abstract class AbstractUserRevision extends AbstractRevision
       return dep.getAttachment(XModule.class);
    }
 
+   private static XModuleBuilder getPreparedModule(Deployment dep)
+   {
+      return dep.getAttachment(XModuleBuilder.class);
+   }
+
    private static int getRevision(Deployment dep)
    {
       BundleStorageState storageState = dep.getAttachment(BundleStorageState.class);
@@ -24,10 +24,18 @@ package org.jboss.osgi.framework.bundle;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.jboss.logging.Logger;
@@ -42,6 +50,7 @@ import org.jboss.osgi.framework.plugin.BundleStoragePlugin;
 import org.jboss.osgi.framework.plugin.DeployerServicePlugin;
 import org.jboss.osgi.framework.plugin.FrameworkEventsPlugin;
 import org.jboss.osgi.framework.plugin.LifecycleInterceptorPlugin;
+import org.jboss.osgi.framework.plugin.MetricsPlugin;
 import org.jboss.osgi.framework.plugin.ModuleManagerPlugin;
 import org.jboss.osgi.framework.plugin.NativeCodePlugin;
 import org.jboss.osgi.framework.plugin.PackageAdminPlugin;
@@ -49,22 +58,32 @@ import org.jboss.osgi.framework.plugin.Plugin;
 import org.jboss.osgi.framework.plugin.ResolverPlugin;
 import org.jboss.osgi.framework.plugin.ServiceManagerPlugin;
 import org.jboss.osgi.framework.plugin.StartLevelPlugin;
+import org.jboss.osgi.framework.plugin.StartupReportPlugin;
+import org.jboss.osgi.framework.plugin.StartupReportPlugin.Phase;
 import org.jboss.osgi.framework.plugin.SystemPackagesPlugin;
+import org.jboss.osgi.framework.plugin.TracePlugin;
 import org.jboss.osgi.framework.plugin.internal.AutoInstallPluginImpl;
 import org.jboss.osgi.framework.plugin.internal.BundleDeploymentPluginImpl;
 import org.jboss.osgi.framework.plugin.internal.BundleStoragePluginImpl;
 import org.jboss.osgi.framework.plugin.internal.DefaultDeployerServicePlugin;
 import org.jboss.osgi.framework.plugin.internal.FrameworkEventsPluginImpl;
+import org.jboss.osgi.framework.plugin.internal.JournalBundleStoragePluginImpl;
 import org.jboss.osgi.framework.plugin.internal.LifecycleInterceptorPluginImpl;
+import org.jboss.osgi.framework.plugin.internal.MetricsPluginImpl;
 import org.jboss.osgi.framework.plugin.internal.ModuleManagerPluginImpl;
 import org.jboss.osgi.framework.plugin.internal.NativeCodePluginImpl;
 import org.jboss.osgi.framework.plugin.internal.PackageAdminPluginImpl;
 import org.jboss.osgi.framework.plugin.internal.ResolverPluginImpl;
 import org.jboss.osgi.framework.plugin.internal.ServiceManagerPluginImpl;
 import org.jboss.osgi.framework.plugin.internal.StartLevelPluginImpl;
+import org.jboss.osgi.framework.plugin.internal.StartupReportPluginImpl;
 import org.jboss.osgi.framework.plugin.internal.SystemPackagesPluginImpl;
+import org.jboss.osgi.framework.plugin.internal.TracePluginImpl;
 import org.jboss.osgi.framework.plugin.internal.WebXMLVerifierInterceptor;
+import org.jboss.osgi.framework.util.CompiledFilter;
+import org.jboss.osgi.framework.util.CompiledFilter.FilterCache;
 import org.jboss.osgi.metadata.OSGiMetaData;
+import org.jboss.osgi.resolver.XModuleBuilder;
 import org.jboss.osgi.resolver.XVersionRange;
 import org.jboss.osgi.spi.util.SysPropertyActions;
 import org.osgi.framework.Bundle;
@@ -99,6 +118,8 @@ public class BundleManager
    private ServiceContainer serviceContainer;
    // The Framework state
    private FrameworkState frameworkState;
+   // The cache of compiled filters
+   private final FilterCache filterCache;
    // Flag that indicates the first init of this instance
    private boolean firstInit = true;
 
@@ -128,9 +149,23 @@ public class BundleManager
       ServiceContainer scProp = (ServiceContainer)getProperty(ServiceContainer.class.getName());
       serviceContainer = scProp != null ? scProp : ServiceContainer.Factory.create();
 
+      // Create the filter cache
+      filterCache = new FilterCache(getFilterCacheSize());
+
       // Register the framework plugins
+      Object metrics = getProperty(MetricsPlugin.PROP_JBOSS_OSGI_METRICS);
+      if (metrics != null && Boolean.parseBoolean(metrics.toString()))
+         plugins.put(MetricsPlugin.class, new MetricsPluginImpl(this));
+      Object trace = getProperty(TracePlugin.PROP_JBOSS_OSGI_TRACE);
+      if (trace != null && Boolean.parseBoolean(trace.toString()))
+         plugins.put(TracePlugin.class, new TracePluginImpl(this));
+      plugins.put(StartupReportPlugin.class, new StartupReportPluginImpl(this));
       plugins.put(BundleDeploymentPlugin.class, new BundleDeploymentPluginImpl(this));
-      plugins.put(BundleStoragePlugin.class, new BundleStoragePluginImpl(this));
+      Object storageJournal = getProperty(BundleStoragePlugin.PROP_JBOSS_OSGI_STORAGE_JOURNAL);
+      if (storageJournal != null && Boolean.parseBoolean(storageJournal.toString()))
+         plugins.put(BundleStoragePlugin.class, new JournalBundleStoragePluginImpl(this));
+      else
+         plugins.put(BundleStoragePlugin.class, new BundleStoragePluginImpl(this));
       plugins.put(FrameworkEventsPlugin.class, new FrameworkEventsPluginImpl(this));
       plugins.put(ModuleManagerPlugin.class, new ModuleManagerPluginImpl(this));
       plugins.put(NativeCodePlugin.class, new NativeCodePluginImpl(this));
@@ -179,6 +214,14 @@ public class BundleManager
       return serviceContainer;
    }
 
+   /**
+    * Get the cache of compiled filters that is shared by the bundles of this framework
+    */
+   public FilterCache getFilterCache()
+   {
+      return filterCache;
+   }
+
    public IntegrationMode getIntegrationMode()
    {
       Object value = getProperty(IntegrationMode.class.getName());
@@ -211,6 +254,23 @@ public class BundleManager
       properties.put(key, value);
    }
 
+   private int getFilterCacheSize()
+   {
+      Object value = getProperty(CompiledFilter.PROP_JBOSS_OSGI_FILTER_CACHE_SIZE);
+      if (value != null)
+      {
+         try
+         {
+            return Integer.parseInt(value.toString().trim());
+         }
+         catch (NumberFormatException ex)
+         {
+            log.warnf("Invalid value for %s: %s", CompiledFilter.PROP_JBOSS_OSGI_FILTER_CACHE_SIZE, value);
+         }
+      }
+      return CompiledFilter.DEFAULT_FILTER_CACHE_SIZE;
+   }
+
    public boolean isFrameworkActive()
    {
       // We are active if the system bundle is ACTIVE
@@ -241,6 +301,9 @@ public class BundleManager
       log.tracef("Remove bundle: %s", bundleState);
       bundleState.removeFromResolver();
       bundleMap.remove(bundleState.getBundleId());
+
+      StartupReportPlugin startupReport = getPlugin(StartupReportPlugin.class);
+      startupReport.removeRecords(bundleState);
    }
 
    public void uninstallBundle(Deployment dep) throws BundleException
@@ -443,6 +506,8 @@ public class BundleManager
       if (dep == null)
          throw new IllegalArgumentException("Null deployment");
 
+      long startTime = System.nanoTime();
+
       // Setup the bundle storage area if not done so already
       BundleStorageState storageState = dep.getAttachment(BundleStorageState.class);
       if (storageState == null)
@@ -478,6 +543,9 @@ public class BundleManager
       }
 
       addBundleState(bundleState);
+
+      StartupReportPlugin startupReport = getPlugin(StartupReportPlugin.class);
+      startupReport.recordPhase(bundleState, Phase.INSTALL, startTime, System.nanoTime());
       return bundleState;
    }
 
@@ -488,27 +556,120 @@ public class BundleManager
 
    void installPersistedBundles(List<BundleStorageState> storageStates)
    {
-      BundleDeploymentPlugin deploymentPlugin = getPlugin(BundleDeploymentPlugin.class);
+      // Install the bundles in bundle id order, so that the INSTALLED events are deterministic
+      List<BundleStorageState> sortedStates = new ArrayList<BundleStorageState>();
       for (BundleStorageState storageState : storageStates)
       {
-         long bundleId = storageState.getBundleId();
-         if (bundleId == 0)
-            continue;
-
-         try
+         if (storageState.getBundleId() != 0)
+            sortedStates.add(storageState);
+      }
+      Collections.sort(sortedStates, new Comparator<BundleStorageState>()
+      {
+         public int compare(BundleStorageState s1, BundleStorageState s2)
          {
-            Deployment dep = deploymentPlugin.createDeployment(storageState);
-            installBundle(dep);
+            long id1 = s1.getBundleId();
+            long id2 = s2.getBundleId();
+            return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
          }
-         catch (BundleException ex)
+      });
+
+      // Open the bundle roots, read the manifests and build the resolver modules in parallel
+      final BundleDeploymentPlugin deploymentPlugin = getPlugin(BundleDeploymentPlugin.class);
+      final ResolverPlugin resolverPlugin = getPlugin(ResolverPlugin.class);
+      List<FutureTask<Deployment>> tasks = new ArrayList<FutureTask<Deployment>>();
+      for (final BundleStorageState storageState : sortedStates)
+      {
+         tasks.add(new FutureTask<Deployment>(new Callable<Deployment>()
+         {
+            public Deployment call() throws Exception
+            {
+               Deployment dep = deploymentPlugin.createDeployment(storageState);
+               OSGiMetaData metadata = dep.getAttachment(OSGiMetaData.class);
+               if (metadata != null)
+               {
+                  XModuleBuilder builder = resolverPlugin.getModuleBuilder();
+                  builder.createModule(metadata, storageState.getRevision());
+                  dep.addAttachment(XModuleBuilder.class, builder);
+               }
+               return dep;
+            }
+         }));
+      }
+
+      int poolSize = Math.min(Runtime.getRuntime().availableProcessors(), tasks.size());
+      ExecutorService executor = null;
+      if (poolSize > 1)
+      {
+         executor = Executors.newFixedThreadPool(poolSize, new ThreadFactory()
          {
-            log.errorf(ex, "Cannot install persistet bundle: %s", storageState);
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable)
+            {
+               Thread thread = new Thread(runnable, "OSGi Install-" + threadCount.incrementAndGet());
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+         for (FutureTask<Deployment> task : tasks)
+            executor.execute(task);
+      }
+
+      // Register the bundles serially, in bundle id order
+      try
+      {
+         for (int i = 0; i < tasks.size(); i++)
+         {
+            FutureTask<Deployment> task = tasks.get(i);
+            BundleStorageState storageState = sortedStates.get(i);
+            try
+            {
+               if (executor == null)
+                  task.run();
+
+               Deployment dep = getDeployment(task);
+               installBundle(dep);
+            }
+            catch (BundleException ex)
+            {
+               log.errorf(ex, "Cannot install persistet bundle: %s", storageState);
+            }
          }
       }
+      finally
+      {
+         if (executor != null)
+            executor.shutdown();
+      }
+   }
+
+   private Deployment getDeployment(FutureTask<Deployment> task) throws BundleException
+   {
+      try
+      {
+         return task.get();
+      }
+      catch (InterruptedException ex)
+      {
+         Thread.currentThread().interrupt();
+         throw new BundleException("Interrupted while creating deployment", ex);
+      }
+      catch (ExecutionException ex)
+      {
+         Throwable cause = ex.getCause();
+         if (cause instanceof BundleException)
+            throw (BundleException)cause;
+         if (cause instanceof RuntimeException)
+            throw (RuntimeException)cause;
+         if (cause instanceof Error)
+            throw (Error)cause;
+         throw new BundleException("Cannot create deployment", cause);
+      }
    }
 
    private AbstractBundle createBundle(Deployment dep) throws BundleException
    {
+      long startTime = System.nanoTime();
       BundleDeploymentPlugin deploymentPlugin = getPlugin(BundleDeploymentPlugin.class);
       OSGiMetaData metadata = deploymentPlugin.createOSGiMetaData(dep);
 
@@ -519,7 +680,10 @@ public class BundleManager
 
       // Validate the deployed bundle
       // The system bundle is not validated
+      StartupReportPlugin startupReport = getPlugin(StartupReportPlugin.class);
+      long validateTime = System.nanoTime();
       validateBundle(bundleState);
+      startupReport.recordPhase(bundleState, Phase.VALIDATE, validateTime, System.nanoTime());
 
       // Process the Bundle-NativeCode header if there is one
       if (metadata.getBundleNativeCode() != null)
@@ -529,6 +693,7 @@ public class BundleManager
             nativeCodePlugin.deployNativeCode(dep);
       }
 
+      startupReport.recordPhase(bundleState, Phase.CREATE, startTime, System.nanoTime());
       return bundleState;
    }
 
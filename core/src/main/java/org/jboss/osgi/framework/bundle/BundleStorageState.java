@@ -56,12 +56,56 @@ public final class BundleStorageState
    public static final String PROPERTY_ACTIVATION_POLICY_USED = "ActivationPolicyUsed";
    public static final String BUNDLE_PERSISTENT_PROPERTIES = "bundle-persistent.properties";
 
+   /**
+    * Persists the properties of a bundle storage state.
+    */
+   public interface PropertiesWriter
+   {
+      /**
+       * Write the given properties of the storage state
+       */
+      void writeProperties(BundleStorageState storageState, Properties props) throws IOException;
+
+      /**
+       * Remove the persistent properties of the storage state
+       */
+      void deleteProperties(BundleStorageState storageState);
+   }
+
+   /**
+    * Writes the properties to {@link #BUNDLE_PERSISTENT_PROPERTIES} in the bundle storage dir.
+    */
+   public static final PropertiesWriter FILE_WRITER = new PropertiesWriter()
+   {
+      public void writeProperties(BundleStorageState storageState, Properties props) throws IOException
+      {
+         File propsFile = new File(storageState.getBundleStorageDir() + "/" + BUNDLE_PERSISTENT_PROPERTIES);
+         FileOutputStream output = new FileOutputStream(propsFile);
+         try
+         {
+            props.store(output, "Persistent Bundle Properties");
+         }
+         finally
+         {
+            VFSUtils.safeClose(output);
+         }
+      }
+
+      public void deleteProperties(BundleStorageState storageState)
+      {
+         // The properties file is deleted with the bundle storage dir
+      }
+   };
+
    private final File bundleDir;
-   private final VirtualFile rootFile;
+   private final URL rootURL;
+   // The root of a persisted bundle is opened on first access
+   private volatile VirtualFile rootFile;
    private final Properties props;
    private final String location;
    private final long bundleId;
    private final int revision;
+   private final PropertiesWriter writer;
 
    private long lastModified;
 
@@ -75,15 +119,24 @@ public final class BundleStorageState
    }
 
    public static BundleStorageState createFromStorage(File storageDir) throws IOException
+   {
+      return createFromStorage(storageDir, FILE_WRITER);
+   }
+
+   public static BundleStorageState createFromStorage(File storageDir, PropertiesWriter writer) throws IOException
    {
       Properties props = loadProperties(storageDir);
+      return createFromProperties(storageDir, props, writer);
+   }
 
-      VirtualFile rootFile = null;
+   public static BundleStorageState createFromProperties(File storageDir, Properties props, PropertiesWriter writer) throws IOException
+   {
+      URL rootURL = null;
       String vfsLocation = props.getProperty(PROPERTY_BUNDLE_FILE);
       if (vfsLocation != null)
-         rootFile = AbstractVFS.toVirtualFile(new URL(vfsLocation));
+         rootURL = new URL(vfsLocation);
 
-      return new BundleStorageState(storageDir, rootFile, props);
+      return new BundleStorageState(storageDir, rootURL, null, props, writer);
    }
 
    public static Properties loadProperties(File storageDir) throws FileNotFoundException, IOException
@@ -107,12 +160,17 @@ public final class BundleStorageState
 
    public static BundleStorageState createBundleStorageState(File storageDir, VirtualFile rootFile, Properties props) throws IOException
    {
-      BundleStorageState storageState = new BundleStorageState(storageDir, rootFile, props);
+      return createBundleStorageState(storageDir, rootFile, props, FILE_WRITER);
+   }
+
+   public static BundleStorageState createBundleStorageState(File storageDir, VirtualFile rootFile, Properties props, PropertiesWriter writer) throws IOException
+   {
+      BundleStorageState storageState = new BundleStorageState(storageDir, null, rootFile, props, writer);
       storageState.writeProperties();
       return storageState;
    }
 
-   private BundleStorageState(File bundleDir, VirtualFile rootFile, Properties props) throws IOException
+   private BundleStorageState(File bundleDir, URL rootURL, VirtualFile rootFile, Properties props, PropertiesWriter writer) throws IOException
    {
       if (bundleDir == null)
          throw new IllegalArgumentException("Null storageDir");
@@ -120,14 +178,18 @@ public final class BundleStorageState
          throw new IllegalArgumentException("Not a directory: " + bundleDir);
       if (props == null)
          throw new IllegalArgumentException("Null properties");
+      if (writer == null)
+         throw new IllegalArgumentException("Null writer");
 
       for (String key : requiredProps)
          if (props.get(key) == null)
             throw new IllegalArgumentException("Required property missing: " + key);
 
       this.bundleDir = bundleDir;
+      this.rootURL = rootURL;
       this.rootFile = rootFile;
       this.props = props;
+      this.writer = writer;
 
       this.location = props.getProperty(PROPERTY_BUNDLE_LOCATION);
       this.bundleId = Long.parseLong(props.getProperty(PROPERTY_BUNDLE_ID));
@@ -145,9 +207,33 @@ public final class BundleStorageState
       return location;
    }
 
+   /**
+    * Get the bundle root, which is opened on first access
+    * @throws IllegalStateException if the root cannot be opened
+    */
    public VirtualFile getRootFile()
    {
-      return rootFile;
+      VirtualFile result = rootFile;
+      if (result == null && rootURL != null)
+      {
+         synchronized (this)
+         {
+            result = rootFile;
+            if (result == null)
+            {
+               try
+               {
+                  result = AbstractVFS.toVirtualFile(rootURL);
+                  rootFile = result;
+               }
+               catch (IOException ex)
+               {
+                  throw new IllegalStateException("Cannot open bundle root: " + rootURL, ex);
+               }
+            }
+         }
+      }
+      return result;
    }
 
    public long getBundleId()
@@ -199,6 +285,7 @@ public final class BundleStorageState
 
    public void deleteBundleStorage()
    {
+      writer.deleteProperties(this);
       deleteInternal(bundleDir);
    }
 
@@ -221,16 +308,8 @@ public final class BundleStorageState
    {
       try
       {
-         File propsFile = new File(bundleDir + "/" + BUNDLE_PERSISTENT_PROPERTIES);
-         FileOutputStream output = new FileOutputStream(propsFile);
-         try
-         {
-            props.store(output, "Persistent Bundle Properties");
-         }
-         finally
-         {
-            VFSUtils.safeClose(output);
-         }
+         // Hand a consistent copy to the writer
+         writer.writeProperties(this, (Properties)props.clone());
       }
       catch (IOException ex)
       {
@@ -241,6 +320,7 @@ public final class BundleStorageState
    @Override
    public String toString()
    {
-      return "BundleStorageState[id=" + bundleId + ",location=" + location+ ",file=" + rootFile + "]";
+      Object file = (rootFile != null ? rootFile : rootURL);
+      return "BundleStorageState[id=" + bundleId + ",location=" + location+ ",file=" + file + "]";
    }
 }
\ No newline at end of file
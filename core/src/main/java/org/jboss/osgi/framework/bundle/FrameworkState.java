@@ -40,6 +40,7 @@ import org.jboss.osgi.framework.plugin.FrameworkEventsPlugin;
 import org.jboss.osgi.framework.plugin.Plugin;
 import org.jboss.osgi.framework.plugin.ResolverPlugin;
 import org.jboss.osgi.framework.plugin.StartLevelPlugin;
+import org.jboss.osgi.framework.plugin.StartupReportPlugin;
 import org.jboss.osgi.framework.util.Java;
 import org.jboss.osgi.spi.util.ConstantsHelper;
 import org.jboss.osgi.spi.util.SysPropertyActions;
@@ -271,6 +272,10 @@ public class FrameworkState extends SystemBundle implements Framework
       FrameworkEventsPlugin plugin = getBundleManager().getPlugin(FrameworkEventsPlugin.class);
       plugin.fireFrameworkEvent(this, FrameworkEvent.STARTED, null);
 
+      // Report the bundle lifecycle timings
+      StartupReportPlugin startupReport = getBundleManager().getPlugin(StartupReportPlugin.class);
+      startupReport.frameworkStarted();
+
       log.info("Framework started");
    }
 
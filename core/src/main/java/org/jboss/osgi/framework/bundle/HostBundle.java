@@ -30,6 +30,8 @@ import org.jboss.logging.Logger;
 import org.jboss.osgi.deployment.deployer.Deployment;
 import org.jboss.osgi.deployment.interceptor.LifecycleInterceptorException;
 import org.jboss.osgi.framework.plugin.StartLevelPlugin;
+import org.jboss.osgi.framework.plugin.StartupReportPlugin;
+import org.jboss.osgi.framework.plugin.StartupReportPlugin.Phase;
 import org.jboss.osgi.metadata.ActivationPolicyMetaData;
 import org.jboss.osgi.modules.ModuleActivator;
 import org.jboss.osgi.resolver.XModule;
@@ -56,6 +58,7 @@ public final class HostBundle extends AbstractUserBundle
    private static final Logger log = Logger.getLogger(HostBundle.class);
 
    private final StartLevelPlugin startLevelPlugin;
+   private final StartupReportPlugin startupReport;
    private final AtomicBoolean awaitLazyActivation;
    private final Semaphore activationSemaphore;
 
@@ -67,6 +70,7 @@ public final class HostBundle extends AbstractUserBundle
       super(bundleManager, deployment);
 
       startLevelPlugin = getBundleManager().getOptionalPlugin(StartLevelPlugin.class);
+      startupReport = getBundleManager().getPlugin(StartupReportPlugin.class);
       startLevel = (startLevelPlugin != null ? startLevelPlugin.getInitialBundleStartLevel() : StartLevelPlugin.BUNDLE_STARTLEVEL_UNSPECIFIED);
       awaitLazyActivation = new AtomicBoolean(isActivationLazy());
       activationSemaphore = new Semaphore(1);
@@ -209,7 +213,9 @@ public final class HostBundle extends AbstractUserBundle
          // #1 If this bundle is in the process of being activated or deactivated 
          // then this method must wait  for activation or deactivation to complete before continuing. 
          // If this does not occur in a reasonable time, a BundleException is thrown
+         long waitTime = System.nanoTime();
          aquireActivationLock();
+         startupReport.recordPhase(this, Phase.ACTIVATION_WAIT, waitTime, System.nanoTime());
 
          // #2 If this bundle's state is ACTIVE then this method returns immediately.
          if (getState() == ACTIVE)
@@ -293,6 +299,8 @@ public final class HostBundle extends AbstractUserBundle
 
    private void transitionToActive(int options) throws BundleException
    {
+      long startTime = System.nanoTime();
+
       // #6 This bundle's state is set to STARTING.
       // #7 A bundle event of type BundleEvent.STARTING is fired. 
       try
@@ -309,6 +317,7 @@ public final class HostBundle extends AbstractUserBundle
       String bundleActivatorClassName = resModule.getModuleActivator();
       if (bundleActivatorClassName != null)
       {
+         long activatorTime = System.nanoTime();
          try
          {
             Object result = loadClass(bundleActivatorClassName).newInstance();
@@ -353,6 +362,10 @@ public final class HostBundle extends AbstractUserBundle
 
             throw new BundleException("Cannot start bundle: " + this, ex);
          }
+         finally
+         {
+            startupReport.recordPhase(this, Phase.ACTIVATOR, activatorTime, System.nanoTime());
+         }
       }
 
       // #9 If this bundle's state is UNINSTALLED, because this bundle was uninstalled while 
@@ -364,6 +377,7 @@ public final class HostBundle extends AbstractUserBundle
       // #11 A bundle event of type BundleEvent.STARTED is fired
       changeState(ACTIVE);
 
+      startupReport.recordPhase(this, Phase.ACTIVATE, startTime, System.nanoTime());
       log.infof("Bundle started: %s", this);
    }
 
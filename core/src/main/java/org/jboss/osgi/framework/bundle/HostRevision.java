@@ -32,6 +32,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import org.jboss.logging.Logger;
 import org.jboss.modules.ModuleClassLoader;
 import org.jboss.osgi.deployment.deployer.Deployment;
+import org.jboss.osgi.framework.loading.DynamicImportMatcher;
 import org.jboss.osgi.resolver.XModule;
 import org.jboss.osgi.vfs.VirtualFile;
 import org.osgi.framework.BundleException;
@@ -53,6 +54,7 @@ public class HostRevision extends AbstractUserRevision
    static final Logger log = Logger.getLogger(HostRevision.class);
 
    private List<FragmentRevision> attachedFragments;
+   private volatile DynamicImportMatcher dynamicImportMatcher;
 
    public HostRevision(HostBundle hostBundle, Deployment dep) throws BundleException
    {
@@ -71,6 +73,21 @@ public class HostRevision extends AbstractUserRevision
       // Attach the host bundle
       resModule.addAttachment(HostBundle.class, getBundleState());
       attachedFragments = null;
+      dynamicImportMatcher = null;
+   }
+
+   /**
+    * Get the matcher for the DynamicImport-Package patterns of this revision
+    */
+   public DynamicImportMatcher getDynamicImportMatcher()
+   {
+      DynamicImportMatcher matcher = dynamicImportMatcher;
+      if (matcher == null)
+      {
+         matcher = DynamicImportMatcher.create(getResolverModule());
+         dynamicImportMatcher = matcher;
+      }
+      return matcher;
    }
 
    public void attachFragment(FragmentRevision fragRev)
@@ -5,6 +5,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.modules.DependencySpec;
 import org.jboss.modules.Module;
@@ -17,6 +18,8 @@ public final class OSGiModuleLoader extends ModuleLoader
 {
    // The modules that are registered with this {@link ModuleLoader}
    private Map<ModuleIdentifier, ModuleHolder> modules = new ConcurrentHashMap<ModuleIdentifier, ModuleHolder>();
+   // Changes whenever the framework rewires
+   private final AtomicInteger wiringGeneration = new AtomicInteger();
 
    public OSGiModuleLoader(BundleManager bundleManager)
    {
@@ -51,6 +54,7 @@ public final class OSGiModuleLoader extends ModuleLoader
       if (modules.get(identifier) != null)
          throw new IllegalStateException("Module already exists: " + identifier);
       modules.put(identifier, new ModuleHolder(bundleRev, moduleSpec));
+      incrementWiringGeneration();
    }
 
    public void addModule(AbstractRevision bundleRev, Module module)
@@ -60,6 +64,7 @@ public final class OSGiModuleLoader extends ModuleLoader
          throw new IllegalStateException("Module already exists: " + identifier);
 
       modules.put(identifier, new ModuleHolder(bundleRev, module));
+      incrementWiringGeneration();
    }
 
    public Module removeModule(ModuleIdentifier identifier)
@@ -68,6 +73,7 @@ public final class OSGiModuleLoader extends ModuleLoader
       if (moduleHolder == null)
          return null;
 
+      incrementWiringGeneration();
       Module module = moduleHolder.module;
       if (module.getModuleLoader() == this)
          unloadModuleLocal(module);
@@ -102,6 +108,24 @@ public final class OSGiModuleLoader extends ModuleLoader
    public void setAndRelinkDependencies(Module module, List<DependencySpec> dependencies) throws ModuleLoadException
    {
       super.setAndRelinkDependencies(module, dependencies);
+      incrementWiringGeneration();
+   }
+
+   /**
+    * Get the current wiring generation.
+    * Results that depend on the wiring of the modules are only valid for the generation they were obtained in.
+    */
+   public int getWiringGeneration()
+   {
+      return wiringGeneration.get();
+   }
+
+   /**
+    * Invalidate the results that have been obtained for the current wiring generation
+    */
+   public void incrementWiringGeneration()
+   {
+      wiringGeneration.incrementAndGet();
    }
 
    private ModuleHolder getModuleHolder(ModuleIdentifier identifier)
@@ -21,15 +21,12 @@
 */
 package org.jboss.osgi.framework.bundle;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Dictionary;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -39,9 +36,10 @@ import org.jboss.logging.Logger;
 import org.jboss.msc.service.ServiceName;
 import org.jboss.osgi.framework.plugin.FrameworkEventsPlugin;
 import org.jboss.osgi.framework.plugin.ServiceManagerPlugin;
-import org.jboss.osgi.metadata.CaseInsensitiveDictionary;
+import org.jboss.osgi.framework.plugin.TracePlugin;
+import org.jboss.osgi.framework.plugin.TracePlugin.EventType;
+import org.jboss.osgi.framework.util.ServiceProperties;
 import org.osgi.framework.Bundle;
-import org.osgi.framework.Constants;
 import org.osgi.framework.FrameworkEvent;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceException;
@@ -78,15 +76,15 @@ public class ServiceState implements ServiceRegistration, ServiceReference
    // The service object value
    private Object value;
 
-   // The properties
-   private CaseInsensitiveDictionary prevProperties;
-   private CaseInsensitiveDictionary currProperties;
+   // The immutable snapshot of the current properties
+   private volatile ServiceProperties currProperties;
 
    // Cache commonly used plugins
    private ServiceManagerPlugin serviceManager;
    private FrameworkEventsPlugin eventsPlugin;
+   // The trace plugin, null if tracing is disabled
+   private TracePlugin tracePlugin;
 
-   @SuppressWarnings("unchecked")
    public ServiceState(AbstractBundle owner, long serviceId, ServiceName[] serviceNames, String[] clazzes, Object value, Dictionary properties)
    {
       if (owner == null)
@@ -100,6 +98,7 @@ public class ServiceState implements ServiceRegistration, ServiceReference
 
       this.serviceManager = owner.getServiceManagerPlugin();
       this.eventsPlugin = owner.getFrameworkEventsPlugin();
+      this.tracePlugin = owner.getBundleManager().getOptionalPlugin(TracePlugin.class);
 
       this.serviceNames = Arrays.asList(serviceNames);
       this.serviceId = serviceId;
@@ -109,12 +108,7 @@ public class ServiceState implements ServiceRegistration, ServiceReference
       if (checkValidClassNames(owner, clazzes, value) == false)
          throw new IllegalArgumentException("Invalid object class in: " + Arrays.asList(clazzes));
 
-      if (properties == null)
-         properties = new Hashtable();
-
-      properties.put(Constants.SERVICE_ID, serviceId);
-      properties.put(Constants.OBJECTCLASS, clazzes);
-      this.currProperties = new CaseInsensitiveDictionary(properties);
+      this.currProperties = new ServiceProperties(properties, serviceId, clazzes, 0);
 
       // Create the {@link ServiceRegistration} and {@link ServiceReference}
       this.registration = new ServiceRegistrationWrapper(this);
@@ -241,40 +235,42 @@ public class ServiceState implements ServiceRegistration, ServiceReference
    @Override
    public String[] getPropertyKeys()
    {
-      List<String> result = new ArrayList<String>();
-      if (currProperties != null)
-      {
-         Enumeration<String> keys = currProperties.keys();
-         while (keys.hasMoreElements())
-            result.add(keys.nextElement());
-      }
-      return result.toArray(new String[result.size()]);
+      return currProperties.getKeys();
+   }
+
+   /**
+    * Get the current snapshot of the service properties
+    */
+   public ServiceProperties getProperties()
+   {
+      return currProperties;
    }
 
    @Override
-   @SuppressWarnings({ "unchecked" })
    public void setProperties(Dictionary properties)
    {
       assertNotUnregistered();
+      long startTime = (tracePlugin != null ? System.nanoTime() : 0);
 
-      // Remember the previous properties for a potential
-      // delivery of the MODIFIED_ENDMATCH event
-      prevProperties = currProperties;
-
-      if (properties == null)
-         properties = new Hashtable();
+      // The previous properties are needed for a potential delivery of the MODIFIED_ENDMATCH event.
+      // Both snapshots are passed on, so that concurrent or nested modifications do not interfere
+      ServiceProperties previous;
+      ServiceProperties current;
+      synchronized (this)
+      {
+         previous = currProperties;
+         current = new ServiceProperties(properties, serviceId, previous.getObjectClass(), previous.getVersion() + 1);
+         currProperties = current;
+      }
 
-      properties.put(Constants.SERVICE_ID, currProperties.get(Constants.SERVICE_ID));
-      properties.put(Constants.OBJECTCLASS, currProperties.get(Constants.OBJECTCLASS));
-      currProperties = new CaseInsensitiveDictionary(properties);
+      // Update the sort order in the service registry
+      serviceManager.updateServiceProperties(this, previous, current);
 
       // This event is synchronously delivered after the service properties have been modified.
-      eventsPlugin.fireServiceEvent(ownerBundle, ServiceEvent.MODIFIED, this);
-   }
+      eventsPlugin.fireServiceEvent(ownerBundle, ServiceEvent.MODIFIED, this, previous, current);
 
-   public Dictionary getPreviousProperties()
-   {
-      return prevProperties;
+      if (tracePlugin != null)
+         tracePlugin.traceEvent(EventType.SERVICE_MODIFY, startTime, System.nanoTime(), this, null);
    }
 
    public AbstractBundle getServiceOwner()
@@ -395,11 +391,7 @@ public class ServiceState implements ServiceRegistration, ServiceReference
 
    int getServiceRanking()
    {
-      Object prop = getProperty(Constants.SERVICE_RANKING);
-      if (prop instanceof Integer == false)
-         return 0;
-
-      return ((Integer)prop).intValue();
+      return currProperties.getServiceRanking();
    }
 
    public boolean isUnregistered()
@@ -451,13 +443,9 @@ public class ServiceState implements ServiceRegistration, ServiceReference
    }
 
    @Override
-   @SuppressWarnings("unchecked")
    public String toString()
    {
-      Hashtable<String, Object> props = new Hashtable<String, Object>(currProperties);
-      String[] classes = (String[])props.get(Constants.OBJECTCLASS);
-      props.put(Constants.OBJECTCLASS, Arrays.asList(classes));
-      return "ServiceState" + props;
+      return "ServiceState" + currProperties;
    }
 
    class ServiceFactoryHolder
@@ -488,7 +476,7 @@ public class ServiceState implements ServiceRegistration, ServiceReference
 
                // The Framework will check if the returned service object is an instance of all the
                // classes named when the service was registered. If not, then null is returned to the bundle.
-               if (checkValidClassNames(ownerBundle, (String[])getProperty(Constants.OBJECTCLASS), retValue) == false)
+               if (checkValidClassNames(ownerBundle, currProperties.getObjectClass(), retValue) == false)
                   return null;
 
                value = retValue;
@@ -0,0 +1,148 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.framework.loading;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.osgi.resolver.XModule;
+import org.jboss.osgi.resolver.XPackageRequirement;
+
+/**
+ * Matches class names against the DynamicImport-Package patterns of a bundle revision.
+ *
+ * The patterns are compiled once into the set of exact package names, the set of
+ * wildcard prefixes and a match-all flag. A match does not allocate.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 19-Jan-2011
+ */
+public final class DynamicImportMatcher
+{
+   /** A matcher for a revision without dynamic imports */
+   public static final DynamicImportMatcher NONE = new DynamicImportMatcher(new String[0], new String[0], new String[0], null);
+
+   private final String[] exactNames;
+   private final String[] wildcardPrefixes;
+   private final String[] wildcardPatterns;
+   private final String matchAll;
+
+   private DynamicImportMatcher(String[] exactNames, String[] wildcardPrefixes, String[] wildcardPatterns, String matchAll)
+   {
+      this.exactNames = exactNames;
+      this.wildcardPrefixes = wildcardPrefixes;
+      this.wildcardPatterns = wildcardPatterns;
+      this.matchAll = matchAll;
+   }
+
+   /**
+    * Compile the dynamic package requirements of the given resolver module
+    */
+   public static DynamicImportMatcher create(XModule resModule)
+   {
+      List<XPackageRequirement> dynamicRequirements = resModule.getDynamicPackageRequirements();
+      if (dynamicRequirements.isEmpty())
+         return NONE;
+
+      List<String> patterns = new ArrayList<String>();
+      for (XPackageRequirement dynreq : dynamicRequirements)
+         patterns.add(dynreq.getName());
+
+      return create(patterns);
+   }
+
+   /**
+    * Compile the given DynamicImport-Package patterns
+    */
+   public static DynamicImportMatcher create(List<String> patterns)
+   {
+      if (patterns.isEmpty())
+         return NONE;
+
+      List<String> exactNames = new ArrayList<String>();
+      List<String> wildcardPrefixes = new ArrayList<String>();
+      List<String> wildcardPatterns = new ArrayList<String>();
+      for (String pattern : patterns)
+      {
+         if (pattern.equals("*"))
+            return new DynamicImportMatcher(new String[0], new String[0], new String[0], pattern);
+
+         if (pattern.endsWith(".*"))
+         {
+            wildcardPrefixes.add(pattern.substring(0, pattern.length() - 2));
+            wildcardPatterns.add(pattern);
+         }
+         else
+         {
+            exactNames.add(pattern);
+         }
+      }
+
+      String[] exactArr = exactNames.toArray(new String[exactNames.size()]);
+      String[] prefixArr = wildcardPrefixes.toArray(new String[wildcardPrefixes.size()]);
+      String[] patternArr = wildcardPatterns.toArray(new String[wildcardPatterns.size()]);
+      return new DynamicImportMatcher(exactArr, prefixArr, patternArr, null);
+   }
+
+   /**
+    * True if there are no dynamic imports
+    */
+   public boolean isEmpty()
+   {
+      return matchAll == null && exactNames.length == 0 && wildcardPrefixes.length == 0;
+   }
+
+   /**
+    * Find the pattern that matches the package of the given class.
+    *
+    * An exact pattern matches its package. A wildcard pattern matches its package and all sub packages.
+    * @return The matching pattern or null
+    */
+   public String findMatchingPattern(String className)
+   {
+      if (matchAll != null)
+         return matchAll;
+
+      int packageLength = className.lastIndexOf('.');
+      if (packageLength < 0)
+         return null;
+
+      for (String name : exactNames)
+      {
+         if (name.length() == packageLength && className.startsWith(name))
+            return name;
+      }
+
+      for (int i = 0; i < wildcardPrefixes.length; i++)
+      {
+         String prefix = wildcardPrefixes[i];
+         int prefixLength = prefix.length();
+         if (prefixLength > packageLength || className.startsWith(prefix) == false)
+            continue;
+
+         if (prefixLength == packageLength || className.charAt(prefixLength) == '.')
+            return wildcardPatterns[i];
+      }
+
+      return null;
+   }
+}
@@ -31,9 +31,14 @@ import org.jboss.logging.Logger;
 import org.jboss.modules.ClassSpec;
 import org.jboss.modules.ConcurrentClassLoader;
 import org.jboss.modules.LocalLoader;
+import org.jboss.modules.PathFilters;
 import org.jboss.modules.Resource;
+import org.jboss.osgi.framework.bundle.BundleManager;
 import org.jboss.osgi.framework.bundle.FragmentRevision;
 import org.jboss.osgi.framework.bundle.HostRevision;
+import org.jboss.osgi.framework.plugin.MetricsPlugin;
+import org.jboss.osgi.framework.plugin.TracePlugin;
+import org.jboss.osgi.framework.plugin.TracePlugin.EventType;
 import org.jboss.osgi.vfs.VFSUtils;
 
 /**
@@ -50,6 +55,8 @@ public class FragmentLocalLoader extends ConcurrentClassLoader implements LocalL
    private final FragmentRevision fragRevision;
    private final VirtualFileResourceLoader resourceLoader;
    private final Set<String> paths;
+   // The trace plugin, null if tracing is disabled
+   private final TracePlugin tracePlugin;
 
    public FragmentLocalLoader(FragmentRevision fragRevision)
    {
@@ -57,7 +64,12 @@ public class FragmentLocalLoader extends ConcurrentClassLoader implements LocalL
          throw new IllegalArgumentException("Null fragmentRev");
 
       this.fragRevision = fragRevision;
-      this.resourceLoader = new VirtualFileResourceLoader(fragRevision.getFirstContentRoot());
+      BundleManager bundleManager = fragRevision.getBundleState().getBundleManager();
+      MetricsPlugin metrics = bundleManager.getOptionalPlugin(MetricsPlugin.class);
+      this.tracePlugin = bundleManager.getOptionalPlugin(TracePlugin.class);
+
+      // The fragment loader traces the read and the definition of a class as a whole
+      this.resourceLoader = new VirtualFileResourceLoader(fragRevision.getFirstContentRoot(), PathFilters.acceptAll(), metrics, null);
       this.paths = Collections.unmodifiableSet(new HashSet<String>(resourceLoader.getPaths()));
    }
 
@@ -102,6 +114,8 @@ public class FragmentLocalLoader extends ConcurrentClassLoader implements LocalL
          return null;
       }
 
+      long startTime = (tracePlugin != null ? System.nanoTime() : 0);
+
       // Check to see if we can define it locally it
       final ClassSpec classSpec;
       try
@@ -133,6 +147,9 @@ public class FragmentLocalLoader extends ConcurrentClassLoader implements LocalL
          return null;
       }
 
+      if (tracePlugin != null)
+         tracePlugin.traceEvent(EventType.CLASS_DEFINE, startTime, System.nanoTime(), fragRevision, className);
+
       if (resolve)
       {
          resolveClass(result);
@@ -37,10 +37,13 @@ import org.jboss.osgi.framework.bundle.AbstractBundle;
 import org.jboss.osgi.framework.bundle.AbstractRevision;
 import org.jboss.osgi.framework.bundle.BundleManager;
 import org.jboss.osgi.framework.bundle.HostBundle;
+import org.jboss.osgi.framework.bundle.HostRevision;
+import org.jboss.osgi.framework.bundle.OSGiModuleLoader;
+import org.jboss.osgi.framework.plugin.MetricsPlugin;
 import org.jboss.osgi.framework.plugin.ModuleManagerPlugin;
+import org.jboss.osgi.framework.util.StripedCounter;
 import org.jboss.osgi.resolver.XModule;
-import org.jboss.osgi.resolver.XPackageRequirement;
-import org.jboss.osgi.vfs.VFSUtils;
+import org.jboss.osgi.resolver.XPackageCapability;
 import org.osgi.framework.Bundle;
 
 /**
@@ -54,17 +57,29 @@ public class HostBundleFallbackLoader implements LocalLoader
    // Provide logging
    private static final Logger log = Logger.getLogger(HostBundleFallbackLoader.class);
 
+   // The default max size of the negative class cache
+   static final int DEFAULT_NEGATIVE_CACHE_SIZE = 256;
+
    private static ThreadLocal<Map<String, AtomicInteger>> dynamicLoadAttempts;
    private final ModuleManagerPlugin moduleManager;
    private final BundleManager bundleManager;
    private final ModuleIdentifier identifier;
-   
+   private final NegativeClassCache negativeCache;
+   // The metrics, null if metrics are disabled
+   private final StripedCounter missCount;
+
    public HostBundleFallbackLoader(HostBundle hostBundle, ModuleIdentifier identifier)
    {
       this.identifier = identifier;
 
       bundleManager = hostBundle.getBundleManager();
       moduleManager = bundleManager.getPlugin(ModuleManagerPlugin.class);
+
+      int cacheSize = getNegativeCacheSize();
+      negativeCache = (cacheSize > 0 ? new NegativeClassCache(cacheSize) : null);
+
+      MetricsPlugin metrics = bundleManager.getOptionalPlugin(MetricsPlugin.class);
+      missCount = (metrics != null ? metrics.getCounter(MetricsPlugin.CLASSLOADER_MISSES) : null);
    }
 
    @Override
@@ -74,15 +89,32 @@ public class HostBundleFallbackLoader implements LocalLoader
       String matchingPattern = findMatchingDynamicImportPattern(className);
       if (matchingPattern != null)
       {
-         Class<?> result = loadClassDynamically(className);
+         // Known misses in the current wiring do not walk the modules again
+         OSGiModuleLoader moduleLoader = moduleManager.getModuleLoader();
+         int wiringGeneration = moduleLoader.getWiringGeneration();
+         if (negativeCache != null && negativeCache.contains(className, wiringGeneration))
+         {
+            log.tracef("Class [%s] is known to be not loadable dynamically", className);
+            return countMiss();
+         }
+
+         Class<?> result = loadClassDynamically(className, wiringGeneration);
          if (result != null)
             return result;
       }
 
+      // The fallback loader is the last resort of the bundle class loader
+      return countMiss();
+   }
+
+   private Class<?> countMiss()
+   {
+      if (missCount != null)
+         missCount.increment();
       return null;
    }
 
-   private Class<?> loadClassDynamically(String className)
+   private Class<?> loadClassDynamically(String className, int wiringGeneration)
    {
       Class<?> result;
 
@@ -106,13 +138,20 @@ public class HostBundleFallbackLoader implements LocalLoader
 
          if (recursiveDepth.incrementAndGet() == 1)
          {
-            result = findInResolvedModules(className);
+            int lastDot = className.lastIndexOf('.');
+            String packageName = (lastDot > 0 ? className.substring(0, lastDot) : "");
+
+            result = findInResolvedModules(className, packageName);
             if (result != null)
                return result;
 
-            result = findInUnresolvedModules(className);
+            result = findInUnresolvedModules(className, packageName);
             if (result != null)
                return result;
+
+            // Remember the miss for the wiring it was observed in
+            if (negativeCache != null)
+               negativeCache.add(className, wiringGeneration);
          }
       }
       finally
@@ -132,37 +171,34 @@ public class HostBundleFallbackLoader implements LocalLoader
       return null;
    }
 
-   private String findMatchingDynamicImportPattern(String className)
+   private int getNegativeCacheSize()
    {
-      AbstractRevision bundleRev = moduleManager.getBundleRevision(identifier);
-      XModule resModule = bundleRev.getResolverModule();
-      List<XPackageRequirement> dynamicRequirements = resModule.getDynamicPackageRequirements();
-      if (dynamicRequirements.isEmpty())
-         return null;
+      Object value = bundleManager.getProperty(ModuleManagerPlugin.PROP_JBOSS_OSGI_NEGATIVE_CLASS_CACHE_SIZE);
+      if (value == null)
+         return DEFAULT_NEGATIVE_CACHE_SIZE;
 
-      String foundMatch = null;
-
-      for (XPackageRequirement dynreq : dynamicRequirements)
+      try
       {
-         String pattern = dynreq.getName();
-         if (pattern.equals("*"))
-         {
-            foundMatch = pattern;
-            break;
-         }
+         return Integer.parseInt(value.toString().trim());
+      }
+      catch (NumberFormatException ex)
+      {
+         log.warnf("Invalid value for %s: %s", ModuleManagerPlugin.PROP_JBOSS_OSGI_NEGATIVE_CLASS_CACHE_SIZE, value);
+         return DEFAULT_NEGATIVE_CACHE_SIZE;
+      }
+   }
 
-         if (pattern.endsWith(".*"))
-            pattern = pattern.substring(0, pattern.length() - 2);
+   private String findMatchingDynamicImportPattern(String className)
+   {
+      AbstractRevision bundleRev = moduleManager.getBundleRevision(identifier);
+      if (bundleRev instanceof HostRevision == false)
+         return null;
 
-         pattern = pattern.replace('.', '/');
-         String path = VFSUtils.getPathFromClassName(className);
-         if (path.startsWith(pattern))
-         {
-            foundMatch = pattern;
-            break;
-         }
-      }
+      DynamicImportMatcher matcher = ((HostRevision)bundleRev).getDynamicImportMatcher();
+      if (matcher.isEmpty())
+         return null;
 
+      String foundMatch = matcher.findMatchingPattern(className);
       if (foundMatch != null)
          log.tracef("Found match for class [%s] with Dynamic-ImportPackage pattern: %s", className, foundMatch);
       else
@@ -171,17 +207,19 @@ public class HostBundleFallbackLoader implements LocalLoader
       return foundMatch;
    }
 
-   private Class<?> findInResolvedModules(String className)
+   private Class<?> findInResolvedModules(String className, String packageName)
    {
       log.tracef("Attempt to find class dynamically in resolved modules ...");
 
-      // Iterate over all registered modules
-      for (ModuleIdentifier aux : moduleManager.getModuleIdentifiers())
+      // Iterate over the registered modules that export the package
+      for (ModuleIdentifier aux : moduleManager.getExportingModules(packageName))
       {
          // Try to load the class from the candidate
          try
          {
             Module candidate = moduleManager.getModule(aux);
+            if (candidate == null)
+               continue;
 
             log.tracef("Attempt to find class dynamically [%s] in %s ...", className, candidate);
 
@@ -201,7 +239,7 @@ public class HostBundleFallbackLoader implements LocalLoader
       return null;
    }
 
-   private Class<?> findInUnresolvedModules(String className)
+   private Class<?> findInUnresolvedModules(String className, String packageName)
    {
       log.tracef("Attempt to find class dynamically in unresolved modules ...");
 
@@ -211,8 +249,12 @@ public class HostBundleFallbackLoader implements LocalLoader
          if (aux.getState() != Bundle.INSTALLED)
             continue;
 
-         // Attempt to resolve the bundle
+         // Only resolve bundles that export the package
          AbstractBundle bundle = AbstractBundle.assertBundleState(aux);
+         if (isExporter(bundle.getResolverModule(), packageName) == false)
+            continue;
+
+         // Attempt to resolve the bundle
          if (bundle.ensureResolved(false) == false)
             continue;
 
@@ -241,6 +283,16 @@ public class HostBundleFallbackLoader implements LocalLoader
       return null;
    }
 
+   private boolean isExporter(XModule resModule, String packageName)
+   {
+      for (XPackageCapability cap : resModule.getPackageCapabilities())
+      {
+         if (cap.getName().equals(packageName))
+            return true;
+      }
+      return false;
+   }
+
    @Override
    public List<Resource> loadResourceLocal(String name)
    {
@@ -0,0 +1,89 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.framework.loading;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of class names that could not be loaded by a bundle revision.
+ *
+ * The cache is scoped to a wiring generation. When it is accessed with a different
+ * generation, all entries are discarded. The oldest entry is evicted when the max size is reached.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 19-Jan-2011
+ */
+final class NegativeClassCache
+{
+   private final Map<String, Boolean> entries;
+   private int generation;
+
+   NegativeClassCache(final int maxSize)
+   {
+      if (maxSize < 1)
+         throw new IllegalArgumentException("Invalid max size: " + maxSize);
+
+      entries = new LinkedHashMap<String, Boolean>(16, 0.75f, true)
+      {
+         private static final long serialVersionUID = 1L;
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest)
+         {
+            return size() > maxSize;
+         }
+      };
+   }
+
+   /**
+    * True if the class is known to be not loadable in the given wiring generation
+    */
+   synchronized boolean contains(String className, int wiringGeneration)
+   {
+      if (generation != wiringGeneration)
+      {
+         entries.clear();
+         generation = wiringGeneration;
+         return false;
+      }
+      return entries.get(className) != null;
+   }
+
+   /**
+    * Remember a class that could not be loaded in the given wiring generation
+    */
+   synchronized void add(String className, int wiringGeneration)
+   {
+      if (generation != wiringGeneration)
+      {
+         entries.clear();
+         generation = wiringGeneration;
+      }
+      entries.put(className, Boolean.TRUE);
+   }
+
+   synchronized int size()
+   {
+      return entries.size();
+   }
+}
@@ -21,11 +21,16 @@
 */
 package org.jboss.osgi.framework.loading;
 
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
@@ -40,6 +45,10 @@ import org.jboss.modules.PathFilter;
 import org.jboss.modules.PathFilters;
 import org.jboss.modules.Resource;
 import org.jboss.modules.ResourceLoader;
+import org.jboss.osgi.framework.plugin.MetricsPlugin;
+import org.jboss.osgi.framework.plugin.TracePlugin;
+import org.jboss.osgi.framework.plugin.TracePlugin.EventType;
+import org.jboss.osgi.framework.util.StripedCounter;
 import org.jboss.osgi.vfs.VFSUtils;
 import org.jboss.osgi.vfs.VirtualFile;
 
@@ -51,16 +60,46 @@ import org.jboss.osgi.vfs.VirtualFile;
  */
 public final class VirtualFileResourceLoader implements ResourceLoader
 {
+   // The max size of the per thread read buffer that is retained between class loads
+   private static final int MAX_RETAINED_BUFFER = 256 * 1024;
+   private static final ThreadLocal<byte[]> readBuffer = new ThreadLocal<byte[]>()
+   {
+      protected byte[] initialValue()
+      {
+         return new byte[8 * 1024];
+      }
+   };
+
    private final VirtualFile virtualFile;
    private final Set<String> localPaths;
+   // The sorted names of all entries and directories in the root
+   private final String[] entryIndex;
    private final PathFilter exportFilter;
+   // The root directory of an exploded archive, otherwise null
+   private final File rootDir;
+   // The metrics, null if metrics are disabled
+   private final StripedCounter defineCount;
+   private final StripedCounter definedBytes;
+   // The trace plugin, null if tracing is disabled
+   private final TracePlugin tracePlugin;
 
    public VirtualFileResourceLoader(VirtualFile virtualFile)
    {
-      this(virtualFile, PathFilters.acceptAll());
+      this(virtualFile, PathFilters.acceptAll(), null, null);
    }
 
    public VirtualFileResourceLoader(VirtualFile virtualFile, PathFilter exportFilter)
+   {
+      this(virtualFile, exportFilter, null, null);
+   }
+
+   /**
+    * Create a resource loader that counts the class definitions in the given metrics
+    * and traces the class reads that take longer than the trace threshold
+    * @param metrics The metrics or null
+    * @param tracePlugin The trace plugin or null
+    */
+   public VirtualFileResourceLoader(VirtualFile virtualFile, PathFilter exportFilter, MetricsPlugin metrics, TracePlugin tracePlugin)
    {
       if (virtualFile == null)
          throw new IllegalArgumentException("Null virtualFile");
@@ -69,7 +108,14 @@ public final class VirtualFileResourceLoader implements ResourceLoader
 
       this.virtualFile = virtualFile;
       this.exportFilter = exportFilter;
-      this.localPaths = getLocalPaths();
+      Set<String> entryNames = new HashSet<String>();
+      this.localPaths = getLocalPaths(entryNames);
+      this.entryIndex = entryNames.toArray(new String[entryNames.size()]);
+      Arrays.sort(entryIndex);
+      this.rootDir = getRootDir(virtualFile);
+      this.defineCount = (metrics != null ? metrics.getCounter(MetricsPlugin.CLASSLOADER_DEFINES) : null);
+      this.definedBytes = (metrics != null ? metrics.getCounter(MetricsPlugin.CLASSLOADER_DEFINED_BYTES) : null);
+      this.tracePlugin = tracePlugin;
    }
 
    @Override
@@ -87,18 +133,112 @@ public final class VirtualFileResourceLoader implements ResourceLoader
    @Override
    public ClassSpec getClassSpec(String fileName) throws IOException
    {
+      // Definite misses do not touch the virtual file
+      if (hasEntry(fileName) == false)
+         return null;
+
+      long startTime = (tracePlugin != null ? System.nanoTime() : 0);
+
+      // Exploded archives are read from the file directly
+      ClassSpec spec = new ClassSpec();
+      File file = (rootDir != null ? new File(rootDir, fileName) : null);
+      if (file != null && file.isFile())
+      {
+         spec.setBytes(readBytes(file));
+         return countDefine(spec, startTime, fileName);
+      }
+
       VirtualFile child = virtualFile.getChild(fileName);
       if (child == null)
          return null;
 
-      ClassSpec spec = new ClassSpec();
-      InputStream is = child.openStream();
+      spec.setBytes(readBytes(child.openStream()));
+      return countDefine(spec, startTime, fileName);
+   }
+
+   private ClassSpec countDefine(ClassSpec spec, long startTime, String fileName)
+   {
+      if (defineCount != null)
+      {
+         defineCount.increment();
+         definedBytes.add(spec.getBytes().length);
+      }
+      if (tracePlugin != null)
+         tracePlugin.traceEvent(EventType.CLASS_READ, startTime, System.nanoTime(), getRootName(), fileName);
+      return spec;
+   }
+
+   /**
+    * True if the root contains an entry or directory with the given name
+    */
+   boolean hasEntry(String name)
+   {
+      if (name == null)
+         return false;
+
+      String entryName = getEntryName(name);
+      return entryName.length() == 0 || Arrays.binarySearch(entryIndex, entryName) >= 0;
+   }
+
+   private static String getEntryName(String path)
+   {
+      int start = 0;
+      int end = path.length();
+      while (start < end && path.charAt(start) == '/')
+         start++;
+      while (end > start && path.charAt(end - 1) == '/')
+         end--;
+      return path.substring(start, end);
+   }
+
+   /**
+    * Read the file through its channel into an array of the exact file size
+    */
+   private static byte[] readBytes(File file) throws IOException
+   {
+      FileInputStream fis = new FileInputStream(file);
       try
       {
-         ByteArrayOutputStream os = new ByteArrayOutputStream(1024);
-         VFSUtils.copyStream(is, os);
-         spec.setBytes(os.toByteArray());
-         return spec;
+         FileChannel channel = fis.getChannel();
+         long size = channel.size();
+         if (size > Integer.MAX_VALUE)
+            throw new IOException("File too large: " + file);
+
+         byte[] bytes = new byte[(int)size];
+         ByteBuffer buffer = ByteBuffer.wrap(bytes);
+         while (buffer.hasRemaining())
+         {
+            if (channel.read(buffer) < 0)
+               return Arrays.copyOf(bytes, buffer.position());
+         }
+         return bytes;
+      }
+      finally
+      {
+         fis.close();
+      }
+   }
+
+   /**
+    * Read the stream through a per thread buffer, so that only the result array is allocated
+    */
+   private static byte[] readBytes(InputStream is) throws IOException
+   {
+      try
+      {
+         byte[] buffer = readBuffer.get();
+         int count = 0;
+         int read;
+         while ((read = is.read(buffer, count, buffer.length - count)) >= 0)
+         {
+            count += read;
+            if (count == buffer.length)
+               buffer = Arrays.copyOf(buffer, buffer.length * 2);
+         }
+         if (buffer.length <= MAX_RETAINED_BUFFER)
+            readBuffer.set(buffer);
+
+         return Arrays.copyOf(buffer, count);
       }
       finally
       {
@@ -106,6 +246,33 @@ public final class VirtualFileResourceLoader implements ResourceLoader
       }
    }
 
+   private static File getRootDir(VirtualFile virtualFile)
+   {
+      try
+      {
+         URL url = virtualFile.toURL();
+         if ("file".equals(url.getProtocol()))
+         {
+            File file = new File(url.toURI());
+            if (file.isDirectory())
+               return file;
+         }
+      }
+      catch (URISyntaxException ex)
+      {
+         // ignore
+      }
+      catch (IOException ex)
+      {
+         // ignore
+      }
+      catch (IllegalArgumentException ex)
+      {
+         // ignore
+      }
+      return null;
+   }
+
    @Override
    public PackageSpec getPackageSpec(String name) throws IOException
    {
@@ -139,6 +306,10 @@ public final class VirtualFileResourceLoader implements ResourceLoader
    @Override
    public Resource getResource(String name)
    {
+      // Definite misses do not touch the virtual file
+      if (hasEntry(name) == false)
+         return null;
+
       try
       {
          VirtualFile child = virtualFile.getChild(name);
@@ -165,7 +336,7 @@ public final class VirtualFileResourceLoader implements ResourceLoader
       return localPaths;
    }
 
-   private Set<String> getLocalPaths()
+   private Set<String> getLocalPaths(Set<String> entryNames)
    {
       Set<String> result = new HashSet<String>();
       try
@@ -174,6 +345,15 @@ public final class VirtualFileResourceLoader implements ResourceLoader
          while (entryPaths.hasMoreElements())
          {
             String entryPath = entryPaths.nextElement();
+
+            // Keep the entry and its parent directories in the index
+            String entryName = getEntryName(entryPath);
+            while (entryName.length() > 0 && entryNames.add(entryName))
+            {
+               int inx = entryName.lastIndexOf("/");
+               entryName = (inx > 0 ? entryName.substring(0, inx) : "");
+            }
+
             if (entryPath.endsWith("/"))
                continue;
 
@@ -190,7 +370,7 @@ public final class VirtualFileResourceLoader implements ResourceLoader
       return Collections.unmodifiableSet(result);
    }
 
-   private void safeClose(final Closeable closeable)
+   private static void safeClose(final Closeable closeable)
    {
       if (closeable != null)
       {
@@ -35,6 +35,11 @@ import org.osgi.framework.BundleException;
  */
 public interface BundleDeploymentPlugin extends Plugin
 {
+   /**
+    * Set to 'false' to disable the warm-start cache of bundle manifests in the bundle storage area.
+    */
+   String PROP_JBOSS_OSGI_DEPLOYMENT_CACHE = "org.jboss.osgi.deployment.cache";
+
    /**
     * Create a {@link Deployment} from the given bundle storage.
     * @param storageState The bundle storage to be associated with the deployment
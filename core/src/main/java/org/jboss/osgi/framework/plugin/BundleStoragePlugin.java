@@ -37,6 +37,22 @@ import org.osgi.framework.Bundle;
  */
 public interface BundleStoragePlugin extends Plugin
 {
+   /**
+    * Set to 'true' to persist the bundle storage properties in a single append-only journal.
+    */
+   String PROP_JBOSS_OSGI_STORAGE_JOURNAL = "org.jboss.osgi.storage.journal";
+
+   /**
+    * The number of obsolete journal records after which the journal gets compacted.
+    */
+   String PROP_JBOSS_OSGI_STORAGE_JOURNAL_COMPACT = "org.jboss.osgi.storage.journal.compact";
+
+   /**
+    * The max time in milliseconds that a change of the bundle storage properties may be held back,
+    * so that it can be combined with other changes. By default every change is written immediately.
+    */
+   String PROP_JBOSS_OSGI_STORAGE_WRITE_DELAY = "org.jboss.osgi.storage.write.delay";
+
    BundleStorageState createStorageState(long bundleId, String location, VirtualFile root) throws IOException;
 
    List<BundleStorageState> getBundleStorageStates() throws IOException;
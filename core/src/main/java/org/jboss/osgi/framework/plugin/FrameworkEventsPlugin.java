@@ -24,6 +24,7 @@ package org.jboss.osgi.framework.plugin;
 import java.util.Collection;
 
 import org.jboss.osgi.framework.bundle.ServiceState;
+import org.jboss.osgi.framework.util.ServiceProperties;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleListener;
 import org.osgi.framework.FrameworkListener;
@@ -39,6 +40,32 @@ import org.osgi.framework.hooks.service.ListenerHook.ListenerInfo;
  */
 public interface FrameworkEventsPlugin extends Plugin
 {
+   /**
+    * The number of threads that deliver asynchronous bundle and framework events.
+    */
+   String PROP_JBOSS_OSGI_EVENTS_POOL_SIZE = "org.jboss.osgi.events.pool.size";
+
+   /**
+    * The max number of asynchronous events that can be pending for a single listener.
+    */
+   String PROP_JBOSS_OSGI_EVENTS_QUEUE_CAPACITY = "org.jboss.osgi.events.queue.capacity";
+
+   /**
+    * The time in milliseconds to wait for a listener with a full queue, before the event is dropped.
+    */
+   String PROP_JBOSS_OSGI_EVENTS_OFFER_TIMEOUT = "org.jboss.osgi.events.offer.timeout";
+
+   /**
+    * The max number of asynchronous bundle events that are delivered as one batch.
+    * Batching is disabled unless this is set to a value greater than one.
+    */
+   String PROP_JBOSS_OSGI_EVENTS_BATCH_SIZE = "org.jboss.osgi.events.batch.size";
+
+   /**
+    * The time in milliseconds after which an incomplete batch of bundle events is delivered.
+    */
+   String PROP_JBOSS_OSGI_EVENTS_BATCH_WINDOW = "org.jboss.osgi.events.batch.window";
+
    boolean isActive();
    
    void setActive(boolean active);
@@ -68,4 +95,18 @@ public interface FrameworkEventsPlugin extends Plugin
    void fireFrameworkEvent(Bundle bundle, int type, Throwable throwable);
 
    void fireServiceEvent(Bundle bundle, int type, ServiceState service);
+
+   /**
+    * Fire a service event for the given property snapshots.
+    * Listeners are matched against the current properties. For a MODIFIED event, listeners that only 
+    * matched the previous properties receive MODIFIED_ENDMATCH.
+    * @param previous The properties before the modification or null
+    * @param current The properties the event was fired for
+    */
+   void fireServiceEvent(Bundle bundle, int type, ServiceState service, ServiceProperties previous, ServiceProperties current);
+
+   /**
+    * Get the number of asynchronous events that were dropped because a listener did not keep up
+    */
+   long getDroppedEventCount();
 }
\ No newline at end of file
@@ -0,0 +1,49 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.plugin;
+
+import java.util.Map;
+
+/**
+ * The management interface of the framework metrics.
+ *
+ * The histogram values are summaries with latency percentiles in microseconds.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 24-Jan-2011
+ */
+public interface FrameworkMetricsMBean
+{
+   Map<String, Long> getCounters();
+
+   Map<String, Long> getGauges();
+
+   Map<String, String> getHistograms();
+
+   /**
+    * Get the summary of a single histogram
+    * @return The summary or null
+    */
+   String getHistogramSummary(String name);
+
+   void reset();
+}
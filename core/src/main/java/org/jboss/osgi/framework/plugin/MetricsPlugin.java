@@ -0,0 +1,123 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.plugin;
+
+import java.util.Map;
+
+import org.jboss.osgi.framework.util.LatencyHistogram;
+import org.jboss.osgi.framework.util.StripedCounter;
+
+/**
+ * The framework metrics plugin.
+ *
+ * This plugin is only registered when metrics are enabled. Components look it up as an
+ * optional plugin, so that disabled metrics cost no more than a null check.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 24-Jan-2011
+ */
+public interface MetricsPlugin extends Plugin
+{
+   /** Enables the framework metrics when set to true */
+   String PROP_JBOSS_OSGI_METRICS = "org.jboss.osgi.metrics";
+
+   /** The object name of the metrics MBean */
+   String OBJECT_NAME = "jboss.osgi:service=FrameworkMetrics";
+
+   /** The number of service lookups */
+   String SERVICE_LOOKUPS = "service.lookups";
+   /** The time spent in service lookups, including the find hooks */
+   String SERVICE_LOOKUP_TIME = "service.lookup.time";
+   /** The number of service registrations */
+   String SERVICE_REGISTRATIONS = "service.registrations";
+   /** The number of service unregistrations */
+   String SERVICE_UNREGISTRATIONS = "service.unregistrations";
+   /** The time spent in find and event hooks */
+   String SERVICE_HOOK_TIME = "service.hook.time";
+
+   /** The prefix of the per event type dispatch time, e.g. event.dispatch.bundle.STARTED */
+   String EVENT_DISPATCH_TIME_PREFIX = "event.dispatch.";
+   /** The number of asynchronous events that wait for delivery */
+   String EVENT_QUEUE_DEPTH = "event.queue.depth";
+   /** The number of asynchronous events that have been dropped */
+   String EVENT_DROPPED = "event.dropped";
+
+   /** The time spent in a resolver run, including the creation of the modules */
+   String RESOLVER_RESOLVE_TIME = "resolver.resolve.time";
+   /** The number of modules that have been resolved */
+   String RESOLVER_MODULES_RESOLVED = "resolver.modules.resolved";
+
+   /** The number of classes defined by bundle class loaders */
+   String CLASSLOADER_DEFINES = "classloader.defines";
+   /** The number of class bytes defined by bundle class loaders */
+   String CLASSLOADER_DEFINED_BYTES = "classloader.defined.bytes";
+   /** The number of classes that could not be loaded by a bundle class loader */
+   String CLASSLOADER_MISSES = "classloader.misses";
+
+   /**
+    * A value that is sampled when the metrics are read
+    */
+   interface Gauge
+   {
+      long getValue();
+   }
+
+   /**
+    * Get the counter with the given name, create it if needed
+    */
+   StripedCounter getCounter(String name);
+
+   /**
+    * Get the histogram with the given name, create it if needed
+    */
+   LatencyHistogram getHistogram(String name);
+
+   /**
+    * Register a gauge with the given name, replacing a gauge of the same name
+    */
+   void registerGauge(String name, Gauge gauge);
+
+   /**
+    * Unregister the gauge with the given name
+    */
+   void unregisterGauge(String name);
+
+   /**
+    * Get the current counter values by name
+    */
+   Map<String, Long> getCounterValues();
+
+   /**
+    * Get the current gauge values by name
+    */
+   Map<String, Long> getGaugeValues();
+
+   /**
+    * Get snapshots of the histograms by name
+    */
+   Map<String, LatencyHistogram.Snapshot> getHistogramSnapshots();
+
+   /**
+    * Reset all counters and histograms
+    */
+   void reset();
+}
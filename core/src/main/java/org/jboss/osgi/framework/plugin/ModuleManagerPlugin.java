@@ -21,6 +21,7 @@
  */
 package org.jboss.osgi.framework.plugin;
 
+import java.util.List;
 import java.util.Set;
 
 import org.jboss.modules.Module;
@@ -44,6 +45,12 @@ public interface ModuleManagerPlugin extends Plugin
    /** The default framework module identifier */
    ModuleIdentifier DEFAULT_FRAMEWORK_IDENTIFIER = ModuleIdentifier.create(Constants.JBOSGI_PREFIX + "." + Constants.SYSTEM_BUNDLE_SYMBOLICNAME);
 
+   /**
+    * The max number of class names per bundle revision that are remembered as not loadable dynamically.
+    * The negative cache is disabled when this is set to zero.
+    */
+   String PROP_JBOSS_OSGI_NEGATIVE_CLASS_CACHE_SIZE = "org.jboss.osgi.negative.class.cache.size";
+
    /**
     * Get the {@link OSGiModuleLoader}
     */
@@ -59,6 +66,12 @@ public interface ModuleManagerPlugin extends Plugin
     */
    Set<ModuleIdentifier> getModuleIdentifiers();
 
+   /**
+    * Get the identifiers of the registered modules that export the given package
+    * @return The module identifiers or an empty list
+    */
+   List<ModuleIdentifier> getExportingModules(String packageName);
+
    /**
     * Create the module in the {@link ModuleLoader}
     * @return The module identifier
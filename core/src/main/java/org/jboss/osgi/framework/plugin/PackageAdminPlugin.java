@@ -31,4 +31,10 @@ import org.osgi.service.packageadmin.PackageAdmin;
  */
 public interface PackageAdminPlugin extends Plugin, PackageAdmin
 {
+   /**
+    * The max number of threads that stop and restart independent groups of bundles on refreshPackages.
+    * Start levels are always processed one after the other. Within a start level, groups are processed 
+    * one after the other unless this is set to a value greater than one.
+    */
+   String PROP_JBOSS_OSGI_REFRESH_PARALLELISM = "org.jboss.osgi.refresh.parallelism";
 }
\ No newline at end of file
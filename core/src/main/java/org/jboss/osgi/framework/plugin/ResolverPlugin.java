@@ -21,12 +21,15 @@
  */
 package org.jboss.osgi.framework.plugin;
 
+import java.util.List;
 import java.util.Set;
 
+import org.jboss.osgi.resolver.XCapability;
 import org.jboss.osgi.resolver.XModule;
 import org.jboss.osgi.resolver.XModuleBuilder;
 import org.jboss.osgi.resolver.XModuleIdentity;
 import org.jboss.osgi.resolver.XResolver;
+import org.jboss.osgi.resolver.XWire;
 import org.osgi.framework.BundleException;
 
 /**
@@ -62,6 +65,23 @@ public interface ResolverPlugin extends Plugin
     */
    void removeModule(XModule module);
 
+   /**
+    * Get the wires of the resolved modules that have the given module as exporter
+    * @return The wires or an empty list
+    */
+   List<XWire> getWiresToExporter(XModule exporter);
+
+   /**
+    * Get the wires of the resolved modules to the given capability
+    * @return The wires or an empty list
+    */
+   List<XWire> getWiresToCapability(XCapability capability);
+
+   /**
+    * True if a resolved module is wired to the given capability
+    */
+   boolean isWired(XCapability capability);
+
    /**
     * Get the module for the given id
     * @return The module or null
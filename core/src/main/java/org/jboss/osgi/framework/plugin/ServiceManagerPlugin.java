@@ -27,6 +27,7 @@ import java.util.Set;
 
 import org.jboss.osgi.framework.bundle.AbstractBundle;
 import org.jboss.osgi.framework.bundle.ServiceState;
+import org.jboss.osgi.framework.util.ServiceProperties;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
@@ -39,6 +40,12 @@ import org.osgi.framework.ServiceReference;
  */
 public interface ServiceManagerPlugin extends Plugin
 {
+   /**
+    * A comma separated list of service property keys that get an attribute index.
+    * Lookups with equality or presence filters on these keys only consider the indexed services.
+    */
+   String PROP_JBOSS_OSGI_SERVICE_INDEX_KEYS = "org.jboss.osgi.service.index.keys";
+
    /**
     * Get the next service is from the manager 
     */
@@ -127,6 +134,14 @@ public interface ServiceManagerPlugin extends Plugin
     */
    Set<ServiceState> getServicesInUse(AbstractBundle bundleState);
 
+   /**
+    * Update the registry after the properties of the given service have been modified.
+    * This is called before the {@link org.osgi.framework.ServiceEvent#MODIFIED} event is fired.
+    * @param previous The properties before the modification
+    * @param current The properties after the modification
+    */
+   void updateServiceProperties(ServiceState serviceState, ServiceProperties previous, ServiceProperties current);
+
    /**
     * Returns the bundles that are using the service.
     * @return A set of bundles or an empty set.
@@ -32,6 +32,12 @@ public interface StartLevelPlugin extends Plugin, StartLevel
 {
    static final int BUNDLE_STARTLEVEL_UNSPECIFIED = -1;
 
+   /**
+    * The max number of bundles of the same start level that are started or stopped concurrently.
+    * Bundles are started and stopped one after the other unless this is set to a value greater than one.
+    */
+   static final String PROP_JBOSS_OSGI_STARTLEVEL_PARALLELISM = "org.jboss.osgi.startlevel.parallelism";
+
    /**
     * Increase the start level to the specified level. 
     * This method moves to the specified start level in the current thread and
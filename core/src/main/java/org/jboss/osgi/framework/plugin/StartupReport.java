@@ -0,0 +1,347 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.plugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.osgi.framework.plugin.StartupReportPlugin.Phase;
+
+/**
+ * An immutable summary of the bundle lifecycle timings during framework startup.
+ *
+ * All times are in nanoseconds, relative to the initialization of the framework.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 25-Jan-2011
+ */
+public final class StartupReport
+{
+   // The max number of bundles that are listed in the text report
+   private static final int MAX_REPORTED_BUNDLES = 20;
+
+   private final long startupTime;
+   private final List<BundleTiming> bundleTimings;
+   private final List<Segment> criticalPath;
+
+   /**
+    * Create a report from the given bundle timings
+    * @param startupTime The time it took the framework to start
+    */
+   public StartupReport(long startupTime, List<BundleTiming> timings)
+   {
+      if (timings == null)
+         throw new IllegalArgumentException("Null timings");
+
+      List<BundleTiming> sorted = new ArrayList<BundleTiming>(timings);
+      Collections.sort(sorted, new Comparator<BundleTiming>()
+      {
+         public int compare(BundleTiming t1, BundleTiming t2)
+         {
+            long d1 = t1.getTotalDuration();
+            long d2 = t2.getTotalDuration();
+            return d1 > d2 ? -1 : (d1 == d2 ? 0 : 1);
+         }
+      });
+
+      this.startupTime = startupTime;
+      this.bundleTimings = Collections.unmodifiableList(sorted);
+      this.criticalPath = Collections.unmodifiableList(computeCriticalPath(sorted, startupTime));
+   }
+
+   /**
+    * Get the time it took the framework to start
+    */
+   public long getStartupTime()
+   {
+      return startupTime;
+   }
+
+   /**
+    * Get the bundle timings, the slowest bundle first
+    */
+   public List<BundleTiming> getBundleTimings()
+   {
+      return bundleTimings;
+   }
+
+   /**
+    * Get the wall clock time spent in the activation of the bundles of every start level
+    */
+   public Map<Integer, Long> getStartLevelDurations()
+   {
+      Map<Integer, long[]> spans = new TreeMap<Integer, long[]>();
+      for (BundleTiming timing : bundleTimings)
+      {
+         long begin = timing.getBegin(Phase.ACTIVATION_WAIT);
+         if (begin < 0)
+            begin = timing.getBegin(Phase.ACTIVATE);
+         long end = timing.getEnd(Phase.ACTIVATE);
+         if (begin < 0 || end < 0 || end > startupTime)
+            continue;
+
+         long[] span = spans.get(timing.getStartLevel());
+         if (span == null)
+            spans.put(timing.getStartLevel(), new long[] { begin, end });
+         else
+         {
+            span[0] = Math.min(span[0], begin);
+            span[1] = Math.max(span[1], end);
+         }
+      }
+
+      Map<Integer, Long> result = new TreeMap<Integer, Long>();
+      for (Map.Entry<Integer, long[]> entry : spans.entrySet())
+         result.put(entry.getKey(), entry.getValue()[1] - entry.getValue()[0]);
+      return Collections.unmodifiableMap(result);
+   }
+
+   /**
+    * Get the chain of top level phases that determined the startup time.
+    *
+    * Starting with the phase that ended last, every next phase is the one that ended last before
+    * the previous one began. The time between two phases of the path is spent outside of any
+    * recorded phase.
+    *
+    * @return The phases in the order they were executed
+    */
+   public List<Segment> getCriticalPath()
+   {
+      return criticalPath;
+   }
+
+   private static List<Segment> computeCriticalPath(List<BundleTiming> timings, long startupTime)
+   {
+      List<Segment> segments = new ArrayList<Segment>();
+      for (BundleTiming timing : timings)
+      {
+         for (Phase phase : Phase.values())
+         {
+            long begin = timing.getBegin(phase);
+            long end = timing.getEnd(phase);
+            if (phase.getParent() == null && begin >= 0 && end <= startupTime)
+               segments.add(new Segment(timing, phase, begin, end));
+         }
+      }
+      Collections.sort(segments, new Comparator<Segment>()
+      {
+         public int compare(Segment s1, Segment s2)
+         {
+            return s1.end < s2.end ? -1 : (s1.end == s2.end ? 0 : 1);
+         }
+      });
+
+      List<Segment> result = new ArrayList<Segment>();
+      int index = segments.size() - 1;
+      while (index >= 0)
+      {
+         Segment current = segments.get(index);
+         result.add(current);
+
+         // Find the segment that ended last before the current one began
+         index--;
+         while (index >= 0 && segments.get(index).end > current.begin)
+            index--;
+      }
+      Collections.reverse(result);
+      return result;
+   }
+
+   @Override
+   public String toString()
+   {
+      StringBuilder builder = new StringBuilder();
+      builder.append("Startup report: " + toMillis(startupTime) + "ms, " + bundleTimings.size() + " bundles");
+
+      builder.append("\nSlowest bundles [ms]: total");
+      for (Phase phase : Phase.values())
+         builder.append(" " + phase.name().toLowerCase());
+      int count = Math.min(bundleTimings.size(), MAX_REPORTED_BUNDLES);
+      for (BundleTiming timing : bundleTimings.subList(0, count))
+      {
+         builder.append("\n  " + toMillis(timing.getTotalDuration()));
+         for (Phase phase : Phase.values())
+            builder.append(" " + toMillis(timing.getDuration(phase)));
+         builder.append(" " + timing.getBundle() + " [level=" + timing.getStartLevel() + "]");
+      }
+
+      builder.append("\nStart levels [ms]:");
+      for (Map.Entry<Integer, Long> entry : getStartLevelDurations().entrySet())
+         builder.append("\n  " + entry.getKey() + ": " + toMillis(entry.getValue()));
+
+      builder.append("\nCritical path [ms]: begin duration phase bundle");
+      for (Segment segment : criticalPath)
+      {
+         builder.append("\n  " + toMillis(segment.begin) + " " + toMillis(segment.getDuration()));
+         builder.append(" " + segment.phase + " " + segment.timing.getBundle());
+      }
+      return builder.toString();
+   }
+
+   private static long toMillis(long nanos)
+   {
+      return TimeUnit.NANOSECONDS.toMillis(nanos);
+   }
+
+   /**
+    * The recorded phases of a single bundle
+    */
+   public static final class BundleTiming
+   {
+      private final long bundleId;
+      private final String bundle;
+      private final int startLevel;
+      private final long[] begins;
+      private final long[] ends;
+
+      /**
+       * @param begins The begin of every phase by ordinal, or -1 if the phase was not recorded
+       * @param ends The end of every phase by ordinal
+       */
+      public BundleTiming(long bundleId, String bundle, int startLevel, long[] begins, long[] ends)
+      {
+         if (begins == null || begins.length != Phase.values().length)
+            throw new IllegalArgumentException("Invalid begins");
+         if (ends == null || ends.length != Phase.values().length)
+            throw new IllegalArgumentException("Invalid ends");
+
+         this.bundleId = bundleId;
+         this.bundle = bundle;
+         this.startLevel = startLevel;
+         this.begins = begins.clone();
+         this.ends = ends.clone();
+      }
+
+      public long getBundleId()
+      {
+         return bundleId;
+      }
+
+      public String getBundle()
+      {
+         return bundle;
+      }
+
+      public int getStartLevel()
+      {
+         return startLevel;
+      }
+
+      /**
+       * Get the begin of the given phase
+       * @return The begin or -1 if the phase was not recorded
+       */
+      public long getBegin(Phase phase)
+      {
+         return begins[phase.ordinal()];
+      }
+
+      /**
+       * Get the end of the given phase
+       * @return The end or -1 if the phase was not recorded
+       */
+      public long getEnd(Phase phase)
+      {
+         return begins[phase.ordinal()] >= 0 ? ends[phase.ordinal()] : -1;
+      }
+
+      /**
+       * Get the duration of the given phase
+       * @return The duration or zero if the phase was not recorded
+       */
+      public long getDuration(Phase phase)
+      {
+         int index = phase.ordinal();
+         return begins[index] >= 0 ? ends[index] - begins[index] : 0;
+      }
+
+      /**
+       * Get the sum of the top level phase durations
+       */
+      public long getTotalDuration()
+      {
+         long result = 0;
+         for (Phase phase : Phase.values())
+         {
+            if (phase.getParent() == null)
+               result += getDuration(phase);
+         }
+         return result;
+      }
+
+      @Override
+      public String toString()
+      {
+         return "BundleTiming[" + bundle + ",total=" + toMillis(getTotalDuration()) + "ms]";
+      }
+   }
+
+   /**
+    * A phase of a bundle on the critical path
+    */
+   public static final class Segment
+   {
+      private final BundleTiming timing;
+      private final Phase phase;
+      private final long begin;
+      private final long end;
+
+      Segment(BundleTiming timing, Phase phase, long begin, long end)
+      {
+         this.timing = timing;
+         this.phase = phase;
+         this.begin = begin;
+         this.end = end;
+      }
+
+      public BundleTiming getBundleTiming()
+      {
+         return timing;
+      }
+
+      public Phase getPhase()
+      {
+         return phase;
+      }
+
+      public long getBegin()
+      {
+         return begin;
+      }
+
+      public long getDuration()
+      {
+         return end - begin;
+      }
+
+      @Override
+      public String toString()
+      {
+         return "Segment[" + phase + "," + timing.getBundle() + ",duration=" + toMillis(getDuration()) + "ms]";
+      }
+   }
+}
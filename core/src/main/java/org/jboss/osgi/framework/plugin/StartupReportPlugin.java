@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.plugin;
+
+import org.jboss.osgi.framework.bundle.AbstractBundle;
+
+/**
+ * A plugin that records the time spent in the lifecycle phases of every bundle.
+ *
+ * The recorded timings are summarized in a {@link StartupReport}, which is logged when the
+ * framework has started.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 25-Jan-2011
+ */
+public interface StartupReportPlugin extends Plugin
+{
+   /** Logs the startup report at INFO level when set to true, otherwise at DEBUG level */
+   String PROP_JBOSS_OSGI_STARTUP_REPORT = "org.jboss.osgi.startup.report";
+
+   /**
+    * The recorded lifecycle phases of a bundle
+    */
+   enum Phase
+   {
+      /** The installation of the bundle */
+      INSTALL(null),
+      /** The creation of the bundle state, as part of the installation */
+      CREATE(INSTALL),
+      /** The validation of the bundle metadata, as part of the creation */
+      VALIDATE(CREATE),
+      /** The application of the resolver results, which is shared by all bundles of a resolver run */
+      RESOLVE(null),
+      /** Waiting for a concurrent start or stop of the bundle */
+      ACTIVATION_WAIT(null),
+      /** The transition to ACTIVE */
+      ACTIVATE(null),
+      /** The call to the bundle activator, as part of the activation */
+      ACTIVATOR(ACTIVATE);
+
+      private final Phase parent;
+
+      private Phase(Phase parent)
+      {
+         this.parent = parent;
+      }
+
+      /**
+       * Get the phase that contains this phase
+       * @return The parent phase or null for a top level phase
+       */
+      public Phase getParent()
+      {
+         return parent;
+      }
+   }
+
+   /**
+    * Record a lifecycle phase of the given bundle.
+    * Phases are no longer recorded once the framework has started.
+    * @param startTime The start of the phase, as obtained from {@link System#nanoTime()}
+    * @param endTime The end of the phase, as obtained from {@link System#nanoTime()}
+    */
+   void recordPhase(AbstractBundle bundleState, Phase phase, long startTime, long endTime);
+
+   /**
+    * Remove the recorded phases of a bundle that is removed from the framework
+    */
+   void removeRecords(AbstractBundle bundleState);
+
+   /**
+    * Called when the framework has started. This logs the startup report.
+    */
+   void frameworkStarted();
+
+   /**
+    * Get the report of the timings that have been recorded since the framework was initialized.
+    * Before the framework has started, the report covers the timings up to now.
+    */
+   StartupReport getStartupReport();
+}
@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.plugin;
+
+import org.jboss.osgi.framework.plugin.TracePlugin.EventType;
+import org.jboss.osgi.spi.util.ConstantsHelper;
+
+/**
+ * An event that has been traced by the {@link TracePlugin}.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 26-Jan-2011
+ */
+public final class TraceEvent
+{
+   private final EventType type;
+   private final long startTime;
+   private final long duration;
+   private final String threadName;
+   private final Object subject;
+   private final Object detail;
+
+   public TraceEvent(EventType type, long startTime, long duration, String threadName, Object subject, Object detail)
+   {
+      if (type == null)
+         throw new IllegalArgumentException("Null type");
+
+      this.type = type;
+      this.startTime = startTime;
+      this.duration = duration;
+      this.threadName = threadName;
+      this.subject = subject;
+      this.detail = detail;
+   }
+
+   public EventType getType()
+   {
+      return type;
+   }
+
+   /**
+    * The start of the event, as obtained from {@link System#nanoTime()}
+    */
+   public long getStartTime()
+   {
+      return startTime;
+   }
+
+   /**
+    * The duration of the event in nanoseconds
+    */
+   public long getDuration()
+   {
+      return duration;
+   }
+
+   /**
+    * The name of the thread that caused the event
+    */
+   public String getThreadName()
+   {
+      return threadName;
+   }
+
+   public Object getSubject()
+   {
+      return subject;
+   }
+
+   /**
+    * Additional detail or null.
+    * For a {@link EventType#BUNDLE_STATE} event this is the new bundle state as an Integer.
+    */
+   public Object getDetail()
+   {
+      return detail;
+   }
+
+   /**
+    * The detail in readable form, e.g. the bundle state name
+    */
+   public String getDetailString()
+   {
+      if (type == EventType.BUNDLE_STATE && detail instanceof Integer)
+         return ConstantsHelper.bundleState((Integer)detail);
+
+      return (detail != null ? detail.toString() : null);
+   }
+
+   @Override
+   public String toString()
+   {
+      StringBuilder builder = new StringBuilder();
+      builder.append(type).append(" [").append(duration / 1000).append("us,thread=").append(threadName);
+      builder.append(",subject=").append(subject);
+      if (detail != null)
+         builder.append(",detail=").append(getDetailString());
+      builder.append("]");
+      return builder.toString();
+   }
+}
@@ -0,0 +1,107 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.plugin;
+
+/**
+ * A plugin that traces the framework internals that take longer than a configurable threshold.
+ *
+ * This plugin is only registered when tracing is enabled. Components look it up as an
+ * optional plugin, so that disabled tracing costs no more than a null check. Events below
+ * the threshold of their type are dropped before any allocation takes place.
+ *
+ * Traced events are logged at DEBUG level and handed to the registered {@link TraceListener}s,
+ * which may forward them to a profiler or flight recorder.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 26-Jan-2011
+ */
+public interface TracePlugin extends Plugin
+{
+   /** Enables the framework tracing when set to true */
+   String PROP_JBOSS_OSGI_TRACE = "org.jboss.osgi.trace";
+
+   /**
+    * The default threshold in microseconds. A type specific threshold can be set with the
+    * lower case type name appended, e.g. org.jboss.osgi.trace.threshold.class_define
+    * A negative threshold disables the type.
+    */
+   String PROP_JBOSS_OSGI_TRACE_THRESHOLD = "org.jboss.osgi.trace.threshold";
+
+   /** A comma separated list of {@link TraceListener} class names that are registered on init */
+   String PROP_JBOSS_OSGI_TRACE_LISTENERS = "org.jboss.osgi.trace.listeners";
+
+   /** The default threshold in microseconds */
+   long DEFAULT_THRESHOLD = 1000;
+
+   /**
+    * The traced event types
+    */
+   enum EventType
+   {
+      /** A bundle state transition, including the lifecycle interceptors and the synchronous bundle listeners */
+      BUNDLE_STATE,
+      /** A resolver run */
+      RESOLVE,
+      /** A service registration */
+      SERVICE_REGISTER,
+      /** A service unregistration */
+      SERVICE_UNREGISTER,
+      /** A modification of the service properties */
+      SERVICE_MODIFY,
+      /** The delivery of a service event to a single listener */
+      SERVICE_EVENT_DELIVERY,
+      /** The read and definition of a class by a fragment class loader */
+      CLASS_DEFINE,
+      /** 
+       * The read of the class bytes by a bundle resource loader. The definition of the class 
+       * happens afterwards in the module class loader and is not included.
+       */
+      CLASS_READ,
+      /** A write of the persistent bundle storage properties */
+      STORAGE_WRITE
+   }
+
+   /**
+    * True if events of the given type are traced at all
+    */
+   boolean isEnabled(EventType type);
+
+   /**
+    * Trace an event, if its duration reaches the threshold of its type
+    * @param startTime The start of the event, as obtained from {@link System#nanoTime()}
+    * @param endTime The end of the event, as obtained from {@link System#nanoTime()}
+    * @param subject The subject of the event, e.g. the bundle or service
+    * @param detail Additional detail or null. Detail that is expensive to format is passed in raw form 
+    *        and formatted by {@link TraceEvent#getDetailString()} once the event is traced.
+    */
+   void traceEvent(EventType type, long startTime, long endTime, Object subject, Object detail);
+
+   /**
+    * Add a listener that receives the traced events
+    */
+   void addTraceListener(TraceListener listener);
+
+   /**
+    * Remove a trace listener
+    */
+   void removeTraceListener(TraceListener listener);
+}
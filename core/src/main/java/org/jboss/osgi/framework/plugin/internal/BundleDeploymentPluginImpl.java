@@ -22,8 +22,11 @@
 package org.jboss.osgi.framework.plugin.internal;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
 import org.jboss.logging.Logger;
@@ -45,6 +48,7 @@ import org.jboss.osgi.resolver.XModule;
 import org.jboss.osgi.resolver.XModuleBuilder;
 import org.jboss.osgi.spi.util.BundleInfo;
 import org.jboss.osgi.vfs.AbstractVFS;
+import org.jboss.osgi.vfs.VFSUtils;
 import org.jboss.osgi.vfs.VirtualFile;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Version;
@@ -60,11 +64,28 @@ public class BundleDeploymentPluginImpl extends AbstractPlugin implements Bundle
    // Provide logging
    private static final Logger log = Logger.getLogger(BundleDeploymentPluginImpl.class);
 
+   // The name of the warm-start cache file in the bundle storage area
+   static final String CACHED_MANIFEST = "cached-manifest.mf";
+   // The manifest section that holds the key of the cached manifest
+   static final String CACHE_KEY_SECTION = "jbosgi-cache-key";
+   static final Attributes.Name CACHE_LOCATION = new Attributes.Name("Location");
+   static final Attributes.Name CACHE_REVISION = new Attributes.Name("Revision");
+   static final Attributes.Name CACHE_LAST_MODIFIED = new Attributes.Name("Last-Modified");
+
+   private boolean cacheEnabled = true;
+
    public BundleDeploymentPluginImpl(BundleManager bundleManager)
    {
       super(bundleManager);
    }
 
+   @Override
+   public void initPlugin()
+   {
+      String value = getBundleManager().getFrameworkState().getProperty(PROP_JBOSS_OSGI_DEPLOYMENT_CACHE);
+      cacheEnabled = (value == null || Boolean.parseBoolean(value.trim()));
+   }
+
    @Override
    public Deployment createDeployment(BundleStorageState storageState) throws BundleException
    {
@@ -75,7 +96,15 @@ public class BundleDeploymentPluginImpl extends AbstractPlugin implements Bundle
       {
          String location = storageState.getLocation();
          VirtualFile rootFile = storageState.getRootFile();
-         Deployment dep = createDeployment(location, rootFile);
+
+         // Use the cached manifest if the bundle revision did not change
+         Deployment dep = (cacheEnabled ? createCachedDeployment(storageState) : null);
+         if (dep == null)
+         {
+            dep = createDeployment(location, rootFile);
+            if (cacheEnabled)
+               writeCachedManifest(storageState, dep.getAttachment(BundleInfo.class));
+         }
          dep.addAttachment(BundleStorageState.class, storageState);
          return dep;
       }
@@ -333,6 +362,108 @@ public class BundleDeploymentPluginImpl extends AbstractPlugin implements Bundle
       throw new BundleException("Cannot create deployment from: " + rootFile);
    }
 
+   /**
+    * Create the deployment from the manifest that was cached in the bundle storage area.
+    * @return The deployment or null if there is no cached manifest that matches the storage state
+    */
+   private Deployment createCachedDeployment(BundleStorageState storageState)
+   {
+      VirtualFile rootFile = storageState.getRootFile();
+      File cacheFile = new File(storageState.getBundleStorageDir(), CACHED_MANIFEST);
+      if (rootFile == null || cacheFile.exists() == false)
+         return null;
+
+      Manifest manifest;
+      try
+      {
+         FileInputStream input = new FileInputStream(cacheFile);
+         try
+         {
+            manifest = new Manifest(input);
+         }
+         finally
+         {
+            VFSUtils.safeClose(input);
+         }
+      }
+      catch (IOException ex)
+      {
+         log.debugf("Cannot read cached manifest: %s", cacheFile);
+         cacheFile.delete();
+         return null;
+      }
+
+      // The cached manifest is only valid for the same location, revision and modification time
+      Attributes key = manifest.getAttributes(CACHE_KEY_SECTION);
+      if (key == null || isCacheKey(key, storageState) == false)
+      {
+         log.tracef("Stale cached manifest: %s", cacheFile);
+         cacheFile.delete();
+         return null;
+      }
+
+      try
+      {
+         manifest.getEntries().clear();
+         OSGiMetaData metadata = OSGiMetaDataBuilder.load(manifest);
+         String symbolicName = metadata.getBundleSymbolicName();
+         Version version = metadata.getBundleVersion();
+         Deployment dep = DeploymentFactory.createDeployment(rootFile, storageState.getLocation(), symbolicName, version);
+         dep.addAttachment(OSGiMetaData.class, metadata);
+         log.tracef("Using cached manifest for: %s", storageState);
+         return dep;
+      }
+      catch (RuntimeException ex)
+      {
+         log.debugf("Cannot use cached manifest: %s", cacheFile);
+         cacheFile.delete();
+         return null;
+      }
+   }
+
+   private void writeCachedManifest(BundleStorageState storageState, BundleInfo info)
+   {
+      // Only manifest based deployments are cached
+      if (info == null || info.getManifest() == null)
+         return;
+
+      // Manifest.write() silently omits the main attributes without a Manifest-Version
+      Manifest manifest = new Manifest();
+      manifest.getMainAttributes().putAll(info.getManifest().getMainAttributes());
+      manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+      Attributes key = new Attributes();
+      key.put(CACHE_LOCATION, storageState.getLocation());
+      key.put(CACHE_REVISION, String.valueOf(storageState.getRevision()));
+      key.put(CACHE_LAST_MODIFIED, String.valueOf(storageState.getLastModified()));
+      manifest.getEntries().put(CACHE_KEY_SECTION, key);
+
+      File cacheFile = new File(storageState.getBundleStorageDir(), CACHED_MANIFEST);
+      try
+      {
+         FileOutputStream output = new FileOutputStream(cacheFile);
+         try
+         {
+            manifest.write(output);
+         }
+         finally
+         {
+            VFSUtils.safeClose(output);
+         }
+      }
+      catch (IOException ex)
+      {
+         log.debugf("Cannot write cached manifest: %s", cacheFile);
+         cacheFile.delete();
+      }
+   }
+
+   private boolean isCacheKey(Attributes key, BundleStorageState storageState)
+   {
+      return storageState.getLocation().equals(key.getValue(CACHE_LOCATION))
+         && String.valueOf(storageState.getRevision()).equals(key.getValue(CACHE_REVISION))
+         && String.valueOf(storageState.getLastModified()).equals(key.getValue(CACHE_LAST_MODIFIED));
+   }
+
    private OSGiMetaData getXServiceMetaData(VirtualFile rootFile)
    {
       // Try jbosgi-xservice.properties
@@ -0,0 +1,199 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.plugin.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.logging.Logger;
+import org.jboss.osgi.spi.util.ConstantsHelper;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+
+/**
+ * Coalesces asynchronous bundle events into batches.
+ *
+ * A batch is closed when it reaches the configured size or when the configured time window
+ * has elapsed since its first event. Every listener then gets a single task that delivers
+ * the events of the batch in their original order.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 14-Jan-2011
+ */
+final class BundleEventBatcher
+{
+   // Provide logging
+   private static final Logger log = Logger.getLogger(BundleEventBatcher.class);
+
+   private final EventDispatcher dispatcher;
+   private final int batchSize;
+   private final long batchWindow;
+   private final ScheduledThreadPoolExecutor scheduler;
+   private List<PendingEvent> pending = new ArrayList<PendingEvent>();
+   private ScheduledFuture<?> windowTimer;
+   private boolean closed;
+
+   BundleEventBatcher(EventDispatcher dispatcher, int batchSize, long batchWindow)
+   {
+      if (dispatcher == null)
+         throw new IllegalArgumentException("Null dispatcher");
+      if (batchSize < 1)
+         throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+
+      this.dispatcher = dispatcher;
+      this.batchSize = batchSize;
+      this.batchWindow = batchWindow;
+      this.scheduler = new ScheduledThreadPoolExecutor(1, new EventDispatcher.DispatcherThreadFactory());
+   }
+
+   /**
+    * Add an event that must be delivered to the given asynchronous listeners
+    */
+   synchronized void add(BundleEvent event, List<BundleListener> listeners)
+   {
+      pending.add(new PendingEvent(event, listeners));
+      if (closed || pending.size() >= batchSize)
+      {
+         flush();
+      }
+      else if (pending.size() == 1)
+      {
+         // The timer only closes the batch it was scheduled for
+         final List<PendingEvent> batch = pending;
+         Runnable flushTask = new Runnable()
+         {
+            public void run()
+            {
+               flushWindow(batch);
+            }
+         };
+         windowTimer = scheduler.schedule(flushTask, batchWindow, TimeUnit.MILLISECONDS);
+      }
+   }
+
+   /**
+    * Hand the pending events over to the dispatcher
+    */
+   synchronized void flush()
+   {
+      if (pending.isEmpty())
+         return;
+
+      if (windowTimer != null)
+      {
+         windowTimer.cancel(false);
+         windowTimer = null;
+      }
+
+      // Batches go through their own serial queue, which keeps them in order
+      // without holding this lock while the listener tasks are dispatched
+      final List<PendingEvent> batch = pending;
+      pending = new ArrayList<PendingEvent>();
+      Runnable batchTask = new Runnable()
+      {
+         public void run()
+         {
+            dispatchBatch(batch);
+         }
+      };
+      dispatcher.dispatch(this, batchTask);
+   }
+
+   private synchronized void flushWindow(List<PendingEvent> batch)
+   {
+      // The batch may have been flushed already because it reached its size
+      if (pending == batch)
+         flush();
+   }
+
+   /**
+    * Flush the pending events and stop the time window scheduler
+    */
+   synchronized void close()
+   {
+      closed = true;
+      flush();
+      scheduler.shutdown();
+   }
+
+   private void dispatchBatch(List<PendingEvent> batch)
+   {
+      // Group the events by listener, in the order they have been fired
+      Map<BundleListener, List<BundleEvent>> listenerEvents = new LinkedHashMap<BundleListener, List<BundleEvent>>();
+      for (PendingEvent pendingEvent : batch)
+      {
+         for (BundleListener listener : pendingEvent.listeners)
+         {
+            List<BundleEvent> events = listenerEvents.get(listener);
+            if (events == null)
+            {
+               events = new ArrayList<BundleEvent>();
+               listenerEvents.put(listener, events);
+            }
+            events.add(pendingEvent.event);
+         }
+      }
+
+      for (Entry<BundleListener, List<BundleEvent>> entry : listenerEvents.entrySet())
+      {
+         final BundleListener listener = entry.getKey();
+         final List<BundleEvent> events = entry.getValue();
+         Runnable runnable = new Runnable()
+         {
+            public void run()
+            {
+               for (BundleEvent event : events)
+               {
+                  try
+                  {
+                     listener.bundleChanged(event);
+                  }
+                  catch (Throwable th)
+                  {
+                     String typeName = ConstantsHelper.bundleEvent(event.getType());
+                     log.warnf(th, "Error while firing %s for bundle: %s", typeName, event.getBundle());
+                  }
+               }
+            }
+         };
+         dispatcher.dispatch(listener, runnable);
+      }
+   }
+
+   static class PendingEvent
+   {
+      private final BundleEvent event;
+      private final List<BundleListener> listeners;
+
+      PendingEvent(BundleEvent event, List<BundleListener> listeners)
+      {
+         this.event = event;
+         this.listeners = listeners;
+      }
+   }
+}
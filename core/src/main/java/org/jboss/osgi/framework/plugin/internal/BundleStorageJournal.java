@@ -0,0 +1,398 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.plugin.internal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.jboss.logging.Logger;
+
+/**
+ * An append-only journal of bundle storage properties.
+ *
+ * The journal starts with a header, followed by a sequence of records. Each record is
+ * written as its length, the CRC32 of its payload and the payload itself. A payload either
+ * puts the complete properties of a bundle, or deletes them. On load, the journal is read
+ * sequentially and the last record for a bundle wins. A torn or corrupt tail, as left by a
+ * crash during an append, is truncated. A journal with an invalid header cannot be loaded.
+ *
+ * When the number of obsolete records reaches the compaction threshold, the journal is
+ * rewritten with a single record per bundle.
+ *
+ * Appended records are forced to disk before the append returns. A new or compacted journal
+ * is written to a temp file, which is forced to disk and then renamed onto the journal file.
+ * The rename itself is only as durable as the file system makes it.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 17-Jan-2011
+ */
+final class BundleStorageJournal
+{
+   // Provide logging
+   private static final Logger log = Logger.getLogger(BundleStorageJournal.class);
+
+   static final int MAGIC = 0x4A424A4E;
+   static final int VERSION = 1;
+   static final byte RECORD_PUT = 1;
+   static final byte RECORD_DELETE = 2;
+
+   // The max size of a single record payload
+   private static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+   private final File journalFile;
+   private final int compactThreshold;
+   private final Map<Long, Properties> entries = new TreeMap<Long, Properties>();
+   private FileOutputStream output;
+   private int obsoleteRecords;
+
+   BundleStorageJournal(File journalFile, int compactThreshold)
+   {
+      if (journalFile == null)
+         throw new IllegalArgumentException("Null journalFile");
+
+      this.journalFile = journalFile;
+      this.compactThreshold = compactThreshold;
+   }
+
+   File getJournalFile()
+   {
+      return journalFile;
+   }
+
+   /**
+    * Load the journal and open it for appending.
+    * @return The properties by bundle id
+    * @throws InvalidJournalException If the journal file does not start with a valid header
+    */
+   synchronized Map<Long, Properties> load() throws IOException
+   {
+      entries.clear();
+      obsoleteRecords = 0;
+
+      if (journalFile.exists())
+      {
+         long validLength = read();
+         if (validLength < journalFile.length())
+         {
+            log.warnf("Truncating corrupt journal tail at %d: %s", validLength, journalFile);
+            RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+            try
+            {
+               raf.setLength(validLength);
+            }
+            finally
+            {
+               raf.close();
+            }
+         }
+      }
+
+      // Start with a compact journal
+      if (journalFile.exists() == false || obsoleteRecords > 0)
+         compact();
+      else
+         output = new FileOutputStream(journalFile, true);
+
+      return getEntries();
+   }
+
+   /**
+    * Create a new journal with the given properties and open it for appending.
+    * The journal file only appears once it has been completely written.
+    * @return The properties by bundle id
+    */
+   synchronized Map<Long, Properties> create(Map<Long, Properties> initial) throws IOException
+   {
+      entries.clear();
+      for (Entry<Long, Properties> entry : initial.entrySet())
+         entries.put(entry.getKey(), (Properties)entry.getValue().clone());
+
+      compact();
+      return getEntries();
+   }
+
+   synchronized Map<Long, Properties> getEntries()
+   {
+      Map<Long, Properties> result = new TreeMap<Long, Properties>();
+      for (Entry<Long, Properties> entry : entries.entrySet())
+         result.put(entry.getKey(), (Properties)entry.getValue().clone());
+      return Collections.unmodifiableMap(result);
+   }
+
+   /**
+    * Get a copy of the properties for the given bundle
+    * @return The properties or null
+    */
+   synchronized Properties get(long bundleId)
+   {
+      Properties props = entries.get(bundleId);
+      return props != null ? (Properties)props.clone() : null;
+   }
+
+   synchronized void put(long bundleId, Properties props) throws IOException
+   {
+      Properties copy = (Properties)props.clone();
+      append(encode(RECORD_PUT, bundleId, copy));
+      if (entries.put(bundleId, copy) != null)
+         obsoleteRecords++;
+
+      compactIfNeeded();
+   }
+
+   synchronized void delete(long bundleId) throws IOException
+   {
+      if (entries.remove(bundleId) == null)
+         return;
+
+      append(encode(RECORD_DELETE, bundleId, null));
+      obsoleteRecords += 2;
+
+      compactIfNeeded();
+   }
+
+   /**
+    * Rewrite the journal with a single record per bundle
+    */
+   synchronized void compact() throws IOException
+   {
+      closeOutput();
+
+      File tmpFile = new File(journalFile.getPath() + ".tmp");
+      FileOutputStream tmpOutput = new FileOutputStream(tmpFile);
+      try
+      {
+         ByteArrayOutputStream baos = new ByteArrayOutputStream();
+         DataOutputStream dos = new DataOutputStream(baos);
+         dos.writeInt(MAGIC);
+         dos.writeInt(VERSION);
+         for (Entry<Long, Properties> entry : entries.entrySet())
+            dos.write(encode(RECORD_PUT, entry.getKey(), entry.getValue()));
+         dos.flush();
+
+         tmpOutput.write(baos.toByteArray());
+         tmpOutput.getFD().sync();
+      }
+      finally
+      {
+         tmpOutput.close();
+      }
+
+      // Some platforms cannot rename onto an existing file
+      if (tmpFile.renameTo(journalFile) == false)
+      {
+         journalFile.delete();
+         if (tmpFile.renameTo(journalFile) == false)
+            throw new IOException("Cannot replace journal: " + journalFile);
+      }
+
+      obsoleteRecords = 0;
+      output = new FileOutputStream(journalFile, true);
+      log.tracef("Compacted journal with %d entries: %s", entries.size(), journalFile);
+   }
+
+   synchronized void close()
+   {
+      closeOutput();
+      entries.clear();
+      obsoleteRecords = 0;
+   }
+
+   private void compactIfNeeded() throws IOException
+   {
+      if (obsoleteRecords >= compactThreshold)
+         compact();
+   }
+
+   private void closeOutput()
+   {
+      if (output != null)
+      {
+         try
+         {
+            output.close();
+         }
+         catch (IOException ex)
+         {
+            // ignore
+         }
+         output = null;
+      }
+   }
+
+   private void append(byte[] record) throws IOException
+   {
+      if (output == null)
+         throw new IllegalStateException("Journal not loaded: " + journalFile);
+
+      // Write the record in one piece, so that a crash leaves at most one torn record
+      output.write(record);
+      output.flush();
+      output.getFD().sync();
+   }
+
+   /**
+    * Read the journal into the entries
+    * @return The length of the valid part of the journal
+    */
+   private long read() throws IOException
+   {
+      DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+      try
+      {
+         long validLength;
+         try
+         {
+            int magic = input.readInt();
+            int version = input.readInt();
+            if (magic != MAGIC || version != VERSION)
+               throw new InvalidJournalException("Invalid journal header: " + journalFile);
+            validLength = 8;
+         }
+         catch (EOFException ex)
+         {
+            // A journal is never created without its header
+            throw new InvalidJournalException("Missing journal header: " + journalFile);
+         }
+
+         CRC32 crc = new CRC32();
+         while (true)
+         {
+            byte[] payload;
+            try
+            {
+               int length = input.readInt();
+               long checksum = input.readLong();
+               if (length < 0 || length > MAX_RECORD_SIZE)
+                  return validLength;
+
+               payload = new byte[length];
+               input.readFully(payload);
+
+               crc.reset();
+               crc.update(payload);
+               if (crc.getValue() != checksum)
+                  return validLength;
+            }
+            catch (EOFException ex)
+            {
+               return validLength;
+            }
+
+            apply(payload);
+            validLength += 12 + payload.length;
+         }
+      }
+      finally
+      {
+         input.close();
+      }
+   }
+
+   private void apply(byte[] payload) throws IOException
+   {
+      DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+      byte type = input.readByte();
+      long bundleId = input.readLong();
+      if (type == RECORD_PUT)
+      {
+         Properties props = new Properties();
+         int count = input.readInt();
+         for (int i = 0; i < count; i++)
+         {
+            String key = input.readUTF();
+            String value = input.readUTF();
+            props.setProperty(key, value);
+         }
+         if (entries.put(bundleId, props) != null)
+            obsoleteRecords++;
+      }
+      else if (type == RECORD_DELETE)
+      {
+         entries.remove(bundleId);
+         obsoleteRecords += 2;
+      }
+      else
+      {
+         throw new IOException("Invalid journal record type: " + type);
+      }
+   }
+
+   private static byte[] encode(byte type, long bundleId, Properties props) throws IOException
+   {
+      ByteArrayOutputStream payload = new ByteArrayOutputStream(256);
+      DataOutputStream dos = new DataOutputStream(payload);
+      dos.writeByte(type);
+      dos.writeLong(bundleId);
+      if (type == RECORD_PUT)
+      {
+         Set<String> keys = props.stringPropertyNames();
+         dos.writeInt(keys.size());
+         for (String key : keys)
+         {
+            dos.writeUTF(key);
+            dos.writeUTF(props.getProperty(key));
+         }
+      }
+      dos.flush();
+
+      byte[] bytes = payload.toByteArray();
+      CRC32 crc = new CRC32();
+      crc.update(bytes);
+
+      ByteArrayOutputStream record = new ByteArrayOutputStream(bytes.length + 12);
+      DataOutputStream out = new DataOutputStream(record);
+      out.writeInt(bytes.length);
+      out.writeLong(crc.getValue());
+      out.write(bytes);
+      out.flush();
+      return record.toByteArray();
+   }
+
+   /**
+    * Thrown when the journal file cannot be read at all
+    */
+   static class InvalidJournalException extends IOException
+   {
+      private static final long serialVersionUID = 1L;
+
+      InvalidJournalException(String message)
+      {
+         super(message);
+      }
+   }
+}
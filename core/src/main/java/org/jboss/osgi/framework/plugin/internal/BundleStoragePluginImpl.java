@@ -31,8 +31,11 @@ import java.util.Properties;
 import org.jboss.logging.Logger;
 import org.jboss.osgi.framework.bundle.BundleManager;
 import org.jboss.osgi.framework.bundle.BundleStorageState;
+import org.jboss.osgi.framework.bundle.BundleStorageState.PropertiesWriter;
 import org.jboss.osgi.framework.plugin.AbstractPlugin;
 import org.jboss.osgi.framework.plugin.BundleStoragePlugin;
+import org.jboss.osgi.framework.plugin.TracePlugin;
+import org.jboss.osgi.framework.plugin.TracePlugin.EventType;
 import org.jboss.osgi.vfs.VirtualFile;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
@@ -50,12 +53,37 @@ public class BundleStoragePluginImpl extends AbstractPlugin implements BundleSto
 
    // The Framework storage area
    private File storageArea;
+   // The writer for the storage state properties
+   private PropertiesWriter propertiesWriter;
+   // The write-behind writer, null if properties are written synchronously
+   private WriteBehindPropertiesWriter writeBehindWriter;
 
    public BundleStoragePluginImpl(BundleManager bundleManager)
    {
       super(bundleManager);
    }
 
+   @Override
+   public void stopPlugin()
+   {
+      // Write the pending properties of the stopped bundles
+      flushProperties();
+   }
+
+   @Override
+   public void destroyPlugin()
+   {
+      WriteBehindPropertiesWriter writer;
+      synchronized (this)
+      {
+         writer = writeBehindWriter;
+         writeBehindWriter = null;
+         propertiesWriter = null;
+      }
+      if (writer != null)
+         writer.close();
+   }
+
    @Override
    public BundleStorageState createStorageState(long bundleId, String location, VirtualFile rootFile) throws IOException
    {
@@ -67,7 +95,7 @@ public class BundleStoragePluginImpl extends AbstractPlugin implements BundleSto
       File bundleDir = new File(bundlePath);
       bundleDir.mkdirs();
 
-      Properties props = BundleStorageState.loadProperties(bundleDir);
+      Properties props = getPersistentProperties(bundleId, bundleDir);
       String previousRev = props.getProperty(BundleStorageState.PROPERTY_BUNDLE_REV);
       int revision = (previousRev != null ? Integer.parseInt(previousRev) + 1: 0);
 
@@ -80,7 +108,90 @@ public class BundleStoragePluginImpl extends AbstractPlugin implements BundleSto
       props.put(BundleStorageState.PROPERTY_BUNDLE_REV, new Integer(revision).toString());
       props.put(BundleStorageState.PROPERTY_LAST_MODIFIED, new Long(System.currentTimeMillis()).toString());
 
-      return BundleStorageState.createBundleStorageState(bundleDir, rootFile, props);
+      BundleStorageState storageState = BundleStorageState.createBundleStorageState(bundleDir, rootFile, props, getPropertiesWriter());
+
+      // A newly installed bundle is always persisted immediately
+      WriteBehindPropertiesWriter writer = getWriteBehindWriter();
+      if (writer != null)
+         writer.flush(storageState);
+
+      return storageState;
+   }
+
+   /**
+    * Get the properties that have been persisted for the given bundle.
+    * @return The properties, which are empty if nothing has been persisted
+    */
+   protected Properties getPersistentProperties(long bundleId, File bundleDir) throws IOException
+   {
+      return BundleStorageState.loadProperties(bundleDir);
+   }
+
+   /**
+    * Create the writer that persists the storage state properties.
+    */
+   protected PropertiesWriter createPropertiesWriter()
+   {
+      return BundleStorageState.FILE_WRITER;
+   }
+
+   /**
+    * Get the writer that persists the storage state properties.
+    * If a max write delay is configured, property changes are coalesced and written in the background.
+    */
+   protected synchronized PropertiesWriter getPropertiesWriter()
+   {
+      if (propertiesWriter == null)
+      {
+         PropertiesWriter writer = createPropertiesWriter();
+
+         // Trace the actual writes, not the handover to the write-behind writer
+         TracePlugin tracePlugin = getOptionalPlugin(TracePlugin.class);
+         if (tracePlugin != null)
+            writer = new TracingPropertiesWriter(writer, tracePlugin);
+
+         long writeDelay = getWriteDelay();
+         if (writeDelay > 0)
+         {
+            log.debugf("Bundle storage write delay: %d", writeDelay);
+            writeBehindWriter = new WriteBehindPropertiesWriter(writer, writeDelay);
+            writer = writeBehindWriter;
+         }
+         propertiesWriter = writer;
+      }
+      return propertiesWriter;
+   }
+
+   /**
+    * Write all pending storage state properties.
+    */
+   protected void flushProperties()
+   {
+      WriteBehindPropertiesWriter writer = getWriteBehindWriter();
+      if (writer != null)
+         writer.flush();
+   }
+
+   private synchronized WriteBehindPropertiesWriter getWriteBehindWriter()
+   {
+      return writeBehindWriter;
+   }
+
+   private long getWriteDelay()
+   {
+      Object value = getBundleManager().getProperty(PROP_JBOSS_OSGI_STORAGE_WRITE_DELAY);
+      if (value == null)
+         return 0;
+
+      try
+      {
+         return Long.parseLong(value.toString().trim());
+      }
+      catch (NumberFormatException ex)
+      {
+         log.warnf("Invalid value for %s: %s", PROP_JBOSS_OSGI_STORAGE_WRITE_DELAY, value);
+         return 0;
+      }
    }
 
    @Override
@@ -92,7 +203,10 @@ public class BundleStoragePluginImpl extends AbstractPlugin implements BundleSto
       {
          for (File bundleDir : storageDirs)
          {
-            BundleStorageState storageState = BundleStorageState.createFromStorage(bundleDir);
+            if (bundleDir.isDirectory() == false)
+               continue;
+
+            BundleStorageState storageState = BundleStorageState.createFromStorage(bundleDir, getPropertiesWriter());
             states.add(storageState);
          }
       }
@@ -140,6 +254,8 @@ public class BundleStoragePluginImpl extends AbstractPlugin implements BundleSto
    @Override
    public void cleanStorage()
    {
+      flushProperties();
+
       File storage = getStorageArea();
       log.tracef("Deleting from storage: %s", storage.getAbsolutePath());
 
@@ -153,7 +269,7 @@ public class BundleStoragePluginImpl extends AbstractPlugin implements BundleSto
       }
    }
 
-   private File getStorageArea()
+   protected File getStorageArea()
    {
       if (storageArea == null)
       {
@@ -185,4 +301,31 @@ public class BundleStoragePluginImpl extends AbstractPlugin implements BundleSto
       }
       file.delete();
    }
-}
\ No newline at end of file
+
+   /**
+    * A PropertiesWriter that traces the writes of its delegate
+    */
+   private static final class TracingPropertiesWriter implements PropertiesWriter
+   {
+      private final PropertiesWriter delegate;
+      private final TracePlugin tracePlugin;
+
+      TracingPropertiesWriter(PropertiesWriter delegate, TracePlugin tracePlugin)
+      {
+         this.delegate = delegate;
+         this.tracePlugin = tracePlugin;
+      }
+
+      public void writeProperties(BundleStorageState storageState, Properties props) throws IOException
+      {
+         long startTime = System.nanoTime();
+         delegate.writeProperties(storageState, props);
+         tracePlugin.traceEvent(EventType.STORAGE_WRITE, startTime, System.nanoTime(), storageState, null);
+      }
+
+      public void deleteProperties(BundleStorageState storageState)
+      {
+         delegate.deleteProperties(storageState);
+      }
+   }
+}
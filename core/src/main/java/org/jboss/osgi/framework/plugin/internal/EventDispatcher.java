@@ -0,0 +1,335 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.plugin.internal;
+
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Delivers asynchronous events on a bounded pool of threads.
+ *
+ * Every listener gets its own serial queue, so that events are delivered to a listener in the
+ * order they were dispatched, while different listeners are served concurrently. When the queue
+ * of a listener is full, the dispatching thread waits for the listener to catch up. If the
+ * listener does not catch up within the configured timeout, the event is dropped.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 14-Jan-2011
+ */
+final class EventDispatcher
+{
+   // Provide logging
+   private static final Logger log = Logger.getLogger(EventDispatcher.class);
+
+   // The max number of events a queue delivers before it yields its thread
+   private static final int MAX_EVENTS_PER_RUN = 64;
+
+   private final ThreadPoolExecutor executor;
+   private final int queueCapacity;
+   private final long offerTimeout;
+   private final ConcurrentMap<Object, ListenerQueue> queues = new ConcurrentHashMap<Object, ListenerQueue>();
+   // Notified when a queue has been drained and retired
+   private final Object drainLock = new Object();
+   private final AtomicLong droppedEvents = new AtomicLong();
+
+   EventDispatcher(int poolSize, int queueCapacity, long offerTimeout)
+   {
+      if (poolSize < 1)
+         throw new IllegalArgumentException("Invalid pool size: " + poolSize);
+      if (queueCapacity < 1)
+         throw new IllegalArgumentException("Invalid queue capacity: " + queueCapacity);
+
+      this.queueCapacity = queueCapacity;
+      this.offerTimeout = offerTimeout;
+
+      // The work queue holds at most one entry per listener
+      executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DispatcherThreadFactory());
+      executor.allowCoreThreadTimeOut(true);
+   }
+
+   /**
+    * Dispatch an event to the given listener.
+    *
+    * The given task is run after all tasks that were previously dispatched to the same listener.
+    */
+   void dispatch(Object listener, Runnable task)
+   {
+      if (listener == null)
+         throw new IllegalArgumentException("Null listener");
+      if (task == null)
+         throw new IllegalArgumentException("Null task");
+
+      // Retry if the queue has been retired concurrently
+      boolean accepted = false;
+      while (accepted == false)
+      {
+         if (executor.isShutdown())
+         {
+            long count = droppedEvents.incrementAndGet();
+            log.debugf("Event dispatcher shut down, dropped event #%d for: %s", count, listener);
+            return;
+         }
+
+         ListenerQueue queue = queues.get(listener);
+         if (queue == null)
+         {
+            queue = new ListenerQueue(listener);
+            ListenerQueue previous = queues.putIfAbsent(listener, queue);
+            if (previous != null)
+               queue = previous;
+         }
+         accepted = queue.offer(task);
+      }
+   }
+
+   /**
+    * Shut down the dispatcher.
+    *
+    * Events that have already been dispatched are still delivered, events that are dispatched
+    * afterwards are dropped. Waits for the pending events to be delivered up to the offer timeout.
+    */
+   void shutdown()
+   {
+      // Events that are delivered may dispatch further events, so wait for all queues to drain
+      // before the executor is shut down. A dispatcher thread would wait for its own queue
+      if (Thread.currentThread() instanceof DispatcherThread == false)
+      {
+         long deadline = System.currentTimeMillis() + offerTimeout;
+         long remaining = offerTimeout;
+         synchronized (drainLock)
+         {
+            while (queues.isEmpty() == false && remaining > 0)
+            {
+               try
+               {
+                  drainLock.wait(remaining);
+               }
+               catch (InterruptedException ex)
+               {
+                  Thread.currentThread().interrupt();
+                  break;
+               }
+               remaining = deadline - System.currentTimeMillis();
+            }
+         }
+      }
+      if (queues.isEmpty() == false)
+         log.debugf("Pending events not delivered after %dms: %d", offerTimeout, getPendingEventCount());
+
+      executor.shutdown();
+   }
+
+   boolean isShutdown()
+   {
+      return executor.isShutdown();
+   }
+
+   /**
+    * Get the number of events that were dropped because a listener did not keep up
+    */
+   long getDroppedEventCount()
+   {
+      return droppedEvents.get();
+   }
+
+   /**
+    * Get the number of events that are waiting for delivery
+    */
+   int getPendingEventCount()
+   {
+      int result = 0;
+      for (ListenerQueue queue : queues.values())
+         result += queue.size();
+      return result;
+   }
+
+   /**
+    * A serial queue of events for a single listener
+    */
+   class ListenerQueue implements Runnable
+   {
+      private final Object listener;
+      private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+      private boolean scheduled;
+      private boolean retired;
+
+      ListenerQueue(Object listener)
+      {
+         this.listener = listener;
+      }
+
+      /**
+       * Add a task to this queue
+       * @return false if this queue has been retired and the task must be offered to a new queue
+       */
+      synchronized boolean offer(Runnable task)
+      {
+         // Events that are dispatched from a dispatcher thread must never wait for the dispatcher
+         if (tasks.size() >= queueCapacity && Thread.currentThread() instanceof DispatcherThread == false)
+         {
+            long deadline = System.currentTimeMillis() + offerTimeout;
+            long remaining = offerTimeout;
+            while (tasks.size() >= queueCapacity && retired == false && remaining > 0)
+            {
+               try
+               {
+                  wait(remaining);
+               }
+               catch (InterruptedException ex)
+               {
+                  Thread.currentThread().interrupt();
+                  break;
+               }
+               remaining = deadline - System.currentTimeMillis();
+            }
+            if (retired)
+               return false;
+
+            if (tasks.size() >= queueCapacity)
+            {
+               long count = droppedEvents.incrementAndGet();
+               log.warnf("Listener does not keep up, dropped event #%d for: %s", count, listener);
+               return true;
+            }
+         }
+
+         if (retired)
+            return false;
+
+         tasks.add(task);
+         if (scheduled == false)
+         {
+            try
+            {
+               executor.execute(this);
+               scheduled = true;
+            }
+            catch (RejectedExecutionException ex)
+            {
+               // The dispatcher has been shut down, retire this queue and let the caller drop the task
+               tasks.removeLast();
+               if (tasks.isEmpty() == false)
+               {
+                  long count = droppedEvents.addAndGet(tasks.size());
+                  log.debugf("Event dispatcher shut down, dropped %d events (total %d) for: %s", tasks.size(), count, listener);
+                  tasks.clear();
+               }
+               retire();
+               notifyAll();
+               return false;
+            }
+         }
+         return true;
+      }
+
+      private void retire()
+      {
+         retired = true;
+         queues.remove(listener, this);
+      }
+
+      synchronized int size()
+      {
+         return tasks.size();
+      }
+
+      public void run()
+      {
+         int count = 0;
+         while (true)
+         {
+            Runnable task;
+            synchronized (this)
+            {
+               task = tasks.poll();
+               if (task == null)
+               {
+                  // Retire the empty queue, so that it does not outlive the listener
+                  scheduled = false;
+                  retire();
+               }
+               notifyAll();
+            }
+            if (task == null)
+            {
+               synchronized (drainLock)
+               {
+                  drainLock.notifyAll();
+               }
+               return;
+            }
+            try
+            {
+               task.run();
+            }
+            catch (Throwable th)
+            {
+               log.warnf(th, "Error while delivering event to: %s", listener);
+            }
+
+            // Give other listeners a chance to get their events delivered
+            if (++count == MAX_EVENTS_PER_RUN)
+            {
+               try
+               {
+                  executor.execute(this);
+                  return;
+               }
+               catch (RejectedExecutionException ex)
+               {
+                  // The dispatcher has been shut down, deliver the remaining events on this thread
+               }
+            }
+         }
+      }
+   }
+
+   static class DispatcherThread extends Thread
+   {
+      DispatcherThread(Runnable runnable, String name)
+      {
+         super(runnable, name);
+      }
+   }
+
+   static class DispatcherThreadFactory implements ThreadFactory
+   {
+      private final AtomicInteger threadCount = new AtomicInteger();
+
+      public Thread newThread(Runnable runnable)
+      {
+         Thread thread = new DispatcherThread(runnable, "OSGi Event Dispatcher-" + threadCount.incrementAndGet());
+         thread.setDaemon(true);
+         return thread;
+      }
+   }
+}
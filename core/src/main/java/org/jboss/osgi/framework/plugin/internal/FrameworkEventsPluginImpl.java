@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -35,18 +36,25 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.jboss.logging.Logger;
+import org.jboss.osgi.framework.Constants;
 import org.jboss.osgi.framework.bundle.AbstractBundle;
 import org.jboss.osgi.framework.bundle.BundleManager;
 import org.jboss.osgi.framework.bundle.ServiceReferenceWrapper;
 import org.jboss.osgi.framework.bundle.ServiceState;
 import org.jboss.osgi.framework.plugin.AbstractPlugin;
 import org.jboss.osgi.framework.plugin.FrameworkEventsPlugin;
+import org.jboss.osgi.framework.plugin.MetricsPlugin;
+import org.jboss.osgi.framework.plugin.TracePlugin;
+import org.jboss.osgi.framework.plugin.TracePlugin.EventType;
+import org.jboss.osgi.framework.util.CompiledFilter;
+import org.jboss.osgi.framework.util.LatencyHistogram;
 import org.jboss.osgi.framework.util.NoFilter;
 import org.jboss.osgi.framework.util.RemoveOnlyCollection;
+import org.jboss.osgi.framework.util.ServiceProperties;
 import org.jboss.osgi.spi.util.ConstantsHelper;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -55,7 +63,6 @@ import org.osgi.framework.BundleListener;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkEvent;
 import org.osgi.framework.FrameworkListener;
-import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
@@ -77,6 +84,12 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
    // Provide logging
    final Logger log = Logger.getLogger(FrameworkEventsPluginImpl.class);
 
+   // The default configuration of the event dispatcher
+   private static final int DEFAULT_POOL_SIZE = 4;
+   private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+   private static final int DEFAULT_OFFER_TIMEOUT = 5000;
+   private static final int DEFAULT_BATCH_WINDOW = 50;
+
    /** The active state of this plugin */
    private boolean active;
    /** The bundle listeners */
@@ -85,18 +98,38 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
    private final Map<Bundle, List<FrameworkListener>> frameworkListeners = new ConcurrentHashMap<Bundle, List<FrameworkListener>>();
    /** The service listeners */
    private final Map<Bundle, List<ServiceListenerRegistration>> serviceListeners = new ConcurrentHashMap<Bundle, List<ServiceListenerRegistration>>();
-
-   /** The executor service */
-   private ExecutorService executorService;
+   /** The snapshot of service listeners indexed by objectClass */
+   private volatile ServiceListenerIndex serviceListenerIndex = ServiceListenerIndex.EMPTY;
+   /** The cached event hooks, null if they need to be looked up */
+   private final AtomicReference<HookSnapshot<EventHook>> eventHooks = new AtomicReference<HookSnapshot<EventHook>>();
+   /** The cached listener hooks, null if they need to be looked up */
+   private final AtomicReference<HookSnapshot<ListenerHook>> listenerHooks = new AtomicReference<HookSnapshot<ListenerHook>>();
+   /** Incremented whenever a hook service is registered, modified or unregistered */
+   private final AtomicInteger hookModCount = new AtomicInteger();
+
+   /** The dispatcher for asynchronous events */
+   private volatile EventDispatcher eventDispatcher;
+   /** The batcher for asynchronous bundle events, null if batching is disabled */
+   private volatile BundleEventBatcher bundleEventBatcher;
    /** The set of bundle events that are delivered to an (asynchronous) BundleListener */
    private Set<Integer> asyncBundleEvents = new HashSet<Integer>();
    /** The set of events that are logged at INFO level */
    private Set<String> infoEvents = new HashSet<String>();
 
+   /** The metrics, null if metrics are disabled */
+   private MetricsPlugin metrics;
+   /** The dispatch time histograms indexed by the bit of the event type */
+   private final LatencyHistogram[] bundleEventTimes = new LatencyHistogram[Integer.SIZE];
+   private final LatencyHistogram[] frameworkEventTimes = new LatencyHistogram[Integer.SIZE];
+   private final LatencyHistogram[] serviceEventTimes = new LatencyHistogram[Integer.SIZE];
+   /** The time spent in event hooks */
+   private LatencyHistogram hookTime;
+   /** The trace plugin, null if tracing is disabled */
+   private TracePlugin tracePlugin;
+
    public FrameworkEventsPluginImpl(BundleManager bundleManager)
    {
       super(bundleManager);
-      executorService = Executors.newCachedThreadPool();
       asyncBundleEvents.add(new Integer(BundleEvent.INSTALLED));
       asyncBundleEvents.add(new Integer(BundleEvent.RESOLVED));
       asyncBundleEvents.add(new Integer(BundleEvent.STARTED));
@@ -114,13 +147,90 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
       infoEvents.add(ConstantsHelper.bundleEvent(BundleEvent.UNINSTALLED));
    }
 
+   @Override
+   public void initPlugin()
+   {
+      int poolSize = getIntegerProperty(PROP_JBOSS_OSGI_EVENTS_POOL_SIZE, DEFAULT_POOL_SIZE);
+      int queueCapacity = getIntegerProperty(PROP_JBOSS_OSGI_EVENTS_QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY);
+      int offerTimeout = getIntegerProperty(PROP_JBOSS_OSGI_EVENTS_OFFER_TIMEOUT, DEFAULT_OFFER_TIMEOUT);
+      eventDispatcher = new EventDispatcher(poolSize, queueCapacity, offerTimeout);
+      log.debugf("Event dispatcher: poolSize=%d, queueCapacity=%d, offerTimeout=%d", poolSize, queueCapacity, offerTimeout);
+
+      // Batching of asynchronous bundle events is opt-in
+      int batchSize = getIntegerProperty(PROP_JBOSS_OSGI_EVENTS_BATCH_SIZE, 0);
+      if (batchSize > 1)
+      {
+         int batchWindow = getIntegerProperty(PROP_JBOSS_OSGI_EVENTS_BATCH_WINDOW, DEFAULT_BATCH_WINDOW);
+         bundleEventBatcher = new BundleEventBatcher(eventDispatcher, batchSize, batchWindow);
+         log.debugf("Bundle event batching: batchSize=%d, batchWindow=%d", batchSize, batchWindow);
+      }
+
+      tracePlugin = getOptionalPlugin(TracePlugin.class);
+      metrics = getOptionalPlugin(MetricsPlugin.class);
+      if (metrics != null)
+      {
+         hookTime = metrics.getHistogram(MetricsPlugin.SERVICE_HOOK_TIME);
+         metrics.registerGauge(MetricsPlugin.EVENT_QUEUE_DEPTH, new MetricsPlugin.Gauge()
+         {
+            public long getValue()
+            {
+               EventDispatcher dispatcher = eventDispatcher;
+               return dispatcher != null ? dispatcher.getPendingEventCount() : 0;
+            }
+         });
+         metrics.registerGauge(MetricsPlugin.EVENT_DROPPED, new MetricsPlugin.Gauge()
+         {
+            public long getValue()
+            {
+               return getDroppedEventCount();
+            }
+         });
+      }
+   }
+
+   private int getIntegerProperty(String key, int defaultValue)
+   {
+      String value = getBundleManager().getFrameworkState().getProperty(key);
+      if (value == null)
+         return defaultValue;
+
+      try
+      {
+         return Integer.parseInt(value.trim());
+      }
+      catch (NumberFormatException ex)
+      {
+         log.warnf("Invalid value for %s: %s", key, value);
+         return defaultValue;
+      }
+   }
+
    @Override
    public void destroyPlugin()
    {
       setActive(false);
+
+      // Deliver the pending batched events
+      BundleEventBatcher batcher = bundleEventBatcher;
+      if (batcher != null)
+      {
+         bundleEventBatcher = null;
+         batcher.close();
+      }
+
+      // Deliver the pending asynchronous events and stop the dispatcher threads
+      EventDispatcher dispatcher = eventDispatcher;
+      if (dispatcher != null)
+         dispatcher.shutdown();
+
       bundleListeners.clear();
-      serviceListeners.clear();
       frameworkListeners.clear();
+      synchronized (serviceListeners)
+      {
+         serviceListeners.clear();
+         serviceListenerIndex = ServiceListenerIndex.EMPTY;
+      }
+      invalidateHooks();
    }
 
    @Override
@@ -261,7 +371,7 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
          removeServiceListener(bundle, listener);
 
          // Create the new listener registration
-         Filter filter = (filterstr != null ? FrameworkUtil.createFilter(filterstr) : NoFilter.INSTANCE);
+         Filter filter = (filterstr != null ? getBundleManager().getFilterCache().compile(filterstr) : NoFilter.INSTANCE);
          ServiceListenerRegistration slreg = new ServiceListenerRegistration(bundle, listener, filter);
 
          // The {@link ListenerHook} added method is called to provide the hook implementation with information on newly added service listeners.
@@ -280,6 +390,7 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
 
          // Add the listener to the list
          listeners.add(slreg);
+         serviceListenerIndex = serviceListenerIndex.add(slreg);
       }
    }
 
@@ -319,6 +430,7 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
             if (index >= 0)
             {
                slreg = listeners.remove(index);
+               serviceListenerIndex = serviceListenerIndex.remove(slreg);
 
                // The {@link ListenerHook} 'removed' method is called to provide the hook implementation with information on newly removed service listeners.
                // This method will be called as service listeners are removed while this hook is registered.
@@ -346,7 +458,12 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
       synchronized (serviceListeners)
       {
          Collection<ListenerInfo> listenerInfos = getServiceListenerInfos(bundle);
-         serviceListeners.remove(assertBundle(bundle));
+         List<ServiceListenerRegistration> listeners = serviceListeners.remove(assertBundle(bundle));
+         if (listeners != null)
+         {
+            for (ServiceListenerRegistration slreg : listeners)
+               serviceListenerIndex = serviceListenerIndex.remove(slreg);
+         }
 
          // The {@link ListenerHook} 'removed' method is called to provide the hook implementation with information on newly removed service listeners.
          // This method will be called as service listeners are removed while this hook is registered.
@@ -366,24 +483,8 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
 
    private List<ListenerHook> getServiceListenerHooks()
    {
-      BundleContext context = getBundleManager().getSystemContext();
-      ServiceReference[] srefs = null;
-      try
-      {
-         srefs = context.getServiceReferences(ListenerHook.class.getName(), null);
-      }
-      catch (InvalidSyntaxException e)
-      {
-         // ignore
-      }
-      if (srefs == null)
-         return Collections.emptyList();
-
-      List<ListenerHook> hooks = new ArrayList<ListenerHook>();
-      for (ServiceReference sref : srefs)
-         hooks.add((ListenerHook)context.getService(sref));
-
-      return Collections.unmodifiableList(hooks);
+      // The ListenerHooks are called in the compareTo ordering of their service references
+      return getHooks(listenerHooks, ListenerHook.class, false);
    }
 
    @Override
@@ -416,13 +517,20 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
       if (listeners.isEmpty())
          return;
 
+      final LatencyHistogram dispatchTime = getDispatchTime(bundleEventTimes, "bundle.", type, typeName);
+      final long fireTime = (dispatchTime != null ? System.nanoTime() : 0);
+
       // Synchronous listeners first
       for (BundleListener listener : listeners)
       {
          try
          {
             if (listener instanceof SynchronousBundleListener)
+            {
                listener.bundleChanged(event);
+               if (dispatchTime != null)
+                  dispatchTime.recordSince(fireTime);
+            }
          }
          catch (Throwable th)
          {
@@ -430,32 +538,51 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
          }
       }
 
-      Runnable runnable = new Runnable()
+      // BundleListeners are called with a BundleEvent object when a bundle has been
+      // installed, resolved, started, stopped, updated, unresolved, or uninstalled
+      if (asyncBundleEvents.contains(type))
       {
-         public void run()
+         // Batch the event if batching is enabled
+         BundleEventBatcher batcher = bundleEventBatcher;
+         if (batcher != null)
+         {
+            List<BundleListener> asyncListeners = new ArrayList<BundleListener>();
+            for (BundleListener listener : listeners)
+            {
+               if (listener instanceof SynchronousBundleListener == false)
+                  asyncListeners.add(listener);
+            }
+            if (asyncListeners.isEmpty() == false)
+               batcher.add(event, asyncListeners);
+            return;
+         }
+
+         for (final BundleListener listener : listeners)
          {
-            // BundleListeners are called with a BundleEvent object when a bundle has been
-            // installed, resolved, started, stopped, updated, unresolved, or uninstalled
-            if (asyncBundleEvents.contains(type))
+            if (listener instanceof SynchronousBundleListener)
+               continue;
+
+            Runnable runnable = new Runnable()
             {
-               for (BundleListener listener : listeners)
+               public void run()
                {
                   try
                   {
-                     if (listener instanceof SynchronousBundleListener == false)
-                        listener.bundleChanged(event);
+                     listener.bundleChanged(event);
                   }
                   catch (Throwable th)
                   {
-                     log.warnf(th, "Error while firing %s for bundle: ", typeName, bundle);
+                     log.warnf(th, "Error while firing %s for bundle: %s", typeName, bundle);
                   }
+                  if (dispatchTime != null)
+                     dispatchTime.recordSince(fireTime);
                }
-            }
-         }
-      };
+            };
 
-      // Fire the event in a runnable
-      fireEvent(runnable);
+            // Fire the event in a runnable
+            fireEvent(listener, runnable);
+         }
+      }
    }
 
    @Override
@@ -498,12 +625,15 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
       if (listeners.isEmpty())
          return;
 
-      Runnable runnable = new Runnable()
+      final LatencyHistogram dispatchTime = getDispatchTime(frameworkEventTimes, "framework.", type, typeName);
+      final long fireTime = (dispatchTime != null ? System.nanoTime() : 0);
+
+      // Call the listeners
+      for (final FrameworkListener listener : listeners)
       {
-         public void run()
+         Runnable runnable = new Runnable()
          {
-            // Call the listeners
-            for (FrameworkListener listener : listeners)
+            public void run()
             {
                try
                {
@@ -525,34 +655,43 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
                {
                   log.warnf(th, "Error while firing %s for framework", typeName);
                }
+               if (dispatchTime != null)
+                  dispatchTime.recordSince(fireTime);
             }
-         }
-      };
+         };
 
-      // Fire the event in a runnable
-      fireEvent(runnable);
+         // Fire the event in a runnable
+         fireEvent(listener, runnable);
+      }
    }
 
    @Override
-   public void fireServiceEvent(Bundle bundle, int type, final ServiceState serviceState)
+   public void fireServiceEvent(Bundle bundle, int type, ServiceState serviceState)
    {
-      // Get a snapshot of the current listeners
+      fireServiceEvent(bundle, type, serviceState, null, serviceState.getProperties());
+   }
+
+   @Override
+   public void fireServiceEvent(Bundle bundle, int type, final ServiceState serviceState, ServiceProperties previous, ServiceProperties current)
+   {
+      // Get the listeners from the current snapshot that may match the objectClass
       List<ServiceListenerRegistration> listeners = new ArrayList<ServiceListenerRegistration>();
-      synchronized (serviceListeners)
+      String[] clazzes = current.getObjectClass();
+
+      // A registered, modified or unregistering hook invalidates the cached hooks.
+      // Hooks that have completed unregistering are detected by the snapshot itself
+      if (isHookService(clazzes))
+         invalidateHooks();
+
+      for (ServiceListenerRegistration listener : serviceListenerIndex.getListeners(clazzes))
       {
-         for (Entry<Bundle, List<ServiceListenerRegistration>> entry : serviceListeners.entrySet())
-         {
-            for (ServiceListenerRegistration listener : entry.getValue())
-            {
-               BundleContext context = listener.getBundleContext();
-               if (context != null)
-                  listeners.add(listener);
-            }
-         }
+         BundleContext context = listener.getBundleContext();
+         if (context != null)
+            listeners.add(listener);
       }
 
       // Expose the wrapper not the state itself
-      ServiceEvent event = new ServiceEventImpl(type, new ServiceReferenceWrapper(serviceState));
+      final ServiceEvent event = new ServiceEventImpl(type, new ServiceReferenceWrapper(serviceState));
       String typeName = ConstantsHelper.serviceEvent(event.getType());
 
       log.tracef("Service %s: %s", typeName, serviceState);
@@ -561,6 +700,9 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
       if (getBundleManager().isFrameworkActive() == false)
          return;
 
+      LatencyHistogram dispatchTime = getDispatchTime(serviceEventTimes, "service.", type, typeName);
+      long fireTime = (dispatchTime != null ? System.nanoTime() : 0);
+
       // Call the registered event hooks
       listeners = processEventHooks(listeners, event);
 
@@ -571,10 +713,11 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
       // Call the listeners. All service events are synchronously delivered
       for (ServiceListenerRegistration listener : listeners)
       {
+         long deliveryTime = (tracePlugin != null ? System.nanoTime() : 0);
          try
          {
             String filterstr = listener.filter.toString();
-            if (listener.filter.match(serviceState))
+            if (listener.filter.match(current))
             {
                listener.listener.serviceChanged(event);
             }
@@ -585,10 +728,11 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
             // not match the modified service properties.
             else if (filterstr != null && ServiceEvent.MODIFIED == event.getType())
             {
-               if (listener.filter.match(serviceState.getPreviousProperties()))
+               if (previous != null && listener.filter.match(previous))
                {
-                  event = new ServiceEventImpl(ServiceEvent.MODIFIED_ENDMATCH, new ServiceReferenceWrapper(serviceState));
-                  listener.listener.serviceChanged(event);
+                  // Keep the MODIFIED event for the remaining listeners
+                  ServiceEvent endMatch = new ServiceEventImpl(ServiceEvent.MODIFIED_ENDMATCH, new ServiceReferenceWrapper(serviceState));
+                  listener.listener.serviceChanged(endMatch);
                }
             }
          }
@@ -596,7 +740,31 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
          {
             log.warnf(th, "Error while firing %s for service: %s", typeName, serviceState);
          }
+         if (dispatchTime != null)
+            dispatchTime.recordSince(fireTime);
+         if (tracePlugin != null)
+            tracePlugin.traceEvent(EventType.SERVICE_EVENT_DELIVERY, deliveryTime, System.nanoTime(), serviceState, listener.listener.getClass());
+      }
+   }
+
+   /**
+    * Get the dispatch time histogram for the given event type
+    * @return The histogram or null if metrics are disabled
+    */
+   private LatencyHistogram getDispatchTime(LatencyHistogram[] histograms, String kind, int type, String typeName)
+   {
+      if (metrics == null)
+         return null;
+
+      // Event types are single bits
+      int index = Integer.numberOfTrailingZeros(type);
+      LatencyHistogram histogram = histograms[index];
+      if (histogram == null)
+      {
+         histogram = metrics.getHistogram(MetricsPlugin.EVENT_DISPATCH_TIME_PREFIX + kind + typeName);
+         histograms[index] = histogram;
       }
+      return histogram;
    }
 
    private List<ServiceListenerRegistration> processEventHooks(List<ServiceListenerRegistration> listeners, final ServiceEvent event)
@@ -613,6 +781,8 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
 
       // Call the registered event hooks
       List<EventHook> eventHooks = getEventHooks();
+      boolean recordHookTime = (hookTime != null && eventHooks.isEmpty() == false);
+      long startTime = (recordHookTime ? System.nanoTime() : 0);
       for (EventHook hook : eventHooks)
       {
          try
@@ -624,6 +794,8 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
             log.warnf(ex, "Error while calling EventHook: %s", hook);
          }
       }
+      if (recordHookTime)
+         hookTime.recordSince(startTime);
 
       // Remove the listeners that have been filtered by the EventHooks
       if (contexts.size() != listeners.size())
@@ -641,28 +813,44 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
 
    private List<EventHook> getEventHooks()
    {
-      List<EventHook> hooks = new ArrayList<EventHook>();
-      BundleContext context = getBundleManager().getSystemContext();
-      ServiceReference[] srefs = null;
-      try
-      {
-         srefs = context.getServiceReferences(EventHook.class.getName(), null);
-      }
-      catch (InvalidSyntaxException e)
+      // The EventHooks are called in the reversed compareTo ordering of their service references.
+      // That is, the service with the highest ranking number is called first.
+      return getHooks(eventHooks, EventHook.class, true);
+   }
+
+   private <T> List<T> getHooks(AtomicReference<HookSnapshot<T>> cache, Class<T> hookType, boolean highestRankingFirst)
+   {
+      HookSnapshot<T> snapshot = cache.get();
+      if (snapshot == null || snapshot.modCount != hookModCount.get() || snapshot.isValid() == false)
       {
-         // ignore
+         // The snapshot is stamped with the modCount that was read before the lookup. A hook that is
+         // registered concurrently increments the modCount, so that a stale snapshot is never used
+         int modCount = hookModCount.get();
+         HookSnapshot<T> created = new HookSnapshot<T>(hookType, getBundleManager().getSystemContext(), modCount, highestRankingFirst);
+         cache.compareAndSet(snapshot, created);
+         snapshot = created;
       }
-      if (srefs != null)
-      {
-         // The calling order of the hooks is defined by the reversed compareTo ordering of their Service
-         // Reference objects. That is, the service with the highest ranking number is called first.
-         List<ServiceReference> sortedRefs = new ArrayList<ServiceReference>(Arrays.asList(srefs));
-         Collections.reverse(sortedRefs);
+      return snapshot.hooks;
+   }
 
-         for (ServiceReference sref : sortedRefs)
-            hooks.add((EventHook)context.getService(sref));
+   private void invalidateHooks()
+   {
+      hookModCount.incrementAndGet();
+      eventHooks.set(null);
+      listenerHooks.set(null);
+   }
+
+   private static boolean isHookService(String[] clazzes)
+   {
+      if (clazzes != null)
+      {
+         for (String clazz : clazzes)
+         {
+            if (EventHook.class.getName().equals(clazz) || ListenerHook.class.getName().equals(clazz))
+               return true;
+         }
       }
-      return hooks;
+      return false;
    }
 
    private static Bundle assertBundle(Bundle bundle)
@@ -677,9 +865,22 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
       return bundle;
    }
 
-   private void fireEvent(Runnable runnable)
+   private void fireEvent(Object listener, Runnable runnable)
    {
-      executorService.execute(runnable);
+      EventDispatcher dispatcher = eventDispatcher;
+      if (dispatcher == null)
+      {
+         log.debugf("Event dispatcher not initialized, dropped event for: %s", listener);
+         return;
+      }
+      dispatcher.dispatch(listener, runnable);
+   }
+
+   @Override
+   public long getDroppedEventCount()
+   {
+      EventDispatcher dispatcher = eventDispatcher;
+      return dispatcher != null ? dispatcher.getDroppedEventCount() : 0;
    }
 
    /**
@@ -691,6 +892,8 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
       private ServiceListener listener;
       private Filter filter;
       private ListenerInfo info;
+      // The objectClass the filter requires or null
+      private String objectClass;
 
       // Any access control context
       AccessControlContext accessControlContext;
@@ -708,6 +911,7 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
          this.listener = listener;
          this.filter = filter;
          this.info = new ListenerInfoImpl(this);
+         this.objectClass = getRequiredObjectClass(filter);
 
          if (System.getSecurityManager() != null)
             accessControlContext = AccessController.getContext();
@@ -718,6 +922,19 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
          return bundle.getBundleContext();
       }
 
+      private static String getRequiredObjectClass(Filter filter)
+      {
+         if (filter instanceof CompiledFilter)
+         {
+            for (CompiledFilter item : ((CompiledFilter)filter).getRequiredItems())
+            {
+               if (item.getOperation() == CompiledFilter.EQUAL && Constants.OBJECTCLASS.equalsIgnoreCase(item.getAttribute()))
+                  return item.getValue();
+            }
+         }
+         return null;
+      }
+
       public ListenerInfo getListenerInfo()
       {
          return info;
@@ -748,6 +965,160 @@ public class FrameworkEventsPluginImpl extends AbstractPlugin implements Framewo
       }
    }
 
+   /**
+    * An immutable snapshot of the registered hooks of a given type.
+    *
+    * The hooks are ordered by the compareTo ordering of their service references,
+    * or by the reversed ordering if the service with the highest ranking number comes first.
+    */
+   static class HookSnapshot<T>
+   {
+      private final int modCount;
+      private final List<ServiceState> serviceStates;
+      private final List<T> hooks;
+
+      HookSnapshot(Class<T> hookType, BundleContext context, int modCount, boolean highestRankingFirst)
+      {
+         this.modCount = modCount;
+         ServiceReference[] srefs = null;
+         try
+         {
+            srefs = context.getServiceReferences(hookType.getName(), null);
+         }
+         catch (InvalidSyntaxException e)
+         {
+            // ignore
+         }
+         if (srefs == null)
+         {
+            serviceStates = Collections.emptyList();
+            hooks = Collections.emptyList();
+            return;
+         }
+
+         List<ServiceReference> sortedRefs = new ArrayList<ServiceReference>(Arrays.asList(srefs));
+         if (highestRankingFirst)
+            Collections.reverse(sortedRefs);
+
+         serviceStates = new ArrayList<ServiceState>();
+         List<T> list = new ArrayList<T>();
+         for (ServiceReference sref : sortedRefs)
+         {
+            Object hook = context.getService(sref);
+            if (hook != null)
+            {
+               serviceStates.add(ServiceState.assertServiceState(sref));
+               list.add(hookType.cast(hook));
+            }
+         }
+         hooks = Collections.unmodifiableList(list);
+      }
+
+      boolean isValid()
+      {
+         for (ServiceState serviceState : serviceStates)
+         {
+            if (serviceState.isUnregistered())
+               return false;
+         }
+         return true;
+      }
+   }
+
+   /**
+    * An immutable snapshot of the service listeners.
+    *
+    * Listeners with a filter that requires a single objectClass are kept in a bucket for
+    * that objectClass, all others are kept in the catch-all bucket. Updates create a new
+    * snapshot, so that event delivery can read it without locking.
+    */
+   static class ServiceListenerIndex
+   {
+      static final ServiceListenerIndex EMPTY = new ServiceListenerIndex(new HashMap<String, ServiceListenerRegistration[]>(), new ServiceListenerRegistration[0]);
+
+      private final Map<String, ServiceListenerRegistration[]> classListeners;
+      private final ServiceListenerRegistration[] otherListeners;
+
+      private ServiceListenerIndex(Map<String, ServiceListenerRegistration[]> classListeners, ServiceListenerRegistration[] otherListeners)
+      {
+         this.classListeners = classListeners;
+         this.otherListeners = otherListeners;
+      }
+
+      /**
+       * Get the listeners that can possibly match a service with the given objectClass
+       */
+      List<ServiceListenerRegistration> getListeners(String[] clazzes)
+      {
+         List<ServiceListenerRegistration> result = new ArrayList<ServiceListenerRegistration>(Arrays.asList(otherListeners));
+         if (clazzes != null && classListeners.isEmpty() == false)
+         {
+            for (String clazz : clazzes)
+            {
+               ServiceListenerRegistration[] listeners = classListeners.get(clazz);
+               if (listeners != null)
+                  result.addAll(Arrays.asList(listeners));
+            }
+         }
+         return result;
+      }
+
+      ServiceListenerIndex add(ServiceListenerRegistration slreg)
+      {
+         String clazz = slreg.objectClass;
+         if (clazz == null)
+            return new ServiceListenerIndex(classListeners, append(otherListeners, slreg));
+
+         Map<String, ServiceListenerRegistration[]> map = new HashMap<String, ServiceListenerRegistration[]>(classListeners);
+         ServiceListenerRegistration[] listeners = map.get(clazz);
+         map.put(clazz, append(listeners != null ? listeners : new ServiceListenerRegistration[0], slreg));
+         return new ServiceListenerIndex(map, otherListeners);
+      }
+
+      ServiceListenerIndex remove(ServiceListenerRegistration slreg)
+      {
+         String clazz = slreg.objectClass;
+         if (clazz == null)
+            return new ServiceListenerIndex(classListeners, remove(otherListeners, slreg));
+
+         ServiceListenerRegistration[] listeners = classListeners.get(clazz);
+         if (listeners == null)
+            return this;
+
+         Map<String, ServiceListenerRegistration[]> map = new HashMap<String, ServiceListenerRegistration[]>(classListeners);
+         listeners = remove(listeners, slreg);
+         if (listeners.length == 0)
+            map.remove(clazz);
+         else
+            map.put(clazz, listeners);
+         return new ServiceListenerIndex(map, otherListeners);
+      }
+
+      private static ServiceListenerRegistration[] append(ServiceListenerRegistration[] listeners, ServiceListenerRegistration slreg)
+      {
+         ServiceListenerRegistration[] result = new ServiceListenerRegistration[listeners.length + 1];
+         System.arraycopy(listeners, 0, result, 0, listeners.length);
+         result[listeners.length] = slreg;
+         return result;
+      }
+
+      private static ServiceListenerRegistration[] remove(ServiceListenerRegistration[] listeners, ServiceListenerRegistration slreg)
+      {
+         // Registrations are removed by identity, equality is defined by the listener only
+         for (int i = 0; i < listeners.length; i++)
+         {
+            if (listeners[i] == slreg)
+            {
+               ServiceListenerRegistration[] result = new ServiceListenerRegistration[listeners.length - 1];
+               System.arraycopy(listeners, 0, result, 0, i);
+               System.arraycopy(listeners, i + 1, result, i, listeners.length - i - 1);
+               return result;
+            }
+         }
+         return listeners;
+      }
+   }
+
    static class ListenerInfoImpl implements ListenerInfo
    {
       private BundleContext context;
@@ -0,0 +1,213 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.plugin.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+import org.jboss.logging.Logger;
+import org.jboss.osgi.framework.bundle.BundleManager;
+import org.jboss.osgi.framework.bundle.BundleStorageState;
+import org.jboss.osgi.framework.bundle.BundleStorageState.PropertiesWriter;
+
+/**
+ * A BundleStorage that keeps the bundle properties in a single append-only journal.
+ *
+ * Bundle data files are still kept in the per bundle storage dirs.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 17-Jan-2011
+ */
+public class JournalBundleStoragePluginImpl extends BundleStoragePluginImpl
+{
+   // Provide logging
+   final Logger log = Logger.getLogger(JournalBundleStoragePluginImpl.class);
+
+   // The name of the journal file in the storage area
+   static final String JOURNAL_FILE = "bundle-journal.dat";
+   // The default number of obsolete records that triggers a compaction
+   static final int DEFAULT_COMPACT_THRESHOLD = 1000;
+
+   private BundleStorageJournal journal;
+
+   private final PropertiesWriter journalWriter = new PropertiesWriter()
+   {
+      public void writeProperties(BundleStorageState storageState, Properties props) throws IOException
+      {
+         getJournal().put(storageState.getBundleId(), props);
+      }
+
+      public void deleteProperties(BundleStorageState storageState)
+      {
+         try
+         {
+            getJournal().delete(storageState.getBundleId());
+         }
+         catch (IOException ex)
+         {
+            log.errorf(ex, "Cannot delete from journal: %s", storageState);
+         }
+      }
+   };
+
+   public JournalBundleStoragePluginImpl(BundleManager bundleManager)
+   {
+      super(bundleManager);
+   }
+
+   @Override
+   public void destroyPlugin()
+   {
+      super.destroyPlugin();
+      closeJournal();
+   }
+
+   @Override
+   protected Properties getPersistentProperties(long bundleId, File bundleDir) throws IOException
+   {
+      Properties props = getJournal().get(bundleId);
+      return props != null ? props : new Properties();
+   }
+
+   @Override
+   protected PropertiesWriter createPropertiesWriter()
+   {
+      return journalWriter;
+   }
+
+   @Override
+   public List<BundleStorageState> getBundleStorageStates() throws IOException
+   {
+      List<BundleStorageState> states = new ArrayList<BundleStorageState>();
+      for (Entry<Long, Properties> entry : getJournal().getEntries().entrySet())
+      {
+         File bundleDir = getStorageDir(entry.getKey());
+         BundleStorageState storageState = BundleStorageState.createFromProperties(bundleDir, entry.getValue(), getPropertiesWriter());
+         states.add(storageState);
+      }
+      return Collections.unmodifiableList(states);
+   }
+
+   @Override
+   public void cleanStorage()
+   {
+      flushProperties();
+      closeJournal();
+      super.cleanStorage();
+   }
+
+   private synchronized BundleStorageJournal getJournal() throws IOException
+   {
+      if (journal == null)
+      {
+         File storageArea = getStorageArea();
+         storageArea.mkdirs();
+
+         File journalFile = new File(storageArea, JOURNAL_FILE);
+         BundleStorageJournal newJournal = new BundleStorageJournal(journalFile, getCompactThreshold());
+
+         boolean migrate = (journalFile.exists() == false);
+         if (migrate == false)
+         {
+            try
+            {
+               newJournal.load();
+            }
+            catch (BundleStorageJournal.InvalidJournalException ex)
+            {
+               // Keep the unreadable journal for inspection and start over from the properties files
+               File corruptFile = new File(journalFile.getPath() + ".corrupt");
+               corruptFile.delete();
+               if (journalFile.renameTo(corruptFile) == false)
+                  throw new IOException("Cannot move corrupt journal aside: " + journalFile);
+
+               log.errorf(ex, "Moved corrupt journal to: %s", corruptFile);
+               migrate = true;
+            }
+         }
+
+         // Take over the properties files of a storage area that has not been journaled yet.
+         // The journal is created in one piece, so that an interrupted migration is repeated
+         if (migrate == true)
+            newJournal.create(loadPropertiesFiles(storageArea));
+
+         Map<Long, Properties> entries = newJournal.getEntries();
+         log.debugf("Loaded %d bundle entries from: %s", entries.size(), journalFile);
+         journal = newJournal;
+      }
+      return journal;
+   }
+
+   private Map<Long, Properties> loadPropertiesFiles(File storageArea) throws IOException
+   {
+      Map<Long, Properties> result = new HashMap<Long, Properties>();
+      File[] storageDirs = storageArea.listFiles();
+      if (storageDirs != null)
+      {
+         for (File bundleDir : storageDirs)
+         {
+            if (bundleDir.isDirectory() == false)
+               continue;
+
+            Properties props = BundleStorageState.loadProperties(bundleDir);
+            String bundleId = props.getProperty(BundleStorageState.PROPERTY_BUNDLE_ID);
+            if (bundleId != null)
+               result.put(Long.parseLong(bundleId), props);
+         }
+      }
+      log.debugf("Migrating %d bundle properties files to: %s", result.size(), storageArea);
+      return result;
+   }
+
+   private synchronized void closeJournal()
+   {
+      if (journal != null)
+      {
+         journal.close();
+         journal = null;
+      }
+   }
+
+   private int getCompactThreshold()
+   {
+      Object value = getBundleManager().getProperty(PROP_JBOSS_OSGI_STORAGE_JOURNAL_COMPACT);
+      if (value == null)
+         return DEFAULT_COMPACT_THRESHOLD;
+
+      try
+      {
+         return Integer.parseInt(value.toString().trim());
+      }
+      catch (NumberFormatException ex)
+      {
+         log.warnf("Invalid value for %s: %s", PROP_JBOSS_OSGI_STORAGE_JOURNAL_COMPACT, value);
+         return DEFAULT_COMPACT_THRESHOLD;
+      }
+   }
+}
@@ -0,0 +1,238 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.plugin.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.jboss.logging.Logger;
+import org.jboss.osgi.framework.bundle.BundleManager;
+import org.jboss.osgi.framework.plugin.AbstractPlugin;
+import org.jboss.osgi.framework.plugin.FrameworkMetricsMBean;
+import org.jboss.osgi.framework.plugin.MetricsPlugin;
+import org.jboss.osgi.framework.util.LatencyHistogram;
+import org.jboss.osgi.framework.util.StripedCounter;
+
+/**
+ * A plugin that collects the framework metrics and exposes them as an MBean.
+ *
+ * The MBean is registered with the platform MBeanServer while the framework is active.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 24-Jan-2011
+ */
+public class MetricsPluginImpl extends AbstractPlugin implements MetricsPlugin, FrameworkMetricsMBean
+{
+   // Provide logging
+   final Logger log = Logger.getLogger(MetricsPluginImpl.class);
+
+   private final ConcurrentMap<String, StripedCounter> counters = new ConcurrentHashMap<String, StripedCounter>();
+   private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+   private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+   private ObjectName objectName;
+
+   public MetricsPluginImpl(BundleManager bundleManager)
+   {
+      super(bundleManager);
+   }
+
+   @Override
+   public void startPlugin()
+   {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      try
+      {
+         ObjectName oname = new ObjectName(OBJECT_NAME);
+         if (server.isRegistered(oname))
+         {
+            log.warnf("Metrics MBean already registered: %s", oname);
+            return;
+         }
+         server.registerMBean(new StandardMBean(this, FrameworkMetricsMBean.class), oname);
+         objectName = oname;
+      }
+      catch (JMException ex)
+      {
+         log.errorf(ex, "Cannot register metrics MBean: %s", OBJECT_NAME);
+      }
+   }
+
+   @Override
+   public void stopPlugin()
+   {
+      if (objectName != null)
+      {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         try
+         {
+            server.unregisterMBean(objectName);
+         }
+         catch (JMException ex)
+         {
+            log.warnf(ex, "Cannot unregister metrics MBean: %s", objectName);
+         }
+         objectName = null;
+      }
+   }
+
+   @Override
+   public void destroyPlugin()
+   {
+      counters.clear();
+      histograms.clear();
+      gauges.clear();
+   }
+
+   @Override
+   public StripedCounter getCounter(String name)
+   {
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
+
+      StripedCounter counter = counters.get(name);
+      if (counter == null)
+      {
+         counter = new StripedCounter();
+         StripedCounter previous = counters.putIfAbsent(name, counter);
+         if (previous != null)
+            counter = previous;
+      }
+      return counter;
+   }
+
+   @Override
+   public LatencyHistogram getHistogram(String name)
+   {
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
+
+      LatencyHistogram histogram = histograms.get(name);
+      if (histogram == null)
+      {
+         histogram = new LatencyHistogram(name);
+         LatencyHistogram previous = histograms.putIfAbsent(name, histogram);
+         if (previous != null)
+            histogram = previous;
+      }
+      return histogram;
+   }
+
+   @Override
+   public void registerGauge(String name, Gauge gauge)
+   {
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
+      if (gauge == null)
+         throw new IllegalArgumentException("Null gauge");
+
+      gauges.put(name, gauge);
+   }
+
+   @Override
+   public void unregisterGauge(String name)
+   {
+      gauges.remove(name);
+   }
+
+   @Override
+   public Map<String, Long> getCounterValues()
+   {
+      Map<String, Long> result = new TreeMap<String, Long>();
+      for (Entry<String, StripedCounter> entry : counters.entrySet())
+         result.put(entry.getKey(), entry.getValue().get());
+      return Collections.unmodifiableMap(result);
+   }
+
+   @Override
+   public Map<String, Long> getGaugeValues()
+   {
+      Map<String, Long> result = new TreeMap<String, Long>();
+      for (Entry<String, Gauge> entry : gauges.entrySet())
+      {
+         try
+         {
+            result.put(entry.getKey(), entry.getValue().getValue());
+         }
+         catch (RuntimeException ex)
+         {
+            log.warnf(ex, "Cannot read gauge: %s", entry.getKey());
+         }
+      }
+      return Collections.unmodifiableMap(result);
+   }
+
+   @Override
+   public Map<String, LatencyHistogram.Snapshot> getHistogramSnapshots()
+   {
+      Map<String, LatencyHistogram.Snapshot> result = new TreeMap<String, LatencyHistogram.Snapshot>();
+      for (Entry<String, LatencyHistogram> entry : histograms.entrySet())
+         result.put(entry.getKey(), entry.getValue().getSnapshot());
+      return Collections.unmodifiableMap(result);
+   }
+
+   @Override
+   public void reset()
+   {
+      for (StripedCounter counter : counters.values())
+         counter.reset();
+      for (LatencyHistogram histogram : histograms.values())
+         histogram.reset();
+   }
+
+   @Override
+   public Map<String, Long> getCounters()
+   {
+      return getCounterValues();
+   }
+
+   @Override
+   public Map<String, Long> getGauges()
+   {
+      return getGaugeValues();
+   }
+
+   @Override
+   public Map<String, String> getHistograms()
+   {
+      Map<String, String> result = new TreeMap<String, String>();
+      for (Entry<String, LatencyHistogram> entry : histograms.entrySet())
+         result.put(entry.getKey(), entry.getValue().getSnapshot().toString());
+      return Collections.unmodifiableMap(result);
+   }
+
+   @Override
+   public String getHistogramSummary(String name)
+   {
+      LatencyHistogram histogram = histograms.get(name);
+      return histogram != null ? histogram.getSnapshot().toString() : null;
+   }
+}
@@ -23,11 +23,16 @@ package org.jboss.osgi.framework.plugin.internal;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.jboss.logging.Logger;
 import org.jboss.modules.DependencySpec;
@@ -50,6 +55,7 @@ import org.jboss.osgi.framework.bundle.BundleManager.IntegrationMode;
 import org.jboss.osgi.framework.bundle.FragmentBundle;
 import org.jboss.osgi.framework.bundle.FragmentRevision;
 import org.jboss.osgi.framework.bundle.HostBundle;
+import org.jboss.osgi.framework.bundle.HostRevision;
 import org.jboss.osgi.framework.bundle.OSGiModuleLoader;
 import org.jboss.osgi.framework.loading.FragmentBundleModuleClassLoader;
 import org.jboss.osgi.framework.loading.FragmentLocalLoader;
@@ -62,14 +68,17 @@ import org.jboss.osgi.framework.loading.NativeResourceLoader;
 import org.jboss.osgi.framework.loading.SystemBundleModuleClassLoader;
 import org.jboss.osgi.framework.loading.VirtualFileResourceLoader;
 import org.jboss.osgi.framework.plugin.AbstractPlugin;
+import org.jboss.osgi.framework.plugin.MetricsPlugin;
 import org.jboss.osgi.framework.plugin.ModuleManagerPlugin;
 import org.jboss.osgi.framework.plugin.SystemPackagesPlugin;
+import org.jboss.osgi.framework.plugin.TracePlugin;
 import org.jboss.osgi.framework.plugin.internal.NativeCodePluginImpl.BundleNativeLibraryProvider;
 import org.jboss.osgi.metadata.ActivationPolicyMetaData;
 import org.jboss.osgi.metadata.NativeLibrary;
 import org.jboss.osgi.metadata.NativeLibraryMetaData;
 import org.jboss.osgi.resolver.XModule;
 import org.jboss.osgi.resolver.XModuleIdentity;
+import org.jboss.osgi.resolver.XPackageCapability;
 import org.jboss.osgi.resolver.XPackageRequirement;
 import org.jboss.osgi.resolver.XRequireBundleRequirement;
 import org.jboss.osgi.resolver.XRequirement;
@@ -90,12 +99,29 @@ public class ModuleManagerPluginImpl extends AbstractPlugin implements ModuleMan
    // Provide logging
    final Logger log = Logger.getLogger(ModuleManagerPluginImpl.class);
 
+   // The max number of shared dependency specs and filters
+   static final int MAX_DEPENDENCY_CACHE_SIZE = 4096;
+
    // The module loader for the OSGi layer
    private OSGiModuleLoader moduleLoader;
    // The cached framework module identifier
    private ModuleIdentifier frameworkIdentifier;
    // The cached framework module
    private Module frameworkModule;
+   // The identifiers of the exporting modules by package name
+   private final Map<String, List<ModuleIdentifier>> exporterIndex = new ConcurrentHashMap<String, List<ModuleIdentifier>>();
+   // The exported package names by module identifier, guarded by the exporterIndex
+   private final Map<ModuleIdentifier, Set<String>> exportedPackages = new HashMap<ModuleIdentifier, Set<String>>();
+   // The cached dependency on the framework module
+   private DependencySpec frameworkDependency;
+   // The shared dependency specs by exporter and imported paths, guarded by itself
+   private final Map<ModuleDependencyKey, DependencySpec> dependencyCache = new BoundedCache<ModuleDependencyKey, DependencySpec>(MAX_DEPENDENCY_CACHE_SIZE);
+   // The shared lazy activation filters by includes and excludes, guarded by itself
+   private final Map<List<List<String>>, PathFilter> lazyFilterCache = new BoundedCache<List<List<String>>, PathFilter>(MAX_DEPENDENCY_CACHE_SIZE);
+   // The metrics, null if metrics are disabled
+   private MetricsPlugin metrics;
+   // The trace plugin, null if tracing is disabled
+   private TracePlugin tracePlugin;
 
    public ModuleManagerPluginImpl(BundleManager bundleManager)
    {
@@ -107,6 +133,8 @@ public class ModuleManagerPluginImpl extends AbstractPlugin implements ModuleMan
    {
       // Setup the OSGiModuleLoader
       moduleLoader = new OSGiModuleLoader(getBundleManager());
+      metrics = getOptionalPlugin(MetricsPlugin.class);
+      tracePlugin = getOptionalPlugin(TracePlugin.class);
 
       // Setup the Module system when running STANDALONE
       if (getBundleManager().getIntegrationMode() == IntegrationMode.STANDALONE)
@@ -118,6 +146,20 @@ public class ModuleManagerPluginImpl extends AbstractPlugin implements ModuleMan
    {
       moduleLoader = null;
       frameworkModule = null;
+      frameworkDependency = null;
+      synchronized (dependencyCache)
+      {
+         dependencyCache.clear();
+      }
+      synchronized (lazyFilterCache)
+      {
+         lazyFilterCache.clear();
+      }
+      synchronized (exporterIndex)
+      {
+         exporterIndex.clear();
+         exportedPackages.clear();
+      }
    }
 
    @Override
@@ -217,9 +259,78 @@ public class ModuleManagerPluginImpl extends AbstractPlugin implements ModuleMan
          moduleLoader.addModule(bundleRev, module);
          identifier = module.getIdentifier();
       }
+
+      addExportedPackages(resModule, identifier);
       return identifier;
    }
 
+   @Override
+   public List<ModuleIdentifier> getExportingModules(String packageName)
+   {
+      List<ModuleIdentifier> result = exporterIndex.get(packageName);
+      if (result == null)
+         return Collections.emptyList();
+
+      return Collections.unmodifiableList(result);
+   }
+
+   /**
+    * Index the packages exported by the given module and its attached fragments
+    */
+   private void addExportedPackages(XModule resModule, ModuleIdentifier identifier)
+   {
+      Set<String> packageNames = new HashSet<String>();
+      for (XPackageCapability cap : resModule.getPackageCapabilities())
+         packageNames.add(cap.getName());
+
+      AbstractRevision bundleRev = resModule.getAttachment(AbstractRevision.class);
+      if (bundleRev instanceof HostRevision)
+      {
+         for (FragmentRevision fragRev : ((HostRevision)bundleRev).getAttachedFragments())
+         {
+            for (XPackageCapability cap : fragRev.getResolverModule().getPackageCapabilities())
+               packageNames.add(cap.getName());
+         }
+      }
+
+      synchronized (exporterIndex)
+      {
+         removeExportedPackages(identifier);
+         for (String packageName : packageNames)
+         {
+            List<ModuleIdentifier> exporters = exporterIndex.get(packageName);
+            if (exporters == null)
+            {
+               exporters = new CopyOnWriteArrayList<ModuleIdentifier>();
+               exporterIndex.put(packageName, exporters);
+            }
+            exporters.add(identifier);
+         }
+         exportedPackages.put(identifier, packageNames);
+      }
+   }
+
+   private void removeExportedPackages(ModuleIdentifier identifier)
+   {
+      synchronized (exporterIndex)
+      {
+         Set<String> packageNames = exportedPackages.remove(identifier);
+         if (packageNames == null)
+            return;
+
+         for (String packageName : packageNames)
+         {
+            List<ModuleIdentifier> exporters = exporterIndex.get(packageName);
+            if (exporters != null)
+            {
+               exporters.remove(identifier);
+               if (exporters.isEmpty())
+                  exporterIndex.remove(packageName);
+            }
+         }
+      }
+   }
+
    /**
     * Create the {@link Framework} module from the give resolver module definition.
     */
@@ -264,11 +375,7 @@ public class ModuleManagerPluginImpl extends AbstractPlugin implements ModuleMan
          List<DependencySpec> moduleDependencies = new ArrayList<DependencySpec>();
 
          // Add the framework module as the first required dependency
-         PathFilter importFilter = PathFilters.acceptAll();
-         PathFilter exportFilter = PathFilters.in(getPlugin(SystemPackagesPlugin.class).getExportedPaths());
-         ModuleLoader frameworkLoader = getModule(frameworkIdentifier).getModuleLoader();
-         DependencySpec frameworkDep = DependencySpec.createModuleDependencySpec(importFilter, exportFilter, frameworkLoader, frameworkIdentifier, false);
-         moduleDependencies.add(frameworkDep);
+         moduleDependencies.add(getFrameworkDependency());
 
          // Map the dependency for (the likely) case that the same exporter is choosen for multiple wires
          Map<XModule, DependencyHolder> specHolderMap = new LinkedHashMap<XModule, DependencyHolder>();
@@ -306,7 +413,7 @@ public class ModuleManagerPluginImpl extends AbstractPlugin implements ModuleMan
          Set<String> allPaths = new HashSet<String>();
          for (VirtualFile contentRoot : contentRoots)
          {
-            VirtualFileResourceLoader resLoader = new VirtualFileResourceLoader(contentRoot);
+            VirtualFileResourceLoader resLoader = new VirtualFileResourceLoader(contentRoot, PathFilters.acceptAll(), metrics, tracePlugin);
             specBuilder.addResourceRoot(resLoader);
             allPaths.addAll(resLoader.getPaths());
          }
@@ -357,17 +464,52 @@ public class ModuleManagerPluginImpl extends AbstractPlugin implements ModuleMan
       return moduleSpec.getModuleIdentifier();
    }
 
+   /**
+    * Get the dependency on the framework module, which is the same for every module
+    */
+   private DependencySpec getFrameworkDependency()
+   {
+      DependencySpec result = frameworkDependency;
+      if (result == null)
+      {
+         PathFilter importFilter = PathFilters.acceptAll();
+         PathFilter exportFilter = PathFilters.in(getPlugin(SystemPackagesPlugin.class).getExportedPaths());
+         ModuleLoader frameworkLoader = getModule(frameworkIdentifier).getModuleLoader();
+         result = DependencySpec.createModuleDependencySpec(importFilter, exportFilter, frameworkLoader, frameworkIdentifier, false);
+         frameworkDependency = result;
+      }
+      return result;
+   }
+
    /**
     * Get a path filter for packages that trigger bundle activation 
     * for a host bundle with lazy ActivationPolicy
     */
    private PathFilter getLazyPackagesFilter(HostBundle hostBundle)
+   {
+      ActivationPolicyMetaData activationPolicy = hostBundle.getActivationPolicy();
+      List<String> includes = activationPolicy.getIncludes();
+      List<String> excludes = activationPolicy.getExcludes();
+
+      // Bundles with the same activation policy share the filter
+      List<List<String>> cacheKey = Arrays.asList(includes, excludes);
+      synchronized (lazyFilterCache)
+      {
+         PathFilter result = lazyFilterCache.get(cacheKey);
+         if (result == null)
+         {
+            result = createLazyPackagesFilter(includes, excludes);
+            lazyFilterCache.put(cacheKey, result);
+         }
+         return result;
+      }
+   }
+
+   private PathFilter createLazyPackagesFilter(List<String> includes, List<String> excludes)
    {
       // By default all packages are loaded lazily
       PathFilter result = PathFilters.acceptAll();
 
-      ActivationPolicyMetaData activationPolicy = hostBundle.getActivationPolicy();
-      List<String> includes = activationPolicy.getIncludes();
       if (includes != null)
       {
          Set<String> paths = new HashSet<String>();
@@ -377,7 +519,6 @@ public class ModuleManagerPluginImpl extends AbstractPlugin implements ModuleMan
          result = PathFilters.in(paths);
       }
 
-      List<String> excludes = activationPolicy.getExcludes();
       if (excludes != null)
       {
          // The set of packages on the exclude list determines the packages that can be loaded eagerly
@@ -487,7 +628,7 @@ public class ModuleManagerPluginImpl extends AbstractPlugin implements ModuleMan
             XRequireBundleRequirement bndreq = (XRequireBundleRequirement)req;
             boolean reexport = Constants.VISIBILITY_REEXPORT.equals(bndreq.getVisibility());
             if (reexport == true)
-               holder.setExportFilter(PathFilters.acceptAll());
+               holder.setReexport(true);
 
             continue;
          }
@@ -522,6 +663,7 @@ public class ModuleManagerPluginImpl extends AbstractPlugin implements ModuleMan
    @Override
    public Module removeModule(ModuleIdentifier identifier)
    {
+      removeExportedPackages(identifier);
       return moduleLoader.removeModule(identifier);
    }
 
@@ -548,7 +690,7 @@ public class ModuleManagerPluginImpl extends AbstractPlugin implements ModuleMan
    {
       private ModuleIdentifier identifier;
       private Set<String> importPaths;
-      private PathFilter exportFilter = PathFilters.rejectAll();
+      private boolean reexport;
       private boolean optional;
 
       ModuleDependencyHolder(ModuleIdentifier identifier)
@@ -565,10 +707,10 @@ public class ModuleManagerPluginImpl extends AbstractPlugin implements ModuleMan
          importPaths.add(path);
       }
 
-      void setExportFilter(PathFilter exportFilter)
+      void setReexport(boolean reexport)
       {
          assertNotCreated();
-         this.exportFilter = exportFilter;
+         this.reexport = reexport;
       }
 
       void setOptional(boolean optional)
@@ -579,10 +721,86 @@ public class ModuleManagerPluginImpl extends AbstractPlugin implements ModuleMan
 
       DependencySpec createInternal()
       {
-         PathFilter importFilter = importPaths != null ? PathFilters.in(importPaths) : PathFilters.acceptAll();
-         return DependencySpec.createModuleDependencySpec(importFilter, exportFilter, moduleLoader, identifier, optional);
+         // Modules that import the same paths from the same exporter share the dependency spec
+         ModuleDependencyKey cacheKey = new ModuleDependencyKey(identifier, importPaths, reexport, optional);
+         synchronized (dependencyCache)
+         {
+            DependencySpec result = dependencyCache.get(cacheKey);
+            if (result == null)
+            {
+               PathFilter importFilter = importPaths != null ? PathFilters.in(cacheKey.importPaths) : PathFilters.acceptAll();
+               PathFilter exportFilter = reexport ? PathFilters.acceptAll() : PathFilters.rejectAll();
+               result = DependencySpec.createModuleDependencySpec(importFilter, exportFilter, moduleLoader, identifier, optional);
+               dependencyCache.put(cacheKey, result);
+            }
+            return result;
+         }
+      }
+
+   }
+
+   // The content of a module dependency
+   static final class ModuleDependencyKey
+   {
+      private final ModuleIdentifier identifier;
+      private final Set<String> importPaths;
+      private final boolean reexport;
+      private final boolean optional;
+      private final int hashCode;
+
+      ModuleDependencyKey(ModuleIdentifier identifier, Set<String> importPaths, boolean reexport, boolean optional)
+      {
+         this.identifier = identifier;
+         this.importPaths = (importPaths != null ? Collections.unmodifiableSet(new HashSet<String>(importPaths)) : null);
+         this.reexport = reexport;
+         this.optional = optional;
+
+         int result = identifier.hashCode();
+         result = 31 * result + (importPaths != null ? importPaths.hashCode() : 0);
+         result = 31 * result + (reexport ? 1 : 0);
+         hashCode = 31 * result + (optional ? 1 : 0);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return hashCode;
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (obj == this)
+            return true;
+         if (obj instanceof ModuleDependencyKey == false)
+            return false;
+
+         ModuleDependencyKey other = (ModuleDependencyKey)obj;
+         if (hashCode != other.hashCode || reexport != other.reexport || optional != other.optional)
+            return false;
+         if (identifier.equals(other.identifier) == false)
+            return false;
+         return importPaths != null ? importPaths.equals(other.importPaths) : other.importPaths == null;
+      }
+   }
+
+   // A map that evicts its least recently used entry when it exceeds the max size
+   static final class BoundedCache<K, V> extends LinkedHashMap<K, V>
+   {
+      private static final long serialVersionUID = 1L;
+      private final int maxSize;
+
+      BoundedCache(int maxSize)
+      {
+         super(16, 0.75f, true);
+         this.maxSize = maxSize;
       }
 
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+      {
+         return size() > maxSize;
+      }
    }
 
    class LocalDependencyHolder extends DependencyHolder
@@ -28,13 +28,23 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.logging.Logger;
 import org.jboss.modules.ModuleClassLoader;
@@ -58,7 +68,6 @@ import org.jboss.osgi.resolver.XCapability;
 import org.jboss.osgi.resolver.XModule;
 import org.jboss.osgi.resolver.XPackageCapability;
 import org.jboss.osgi.resolver.XRequireBundleRequirement;
-import org.jboss.osgi.resolver.XRequirement;
 import org.jboss.osgi.resolver.XVersionRange;
 import org.jboss.osgi.resolver.XWire;
 import org.osgi.framework.Bundle;
@@ -84,6 +93,7 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
    final Logger log = Logger.getLogger(PackageAdminPluginImpl.class);
 
    private Executor executor;
+   private volatile ThreadPoolExecutor groupExecutor;
    private ResolverPlugin resolverPlugin;
    private ServiceRegistration registration;
 
@@ -99,6 +109,40 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
       BundleContext sysContext = getBundleManager().getSystemContext();
       registration = sysContext.registerService(PackageAdmin.class.getName(), this, null);
       resolverPlugin = getPlugin(ResolverPlugin.class);
+
+      String value = getBundleManager().getFrameworkState().getProperty(PROP_JBOSS_OSGI_REFRESH_PARALLELISM);
+      int parallelism = 1;
+      if (value != null)
+      {
+         try
+         {
+            parallelism = Integer.parseInt(value.trim());
+         }
+         catch (NumberFormatException ex)
+         {
+            log.warnf("Invalid value for %s: %s", PROP_JBOSS_OSGI_REFRESH_PARALLELISM, value);
+         }
+      }
+      if (parallelism > 1)
+      {
+         log.debugf("Refresh packages parallelism: %d", parallelism);
+         groupExecutor = new ThreadPoolExecutor(parallelism, parallelism, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+         {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable)
+            {
+               Thread thread = new Thread(runnable, "OSGi PackageAdmin-" + threadCount.incrementAndGet());
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+         groupExecutor.allowCoreThreadTimeOut(true);
+      }
+      else
+      {
+         groupExecutor = null;
+      }
    }
 
    @Override
@@ -109,6 +153,11 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
          registration.unregister();
          registration = null;
       }
+      if (groupExecutor != null)
+      {
+         groupExecutor.shutdown();
+         groupExecutor = null;
+      }
    }
 
    @Override
@@ -216,18 +265,7 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
 
    private boolean isWired(XPackageCapability capability)
    {
-      for (AbstractBundle ab : getBundleManager().getBundles())
-      {
-         for (XModule module : ab.getAllResolverModules())
-         {
-            for (XWire wire : module.getWires())
-            {
-               if (wire.getCapability().equals(capability))
-                  return true;
-            }
-         }
-      }
-      return false;
+      return resolverPlugin.isWired(capability);
    }
 
    @Override
@@ -279,32 +317,21 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
                   refreshBundles.add(aux);
             }
 
-            // Compute all depending bundles that need to be stopped and unresolved.
-            for (AbstractBundle aux : getBundleManager().getBundles())
+            // Compute the transitive closure of the bundles that need to be stopped and unresolved.
+            BundleGroups bundleGroups = new BundleGroups();
+            Set<AbstractUserBundle> refreshRoots = new HashSet<AbstractUserBundle>(refreshMap.values());
+            for (AbstractUserBundle aux : getDependentBundles(refreshMap.keySet(), bundleGroups))
             {
-               if (aux instanceof HostBundle == false)
+               if (refreshRoots.contains(aux) || aux.isResolved() == false)
                   continue;
 
-               HostBundle hostBundle = (HostBundle)aux;
-
-               XModule resModule = hostBundle.getResolverModule();
-               if (resModule.isResolved() == false)
-                  continue;
-
-               for (XWire wire : resModule.getWires())
+               // Bundles can be either ACTIVE or RESOLVED
+               int state = aux.getState();
+               if (aux instanceof HostBundle && (state == Bundle.ACTIVE || state == Bundle.STARTING))
                {
-                  if (refreshMap.containsKey(wire.getExporter()))
-                  {
-                     // Bundles can be either ACTIVE or RESOLVED
-                     int state = hostBundle.getState();
-                     if (state == Bundle.ACTIVE || state == Bundle.STARTING)
-                     {
-                        stopBundles.add(hostBundle);
-                     }
-                     refreshBundles.add(hostBundle);
-                     break;
-                  }
+                  stopBundles.add((HostBundle)aux);
                }
+               refreshBundles.add(aux);
             }
 
             // Add relevant bundles to be refreshed also to the stop list.
@@ -327,17 +354,34 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
             BundleStartLevelComparator startLevelComparator = new BundleStartLevelComparator(startLevel);
             Collections.sort(stopList, startLevelComparator);
 
-            for (ListIterator<HostBundle> it = stopList.listIterator(stopList.size()); it.hasPrevious();)
+            // Bundles are stopped and started one start level at a time
+            List<List<HostBundle>> startLevels = partitionByStartLevel(stopList, startLevelComparator);
+
+            for (ListIterator<List<HostBundle>> levelIt = startLevels.listIterator(startLevels.size()); levelIt.hasPrevious();)
             {
-               HostBundle hostBundle = it.previous();
-               try
+               List<Runnable> stopTasks = new ArrayList<Runnable>();
+               for (final List<HostBundle> group : partitionByWiring(levelIt.previous(), bundleGroups))
                {
-                  hostBundle.stop(Bundle.STOP_TRANSIENT);
-               }
-               catch (Exception th)
-               {
-                  eventsPlugin.fireFrameworkEvent(hostBundle, FrameworkEvent.ERROR, th);
+                  stopTasks.add(new Runnable()
+                  {
+                     public void run()
+                     {
+                        for (ListIterator<HostBundle> it = group.listIterator(group.size()); it.hasPrevious();)
+                        {
+                           HostBundle hostBundle = it.previous();
+                           try
+                           {
+                              hostBundle.stop(Bundle.STOP_TRANSIENT);
+                           }
+                           catch (Exception th)
+                           {
+                              eventsPlugin.fireFrameworkEvent(hostBundle, FrameworkEvent.ERROR, th);
+                           }
+                        }
+                     }
+                  });
                }
+               runGroupTasks(stopTasks);
             }
 
             for (AbstractUserBundle userBundle : uninstallBundles)
@@ -357,16 +401,30 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
                }
             }
 
-            for (HostBundle hostBundle : stopList)
+            for (List<HostBundle> level : startLevels)
             {
-               try
+               List<Runnable> startTasks = new ArrayList<Runnable>();
+               for (final List<HostBundle> group : partitionByWiring(level, bundleGroups))
                {
-                  hostBundle.start(Bundle.START_TRANSIENT);
-               }
-               catch (Exception th)
-               {
-                  eventsPlugin.fireFrameworkEvent(hostBundle, FrameworkEvent.ERROR, th);
+                  startTasks.add(new Runnable()
+                  {
+                     public void run()
+                     {
+                        for (HostBundle hostBundle : group)
+                        {
+                           try
+                           {
+                              hostBundle.start(Bundle.START_TRANSIENT);
+                           }
+                           catch (Exception th)
+                           {
+                              eventsPlugin.fireFrameworkEvent(hostBundle, FrameworkEvent.ERROR, th);
+                           }
+                        }
+                     }
+                  });
                }
+               runGroupTasks(startTasks);
             }
 
             eventsPlugin.fireFrameworkEvent(getBundleManager().getSystemBundle(), FrameworkEvent.PACKAGES_REFRESHED, null);
@@ -375,6 +433,132 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
       getExecutor().execute(runner);
    }
 
+   /**
+    * Split the bundles, which are sorted by start level, into one list per start level
+    */
+   private List<List<HostBundle>> partitionByStartLevel(List<HostBundle> bundles, BundleStartLevelComparator comparator)
+   {
+      List<List<HostBundle>> result = new ArrayList<List<HostBundle>>();
+      List<HostBundle> level = null;
+      for (HostBundle hostBundle : bundles)
+      {
+         if (level == null || comparator.compare(level.get(0), hostBundle) != 0)
+         {
+            level = new ArrayList<HostBundle>();
+            result.add(level);
+         }
+         level.add(hostBundle);
+      }
+      return result;
+   }
+
+   /**
+    * Bundles of a start level that are not wired to each other are stopped and started in parallel
+    */
+   private List<List<HostBundle>> partitionByWiring(List<HostBundle> bundles, BundleGroups bundleGroups)
+   {
+      if (groupExecutor == null)
+         return Collections.singletonList(bundles);
+
+      return bundleGroups.partition(bundles);
+   }
+
+   /**
+    * Get the bundles that directly or transitively depend on the given modules.
+    * Bundles that are wired to each other are joined in the given groups.
+    */
+   private Set<AbstractUserBundle> getDependentBundles(Collection<XModule> modules, BundleGroups bundleGroups)
+   {
+      Set<AbstractUserBundle> result = new HashSet<AbstractUserBundle>();
+      Set<XModule> visited = new HashSet<XModule>(modules);
+      LinkedList<XModule> queue = new LinkedList<XModule>(modules);
+      while (queue.isEmpty() == false)
+      {
+         XModule exporter = queue.removeFirst();
+         AbstractBundle exporterBundle = AbstractBundle.assertBundleState(exporter.getAttachment(Bundle.class));
+         for (XWire wire : resolverPlugin.getWiresToExporter(exporter))
+         {
+            for (AbstractUserBundle importerBundle : getWiredBundles(wire.getImporter()))
+            {
+               bundleGroups.join(exporterBundle, importerBundle);
+               if (result.add(importerBundle))
+               {
+                  for (XModule aux : importerBundle.getAllResolverModules())
+                  {
+                     if (visited.add(aux))
+                        queue.add(aux);
+                  }
+               }
+            }
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Get the bundles that are affected by a wire from the given importer.
+    * For a fragment these are also the hosts it is attached to.
+    */
+   private List<AbstractUserBundle> getWiredBundles(XModule importer)
+   {
+      List<AbstractUserBundle> result = new ArrayList<AbstractUserBundle>();
+      AbstractBundle bundleState = AbstractBundle.assertBundleState(importer.getAttachment(Bundle.class));
+      if (bundleState instanceof AbstractUserBundle)
+         result.add((AbstractUserBundle)bundleState);
+
+      AbstractRevision bundleRev = importer.getAttachment(AbstractRevision.class);
+      if (bundleRev instanceof FragmentRevision)
+      {
+         for (HostRevision hostRev : ((FragmentRevision)bundleRev).getAttachedHosts())
+            result.add(hostRev.getBundleState());
+      }
+      return result;
+   }
+
+   private void runGroupTasks(List<Runnable> tasks)
+   {
+      ThreadPoolExecutor service = groupExecutor;
+      if (service == null || tasks.size() < 2)
+      {
+         for (Runnable task : tasks)
+            task.run();
+         return;
+      }
+
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (Runnable task : tasks)
+      {
+         try
+         {
+            futures.add(service.submit(task));
+         }
+         catch (RejectedExecutionException ex)
+         {
+            // The plugin has been stopped
+            task.run();
+         }
+      }
+
+      // Join before moving on to the next refresh phase
+      for (Future<?> future : futures)
+      {
+         try
+         {
+            future.get();
+         }
+         catch (InterruptedException ex)
+         {
+            log.warnf("Interrupted while refreshing packages");
+            Thread.currentThread().interrupt();
+            return;
+         }
+         catch (ExecutionException ex)
+         {
+            log.errorf(ex.getCause(), "Cannot refresh packages");
+         }
+      }
+   }
+
    private Executor getExecutor()
    {
       if (executor == null)
@@ -436,25 +620,20 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
       if (matchingBundles.size() == 0)
          return null;
 
-      for (AbstractBundle aux : bundles)
+      // Get the requiring bundles from the wires to the matching bundles
+      for (Map.Entry<AbstractBundle, Collection<AbstractBundle>> entry : matchingBundles.entrySet())
       {
-         XModule resModule = aux.getResolverModule();
-         for (XRequireBundleRequirement req : resModule.getBundleRequirements())
+         Collection<AbstractBundle> requiring = entry.getValue();
+         for (XModule resModule : entry.getKey().getAllResolverModules())
          {
-            if (req.getName().equals(symbolicName))
+            for (XWire wire : resolverPlugin.getWiresToExporter(resModule))
             {
-               for (XWire wire : req.getModule().getWires())
+               if (wire.getRequirement() instanceof XRequireBundleRequirement)
                {
-                  if (wire.getRequirement().equals(req))
-                  {
-                     XCapability wiredCap = wire.getCapability();
-                     XModule module = wiredCap.getModule();
-                     Bundle bundle = module.getAttachment(Bundle.class);
-                     AbstractBundle bundleState = AbstractBundle.assertBundleState(bundle);
-                     Collection<AbstractBundle> requiring = matchingBundles.get(bundleState);
-                     if (requiring != null)
-                        requiring.add(aux);
-                  }
+                  Bundle bundle = wire.getImporter().getAttachment(Bundle.class);
+                  AbstractBundle bundleState = AbstractBundle.assertBundleState(bundle);
+                  if (requiring.contains(bundleState) == false)
+                     requiring.add(bundleState);
                }
             }
          }
@@ -585,7 +764,7 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
       return bundleState.isFragment() ? BUNDLE_TYPE_FRAGMENT : 0;
    }
 
-   static class ExportedPackageImpl implements ExportedPackage
+   class ExportedPackageImpl implements ExportedPackage
    {
       private final XPackageCapability capability;
 
@@ -618,23 +797,19 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
          if (capModule.isResolved() == false)
             return null;
 
-         Set<XRequirement> reqset = new HashSet<XRequirement>();
-         Set<XRequirement> pkgReqSet = capability.getWiredRequirements();
-         if (pkgReqSet != null)
-            reqset.addAll(pkgReqSet);
+         List<XWire> wires = new ArrayList<XWire>(resolverPlugin.getWiresToCapability(capability));
 
          // Bundles which require the exporting bundle associated with this exported
          // package are considered to be wired to this exported package are included in
          // the returned array.
          XBundleCapability bundleCap = capModule.getBundleCapability();
-         Set<XRequirement> bundleReqSet = bundleCap.getWiredRequirements();
-         if (bundleReqSet != null)
-            reqset.addAll(bundleReqSet);
+         if (bundleCap != null)
+            wires.addAll(resolverPlugin.getWiresToCapability(bundleCap));
 
          Set<Bundle> bundles = new HashSet<Bundle>();
-         for (XRequirement req : reqset)
+         for (XWire wire : wires)
          {
-            XModule reqmod = req.getModule();
+            XModule reqmod = wire.getImporter();
             Bundle bundle = reqmod.getAttachment(Bundle.class);
             AbstractBundle bundleState = AbstractBundle.assertBundleState(bundle);
             bundles.add(bundleState.getBundleWrapper());
@@ -756,6 +931,58 @@ public class PackageAdminPluginImpl extends AbstractPlugin implements PackageAdm
       }
    }
 
+   // The groups of bundles that are connected through wires
+   private static class BundleGroups
+   {
+      private final Map<AbstractBundle, AbstractBundle> parents = new HashMap<AbstractBundle, AbstractBundle>();
+
+      void join(AbstractBundle bundleA, AbstractBundle bundleB)
+      {
+         AbstractBundle rootA = getRoot(bundleA);
+         AbstractBundle rootB = getRoot(bundleB);
+         if (rootA != rootB)
+            parents.put(rootA, rootB);
+      }
+
+      /**
+       * Split the given bundles into their groups, keeping the order of the bundles in each group
+       */
+      <T extends AbstractBundle> List<List<T>> partition(List<T> bundles)
+      {
+         Map<AbstractBundle, List<T>> groups = new LinkedHashMap<AbstractBundle, List<T>>();
+         for (T bundle : bundles)
+         {
+            AbstractBundle root = getRoot(bundle);
+            List<T> group = groups.get(root);
+            if (group == null)
+            {
+               group = new ArrayList<T>();
+               groups.put(root, group);
+            }
+            group.add(bundle);
+         }
+         return new ArrayList<List<T>>(groups.values());
+      }
+
+      private AbstractBundle getRoot(AbstractBundle bundle)
+      {
+         AbstractBundle root = bundle;
+         AbstractBundle parent;
+         while ((parent = parents.get(root)) != null)
+            root = parent;
+
+         // Compress the path to the root
+         AbstractBundle aux = bundle;
+         while (aux != root)
+         {
+            AbstractBundle next = parents.get(aux);
+            parents.put(aux, root);
+            aux = next;
+         }
+         return root;
+      }
+   }
+
    private static class ExportedPackageComparator implements Comparator<ExportedPackage>
    {
       @Override
@@ -36,10 +36,18 @@ import org.jboss.osgi.framework.bundle.AbstractUserBundle;
 import org.jboss.osgi.framework.bundle.BundleManager;
 import org.jboss.osgi.framework.bundle.FragmentRevision;
 import org.jboss.osgi.framework.plugin.AbstractPlugin;
+import org.jboss.osgi.framework.plugin.MetricsPlugin;
 import org.jboss.osgi.framework.plugin.ModuleManagerPlugin;
 import org.jboss.osgi.framework.plugin.NativeCodePlugin;
 import org.jboss.osgi.framework.plugin.ResolverPlugin;
+import org.jboss.osgi.framework.plugin.StartupReportPlugin;
+import org.jboss.osgi.framework.plugin.StartupReportPlugin.Phase;
+import org.jboss.osgi.framework.plugin.TracePlugin;
+import org.jboss.osgi.framework.plugin.TracePlugin.EventType;
+import org.jboss.osgi.framework.util.LatencyHistogram;
+import org.jboss.osgi.framework.util.StripedCounter;
 import org.jboss.osgi.metadata.NativeLibraryMetaData;
+import org.jboss.osgi.resolver.XCapability;
 import org.jboss.osgi.resolver.XModule;
 import org.jboss.osgi.resolver.XModuleBuilder;
 import org.jboss.osgi.resolver.XModuleIdentity;
@@ -66,7 +74,14 @@ public class ResolverPluginImpl extends AbstractPlugin implements ResolverPlugin
    private final XResolverFactory factory;
    private final NativeCodePlugin nativeCodePlugin;
    private final ModuleManagerPlugin moduleManager;
-   
+   private final StartupReportPlugin startupReport;
+   private final WireIndex wireIndex = new WireIndex();
+   // The metrics, null if metrics are disabled
+   private final LatencyHistogram resolveTime;
+   private final StripedCounter resolvedCount;
+   // The trace plugin, null if tracing is disabled
+   private final TracePlugin tracePlugin;
+
    private XResolver resolver;
 
    public ResolverPluginImpl(BundleManager bundleManager)
@@ -75,6 +90,12 @@ public class ResolverPluginImpl extends AbstractPlugin implements ResolverPlugin
       factory = XResolverFactory.getInstance(getClass().getClassLoader());
       nativeCodePlugin = getOptionalPlugin(NativeCodePlugin.class);
       moduleManager = getPlugin(ModuleManagerPlugin.class);
+      startupReport = getPlugin(StartupReportPlugin.class);
+
+      MetricsPlugin metrics = getOptionalPlugin(MetricsPlugin.class);
+      resolveTime = (metrics != null ? metrics.getHistogram(MetricsPlugin.RESOLVER_RESOLVE_TIME) : null);
+      resolvedCount = (metrics != null ? metrics.getCounter(MetricsPlugin.RESOLVER_MODULES_RESOLVED) : null);
+      tracePlugin = getOptionalPlugin(TracePlugin.class);
    }
 
    @Override
@@ -89,6 +110,7 @@ public class ResolverPluginImpl extends AbstractPlugin implements ResolverPlugin
    {
       // Destroy the {@link XResolver}
       resolver = null;
+      wireIndex.clear();
    }
 
    @Override
@@ -107,12 +129,34 @@ public class ResolverPluginImpl extends AbstractPlugin implements ResolverPlugin
    public void addModule(XModule resModule)
    {
       resolver.addModule(resModule);
+
+      // A dynamic import may now be wired to the new module
+      moduleManager.getModuleLoader().incrementWiringGeneration();
    }
 
    @Override
    public void removeModule(XModule resModule)
    {
       resolver.removeModule(resModule);
+      wireIndex.removeModule(resModule);
+   }
+
+   @Override
+   public List<XWire> getWiresToExporter(XModule exporter)
+   {
+      return wireIndex.getWiresToExporter(exporter);
+   }
+
+   @Override
+   public List<XWire> getWiresToCapability(XCapability capability)
+   {
+      return wireIndex.getWiresToCapability(capability);
+   }
+
+   @Override
+   public boolean isWired(XCapability capability)
+   {
+      return wireIndex.isWired(capability);
    }
 
    @Override
@@ -124,6 +168,7 @@ public class ResolverPluginImpl extends AbstractPlugin implements ResolverPlugin
    @Override
    public void resolve(XModule resModule) throws BundleException
    {
+      long startTime = (isTimed() ? System.nanoTime() : 0);
       List<XModule> resolved = new ArrayList<XModule>();
       resolver.setCallbackHandler(new ResolverCallback(resolved));
       try
@@ -137,11 +182,16 @@ public class ResolverPluginImpl extends AbstractPlugin implements ResolverPlugin
 
       // Load the resolved module
       applyResolverResults(resolved);
+
+      if (isTimed())
+         recordResolverRun(startTime, resModule, resolved);
    }
 
    @Override
    public boolean resolveAll(Set<XModule> resModules)
    {
+      long startTime = (isTimed() ? System.nanoTime() : 0);
+
       // Get the list of unresolved modules
       Set<XModule> unresolved = new LinkedHashSet<XModule>();
       if (resModules == null)
@@ -184,11 +234,33 @@ public class ResolverPluginImpl extends AbstractPlugin implements ResolverPlugin
       // Apply resolver results
       applyResolverResults(resolved);
 
+      if (isTimed())
+         recordResolverRun(startTime, unresolved, resolved);
+
       return allResolved;
    }
 
+   private boolean isTimed()
+   {
+      return resolveTime != null || tracePlugin != null;
+   }
+
+   private void recordResolverRun(long startTime, Object subject, List<XModule> resolved)
+   {
+      long endTime = System.nanoTime();
+      if (resolveTime != null)
+      {
+         resolveTime.record(endTime - startTime);
+         resolvedCount.add(resolved.size());
+      }
+      if (tracePlugin != null)
+         tracePlugin.traceEvent(EventType.RESOLVE, startTime, endTime, subject, resolved);
+   }
+
    private void applyResolverResults(List<XModule> resolved)
    {
+      long startTime = System.nanoTime();
+
       // Attach the fragments to host
       attachFragmentsToHost(resolved);
 
@@ -203,6 +275,18 @@ public class ResolverPluginImpl extends AbstractPlugin implements ResolverPlugin
 
       // Change the bundle state to RESOLVED
       setBundleToResolved(resolved);
+
+      // Attached fragments change the wiring of their hosts
+      if (resolved.isEmpty() == false)
+         moduleManager.getModuleLoader().incrementWiringGeneration();
+
+      // Every bundle of the resolver run is accounted for the complete run
+      long endTime = System.nanoTime();
+      for (XModule aux : resolved)
+      {
+         AbstractBundle bundleState = AbstractBundle.assertBundleState(aux.getAttachment(Bundle.class));
+         startupReport.recordPhase(bundleState, Phase.RESOLVE, startTime, endTime);
+      }
    }
 
    private void attachFragmentsToHost(List<XModule> resolved)
@@ -297,6 +381,7 @@ public class ResolverPluginImpl extends AbstractPlugin implements ResolverPlugin
 
             log.debugf(buffer.toString());
          }
+         wireIndex.addModule(module);
          resolved.add(module);
       }
    }
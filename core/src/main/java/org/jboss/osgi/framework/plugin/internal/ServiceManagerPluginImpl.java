@@ -26,14 +26,8 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.jboss.logging.Logger;
@@ -54,14 +48,19 @@ import org.jboss.osgi.framework.bundle.ServiceReferenceComparator;
 import org.jboss.osgi.framework.bundle.ServiceState;
 import org.jboss.osgi.framework.plugin.AbstractPlugin;
 import org.jboss.osgi.framework.plugin.FrameworkEventsPlugin;
+import org.jboss.osgi.framework.plugin.MetricsPlugin;
 import org.jboss.osgi.framework.plugin.PackageAdminPlugin;
 import org.jboss.osgi.framework.plugin.ServiceManagerPlugin;
+import org.jboss.osgi.framework.plugin.TracePlugin;
+import org.jboss.osgi.framework.plugin.TracePlugin.EventType;
+import org.jboss.osgi.framework.util.LatencyHistogram;
 import org.jboss.osgi.framework.util.NoFilter;
 import org.jboss.osgi.framework.util.RemoveOnlyCollection;
+import org.jboss.osgi.framework.util.ServiceProperties;
+import org.jboss.osgi.framework.util.StripedCounter;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Filter;
-import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceFactory;
@@ -83,13 +82,22 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
 
    // The ServiceId generator
    private AtomicLong identityGenerator = new AtomicLong();
-   // Maps the service interface to the list of registered service names
-   private Map<String, List<ServiceName>> serviceNameMap = new ConcurrentHashMap<String, List<ServiceName>>();
+   // The index of registered services
+   private ServiceRegistry serviceRegistry = new ServiceRegistry();
 
    // Cache commonly used plugins
    private FrameworkEventsPlugin eventsPlugin;
    private PackageAdminPlugin packageAdmin;
 
+   // The metrics, null if metrics are disabled
+   private StripedCounter lookupCount;
+   private LatencyHistogram lookupTime;
+   private StripedCounter registrationCount;
+   private StripedCounter unregistrationCount;
+   private LatencyHistogram hookTime;
+   // The trace plugin, null if tracing is disabled
+   private TracePlugin tracePlugin;
+
    public ServiceManagerPluginImpl(BundleManager bundleManager)
    {
       super(bundleManager);
@@ -100,13 +108,32 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
    {
       eventsPlugin = getPlugin(FrameworkEventsPlugin.class);
       packageAdmin = getPlugin(PackageAdminPlugin.class);
+
+      MetricsPlugin metrics = getOptionalPlugin(MetricsPlugin.class);
+      if (metrics != null)
+      {
+         lookupCount = metrics.getCounter(MetricsPlugin.SERVICE_LOOKUPS);
+         lookupTime = metrics.getHistogram(MetricsPlugin.SERVICE_LOOKUP_TIME);
+         registrationCount = metrics.getCounter(MetricsPlugin.SERVICE_REGISTRATIONS);
+         unregistrationCount = metrics.getCounter(MetricsPlugin.SERVICE_UNREGISTRATIONS);
+         hookTime = metrics.getHistogram(MetricsPlugin.SERVICE_HOOK_TIME);
+      }
+      tracePlugin = getOptionalPlugin(TracePlugin.class);
+
+      // Setup the attribute index for the configured property keys
+      String propValue = getBundleManager().getFrameworkState().getProperty(PROP_JBOSS_OSGI_SERVICE_INDEX_KEYS);
+      if (propValue != null)
+      {
+         serviceRegistry = new ServiceRegistry(Arrays.asList(propValue.split(",")));
+         log.debugf("Service attribute index keys: %s", serviceRegistry.getIndexedKeys());
+      }
    }
 
    @Override
    public void destroyPlugin()
    {
-      // Clear all servie names
-      serviceNameMap.clear();
+      // Clear the service registry
+      serviceRegistry.clear();
    }
 
    @Override
@@ -122,15 +149,14 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
       if (clazzes == null || clazzes.length == 0)
          throw new IllegalArgumentException("Null service classes");
 
+      long startTime = (tracePlugin != null ? System.nanoTime() : 0);
+
       // Immediately after registration of a {@link ListenerHook}, the ListenerHook.added() method will be called
       // to provide the current collection of service listeners which had been added prior to the hook being registered.
       Collection<ListenerInfo> listenerInfos = null;
       if (serviceValue instanceof ListenerHook)
          listenerInfos = eventsPlugin.getServiceListenerInfos(null);
 
-      // A temporary association of the clazz and name
-      Map<ServiceName, String> associations = new HashMap<ServiceName, String>();
-
       // Generate the service names
       long serviceId = getNextServiceId();
       ServiceName[] serviceNames = new ServiceName[clazzes.length];
@@ -170,7 +196,6 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
 
       ServiceName rootServiceName = serviceNames[0];
       ServiceBuilder<?> serviceBuilder = batchBuilder.addService(rootServiceName, service);
-      associations.put(rootServiceName, clazzes[0]);
 
       // Set the startup mode
       serviceBuilder.setInitialMode(Mode.PASSIVE);
@@ -179,7 +204,6 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
       for (int i = 1; i < serviceNames.length; i++)
       {
          ServiceName alias = serviceNames[i];
-         associations.put(alias, clazzes[1]);
          serviceBuilder.addAliases(alias);
       }
       // Install
@@ -189,13 +213,10 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
       {
          batchBuilder.install();
 
-         // Register the name association. We do this here
+         // Add the service to the registry. We do this here
          // in case anything went wrong during the install
-         for (Entry<ServiceName, String> aux : associations.entrySet())
-         {
-            bundleState.addRegisteredService(serviceState);
-            registerNameAssociation(aux.getValue(), aux.getKey());
-         }
+         bundleState.addRegisteredService(serviceState);
+         serviceRegistry.addService(serviceState);
       }
       catch (ServiceRegistryException ex)
       {
@@ -209,9 +230,15 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
          listenerHook.added(listenerInfos);
       }
 
+      if (registrationCount != null)
+         registrationCount.increment();
+
       // This event is synchronously delivered after the service has been registered with the Framework.
       eventsPlugin.fireServiceEvent(bundleState, ServiceEvent.REGISTERED, serviceState);
 
+      if (tracePlugin != null)
+         tracePlugin.traceEvent(EventType.SERVICE_REGISTER, startTime, System.nanoTime(), serviceState, null);
+
       return serviceState;
    }
 
@@ -227,9 +254,15 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
       if (clazz == null)
          throw new IllegalArgumentException("Null clazz");
 
+      long startTime = (lookupTime != null ? System.nanoTime() : 0);
       boolean checkAssignable = (bundleState.getBundleId() != 0);
       List<ServiceState> result = getServiceReferencesInternal(bundleState, clazz, null, checkAssignable);
       result = processFindHooks(bundleState, clazz, null, true, result);
+      if (lookupTime != null)
+      {
+         lookupCount.increment();
+         lookupTime.recordSince(startTime);
+      }
       if (result.isEmpty())
          return null;
 
@@ -241,12 +274,18 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
    public List<ServiceState> getServiceReferences(AbstractBundle bundleState, String clazz, String filterStr, boolean checkAssignable)
          throws InvalidSyntaxException
    {
+      long startTime = (lookupTime != null ? System.nanoTime() : 0);
       Filter filter = null;
       if (filterStr != null)
-         filter = FrameworkUtil.createFilter(filterStr);
+         filter = getBundleManager().getFilterCache().compile(filterStr);
 
       List<ServiceState> result = getServiceReferencesInternal(bundleState, clazz, filter, checkAssignable);
       result = processFindHooks(bundleState, clazz, filterStr, checkAssignable, result);
+      if (lookupTime != null)
+      {
+         lookupCount.increment();
+         lookupTime.recordSince(startTime);
+      }
       return result;
    }
 
@@ -255,80 +294,66 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
       if (bundleState == null)
          throw new IllegalArgumentException("Null bundleState");
 
-      List<ServiceName> serviceNames;
+      if (filter == null)
+         filter = NoFilter.INSTANCE;
+
+      // The registry returns the candidate services already sorted
+      List<ServiceState> serviceStates = serviceRegistry.getServices(clazz, filter);
+
+      // Add potentially registered xservcie
       if (clazz != null)
       {
-         serviceNames = serviceNameMap.get(clazz);
-         if (serviceNames == null)
-            serviceNames = new ArrayList<ServiceName>();
-
-         // Add potentially registered xservcie
-         ServiceName xserviceName = ServiceName.of(Constants.JBOSGI_PREFIX, clazz);
-         ServiceController<?> xservice = getBundleManager().getServiceContainer().getService(xserviceName);
+         ServiceState xservice = getXServiceState(clazz);
          if (xservice != null)
-            serviceNames.add(xserviceName);
-      }
-      else
-      {
-         // [MSC-9] Add ability to query the ServiceContainer
-         Set<ServiceName> allServiceNames = new HashSet<ServiceName>();
-         for (List<ServiceName> auxList : serviceNameMap.values())
          {
-            for (ServiceName auxName : auxList)
-            {
-               if (auxName.getCanonicalName().startsWith("jbosgi-service"))
-                  allServiceNames.add(auxName);
-            }
+            serviceStates = new ArrayList<ServiceState>(serviceStates);
+            serviceStates.add(xservice);
+            Collections.sort(serviceStates, ServiceReferenceComparator.getInstance());
          }
-         serviceNames = new ArrayList<ServiceName>(allServiceNames);
       }
 
-      if (serviceNames.isEmpty())
+      if (serviceStates.isEmpty())
          return Collections.emptyList();
 
-      if (filter == null)
-         filter = NoFilter.INSTANCE;
+      checkAssignable &= (clazz != null);
+      checkAssignable &= (bundleState.getBundleId() != 0);
 
-      List<ServiceState> result = new ArrayList<ServiceState>();
-      for (ServiceName serviceName : serviceNames)
+      List<ServiceState> result = new ArrayList<ServiceState>(serviceStates.size());
+      for (ServiceState serviceState : serviceStates)
       {
-         ServiceController<?> controller = getBundleManager().getServiceContainer().getService(serviceName);
-         if (controller == null)
-            throw new IllegalStateException("Cannot obtain service for: " + serviceName);
-
-         Object value = controller.getValue();
-
-         // Create the ServiceState on demand for an XService instance
-         // [TODO] This should be done eagerly to keep the serviceId constant
-         // [TODO] service events for XService lifecycle changes
-         if (value instanceof ServiceState == false && serviceName.getCanonicalName().startsWith(Constants.JBOSGI_PREFIX))
-         {
-            long serviceId = getNextServiceId();
-            Bundle bundle = packageAdmin.getBundle(value.getClass());
-            AbstractBundle owner = (bundle != null ? AbstractBundle.assertBundleState(bundle) : getBundleManager().getSystemBundle());
-            value = new ServiceState(owner, serviceId, new ServiceName[] { serviceName }, new String[] { clazz }, value, null);
-         }
-
-         ServiceState serviceState = (ServiceState)value;
          if (filter.match(serviceState) == false)
             continue;
 
          Object rawValue = serviceState.getRawValue();
-
-         checkAssignable &= (clazz != null);
-         checkAssignable &= (bundleState.getBundleId() != 0);
-         checkAssignable &= !(rawValue instanceof ServiceFactory);
-         if (checkAssignable == false || serviceState.isAssignableTo(bundleState, clazz))
+         if (checkAssignable == false || rawValue instanceof ServiceFactory || serviceState.isAssignableTo(bundleState, clazz))
          {
             result.add(serviceState);
          }
       }
 
-      // Sort the result
-      Collections.sort(result, ServiceReferenceComparator.getInstance());
       return Collections.unmodifiableList(result);
    }
 
+   private ServiceState getXServiceState(String clazz)
+   {
+      ServiceName xserviceName = ServiceName.of(Constants.JBOSGI_PREFIX, clazz);
+      ServiceController<?> xservice = getBundleManager().getServiceContainer().getService(xserviceName);
+      if (xservice == null)
+         return null;
+
+      Object value = xservice.getValue();
+      if (value instanceof ServiceState)
+         return (ServiceState)value;
+
+      // Create the ServiceState on demand for an XService instance
+      // [TODO] This should be done eagerly to keep the serviceId constant
+      // [TODO] service events for XService lifecycle changes
+      long serviceId = getNextServiceId();
+      Bundle bundle = packageAdmin.getBundle(value.getClass());
+      AbstractBundle owner = (bundle != null ? AbstractBundle.assertBundleState(bundle) : getBundleManager().getSystemBundle());
+      return new ServiceState(owner, serviceId, new ServiceName[] { xserviceName }, new String[] { clazz }, value, null);
+   }
+
    @Override
    public Object getService(AbstractBundle bundleState, ServiceState serviceState)
    {
@@ -371,31 +396,11 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
       return bundleState.getServicesInUseInternal();
    }
 
-   private void registerNameAssociation(String className, ServiceName serviceName)
-   {
-      synchronized (serviceNameMap)
-      {
-         List<ServiceName> names = serviceNameMap.get(className);
-         if (names == null)
-         {
-            names = new CopyOnWriteArrayList<ServiceName>();
-            serviceNameMap.put(className, names);
-         }
-         names.add(serviceName);
-      }
-   }
-
-   private boolean unregisterNameAssociation(String className, ServiceName serviceName)
+   @Override
+   public void updateServiceProperties(ServiceState serviceState, ServiceProperties previous, ServiceProperties current)
    {
-      boolean removed = false;
-      List<ServiceName> names = serviceNameMap.get(className);
-      if (names != null)
-      {
-         removed = names.remove(serviceName);
-         if (names.isEmpty())
-            serviceNameMap.remove(className);
-      }
-      return removed;
+      // The service ranking may have changed
+      serviceRegistry.updateService(serviceState, previous, current);
    }
 
    @Override
@@ -407,11 +412,15 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
    @Override
    public void unregisterService(ServiceState serviceState)
    {
+      long startTime = (tracePlugin != null ? System.nanoTime() : 0);
       List<ServiceName> serviceNames = serviceState.getServiceNames();
       log.debugf("Unregister service: %s", serviceNames);
 
       AbstractBundle serviceOwner = serviceState.getServiceOwner();
 
+      if (unregistrationCount != null)
+         unregistrationCount.increment();
+
       // This event is synchronously delivered before the service has completed unregistering.
       eventsPlugin.fireServiceEvent(serviceOwner, ServiceEvent.UNREGISTERING, serviceState);
 
@@ -425,15 +434,8 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
       // Remove from owner bundle
       serviceOwner.removeRegisteredService(serviceState);
 
-      // Unregister name associations
-      String[] clazzes = (String[])serviceState.getProperty(Constants.OBJECTCLASS);
-      for (ServiceName serviceName : serviceNames)
-      {
-         for (String clazz : clazzes)
-         {
-            unregisterNameAssociation(clazz, serviceName);
-         }
-      }
+      // Remove from the registry
+      serviceRegistry.removeService(serviceState);
 
       // Remove from controller
       ServiceName rootServiceName = serviceNames.get(0);
@@ -447,6 +449,9 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
       {
          log.errorf(ex, "Cannot remove service: %s", rootServiceName);
       }
+
+      if (tracePlugin != null)
+         tracePlugin.traceEvent(EventType.SERVICE_UNREGISTER, startTime, System.nanoTime(), serviceState, null);
    }
 
    /*
@@ -482,6 +487,7 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
          hookParam.add(aux.getReference());
 
       hookParam = new RemoveOnlyCollection<ServiceReference>(hookParam);
+      long startTime = (hookTime != null ? System.nanoTime() : 0);
       for (FindHook hook : hooks)
       {
          try
@@ -493,6 +499,8 @@ public class ServiceManagerPluginImpl extends AbstractPlugin implements ServiceM
             log.warnf(ex, "Error while calling FindHook: %s", hook);
          }
       }
+      if (hookTime != null)
+         hookTime.recordSince(startTime);
 
       List<ServiceState> result = new ArrayList<ServiceState>();
       for (ServiceReference aux : hookParam)
@@ -0,0 +1,481 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.plugin.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jboss.osgi.framework.Constants;
+import org.jboss.osgi.framework.bundle.ServiceReferenceComparator;
+import org.jboss.osgi.framework.bundle.ServiceState;
+import org.jboss.osgi.framework.util.CompiledFilter;
+import org.jboss.osgi.framework.util.ServiceProperties;
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * An in-memory index of the registered services.
+ *
+ * Each objectClass maps to an array of {@link ServiceState}s that is kept sorted
+ * by {@link ServiceReferenceComparator}. The arrays are copied on write, so that
+ * lookups neither lock, scan the whole registry nor sort.
+ *
+ * Optionally, the values of configured property keys are indexed as well. A lookup
+ * with a {@link CompiledFilter} that requires equality or presence items on those keys only considers
+ * the smallest matching posting list. The index narrows the candidates only, the filter
+ * is still matched against every returned candidate.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 10-Jan-2011
+ */
+class ServiceRegistry
+{
+   private static final ServiceState[] EMPTY = new ServiceState[0];
+   private static final String OBJECTCLASS_KEY = Constants.OBJECTCLASS.toLowerCase();
+
+   // Maps the service interface to the sorted array of registered services
+   private final Map<String, ServiceState[]> classIndex = new ConcurrentHashMap<String, ServiceState[]>();
+   // The sorted array of all registered services
+   private volatile ServiceState[] allServices = EMPTY;
+
+   // The lower case property keys that have an attribute index
+   private final Set<String> indexedKeys;
+   // Maps an attribute key/value to the sorted array of services
+   private final Map<IndexKey, ServiceState[]> attributeIndex = new ConcurrentHashMap<IndexKey, ServiceState[]>();
+   // The attribute keys a service has been added to
+   private final Map<ServiceState, List<IndexKey>> serviceKeys = new HashMap<ServiceState, List<IndexKey>>();
+
+   ServiceRegistry()
+   {
+      this(null);
+   }
+
+   /**
+    * Create a registry that maintains an attribute index for the given property keys.
+    * @param keys The property keys or null
+    */
+   ServiceRegistry(Collection<String> keys)
+   {
+      Set<String> lowerKeys = new HashSet<String>();
+      if (keys != null)
+      {
+         for (String key : keys)
+         {
+            key = key.trim().toLowerCase();
+            if (key.length() > 0 && key.equals(OBJECTCLASS_KEY) == false)
+               lowerKeys.add(key);
+         }
+      }
+      indexedKeys = Collections.unmodifiableSet(lowerKeys);
+   }
+
+   Set<String> getIndexedKeys()
+   {
+      return indexedKeys;
+   }
+
+   /**
+    * Add the service to the index for each of its objectClass values.
+    */
+   void addService(ServiceState serviceState)
+   {
+      synchronized (this)
+      {
+         for (String clazz : getObjectClass(serviceState))
+         {
+            ServiceState[] states = classIndex.get(clazz);
+            classIndex.put(clazz, insert(states != null ? states : EMPTY, serviceState));
+         }
+         allServices = insert(allServices, serviceState);
+         addAttributes(serviceState);
+      }
+   }
+
+   /**
+    * Remove the service from the index.
+    * @return true if the service was registered with this index
+    */
+   boolean removeService(ServiceState serviceState)
+   {
+      synchronized (this)
+      {
+         for (String clazz : getObjectClass(serviceState))
+         {
+            ServiceState[] states = classIndex.get(clazz);
+            if (states != null)
+            {
+               states = remove(states, serviceState);
+               if (states.length == 0)
+                  classIndex.remove(clazz);
+               else
+                  classIndex.put(clazz, states);
+            }
+         }
+         removeAttributes(serviceState);
+         int size = allServices.length;
+         allServices = remove(allServices, serviceState);
+         return allServices.length != size;
+      }
+   }
+
+   /**
+    * Re-establish the sort order and the attribute index after the service properties have been modified.
+    * @param previous The properties before the modification
+    * @param current The properties after the modification
+    */
+   void updateService(ServiceState serviceState, ServiceProperties previous, ServiceProperties current)
+   {
+      synchronized (this)
+      {
+         // The sort order only depends on the service ranking
+         if (previous.getServiceRanking() != current.getServiceRanking())
+         {
+            for (String clazz : getObjectClass(serviceState))
+            {
+               ServiceState[] states = classIndex.get(clazz);
+               if (states != null)
+                  classIndex.put(clazz, sort(states));
+            }
+            allServices = sort(allServices);
+         }
+         if (serviceKeys.containsKey(serviceState))
+         {
+            removeAttributes(serviceState);
+            addAttributes(serviceState);
+         }
+      }
+   }
+
+   /**
+    * Get the sorted list of candidate services for the given class and filter.
+    *
+    * The result is a superset of the services that match the filter,
+    * callers must still match the filter against each candidate.
+    *
+    * @param clazz The class name or null for all services
+    * @param filter The filter
+    * @return An unmodifiable, potentially empty list of services
+    */
+   List<ServiceState> getServices(String clazz, Filter filter)
+   {
+      ServiceState[] states = (clazz != null ? classIndex.get(clazz) : allServices);
+      if (states == null || states.length == 0)
+         return Collections.emptyList();
+
+      CompiledFilter compiled = getCompiledFilter(filter);
+      if (compiled == null)
+         return Collections.unmodifiableList(Arrays.asList(states));
+
+      // Find the smallest posting list for the equality and presence items of the filter
+      ServiceState[] candidates = states;
+      for (CompiledFilter item : compiled.getRequiredItems())
+      {
+         ServiceState[] posting = null;
+         if (item.getOperation() == CompiledFilter.EQUAL)
+            posting = getPosting(item.getAttribute(), item.getValue());
+         else if (item.getOperation() == CompiledFilter.PRESENT)
+            posting = getPosting(item.getAttribute(), null);
+
+         if (posting != null && posting.length < candidates.length)
+            candidates = posting;
+      }
+
+      if (candidates == states)
+         return Collections.unmodifiableList(Arrays.asList(states));
+
+      // Candidates from a posting list must be registered under the requested class
+      List<ServiceState> result = new ArrayList<ServiceState>(candidates.length);
+      for (ServiceState serviceState : candidates)
+      {
+         if (clazz == null || Arrays.asList(getObjectClass(serviceState)).contains(clazz))
+            result.add(serviceState);
+      }
+      return Collections.unmodifiableList(result);
+   }
+
+   void clear()
+   {
+      synchronized (this)
+      {
+         classIndex.clear();
+         attributeIndex.clear();
+         serviceKeys.clear();
+         allServices = EMPTY;
+      }
+   }
+
+   private static CompiledFilter getCompiledFilter(Filter filter)
+   {
+      if (filter instanceof CompiledFilter)
+         return (CompiledFilter)filter;
+
+      String filterStr = (filter != null ? filter.toString() : null);
+      if (filterStr == null)
+         return null;
+
+      try
+      {
+         return CompiledFilter.compile(filterStr);
+      }
+      catch (InvalidSyntaxException ex)
+      {
+         return null;
+      }
+   }
+
+   /**
+    * Get the sorted posting list for an equality or presence term.
+    * @return The posting list or null if the term is not indexed
+    */
+   private ServiceState[] getPosting(String key, String value)
+   {
+      String lowerKey = key.toLowerCase();
+      if (lowerKey.equals(OBJECTCLASS_KEY))
+      {
+         if (value == null)
+            return null;
+
+         ServiceState[] states = classIndex.get(value);
+         return states != null ? states : EMPTY;
+      }
+
+      if (indexedKeys.contains(lowerKey) == false)
+         return null;
+
+      if (value == null)
+         return getPosting(IndexKey.present(lowerKey));
+
+      // Services with values that cannot be compared as strings are always candidates
+      ServiceState[] equal = getPosting(IndexKey.equal(lowerKey, value));
+      ServiceState[] unindexed = getPosting(IndexKey.unindexed(lowerKey));
+      return merge(equal, unindexed);
+   }
+
+   private ServiceState[] getPosting(IndexKey indexKey)
+   {
+      ServiceState[] states = attributeIndex.get(indexKey);
+      return states != null ? states : EMPTY;
+   }
+
+   private void addAttributes(ServiceState serviceState)
+   {
+      if (indexedKeys.isEmpty())
+         return;
+
+      List<IndexKey> keys = new ArrayList<IndexKey>();
+      for (String key : indexedKeys)
+      {
+         Object value = serviceState.getProperty(key);
+         if (value == null)
+            continue;
+
+         keys.add(IndexKey.present(key));
+         if (value instanceof String)
+         {
+            keys.add(IndexKey.equal(key, (String)value));
+         }
+         else if (value instanceof String[])
+         {
+            for (String aux : (String[])value)
+               keys.add(IndexKey.equal(key, aux));
+         }
+         else if (value instanceof Collection && isStringCollection((Collection<?>)value))
+         {
+            for (Object aux : (Collection<?>)value)
+               keys.add(IndexKey.equal(key, (String)aux));
+         }
+         else
+         {
+            keys.add(IndexKey.unindexed(key));
+         }
+      }
+
+      for (IndexKey indexKey : keys)
+      {
+         ServiceState[] states = attributeIndex.get(indexKey);
+         attributeIndex.put(indexKey, insert(states != null ? states : EMPTY, serviceState));
+      }
+      serviceKeys.put(serviceState, keys);
+   }
+
+   private void removeAttributes(ServiceState serviceState)
+   {
+      List<IndexKey> keys = serviceKeys.remove(serviceState);
+      if (keys == null)
+         return;
+
+      for (IndexKey indexKey : keys)
+      {
+         ServiceState[] states = attributeIndex.get(indexKey);
+         if (states != null)
+         {
+            states = remove(states, serviceState);
+            if (states.length == 0)
+               attributeIndex.remove(indexKey);
+            else
+               attributeIndex.put(indexKey, states);
+         }
+      }
+   }
+
+   private static boolean isStringCollection(Collection<?> values)
+   {
+      for (Object aux : values)
+      {
+         if (aux instanceof String == false)
+            return false;
+      }
+      return true;
+   }
+
+   private static String[] getObjectClass(ServiceState serviceState)
+   {
+      return serviceState.getProperties().getObjectClass();
+   }
+
+   private static ServiceState[] insert(ServiceState[] states, ServiceState serviceState)
+   {
+      // Find the insertion point, the service id makes the comparator total
+      int index = Arrays.binarySearch(states, serviceState, ServiceReferenceComparator.getInstance());
+      if (index >= 0)
+         return states;
+
+      index = -(index + 1);
+      ServiceState[] result = new ServiceState[states.length + 1];
+      System.arraycopy(states, 0, result, 0, index);
+      result[index] = serviceState;
+      System.arraycopy(states, index, result, index + 1, states.length - index);
+      return result;
+   }
+
+   private static ServiceState[] remove(ServiceState[] states, ServiceState serviceState)
+   {
+      // The ranking may have changed, so we search by identity
+      for (int i = 0; i < states.length; i++)
+      {
+         if (states[i] == serviceState)
+         {
+            ServiceState[] result = new ServiceState[states.length - 1];
+            System.arraycopy(states, 0, result, 0, i);
+            System.arraycopy(states, i + 1, result, i, states.length - i - 1);
+            return result;
+         }
+      }
+      return states;
+   }
+
+   private static ServiceState[] merge(ServiceState[] states1, ServiceState[] states2)
+   {
+      if (states2.length == 0)
+         return states1;
+      if (states1.length == 0)
+         return states2;
+
+      ServiceState[] result = new ServiceState[states1.length + states2.length];
+      int i = 0, j = 0, k = 0;
+      while (i < states1.length && j < states2.length)
+      {
+         if (ServiceReferenceComparator.getInstance().compare(states1[i], states2[j]) <= 0)
+            result[k++] = states1[i++];
+         else
+            result[k++] = states2[j++];
+      }
+      while (i < states1.length)
+         result[k++] = states1[i++];
+      while (j < states2.length)
+         result[k++] = states2[j++];
+      return result;
+   }
+
+   private static ServiceState[] sort(ServiceState[] states)
+   {
+      ServiceState[] result = states.clone();
+      Arrays.sort(result, ServiceReferenceComparator.getInstance());
+      return result;
+   }
+
+   /**
+    * The key of an attribute posting list
+    */
+   static class IndexKey
+   {
+      private static final int PRESENT = 0;
+      private static final int EQUAL = 1;
+      private static final int UNINDEXED = 2;
+
+      private final String key;
+      private final String value;
+      private final int kind;
+
+      private IndexKey(String key, String value, int kind)
+      {
+         this.key = key;
+         this.value = value;
+         this.kind = kind;
+      }
+
+      static IndexKey present(String key)
+      {
+         return new IndexKey(key, null, PRESENT);
+      }
+
+      static IndexKey equal(String key, String value)
+      {
+         return new IndexKey(key, value, EQUAL);
+      }
+
+      static IndexKey unindexed(String key)
+      {
+         return new IndexKey(key, null, UNINDEXED);
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return (key.hashCode() * 31 + (value != null ? value.hashCode() : 0)) * 31 + kind;
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if (obj instanceof IndexKey == false)
+            return false;
+
+         IndexKey other = (IndexKey)obj;
+         return kind == other.kind && key.equals(other.key) && (value == null ? other.value == null : value.equals(other.value));
+      }
+
+      @Override
+      public String toString()
+      {
+         return "IndexKey[" + key + "," + value + "," + kind + "]";
+      }
+   }
+}
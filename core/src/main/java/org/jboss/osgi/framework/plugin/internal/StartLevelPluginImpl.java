@@ -21,9 +21,18 @@
  */
 package org.jboss.osgi.framework.plugin.internal;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.logging.Logger;
 import org.jboss.osgi.framework.bundle.AbstractBundle;
@@ -51,9 +60,12 @@ public class StartLevelPluginImpl extends AbstractPlugin implements StartLevelPl
 
    private final FrameworkEventsPlugin eventsPlugin;
    private Executor executor = Executors.newSingleThreadExecutor();
-   private int initialBundleStartLevel = 1; // Synchronized on this
+   // The pool that starts/stops the bundles of a start level, null when sequential
+   private volatile ThreadPoolExecutor levelExecutor;
+   // Bundles that are started concurrently may read these while a start level change holds the lock
+   private volatile int initialBundleStartLevel = 1;
    private ServiceRegistration registration;
-   private int startLevel = 0; // Synchronized on this
+   private volatile int startLevel = 0; // Modified while synchronized on this
 
    public StartLevelPluginImpl(BundleManager bundleManager)
    {
@@ -67,6 +79,40 @@ public class StartLevelPluginImpl extends AbstractPlugin implements StartLevelPl
       // Start Level service needs to be registered when the Framework.init() is called
       BundleContext sc = getBundleManager().getSystemContext();
       registration = sc.registerService(StartLevel.class.getName(), this, null);
+
+      String value = getBundleManager().getFrameworkState().getProperty(PROP_JBOSS_OSGI_STARTLEVEL_PARALLELISM);
+      int parallelism = 1;
+      if (value != null)
+      {
+         try
+         {
+            parallelism = Integer.parseInt(value.trim());
+         }
+         catch (NumberFormatException ex)
+         {
+            log.warnf("Invalid value for %s: %s", PROP_JBOSS_OSGI_STARTLEVEL_PARALLELISM, value);
+         }
+      }
+      if (parallelism > 1)
+      {
+         log.debugf("Start level parallelism: %d", parallelism);
+         levelExecutor = new ThreadPoolExecutor(parallelism, parallelism, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+         {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable)
+            {
+               Thread thread = new Thread(runnable, "OSGi StartLevel-" + threadCount.incrementAndGet());
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+         levelExecutor.allowCoreThreadTimeOut(true);
+      }
+      else
+      {
+         levelExecutor = null;
+      }
    }
 
    @Override
@@ -77,16 +123,24 @@ public class StartLevelPluginImpl extends AbstractPlugin implements StartLevelPl
          registration.unregister();
          registration = null;
       }
+
+      // The framework has moved to start level 0 already
+      ThreadPoolExecutor service = levelExecutor;
+      if (service != null)
+      {
+         levelExecutor = null;
+         service.shutdown();
+      }
    }
 
    @Override
-   public synchronized int getStartLevel()
+   public int getStartLevel()
    {
       return startLevel;
    }
 
    @Override
-   public synchronized void setStartLevel(final int level)
+   public void setStartLevel(final int level)
    {
       if (level > getStartLevel())
       {
@@ -197,13 +251,13 @@ public class StartLevelPluginImpl extends AbstractPlugin implements StartLevelPl
    }
 
    @Override
-   public synchronized int getInitialBundleStartLevel()
+   public int getInitialBundleStartLevel()
    {
       return initialBundleStartLevel;
    }
 
    @Override
-   public synchronized void setInitialBundleStartLevel(int startlevel)
+   public void setInitialBundleStartLevel(int startlevel)
    {
       initialBundleStartLevel = startlevel;
    }
@@ -236,7 +290,8 @@ public class StartLevelPluginImpl extends AbstractPlugin implements StartLevelPl
       {
          startLevel++;
          log.infof("Starting bundles for start level: %s", startLevel);
-         for (AbstractBundle bundle : bundles)
+         List<Runnable> tasks = new ArrayList<Runnable>();
+         for (final AbstractBundle bundle : bundles)
          {
             if (!(bundle instanceof HostBundle))
                continue;
@@ -244,21 +299,29 @@ public class StartLevelPluginImpl extends AbstractPlugin implements StartLevelPl
             HostBundle hostBundle = (HostBundle)bundle;
             if (hostBundle.getStartLevel() == startLevel && hostBundle.isPersistentlyStarted())
             {
-               try
+               tasks.add(new Runnable()
                {
-                  int opts = Bundle.START_TRANSIENT;
-                  if (isBundleActivationPolicyUsed(bundle))
+                  @Override
+                  public void run()
                   {
-                     opts |= Bundle.START_ACTIVATION_POLICY;
+                     try
+                     {
+                        int opts = Bundle.START_TRANSIENT;
+                        if (isBundleActivationPolicyUsed(bundle))
+                        {
+                           opts |= Bundle.START_ACTIVATION_POLICY;
+                        }
+                        bundle.start(opts);
+                     }
+                     catch (Throwable e)
+                     {
+                        eventsPlugin.fireFrameworkEvent(bundle, FrameworkEvent.ERROR, e);
+                     }
                   }
-                  bundle.start(opts);
-               }
-               catch (Throwable e)
-               {
-                  eventsPlugin.fireFrameworkEvent(bundle, FrameworkEvent.ERROR, e);
-               }
+               });
             }
          }
+         runLevelTasks(tasks);
       }
    }
 
@@ -273,7 +336,8 @@ public class StartLevelPluginImpl extends AbstractPlugin implements StartLevelPl
       while (startLevel > sl)
       {
          log.infof("Stopping bundles for start level: %s", startLevel);
-         for (AbstractBundle b : bundles)
+         List<Runnable> tasks = new ArrayList<Runnable>();
+         for (final AbstractBundle b : bundles)
          {
             if (!(b instanceof HostBundle))
                continue;
@@ -281,17 +345,63 @@ public class StartLevelPluginImpl extends AbstractPlugin implements StartLevelPl
             HostBundle hb = (HostBundle)b;
             if (hb.getStartLevel() == startLevel)
             {
-               try
-               {
-                  b.stop(Bundle.STOP_TRANSIENT);
-               }
-               catch (Throwable e)
+               tasks.add(new Runnable()
                {
-                  eventsPlugin.fireFrameworkEvent(b, FrameworkEvent.ERROR, e);
-               }
+                  @Override
+                  public void run()
+                  {
+                     try
+                     {
+                        b.stop(Bundle.STOP_TRANSIENT);
+                     }
+                     catch (Throwable e)
+                     {
+                        eventsPlugin.fireFrameworkEvent(b, FrameworkEvent.ERROR, e);
+                     }
+                  }
+               });
             }
          }
+         runLevelTasks(tasks);
          startLevel--;
       }
    }
+
+   /**
+    * Run the tasks for a single start level and return when all of them are done.
+    * Within a start level the bundles can be started and stopped in any order.
+    */
+   private void runLevelTasks(List<Runnable> tasks)
+   {
+      ThreadPoolExecutor service = levelExecutor;
+      if (service == null || tasks.size() < 2)
+      {
+         for (Runnable task : tasks)
+            task.run();
+         return;
+      }
+
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (Runnable task : tasks)
+         futures.add(service.submit(task));
+
+      // Join before moving on to the next start level
+      for (Future<?> future : futures)
+      {
+         try
+         {
+            future.get();
+         }
+         catch (InterruptedException ex)
+         {
+            log.warnf("Interrupted while waiting for start level: %s", startLevel);
+            Thread.currentThread().interrupt();
+            return;
+         }
+         catch (ExecutionException ex)
+         {
+            log.errorf(ex.getCause(), "Cannot process start level: %s", startLevel);
+         }
+      }
+   }
 }
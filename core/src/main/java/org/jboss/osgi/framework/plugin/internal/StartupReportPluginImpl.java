@@ -0,0 +1,192 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.plugin.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.logging.Logger;
+import org.jboss.osgi.framework.bundle.AbstractBundle;
+import org.jboss.osgi.framework.bundle.BundleManager;
+import org.jboss.osgi.framework.bundle.HostBundle;
+import org.jboss.osgi.framework.plugin.AbstractPlugin;
+import org.jboss.osgi.framework.plugin.StartupReport;
+import org.jboss.osgi.framework.plugin.StartupReport.BundleTiming;
+import org.jboss.osgi.framework.plugin.StartupReportPlugin;
+
+/**
+ * A plugin that records the bundle lifecycle timings and reports them when the framework has started.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 25-Jan-2011
+ */
+public class StartupReportPluginImpl extends AbstractPlugin implements StartupReportPlugin
+{
+   // Provide logging
+   final Logger log = Logger.getLogger(StartupReportPluginImpl.class);
+
+   // The recorded phases by bundle id
+   private final ConcurrentMap<Long, PhaseRecord> records = new ConcurrentHashMap<Long, PhaseRecord>();
+   // The time the framework was initialized
+   private volatile long initTime = System.nanoTime();
+   // The time the framework has started, valid if started is true
+   private volatile long startedTime;
+   private volatile boolean started;
+
+   public StartupReportPluginImpl(BundleManager bundleManager)
+   {
+      super(bundleManager);
+   }
+
+   @Override
+   public void initPlugin()
+   {
+      records.clear();
+      started = false;
+      initTime = System.nanoTime();
+   }
+
+   @Override
+   public void destroyPlugin()
+   {
+      records.clear();
+   }
+
+   @Override
+   public void recordPhase(AbstractBundle bundleState, Phase phase, long startTime, long endTime)
+   {
+      if (bundleState == null)
+         throw new IllegalArgumentException("Null bundleState");
+      if (phase == null)
+         throw new IllegalArgumentException("Null phase");
+
+      // Lifecycle changes after startup are not part of the report
+      if (started == true)
+         return;
+
+      Long bundleId = bundleState.getBundleId();
+      PhaseRecord record = records.get(bundleId);
+      if (record == null)
+      {
+         record = new PhaseRecord(bundleId, bundleState.getCanonicalName());
+         PhaseRecord previous = records.putIfAbsent(bundleId, record);
+         if (previous != null)
+            record = previous;
+      }
+
+      int startLevel = (bundleState instanceof HostBundle ? ((HostBundle)bundleState).getStartLevel() : 0);
+      record.record(phase, startTime, endTime, startLevel);
+   }
+
+   @Override
+   public void removeRecords(AbstractBundle bundleState)
+   {
+      if (bundleState == null)
+         throw new IllegalArgumentException("Null bundleState");
+
+      records.remove(bundleState.getBundleId());
+   }
+
+   @Override
+   public void frameworkStarted()
+   {
+      startedTime = System.nanoTime();
+      started = true;
+
+      boolean infoReport = Boolean.parseBoolean(getBundleManager().getFrameworkState().getProperty(PROP_JBOSS_OSGI_STARTUP_REPORT));
+      if (infoReport == true)
+         log.info(getStartupReport());
+      else if (log.isDebugEnabled())
+         log.debug(getStartupReport());
+   }
+
+   @Override
+   public StartupReport getStartupReport()
+   {
+      long originTime = initTime;
+      long endTime = (started ? startedTime : System.nanoTime());
+
+      List<BundleTiming> timings = new ArrayList<BundleTiming>();
+      for (PhaseRecord record : records.values())
+      {
+         BundleTiming timing = record.getBundleTiming(originTime);
+         if (timing != null)
+            timings.add(timing);
+      }
+      return new StartupReport(endTime - originTime, timings);
+   }
+
+   /**
+    * The absolute phase times of a bundle
+    */
+   static class PhaseRecord
+   {
+      private final long bundleId;
+      private final String bundle;
+      private final long[] begins = new long[Phase.values().length];
+      private final long[] ends = new long[Phase.values().length];
+      private final boolean[] recorded = new boolean[Phase.values().length];
+      private int startLevel;
+
+      PhaseRecord(long bundleId, String bundle)
+      {
+         this.bundleId = bundleId;
+         this.bundle = bundle;
+      }
+
+      synchronized void record(Phase phase, long startTime, long endTime, int startLevel)
+      {
+         int index = phase.ordinal();
+         begins[index] = startTime;
+         ends[index] = endTime;
+         recorded[index] = true;
+         this.startLevel = startLevel;
+      }
+
+      /**
+       * Get the timing relative to the given origin
+       * @return The timing or null if no phase was recorded after the origin
+       */
+      synchronized BundleTiming getBundleTiming(long originTime)
+      {
+         long[] relativeBegins = new long[begins.length];
+         long[] relativeEnds = new long[ends.length];
+         Arrays.fill(relativeBegins, -1);
+         Arrays.fill(relativeEnds, -1);
+
+         boolean found = false;
+         for (int i = 0; i < begins.length; i++)
+         {
+            if (recorded[i] && begins[i] - originTime >= 0)
+            {
+               relativeBegins[i] = begins[i] - originTime;
+               relativeEnds[i] = ends[i] - originTime;
+               found = true;
+            }
+         }
+         return found ? new BundleTiming(bundleId, bundle, startLevel, relativeBegins, relativeEnds) : null;
+      }
+   }
+}
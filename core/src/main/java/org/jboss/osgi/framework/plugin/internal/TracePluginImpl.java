@@ -0,0 +1,155 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.plugin.internal;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.jboss.logging.Logger;
+import org.jboss.osgi.framework.bundle.BundleManager;
+import org.jboss.osgi.framework.plugin.AbstractPlugin;
+import org.jboss.osgi.framework.plugin.TraceEvent;
+import org.jboss.osgi.framework.plugin.TraceListener;
+import org.jboss.osgi.framework.plugin.TracePlugin;
+
+/**
+ * A plugin that traces the framework internals that take longer than their threshold.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 26-Jan-2011
+ */
+public class TracePluginImpl extends AbstractPlugin implements TracePlugin
+{
+   // Provide logging
+   final Logger log = Logger.getLogger(TracePluginImpl.class);
+
+   // The threshold in nanoseconds by event type ordinal, negative if the type is disabled
+   private final long[] thresholds;
+   private final List<TraceListener> listeners = new CopyOnWriteArrayList<TraceListener>();
+
+   public TracePluginImpl(BundleManager bundleManager)
+   {
+      super(bundleManager);
+
+      long defaultThreshold = getThreshold(PROP_JBOSS_OSGI_TRACE_THRESHOLD, DEFAULT_THRESHOLD);
+      EventType[] types = EventType.values();
+      thresholds = new long[types.length];
+      for (EventType type : types)
+      {
+         String propName = PROP_JBOSS_OSGI_TRACE_THRESHOLD + "." + type.name().toLowerCase();
+         long threshold = getThreshold(propName, defaultThreshold);
+         thresholds[type.ordinal()] = (threshold < 0 ? -1 : threshold * 1000);
+      }
+   }
+
+   @Override
+   public void initPlugin()
+   {
+      Object value = getBundleManager().getProperty(PROP_JBOSS_OSGI_TRACE_LISTENERS);
+      if (value == null)
+         return;
+
+      for (String className : value.toString().split(","))
+      {
+         className = className.trim();
+         if (className.length() == 0)
+            continue;
+
+         try
+         {
+            Class<?> listenerClass = TracePluginImpl.class.getClassLoader().loadClass(className);
+            addTraceListener((TraceListener)listenerClass.newInstance());
+         }
+         catch (Exception ex)
+         {
+            log.errorf(ex, "Cannot create trace listener: %s", className);
+         }
+      }
+   }
+
+   @Override
+   public void destroyPlugin()
+   {
+      listeners.clear();
+   }
+
+   @Override
+   public boolean isEnabled(EventType type)
+   {
+      return thresholds[type.ordinal()] >= 0;
+   }
+
+   @Override
+   public void traceEvent(EventType type, long startTime, long endTime, Object subject, Object detail)
+   {
+      long threshold = thresholds[type.ordinal()];
+      long duration = endTime - startTime;
+      if (threshold < 0 || duration < threshold)
+         return;
+
+      TraceEvent event = new TraceEvent(type, startTime, duration, Thread.currentThread().getName(), subject, detail);
+      log.debugf("Trace: %s", event);
+      for (TraceListener listener : listeners)
+      {
+         try
+         {
+            listener.traceEvent(event);
+         }
+         catch (RuntimeException ex)
+         {
+            log.warnf(ex, "Error in trace listener: %s", listener);
+         }
+      }
+   }
+
+   @Override
+   public void addTraceListener(TraceListener listener)
+   {
+      if (listener == null)
+         throw new IllegalArgumentException("Null listener");
+
+      listeners.add(listener);
+   }
+
+   @Override
+   public void removeTraceListener(TraceListener listener)
+   {
+      listeners.remove(listener);
+   }
+
+   private long getThreshold(String propName, long defaultValue)
+   {
+      Object value = getBundleManager().getProperty(propName);
+      if (value == null)
+         return defaultValue;
+
+      try
+      {
+         return Long.parseLong(value.toString().trim());
+      }
+      catch (NumberFormatException ex)
+      {
+         log.warnf("Invalid value for %s: %s", propName, value);
+         return defaultValue;
+      }
+   }
+}
@@ -0,0 +1,157 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.plugin.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.osgi.resolver.XCapability;
+import org.jboss.osgi.resolver.XModule;
+import org.jboss.osgi.resolver.XWire;
+
+/**
+ * A reverse index of the wires of resolved modules, by exporter and by capability.
+ *
+ * The wires of a module are added when the resolver marks it resolved, and removed
+ * when the module is removed from the resolver.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 20-Jan-2011
+ */
+final class WireIndex
+{
+   // The wires by exporter module
+   private final Map<XModule, List<XWire>> exporterWires = new HashMap<XModule, List<XWire>>();
+   // The wires by capability
+   private final Map<XCapability, List<XWire>> capabilityWires = new HashMap<XCapability, List<XWire>>();
+   // The indexed wires by importer module
+   private final Map<XModule, List<XWire>> importerWires = new HashMap<XModule, List<XWire>>();
+
+   /**
+    * Index the wires of a resolved module
+    */
+   synchronized void addModule(XModule importer)
+   {
+      removeModule(importer);
+
+      List<XWire> wires = importer.getWires();
+      if (wires == null || wires.isEmpty())
+         return;
+
+      List<XWire> indexed = new ArrayList<XWire>(wires.size());
+      for (XWire wire : wires)
+      {
+         XModule exporter = wire.getExporter();
+         if (exporter == null)
+            continue;
+
+         addWire(exporterWires, exporter, wire);
+         if (wire.getCapability() != null)
+            addWire(capabilityWires, wire.getCapability(), wire);
+         indexed.add(wire);
+      }
+      importerWires.put(importer, indexed);
+   }
+
+   /**
+    * Remove the wires of a module that is no longer resolved
+    */
+   synchronized void removeModule(XModule importer)
+   {
+      List<XWire> indexed = importerWires.remove(importer);
+      if (indexed == null)
+         return;
+
+      for (XWire wire : indexed)
+      {
+         removeWire(exporterWires, wire.getExporter(), wire);
+         if (wire.getCapability() != null)
+            removeWire(capabilityWires, wire.getCapability(), wire);
+      }
+   }
+
+   /**
+    * Get the wires that have the given module as exporter
+    * @return The wires or an empty list
+    */
+   synchronized List<XWire> getWiresToExporter(XModule exporter)
+   {
+      List<XWire> list = exporterWires.get(exporter);
+      if (list == null)
+         return Collections.emptyList();
+
+      return Collections.unmodifiableList(new ArrayList<XWire>(list));
+   }
+
+   /**
+    * Get the wires to the given capability
+    * @return The wires or an empty list
+    */
+   synchronized List<XWire> getWiresToCapability(XCapability capability)
+   {
+      List<XWire> list = capabilityWires.get(capability);
+      if (list == null)
+         return Collections.emptyList();
+
+      return Collections.unmodifiableList(new ArrayList<XWire>(list));
+   }
+
+   /**
+    * True if there is a wire to the given capability
+    */
+   synchronized boolean isWired(XCapability capability)
+   {
+      return capabilityWires.containsKey(capability);
+   }
+
+   synchronized void clear()
+   {
+      capabilityWires.clear();
+      exporterWires.clear();
+      importerWires.clear();
+   }
+
+   private static <K> void addWire(Map<K, List<XWire>> map, K key, XWire wire)
+   {
+      List<XWire> list = map.get(key);
+      if (list == null)
+      {
+         list = new ArrayList<XWire>();
+         map.put(key, list);
+      }
+      list.add(wire);
+   }
+
+   private static <K> void removeWire(Map<K, List<XWire>> map, K key, XWire wire)
+   {
+      List<XWire> list = map.get(key);
+      if (list != null)
+      {
+         list.remove(wire);
+         if (list.isEmpty())
+            map.remove(key);
+      }
+   }
+}
@@ -0,0 +1,182 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.plugin.internal;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.logging.Logger;
+import org.jboss.osgi.framework.bundle.BundleStorageState;
+import org.jboss.osgi.framework.bundle.BundleStorageState.PropertiesWriter;
+
+/**
+ * A PropertiesWriter that holds back property changes for up to a max delay.
+ *
+ * Multiple changes to the properties of a storage state within that delay are written
+ * only once, by a background thread. The pending changes are written when the writer
+ * is flushed or closed.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 18-Jan-2011
+ */
+final class WriteBehindPropertiesWriter implements PropertiesWriter
+{
+   // Provide logging
+   private static final Logger log = Logger.getLogger(WriteBehindPropertiesWriter.class);
+
+   private final PropertiesWriter delegate;
+   private final long maxDelay;
+   private final ScheduledThreadPoolExecutor scheduler;
+   // Serializes the writes to the delegate
+   private final Object writeLock = new Object();
+   // The latest pending properties for each storage state, guarded by this
+   private final Map<BundleStorageState, Properties> pending = new LinkedHashMap<BundleStorageState, Properties>();
+   private boolean scheduled;
+   private boolean closed;
+
+   WriteBehindPropertiesWriter(PropertiesWriter delegate, long maxDelay)
+   {
+      if (delegate == null)
+         throw new IllegalArgumentException("Null delegate");
+
+      this.delegate = delegate;
+      this.maxDelay = maxDelay;
+      this.scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+      {
+         public Thread newThread(Runnable runnable)
+         {
+            Thread thread = new Thread(runnable, "OSGi Storage Writer");
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+   }
+
+   public void writeProperties(BundleStorageState storageState, Properties props) throws IOException
+   {
+      synchronized (this)
+      {
+         if (closed == false)
+         {
+            pending.put(storageState, props);
+            if (scheduled == false)
+            {
+               Runnable flushTask = new Runnable()
+               {
+                  public void run()
+                  {
+                     flush();
+                  }
+               };
+               scheduler.schedule(flushTask, maxDelay, TimeUnit.MILLISECONDS);
+               scheduled = true;
+            }
+            return;
+         }
+      }
+
+      // Write through after the writer has been closed
+      synchronized (writeLock)
+      {
+         delegate.writeProperties(storageState, props);
+      }
+   }
+
+   public void deleteProperties(BundleStorageState storageState)
+   {
+      synchronized (writeLock)
+      {
+         synchronized (this)
+         {
+            pending.remove(storageState);
+         }
+         delegate.deleteProperties(storageState);
+      }
+   }
+
+   /**
+    * Write the pending properties of the given storage state
+    */
+   void flush(BundleStorageState storageState)
+   {
+      synchronized (writeLock)
+      {
+         Properties props;
+         synchronized (this)
+         {
+            props = pending.remove(storageState);
+         }
+         if (props != null)
+            write(storageState, props);
+      }
+   }
+
+   /**
+    * Write all pending properties
+    */
+   void flush()
+   {
+      synchronized (writeLock)
+      {
+         Map<BundleStorageState, Properties> batch;
+         synchronized (this)
+         {
+            batch = new LinkedHashMap<BundleStorageState, Properties>(pending);
+            pending.clear();
+            scheduled = false;
+         }
+         for (Entry<BundleStorageState, Properties> entry : batch.entrySet())
+            write(entry.getKey(), entry.getValue());
+      }
+   }
+
+   /**
+    * Write all pending properties and write through from now on
+    */
+   void close()
+   {
+      synchronized (this)
+      {
+         closed = true;
+      }
+      flush();
+      scheduler.shutdown();
+   }
+
+   private void write(BundleStorageState storageState, Properties props)
+   {
+      try
+      {
+         delegate.writeProperties(storageState, props);
+      }
+      catch (IOException ex)
+      {
+         log.errorf(ex, "Cannot write persistent storage: %s", storageState);
+      }
+   }
+}
@@ -0,0 +1,992 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.util;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.osgi.metadata.CaseInsensitiveDictionary;
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.Version;
+
+/**
+ * A {@link Filter} that is compiled into a tree of predicates.
+ *
+ * Attribute keys are lower cased and numeric, boolean and version operands are parsed
+ * when the filter is compiled, so that matching does not parse nor allocate in the
+ * common case. Compiled filters are immutable, so they can be shared through a {@link FilterCache}.
+ * The framework owns one such cache, which is sized by {@link #PROP_JBOSS_OSGI_FILTER_CACHE_SIZE}.
+ *
+ * Matching follows the semantics of the filter implementation in {@link org.osgi.framework.FrameworkUtil},
+ * except that an operand that cannot be converted to the type of the property does not match.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 12-Jan-2011
+ */
+public abstract class CompiledFilter implements Filter
+{
+   /** The framework property that defines the maximum number of cached filters */
+   public static final String PROP_JBOSS_OSGI_FILTER_CACHE_SIZE = "org.jboss.osgi.filter.cache.size";
+   /** The default maximum number of cached filters */
+   public static final int DEFAULT_FILTER_CACHE_SIZE = 1024;
+
+   /** The filter operations */
+   public static final int MATCH_ALL = 0;
+   public static final int AND = 1;
+   public static final int OR = 2;
+   public static final int NOT = 3;
+   public static final int EQUAL = 4;
+   public static final int APPROX = 5;
+   public static final int GREATER = 6;
+   public static final int LESS = 7;
+   public static final int PRESENT = 8;
+   public static final int SUBSTRING = 9;
+
+   // The match modes
+   private static final int MODE_REFERENCE = 0;
+   private static final int MODE_DICTIONARY = 1;
+   private static final int MODE_DICTIONARY_CASE = 2;
+
+   // The filter operation
+   private final int operation;
+   // The normalized filter string
+   private final String filterString;
+
+   CompiledFilter(int operation, String filterString)
+   {
+      this.operation = operation;
+      this.filterString = filterString;
+   }
+
+   /**
+    * Compile the given filter string.
+    * Use {@link FilterCache#compile(String)} to share the compiled filter.
+    *
+    * @throws InvalidSyntaxException If the filter string cannot be parsed
+    */
+   public static CompiledFilter compile(String filterStr) throws InvalidSyntaxException
+   {
+      if (filterStr == null)
+         throw new IllegalArgumentException("Null filter");
+
+      return new Parser(filterStr).parse();
+   }
+
+   /**
+    * Get the filter operation
+    */
+   public int getOperation()
+   {
+      return operation;
+   }
+
+   /**
+    * Get the attribute of a simple item.
+    * @return The attribute or null for AND, OR, NOT
+    */
+   public String getAttribute()
+   {
+      return null;
+   }
+
+   /**
+    * Get the unescaped operand of an EQUAL, APPROX, GREATER or LESS item.
+    * @return The operand or null
+    */
+   public String getValue()
+   {
+      return null;
+   }
+
+   /**
+    * Get the operands of an AND, OR or NOT.
+    * @return The operands or an empty list
+    */
+   public List<CompiledFilter> getOperands()
+   {
+      return Collections.emptyList();
+   }
+
+   /**
+    * Get the simple items that every match of this filter must satisfy.
+    * This is the filter itself if it is a simple item, or the simple items of a top level AND.
+    */
+   public List<CompiledFilter> getRequiredItems()
+   {
+      if (operation == AND)
+      {
+         List<CompiledFilter> result = new ArrayList<CompiledFilter>();
+         for (CompiledFilter aux : getOperands())
+         {
+            if (aux.getAttribute() != null)
+               result.add(aux);
+         }
+         return result;
+      }
+      if (getAttribute() != null)
+         return Collections.singletonList(this);
+
+      return Collections.emptyList();
+   }
+
+   @Override
+   public boolean match(ServiceReference reference)
+   {
+      return eval(reference, MODE_REFERENCE);
+   }
+
+   @Override
+   @SuppressWarnings("rawtypes")
+   public boolean match(Dictionary dictionary)
+   {
+      return eval(dictionary, MODE_DICTIONARY);
+   }
+
+   @Override
+   @SuppressWarnings("rawtypes")
+   public boolean matchCase(Dictionary dictionary)
+   {
+      return eval(dictionary, MODE_DICTIONARY_CASE);
+   }
+
+   abstract boolean eval(Object source, int mode);
+
+   @Override
+   public int hashCode()
+   {
+      return filterString != null ? filterString.hashCode() : 0;
+   }
+
+   @Override
+   public boolean equals(Object obj)
+   {
+      if (obj == this)
+         return true;
+      if (obj instanceof Filter == false || filterString == null)
+         return false;
+
+      return filterString.equals(obj.toString());
+   }
+
+   @Override
+   public String toString()
+   {
+      return filterString;
+   }
+
+   @SuppressWarnings("rawtypes")
+   private static Object getProperty(Object source, int mode, String attr, String key)
+   {
+      if (source == null)
+         return null;
+
+      switch (mode)
+      {
+         case MODE_REFERENCE:
+            return ((ServiceReference)source).getProperty(key);
+         case MODE_DICTIONARY_CASE:
+            return ((Dictionary)source).get(attr);
+         default:
+         {
+            Dictionary dictionary = (Dictionary)source;
+            if (dictionary instanceof ServiceProperties)
+               return ((ServiceProperties)dictionary).getLowerCase(key);
+            if (dictionary instanceof CaseInsensitiveDictionary)
+               return dictionary.get(key);
+
+            Object value = dictionary.get(attr);
+            if (value != null)
+               return value;
+
+            Enumeration keys = dictionary.keys();
+            while (keys.hasMoreElements())
+            {
+               Object aux = keys.nextElement();
+               if (aux instanceof String && key.equalsIgnoreCase((String)aux))
+                  return dictionary.get(aux);
+            }
+            return null;
+         }
+      }
+   }
+
+   private static String approxString(String input)
+   {
+      StringBuilder result = null;
+      for (int i = 0; i < input.length(); i++)
+      {
+         char ch = input.charAt(i);
+         if (Character.isWhitespace(ch))
+         {
+            if (result == null)
+               result = new StringBuilder(input.substring(0, i));
+         }
+         else if (result != null)
+         {
+            result.append(ch);
+         }
+      }
+      return result != null ? result.toString() : input;
+   }
+
+   private static String encodeValue(String value)
+   {
+      StringBuilder result = null;
+      for (int i = 0; i < value.length(); i++)
+      {
+         char ch = value.charAt(i);
+         if (ch == '(' || ch == ')' || ch == '*' || ch == '\\')
+         {
+            if (result == null)
+               result = new StringBuilder(value.substring(0, i));
+            result.append('\\');
+         }
+         if (result != null)
+            result.append(ch);
+      }
+      return result != null ? result.toString() : value;
+   }
+
+   /**
+    * AND, OR over a list of operands
+    */
+   static class Composite extends CompiledFilter
+   {
+      private final CompiledFilter[] operands;
+
+      Composite(int operation, CompiledFilter[] operands)
+      {
+         super(operation, normalize(operation, operands));
+         this.operands = operands;
+      }
+
+      private static String normalize(int operation, CompiledFilter[] operands)
+      {
+         StringBuilder builder = new StringBuilder("(");
+         builder.append(operation == AND ? '&' : '|');
+         for (CompiledFilter aux : operands)
+            builder.append(aux.toString());
+         builder.append(')');
+         return builder.toString();
+      }
+
+      @Override
+      public List<CompiledFilter> getOperands()
+      {
+         List<CompiledFilter> result = new ArrayList<CompiledFilter>(operands.length);
+         Collections.addAll(result, operands);
+         return Collections.unmodifiableList(result);
+      }
+
+      @Override
+      boolean eval(Object source, int mode)
+      {
+         boolean isAnd = (getOperation() == AND);
+         for (CompiledFilter aux : operands)
+         {
+            if (aux.eval(source, mode) != isAnd)
+               return !isAnd;
+         }
+         return isAnd;
+      }
+   }
+
+   /**
+    * NOT of a single operand
+    */
+   static class Not extends CompiledFilter
+   {
+      private final CompiledFilter operand;
+
+      Not(CompiledFilter operand)
+      {
+         super(NOT, "(!" + operand + ")");
+         this.operand = operand;
+      }
+
+      @Override
+      public List<CompiledFilter> getOperands()
+      {
+         return Collections.singletonList(operand);
+      }
+
+      @Override
+      boolean eval(Object source, int mode)
+      {
+         return !operand.eval(source, mode);
+      }
+   }
+
+   /**
+    * The base of all simple items
+    */
+   abstract static class Item extends CompiledFilter
+   {
+      final String attr;
+      final String key;
+
+      Item(int operation, String attr, String filterString)
+      {
+         super(operation, filterString);
+         this.attr = attr;
+         this.key = attr.toLowerCase();
+      }
+
+      @Override
+      public String getAttribute()
+      {
+         return attr;
+      }
+
+      @Override
+      boolean eval(Object source, int mode)
+      {
+         Object prop = getProperty(source, mode, attr, key);
+         return prop != null && compare(prop);
+      }
+
+      boolean compare(Object prop)
+      {
+         if (prop instanceof String)
+            return compareString((String)prop);
+
+         if (prop instanceof Object[])
+         {
+            for (Object aux : (Object[])prop)
+            {
+               if (aux != null && compare(aux))
+                  return true;
+            }
+            return false;
+         }
+
+         if (prop.getClass().isArray())
+         {
+            int length = Array.getLength(prop);
+            for (int i = 0; i < length; i++)
+            {
+               if (compare(Array.get(prop, i)))
+                  return true;
+            }
+            return false;
+         }
+
+         if (prop instanceof Collection)
+         {
+            for (Object aux : (Collection<?>)prop)
+            {
+               if (aux != null && compare(aux))
+                  return true;
+            }
+            return false;
+         }
+
+         return compareOther(prop);
+      }
+
+      abstract boolean compareString(String prop);
+
+      abstract boolean compareOther(Object prop);
+   }
+
+   /**
+    * The presence of an attribute
+    */
+   static class Present extends Item
+   {
+      Present(String attr)
+      {
+         super(PRESENT, attr, "(" + attr + "=*)");
+      }
+
+      @Override
+      boolean eval(Object source, int mode)
+      {
+         return getProperty(source, mode, attr, key) != null;
+      }
+
+      @Override
+      boolean compareString(String prop)
+      {
+         return true;
+      }
+
+      @Override
+      boolean compareOther(Object prop)
+      {
+         return true;
+      }
+   }
+
+   /**
+    * A substring match with wildcards
+    */
+   static class Substring extends Item
+   {
+      // The substrings, null stands for a wildcard
+      private final String[] substrings;
+
+      Substring(String attr, String[] substrings)
+      {
+         super(SUBSTRING, attr, normalize(attr, substrings));
+         this.substrings = substrings;
+      }
+
+      private static String normalize(String attr, String[] substrings)
+      {
+         StringBuilder builder = new StringBuilder("(");
+         builder.append(attr).append('=');
+         for (String aux : substrings)
+            builder.append(aux != null ? encodeValue(aux) : "*");
+         builder.append(')');
+         return builder.toString();
+      }
+
+      @Override
+      boolean compareString(String string)
+      {
+         int pos = 0;
+         for (int i = 0, size = substrings.length; i < size; i++)
+         {
+            String substr = substrings[i];
+            if (i + 1 < size)
+            {
+               if (substr == null)
+               {
+                  String substr2 = substrings[i + 1];
+                  if (substr2 == null)
+                     continue;
+
+                  int index = string.indexOf(substr2, pos);
+                  if (index == -1)
+                     return false;
+
+                  pos = index + substr2.length();
+                  if (i + 2 < size)
+                     i++;
+               }
+               else
+               {
+                  int len = substr.length();
+                  if (string.regionMatches(pos, substr, 0, len) == false)
+                     return false;
+
+                  pos += len;
+               }
+            }
+            else
+            {
+               if (substr == null)
+                  return true;
+
+               return string.endsWith(substr);
+            }
+         }
+         return true;
+      }
+
+      @Override
+      boolean compareOther(Object prop)
+      {
+         return false;
+      }
+   }
+
+   /**
+    * EQUAL, APPROX, GREATER, LESS with pre-parsed operands
+    */
+   static class Compare extends Item
+   {
+      private final String value;
+      private final String approxValue;
+      private final Long longValue;
+      private final Double doubleValue;
+      private final Float floatValue;
+      private final Character charValue;
+      private final boolean booleanValue;
+      private final Version versionValue;
+
+      Compare(int operation, String attr, String value)
+      {
+         super(operation, attr, normalize(operation, attr, value));
+         this.value = value;
+         this.approxValue = (operation == APPROX ? approxString(value) : null);
+
+         String trimmed = value.trim();
+         this.longValue = parseLong(trimmed);
+         this.doubleValue = parseDouble(trimmed);
+         this.floatValue = (doubleValue != null ? Float.valueOf(Float.parseFloat(trimmed)) : null);
+         this.charValue = (trimmed.length() > 0 ? Character.valueOf(trimmed.charAt(0)) : null);
+         this.booleanValue = Boolean.valueOf(trimmed).booleanValue();
+         this.versionValue = parseVersion(trimmed);
+      }
+
+      private static String normalize(int operation, String attr, String value)
+      {
+         switch (operation)
+         {
+            case APPROX:
+               return "(" + attr + "~=" + encodeValue(approxString(value)) + ")";
+            case GREATER:
+               return "(" + attr + ">=" + encodeValue(value) + ")";
+            case LESS:
+               return "(" + attr + "<=" + encodeValue(value) + ")";
+            default:
+               return "(" + attr + "=" + encodeValue(value) + ")";
+         }
+      }
+
+      private static Long parseLong(String trimmed)
+      {
+         try
+         {
+            return Long.valueOf(Long.parseLong(trimmed));
+         }
+         catch (NumberFormatException ex)
+         {
+            return null;
+         }
+      }
+
+      private static Double parseDouble(String trimmed)
+      {
+         try
+         {
+            return Double.valueOf(Double.parseDouble(trimmed));
+         }
+         catch (NumberFormatException ex)
+         {
+            return null;
+         }
+      }
+
+      private static Version parseVersion(String trimmed)
+      {
+         try
+         {
+            return Version.parseVersion(trimmed);
+         }
+         catch (IllegalArgumentException ex)
+         {
+            return null;
+         }
+      }
+
+      @Override
+      public String getValue()
+      {
+         return value;
+      }
+
+      @Override
+      boolean compareString(String string)
+      {
+         switch (getOperation())
+         {
+            case EQUAL:
+               return string.equals(value);
+            case APPROX:
+               return approxString(string).equalsIgnoreCase(approxValue);
+            case GREATER:
+               return string.compareTo(value) >= 0;
+            case LESS:
+               return string.compareTo(value) <= 0;
+         }
+         return false;
+      }
+
+      @Override
+      @SuppressWarnings({ "rawtypes", "unchecked" })
+      boolean compareOther(Object prop)
+      {
+         if (prop instanceof Integer)
+            return compareLong(((Integer)prop).intValue(), Integer.MIN_VALUE, Integer.MAX_VALUE);
+         if (prop instanceof Long)
+            return compareLong(((Long)prop).longValue(), Long.MIN_VALUE, Long.MAX_VALUE);
+         if (prop instanceof Byte)
+            return compareLong(((Byte)prop).byteValue(), Byte.MIN_VALUE, Byte.MAX_VALUE);
+         if (prop instanceof Short)
+            return compareLong(((Short)prop).shortValue(), Short.MIN_VALUE, Short.MAX_VALUE);
+         if (prop instanceof Character)
+            return compareCharacter(((Character)prop).charValue());
+         if (prop instanceof Float)
+            return floatValue != null && compareResult(Float.compare(((Float)prop).floatValue(), floatValue.floatValue()));
+         if (prop instanceof Double)
+            return doubleValue != null && compareResult(Double.compare(((Double)prop).doubleValue(), doubleValue.doubleValue()));
+         if (prop instanceof Boolean)
+            return ((Boolean)prop).booleanValue() == booleanValue;
+         if (prop instanceof Version)
+            return versionValue != null && compareResult(((Version)prop).compareTo(versionValue));
+
+         // Other types are compared with an instance created from the operand
+         Object operand = createOperand(prop.getClass());
+         if (operand == null)
+            return false;
+
+         if (prop instanceof Comparable)
+            return compareResult(((Comparable)prop).compareTo(operand));
+
+         return prop.equals(operand);
+      }
+
+      private boolean compareLong(long propValue, long minValue, long maxValue)
+      {
+         if (longValue == null)
+            return false;
+
+         long operand = longValue.longValue();
+         if (operand < minValue || operand > maxValue)
+            return false;
+
+         return compareResult(propValue < operand ? -1 : (propValue == operand ? 0 : 1));
+      }
+
+      private boolean compareCharacter(char propValue)
+      {
+         if (charValue == null)
+            return false;
+
+         char operand = charValue.charValue();
+         if (getOperation() == APPROX)
+            return propValue == operand || Character.toUpperCase(propValue) == Character.toUpperCase(operand) || Character.toLowerCase(propValue) == Character.toLowerCase(operand);
+
+         return compareResult(propValue - operand);
+      }
+
+      private boolean compareResult(int result)
+      {
+         switch (getOperation())
+         {
+            case EQUAL:
+            case APPROX:
+               return result == 0;
+            case GREATER:
+               return result >= 0;
+            case LESS:
+               return result <= 0;
+         }
+         return false;
+      }
+
+      private Object createOperand(Class<?> type)
+      {
+         try
+         {
+            Constructor<?> ctor = type.getConstructor(String.class);
+            return ctor.newInstance(value.trim());
+         }
+         catch (Exception ex)
+         {
+            return null;
+         }
+      }
+   }
+
+   /**
+    * A bounded LRU cache of compiled filters that is keyed by the filter string.
+    */
+   public static class FilterCache
+   {
+      private final Map<String, CompiledFilter> cache;
+
+      public FilterCache(final int maxSize)
+      {
+         cache = new LinkedHashMap<String, CompiledFilter>(16, 0.75f, true)
+         {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledFilter> eldest)
+            {
+               return size() > maxSize;
+            }
+         };
+      }
+
+      /**
+       * Get the compiled filter for the given filter string.
+       * Identical filter strings are only parsed once as long as they remain in the cache.
+       *
+       * @throws InvalidSyntaxException If the filter string cannot be parsed
+       */
+      public CompiledFilter compile(String filterStr) throws InvalidSyntaxException
+      {
+         if (filterStr == null)
+            throw new IllegalArgumentException("Null filter");
+
+         CompiledFilter filter = get(filterStr);
+         if (filter == null)
+         {
+            filter = new Parser(filterStr).parse();
+            put(filterStr, filter);
+         }
+         return filter;
+      }
+
+      public synchronized int size()
+      {
+         return cache.size();
+      }
+
+      public synchronized void clear()
+      {
+         cache.clear();
+      }
+
+      private synchronized CompiledFilter get(String filterStr)
+      {
+         return cache.get(filterStr);
+      }
+
+      private synchronized void put(String filterStr, CompiledFilter filter)
+      {
+         cache.put(filterStr, filter);
+      }
+   }
+
+   /**
+    * Parses a filter string according to RFC 1960 as amended by the OSGi core specification
+    */
+   static class Parser
+   {
+      private final String filterString;
+      private final char[] filterChars;
+      private int pos;
+
+      Parser(String filterString)
+      {
+         this.filterString = filterString;
+         this.filterChars = filterString.toCharArray();
+      }
+
+      CompiledFilter parse() throws InvalidSyntaxException
+      {
+         CompiledFilter filter;
+         try
+         {
+            filter = parseFilter();
+         }
+         catch (ArrayIndexOutOfBoundsException ex)
+         {
+            throw new InvalidSyntaxException("Filter ended abruptly", filterString);
+         }
+
+         if (pos != filterChars.length)
+            throw new InvalidSyntaxException("Extraneous trailing characters: " + filterString.substring(pos), filterString);
+
+         return filter;
+      }
+
+      private CompiledFilter parseFilter() throws InvalidSyntaxException
+      {
+         skipWhiteSpace();
+         if (filterChars[pos] != '(')
+            throw new InvalidSyntaxException("Missing '(': " + filterString.substring(pos), filterString);
+
+         pos++;
+         CompiledFilter filter = parseFilterComp();
+
+         skipWhiteSpace();
+         if (filterChars[pos] != ')')
+            throw new InvalidSyntaxException("Missing ')': " + filterString.substring(pos), filterString);
+
+         pos++;
+         skipWhiteSpace();
+         return filter;
+      }
+
+      private CompiledFilter parseFilterComp() throws InvalidSyntaxException
+      {
+         skipWhiteSpace();
+         switch (filterChars[pos])
+         {
+            case '&':
+               pos++;
+               return new Composite(AND, parseFilterList());
+            case '|':
+               pos++;
+               return new Composite(OR, parseFilterList());
+            case '!':
+               pos++;
+               skipWhiteSpace();
+               if (filterChars[pos] != '(')
+                  throw new InvalidSyntaxException("Missing '(': " + filterString.substring(pos), filterString);
+               return new Not(parseFilter());
+         }
+         return parseItem();
+      }
+
+      private CompiledFilter[] parseFilterList() throws InvalidSyntaxException
+      {
+         skipWhiteSpace();
+         if (filterChars[pos] != '(')
+            throw new InvalidSyntaxException("Missing '(': " + filterString.substring(pos), filterString);
+
+         List<CompiledFilter> operands = new ArrayList<CompiledFilter>();
+         while (filterChars[pos] == '(')
+            operands.add(parseFilter());
+
+         return operands.toArray(new CompiledFilter[operands.size()]);
+      }
+
+      private CompiledFilter parseItem() throws InvalidSyntaxException
+      {
+         String attr = parseAttr();
+         skipWhiteSpace();
+         switch (filterChars[pos])
+         {
+            case '~':
+               if (filterChars[pos + 1] == '=')
+               {
+                  pos += 2;
+                  return new Compare(APPROX, attr, parseValue());
+               }
+               break;
+            case '>':
+               if (filterChars[pos + 1] == '=')
+               {
+                  pos += 2;
+                  return new Compare(GREATER, attr, parseValue());
+               }
+               break;
+            case '<':
+               if (filterChars[pos + 1] == '=')
+               {
+                  pos += 2;
+                  return new Compare(LESS, attr, parseValue());
+               }
+               break;
+            case '=':
+               if (filterChars[pos + 1] == '*')
+               {
+                  int oldpos = pos;
+                  pos += 2;
+                  skipWhiteSpace();
+                  if (filterChars[pos] == ')')
+                     return new Present(attr);
+                  pos = oldpos;
+               }
+               pos++;
+               String[] substrings = parseSubstring();
+               if (substrings.length == 1 && substrings[0] != null)
+                  return new Compare(EQUAL, attr, substrings[0]);
+
+               return new Substring(attr, substrings);
+         }
+         throw new InvalidSyntaxException("Invalid operator: " + filterString.substring(pos), filterString);
+      }
+
+      private String parseAttr() throws InvalidSyntaxException
+      {
+         skipWhiteSpace();
+         int begin = pos;
+         int end = pos;
+         char ch = filterChars[pos];
+         while (ch != '~' && ch != '<' && ch != '>' && ch != '=' && ch != '(' && ch != ')')
+         {
+            pos++;
+            if (Character.isWhitespace(ch) == false)
+               end = pos;
+            ch = filterChars[pos];
+         }
+         if (end == begin)
+            throw new InvalidSyntaxException("Missing attr: " + filterString.substring(pos), filterString);
+
+         return new String(filterChars, begin, end - begin);
+      }
+
+      private String parseValue() throws InvalidSyntaxException
+      {
+         StringBuilder builder = new StringBuilder();
+         while (true)
+         {
+            char ch = filterChars[pos];
+            if (ch == ')')
+               break;
+            if (ch == '(')
+               throw new InvalidSyntaxException("Invalid value: " + filterString.substring(pos), filterString);
+            if (ch == '\\')
+               ch = filterChars[++pos];
+
+            builder.append(ch);
+            pos++;
+         }
+         if (builder.length() == 0)
+            throw new InvalidSyntaxException("Missing value: " + filterString.substring(pos), filterString);
+
+         return builder.toString();
+      }
+
+      private String[] parseSubstring() throws InvalidSyntaxException
+      {
+         StringBuilder builder = new StringBuilder();
+         List<String> operands = new ArrayList<String>();
+         while (true)
+         {
+            char ch = filterChars[pos];
+            if (ch == ')')
+            {
+               if (builder.length() > 0)
+                  operands.add(builder.toString());
+               break;
+            }
+            if (ch == '(')
+               throw new InvalidSyntaxException("Invalid value: " + filterString.substring(pos), filterString);
+
+            if (ch == '*')
+            {
+               if (builder.length() > 0)
+                  operands.add(builder.toString());
+               builder.setLength(0);
+               operands.add(null);
+               pos++;
+               continue;
+            }
+            if (ch == '\\')
+               ch = filterChars[++pos];
+
+            builder.append(ch);
+            pos++;
+         }
+         if (operands.isEmpty())
+            throw new InvalidSyntaxException("Missing value: " + filterString.substring(pos), filterString);
+
+         return operands.toArray(new String[operands.size()]);
+      }
+
+      private void skipWhiteSpace()
+      {
+         while (pos < filterChars.length && Character.isWhitespace(filterChars[pos]))
+            pos++;
+      }
+   }
+}
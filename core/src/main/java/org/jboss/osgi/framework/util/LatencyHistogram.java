@@ -0,0 +1,230 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.framework.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size histogram of latencies in nanoseconds.
+ *
+ * The buckets grow exponentially, and every power of two is divided into a number of linear
+ * sub buckets. This gives a relative error of less than 1/{@link #SUB_BUCKET_COUNT} over the
+ * whole range of long values, without any allocation or locking on record.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 24-Jan-2011
+ */
+public final class LatencyHistogram
+{
+   // The number of linear sub buckets per power of two
+   static final int SUB_BUCKET_BITS = 3;
+   static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+   // Enough buckets for every positive long value
+   static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+   private final String name;
+   private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+   private final AtomicLong totalTime = new AtomicLong();
+   private final AtomicLong maxTime = new AtomicLong();
+
+   public LatencyHistogram(String name)
+   {
+      if (name == null)
+         throw new IllegalArgumentException("Null name");
+
+      this.name = name;
+   }
+
+   public String getName()
+   {
+      return name;
+   }
+
+   /**
+    * Record the time since the given start time
+    * @param startTime A value obtained from {@link System#nanoTime()}
+    */
+   public void recordSince(long startTime)
+   {
+      record(System.nanoTime() - startTime);
+   }
+
+   /**
+    * Record a latency in nanoseconds
+    */
+   public void record(long nanos)
+   {
+      if (nanos < 0)
+         nanos = 0;
+
+      buckets.incrementAndGet(getBucketIndex(nanos));
+      totalTime.addAndGet(nanos);
+
+      long max = maxTime.get();
+      while (nanos > max && maxTime.compareAndSet(max, nanos) == false)
+         max = maxTime.get();
+   }
+
+   /**
+    * Reset the histogram. Concurrent records may get lost.
+    */
+   public void reset()
+   {
+      for (int i = 0; i < BUCKET_COUNT; i++)
+         buckets.set(i, 0);
+      totalTime.set(0);
+      maxTime.set(0);
+   }
+
+   public Snapshot getSnapshot()
+   {
+      long[] counts = new long[BUCKET_COUNT];
+      long count = 0;
+      for (int i = 0; i < BUCKET_COUNT; i++)
+      {
+         counts[i] = buckets.get(i);
+         count += counts[i];
+      }
+      return new Snapshot(name, counts, count, totalTime.get(), maxTime.get());
+   }
+
+   static int getBucketIndex(long value)
+   {
+      if (value < SUB_BUCKET_COUNT)
+         return (int)value;
+
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+      int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+      return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+   }
+
+   /**
+    * Get the highest value that is recorded in the given bucket
+    */
+   static long getBucketLimit(int index)
+   {
+      if (index < SUB_BUCKET_COUNT)
+         return index;
+
+      int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+      long subBucket = index % SUB_BUCKET_COUNT;
+      int shift = exponent - SUB_BUCKET_BITS;
+      long lowerBound = (SUB_BUCKET_COUNT + subBucket) << shift;
+      return lowerBound + (1L << shift) - 1;
+   }
+
+   @Override
+   public String toString()
+   {
+      return getSnapshot().toString();
+   }
+
+   /**
+    * An immutable copy of the histogram data
+    */
+   public static final class Snapshot
+   {
+      private final String name;
+      private final long[] counts;
+      private final long count;
+      private final long totalTime;
+      private final long maxTime;
+
+      Snapshot(String name, long[] counts, long count, long totalTime, long maxTime)
+      {
+         this.name = name;
+         this.counts = counts;
+         this.count = count;
+         this.totalTime = totalTime;
+         this.maxTime = maxTime;
+      }
+
+      public String getName()
+      {
+         return name;
+      }
+
+      public long getCount()
+      {
+         return count;
+      }
+
+      public long getTotalTime()
+      {
+         return totalTime;
+      }
+
+      public long getMaxTime()
+      {
+         return maxTime;
+      }
+
+      public long getMeanTime()
+      {
+         return count > 0 ? totalTime / count : 0;
+      }
+
+      /**
+       * Get the latency in nanoseconds below which the given percentage of the recorded values fall
+       * @param percentile A value between 0 and 100
+       */
+      public long getPercentile(double percentile)
+      {
+         if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Invalid percentile: " + percentile);
+         if (count == 0)
+            return 0;
+
+         long threshold = Math.max(1, (long)Math.ceil(count * percentile / 100));
+         long seen = 0;
+         for (int i = 0; i < counts.length; i++)
+         {
+            seen += counts[i];
+            if (seen >= threshold)
+               return Math.min(getBucketLimit(i), maxTime);
+         }
+         return maxTime;
+      }
+
+      @Override
+      public String toString()
+      {
+         StringBuilder builder = new StringBuilder();
+         builder.append("count=").append(count);
+         builder.append(",mean=").append(toMicros(getMeanTime()));
+         builder.append(",p50=").append(toMicros(getPercentile(50)));
+         builder.append(",p90=").append(toMicros(getPercentile(90)));
+         builder.append(",p99=").append(toMicros(getPercentile(99)));
+         builder.append(",p999=").append(toMicros(getPercentile(99.9)));
+         builder.append(",max=").append(toMicros(maxTime));
+         builder.append(" [us]");
+         return builder.toString();
+      }
+
+      private static long toMicros(long nanos)
+      {
+         return TimeUnit.NANOSECONDS.toMicros(nanos);
+      }
+   }
+}
@@ -21,18 +21,17 @@
 */
 package org.jboss.osgi.framework.util;
 
-import java.util.Dictionary;
-
 import org.osgi.framework.Filter;
-import org.osgi.framework.ServiceReference;
 
 /**
  * Dummy filter implementation
  * 
+ * This is the {@link CompiledFilter} node that matches everything.
+ * 
  * @author <a href="adrian@jboss.com">Adrian Brock</a>
  * @version $Revision: 1.1 $
  */
-public class NoFilter implements Filter
+public class NoFilter extends CompiledFilter
 {
    /** Singleton instance */
    public static final Filter INSTANCE = new NoFilter();
@@ -42,28 +41,12 @@ public class NoFilter implements Filter
     */
    private NoFilter()
    {
-   }
-
-   @SuppressWarnings("rawtypes")
-   public boolean match(Dictionary dictionary)
-   {
-      return true;
-   }
-
-   public boolean match(ServiceReference reference)
-   {
-      return true;
-   }
-
-   @SuppressWarnings("rawtypes")
-   public boolean matchCase(Dictionary dictionary)
-   {
-      return true;
+      super(MATCH_ALL, null);
    }
 
    @Override
-   public String toString()
+   boolean eval(Object source, int mode)
    {
-      return null;
+      return true;
    }
 }
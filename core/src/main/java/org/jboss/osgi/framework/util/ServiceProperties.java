@@ -0,0 +1,268 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.util;
+
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+
+import org.osgi.framework.Constants;
+
+/**
+ * An immutable snapshot of the properties of a registered service.
+ *
+ * The keys are lower cased and hashed once, when the snapshot is created. Lookups compare
+ * the hash and the lower case key without allocating. The service id, service ranking and
+ * objectClass are cached in fields, so that sorting and class lookups do not touch the map.
+ *
+ * A new snapshot is created whenever the service properties are modified. Its version is
+ * one higher than the version of the snapshot it replaces.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 27-Jan-2011
+ */
+public final class ServiceProperties extends Dictionary<String, Object>
+{
+   private static final String SERVICE_ID_KEY = Constants.SERVICE_ID.toLowerCase();
+   private static final String OBJECTCLASS_KEY = Constants.OBJECTCLASS.toLowerCase();
+   private static final String SERVICE_RANKING_KEY = Constants.SERVICE_RANKING.toLowerCase();
+
+   // The keys as given by the registrant
+   private final String[] keys;
+   // The lower case keys and their hash codes
+   private final String[] lowerKeys;
+   private final int[] hashes;
+   private final Object[] values;
+
+   private final long serviceId;
+   private final String[] objectClass;
+   private final int serviceRanking;
+   private final int version;
+
+   /**
+    * Create a snapshot of the given properties.
+    *
+    * The service id and objectClass in the given properties are ignored.
+    *
+    * @param properties The properties or null
+    * @throws IllegalArgumentException If the properties contain case variants of the same key
+    */
+   @SuppressWarnings("rawtypes")
+   public ServiceProperties(Dictionary properties, long serviceId, String[] objectClass, int version)
+   {
+      if (objectClass == null)
+         throw new IllegalArgumentException("Null objectClass");
+
+      int size = 2 + (properties != null ? properties.size() : 0);
+      String[] keys = new String[size];
+      String[] lowerKeys = new String[size];
+      Object[] values = new Object[size];
+      keys[0] = Constants.SERVICE_ID;
+      lowerKeys[0] = SERVICE_ID_KEY;
+      values[0] = serviceId;
+      keys[1] = Constants.OBJECTCLASS;
+      lowerKeys[1] = OBJECTCLASS_KEY;
+      values[1] = objectClass;
+
+      int count = 2;
+      int serviceRanking = 0;
+      if (properties != null)
+      {
+         Enumeration en = properties.keys();
+         while (en.hasMoreElements())
+         {
+            Object key = en.nextElement();
+            if (key instanceof String == false)
+               throw new IllegalArgumentException("Invalid property key: " + key);
+
+            String lowerKey = ((String)key).toLowerCase();
+            if (lowerKey.equals(SERVICE_ID_KEY) || lowerKey.equals(OBJECTCLASS_KEY))
+               continue;
+
+            for (int i = 2; i < count; i++)
+            {
+               if (lowerKeys[i].equals(lowerKey))
+                  throw new IllegalArgumentException("Case variants of the same property key: " + keys[i] + ", " + key);
+            }
+
+            Object value = properties.get(key);
+            if (lowerKey.equals(SERVICE_RANKING_KEY) && value instanceof Integer)
+               serviceRanking = ((Integer)value).intValue();
+
+            keys[count] = (String)key;
+            lowerKeys[count] = lowerKey;
+            values[count] = value;
+            count++;
+         }
+      }
+
+      this.keys = (count < size ? Arrays.copyOf(keys, count) : keys);
+      this.lowerKeys = (count < size ? Arrays.copyOf(lowerKeys, count) : lowerKeys);
+      this.values = (count < size ? Arrays.copyOf(values, count) : values);
+      this.hashes = new int[count];
+      for (int i = 0; i < count; i++)
+         hashes[i] = this.lowerKeys[i].hashCode();
+
+      this.serviceId = serviceId;
+      this.objectClass = objectClass;
+      this.serviceRanking = serviceRanking;
+      this.version = version;
+   }
+
+   public long getServiceId()
+   {
+      return serviceId;
+   }
+
+   public String[] getObjectClass()
+   {
+      return objectClass;
+   }
+
+   /**
+    * The service ranking, or 0 if the property is not an Integer
+    */
+   public int getServiceRanking()
+   {
+      return serviceRanking;
+   }
+
+   /**
+    * The version of this snapshot, which increases with every modification of the service properties
+    */
+   public int getVersion()
+   {
+      return version;
+   }
+
+   /**
+    * Get the property value for the given lower case key
+    * @return The value or null
+    */
+   public Object getLowerCase(String lowerKey)
+   {
+      int hash = lowerKey.hashCode();
+      for (int i = 0; i < hashes.length; i++)
+      {
+         if (hashes[i] == hash && lowerKeys[i].equals(lowerKey))
+            return values[i];
+      }
+      return null;
+   }
+
+   /**
+    * Get a copy of the property keys, as given by the registrant
+    */
+   public String[] getKeys()
+   {
+      return keys.clone();
+   }
+
+   @Override
+   public Object get(Object key)
+   {
+      if (key instanceof String == false)
+         return null;
+
+      return getLowerCase(((String)key).toLowerCase());
+   }
+
+   @Override
+   public int size()
+   {
+      return keys.length;
+   }
+
+   @Override
+   public boolean isEmpty()
+   {
+      return keys.length == 0;
+   }
+
+   @Override
+   public Enumeration<String> keys()
+   {
+      return new ArrayEnumeration<String>(keys);
+   }
+
+   @Override
+   public Enumeration<Object> elements()
+   {
+      return new ArrayEnumeration<Object>(values);
+   }
+
+   @Override
+   public Object put(String key, Object value)
+   {
+      throw new UnsupportedOperationException("Service properties are immutable");
+   }
+
+   @Override
+   public Object remove(Object key)
+   {
+      throw new UnsupportedOperationException("Service properties are immutable");
+   }
+
+   @Override
+   public String toString()
+   {
+      StringBuilder builder = new StringBuilder("{");
+      for (int i = 0; i < keys.length; i++)
+      {
+         if (i > 0)
+            builder.append(", ");
+         Object value = values[i];
+         builder.append(keys[i]).append('=');
+         builder.append(value instanceof Object[] ? Arrays.asList((Object[])value) : value);
+      }
+      builder.append('}');
+      return builder.toString();
+   }
+
+   static class ArrayEnumeration<T> implements Enumeration<T>
+   {
+      private final Object[] array;
+      private int index;
+
+      ArrayEnumeration(Object[] array)
+      {
+         this.array = array;
+      }
+
+      @Override
+      public boolean hasMoreElements()
+      {
+         return index < array.length;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public T nextElement()
+      {
+         if (index >= array.length)
+            throw new NoSuchElementException();
+
+         return (T)array[index++];
+      }
+   }
+}
@@ -0,0 +1,97 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.osgi.framework.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that spreads concurrent updates over multiple cells.
+ *
+ * Threads are mapped to cells by their id, so that threads that update the counter at the
+ * same time rarely contend for the same cell. The cells are padded to keep them on separate
+ * cache lines. Reading the counter sums up all cells.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 24-Jan-2011
+ */
+public final class StripedCounter
+{
+   // The distance between two cells, in longs
+   private static final int PADDING = 8;
+   // The max number of cells
+   private static final int MAX_STRIPES = 64;
+
+   private final AtomicLongArray cells;
+   private final int mask;
+
+   public StripedCounter()
+   {
+      this(Runtime.getRuntime().availableProcessors() * 2);
+   }
+
+   public StripedCounter(int concurrency)
+   {
+      int stripes = 1;
+      while (stripes < concurrency && stripes < MAX_STRIPES)
+         stripes <<= 1;
+
+      cells = new AtomicLongArray(stripes * PADDING);
+      mask = stripes - 1;
+   }
+
+   public void increment()
+   {
+      add(1);
+   }
+
+   public void add(long delta)
+   {
+      int index = ((int)Thread.currentThread().getId() & mask) * PADDING;
+      cells.addAndGet(index, delta);
+   }
+
+   /**
+    * Get the sum of all cells
+    */
+   public long get()
+   {
+      long result = 0;
+      for (int i = 0; i <= mask; i++)
+         result += cells.get(i * PADDING);
+      return result;
+   }
+
+   /**
+    * Reset all cells. Concurrent updates may get lost.
+    */
+   public void reset()
+   {
+      for (int i = 0; i <= mask; i++)
+         cells.set(i * PADDING, 0);
+   }
+
+   @Override
+   public String toString()
+   {
+      return String.valueOf(get());
+   }
+}
@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.loading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test the {@link NegativeClassCache}
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 18-Oct-2010
+ */
+public class NegativeClassCacheTestCase
+{
+   @Test
+   public void testCachedMiss() throws Exception
+   {
+      NegativeClassCache cache = new NegativeClassCache(16);
+      assertFalse(cache.contains("foo.Bar", 0));
+
+      cache.add("foo.Bar", 0);
+      assertTrue(cache.contains("foo.Bar", 0));
+      assertFalse(cache.contains("foo.Baz", 0));
+      assertEquals(1, cache.size());
+   }
+
+   @Test
+   public void testGenerationChange() throws Exception
+   {
+      NegativeClassCache cache = new NegativeClassCache(16);
+      cache.add("foo.Bar", 1);
+      cache.add("foo.Baz", 1);
+      assertTrue(cache.contains("foo.Bar", 1));
+
+      // A rewire drops all misses of the previous generation
+      assertFalse(cache.contains("foo.Bar", 2));
+      assertEquals(0, cache.size());
+      assertFalse(cache.contains("foo.Baz", 2));
+
+      // A miss observed in the new generation is cached again
+      cache.add("foo.Bar", 2);
+      assertTrue(cache.contains("foo.Bar", 2));
+      assertFalse(cache.contains("foo.Baz", 2));
+   }
+
+   @Test
+   public void testAddWithNewGeneration() throws Exception
+   {
+      NegativeClassCache cache = new NegativeClassCache(16);
+      cache.add("foo.Bar", 1);
+
+      // Adding a miss from a newer generation drops the stale entries
+      cache.add("foo.Baz", 2);
+      assertEquals(1, cache.size());
+      assertFalse(cache.contains("foo.Bar", 2));
+      assertTrue(cache.contains("foo.Baz", 2));
+   }
+
+   @Test
+   public void testEviction() throws Exception
+   {
+      NegativeClassCache cache = new NegativeClassCache(2);
+      cache.add("foo.A", 0);
+      cache.add("foo.B", 0);
+      assertTrue(cache.contains("foo.A", 0));
+
+      // The least recently used entry is evicted
+      cache.add("foo.C", 0);
+      assertEquals(2, cache.size());
+      assertTrue(cache.contains("foo.A", 0));
+      assertFalse(cache.contains("foo.B", 0));
+      assertTrue(cache.contains("foo.C", 0));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testInvalidSize() throws Exception
+   {
+      new NegativeClassCache(0);
+   }
+}
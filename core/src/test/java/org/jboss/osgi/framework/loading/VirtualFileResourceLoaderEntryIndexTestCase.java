@@ -0,0 +1,130 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.loading;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+
+import org.jboss.osgi.testing.OSGiManifestBuilder;
+import org.jboss.osgi.testing.OSGiTestHelper;
+import org.jboss.osgi.vfs.VirtualFile;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.test.osgi.framework.loading.subA.SimpleActivator;
+import org.jboss.test.osgi.framework.loading.subB.SimpleService;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test the entry index of the {@link VirtualFileResourceLoader}
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 18-Oct-2010
+ */
+public class VirtualFileResourceLoaderEntryIndexTestCase
+{
+   private static VirtualFile rootFile;
+
+   @BeforeClass
+   public static void beforeClass() throws Exception
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, "entry-index-bundle");
+      archive.addClasses(SimpleService.class, SimpleActivator.class);
+      archive.addResource("jira-test-coverage.txt");
+      archive.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleManifestVersion(2);
+            builder.addBundleSymbolicName(archive.getName());
+            builder.addExportPackages(SimpleService.class);
+            return builder.openStream();
+         }
+      });
+      rootFile = OSGiTestHelper.toVirtualFile(archive);
+   }
+
+   @AfterClass
+   public static void afterClass() throws Exception
+   {
+      rootFile.close();
+   }
+
+   @Test
+   public void testEntryHits() throws Exception
+   {
+      VirtualFileResourceLoader loader = new VirtualFileResourceLoader(rootFile);
+      assertTrue(loader.hasEntry("META-INF/MANIFEST.MF"));
+      assertTrue(loader.hasEntry("/META-INF/MANIFEST.MF"));
+      assertTrue(loader.hasEntry("jira-test-coverage.txt"));
+      assertTrue(loader.hasEntry("/jira-test-coverage.txt"));
+      assertTrue(loader.hasEntry("org/jboss/test/osgi/framework/loading/subA/SimpleActivator.class"));
+      assertTrue(loader.hasEntry("org/jboss/test/osgi/framework/loading/subB/SimpleService.class"));
+   }
+
+   @Test
+   public void testDirectoryHits() throws Exception
+   {
+      VirtualFileResourceLoader loader = new VirtualFileResourceLoader(rootFile);
+      assertTrue(loader.hasEntry(""));
+      assertTrue(loader.hasEntry("/"));
+      assertTrue(loader.hasEntry("META-INF"));
+      assertTrue(loader.hasEntry("META-INF/"));
+      assertTrue(loader.hasEntry("org"));
+      assertTrue(loader.hasEntry("/org/jboss/"));
+      assertTrue(loader.hasEntry("org/jboss/test/osgi/framework/loading"));
+      assertTrue(loader.hasEntry("org/jboss/test/osgi/framework/loading/subA/"));
+   }
+
+   @Test
+   public void testEntryMisses() throws Exception
+   {
+      VirtualFileResourceLoader loader = new VirtualFileResourceLoader(rootFile);
+      assertFalse(loader.hasEntry(null));
+      assertFalse(loader.hasEntry("META-INF/MANIFEST"));
+      assertFalse(loader.hasEntry("missing.txt"));
+      assertFalse(loader.hasEntry("org/jb"));
+      assertFalse(loader.hasEntry("org/jboss/test/osgi/framework/loading/subC"));
+      assertFalse(loader.hasEntry("org/jboss/test/osgi/framework/loading/subA/Missing.class"));
+      assertFalse(loader.hasEntry("org/jboss/test/osgi/framework/loading/subA/SimpleActivator"));
+   }
+
+   @Test
+   public void testResourceLookups() throws Exception
+   {
+      VirtualFileResourceLoader loader = new VirtualFileResourceLoader(rootFile);
+      assertNotNull(loader.getResource("jira-test-coverage.txt"));
+      assertNull(loader.getResource("missing.txt"));
+      assertNull(loader.getResource("org/jboss/test/osgi/framework/loading/subC/missing.txt"));
+
+      String fileName = SimpleActivator.class.getName().replace('.', '/') + ".class";
+      assertNotNull(loader.getClassSpec(fileName));
+      assertNull(loader.getClassSpec("org/jboss/test/osgi/framework/loading/subA/Missing.class"));
+   }
+}
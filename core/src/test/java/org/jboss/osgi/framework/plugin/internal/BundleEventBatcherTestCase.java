@@ -0,0 +1,211 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.plugin.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+
+/**
+ * Test the {@link BundleEventBatcher}
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 18-Oct-2010
+ */
+public class BundleEventBatcherTestCase
+{
+   private EventDispatcher dispatcher;
+   private Bundle bundle;
+
+   @Before
+   public void setUp()
+   {
+      dispatcher = new EventDispatcher(2, 100, 1000);
+      bundle = (Bundle)Proxy.newProxyInstance(Bundle.class.getClassLoader(), new Class<?>[] { Bundle.class }, new InvocationHandler()
+      {
+         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+         {
+            if (method.getName().equals("toString"))
+               return "MockBundle";
+            if (method.getName().equals("hashCode"))
+               return System.identityHashCode(proxy);
+            if (method.getName().equals("equals"))
+               return proxy == args[0];
+            return null;
+         }
+      });
+   }
+
+   @After
+   public void tearDown()
+   {
+      dispatcher.shutdown();
+   }
+
+   @Test
+   public void testFlushOnSize() throws Exception
+   {
+      BundleEventBatcher batcher = new BundleEventBatcher(dispatcher, 3, 60000);
+      try
+      {
+         RecordingListener listenerA = new RecordingListener();
+         RecordingListener listenerB = new RecordingListener();
+
+         batcher.add(new BundleEvent(BundleEvent.INSTALLED, bundle), Arrays.<BundleListener> asList(listenerA, listenerB));
+         batcher.add(new BundleEvent(BundleEvent.RESOLVED, bundle), Arrays.<BundleListener> asList(listenerA));
+         Thread.sleep(100);
+         listenerA.assertEvents();
+         listenerB.assertEvents();
+
+         // The third event completes the batch long before the time window elapses
+         batcher.add(new BundleEvent(BundleEvent.STARTED, bundle), Arrays.<BundleListener> asList(listenerA, listenerB));
+         assertTrue(listenerA.await(3));
+         listenerA.assertEvents(BundleEvent.INSTALLED, BundleEvent.RESOLVED, BundleEvent.STARTED);
+         assertTrue(listenerB.await(2));
+         listenerB.assertEvents(BundleEvent.INSTALLED, BundleEvent.STARTED);
+
+         // The next batch starts empty
+         batcher.add(new BundleEvent(BundleEvent.STOPPED, bundle), Arrays.<BundleListener> asList(listenerA));
+         Thread.sleep(100);
+         listenerA.assertEvents();
+      }
+      finally
+      {
+         batcher.close();
+      }
+   }
+
+   @Test
+   public void testFlushOnWindow() throws Exception
+   {
+      BundleEventBatcher batcher = new BundleEventBatcher(dispatcher, 100, 300);
+      try
+      {
+         RecordingListener listener = new RecordingListener();
+         long startTime = System.currentTimeMillis();
+         batcher.add(new BundleEvent(BundleEvent.INSTALLED, bundle), Arrays.<BundleListener> asList(listener));
+         batcher.add(new BundleEvent(BundleEvent.RESOLVED, bundle), Arrays.<BundleListener> asList(listener));
+
+         assertTrue(listener.await(2));
+         assertTrue("Delivered after the window", System.currentTimeMillis() - startTime >= 250);
+         listener.assertEvents(BundleEvent.INSTALLED, BundleEvent.RESOLVED);
+
+         // The window starts again with the next event
+         startTime = System.currentTimeMillis();
+         batcher.add(new BundleEvent(BundleEvent.STARTED, bundle), Arrays.<BundleListener> asList(listener));
+         assertTrue(listener.await(1));
+         assertTrue("Delivered after the window", System.currentTimeMillis() - startTime >= 250);
+         listener.assertEvents(BundleEvent.STARTED);
+      }
+      finally
+      {
+         batcher.close();
+      }
+   }
+
+   @Test
+   public void testFlushOnSizeRestartsWindow() throws Exception
+   {
+      BundleEventBatcher batcher = new BundleEventBatcher(dispatcher, 2, 400);
+      try
+      {
+         RecordingListener listener = new RecordingListener();
+         batcher.add(new BundleEvent(BundleEvent.INSTALLED, bundle), Arrays.<BundleListener> asList(listener));
+         Thread.sleep(200);
+         batcher.add(new BundleEvent(BundleEvent.RESOLVED, bundle), Arrays.<BundleListener> asList(listener));
+         assertTrue(listener.await(2));
+         listener.assertEvents(BundleEvent.INSTALLED, BundleEvent.RESOLVED);
+
+         // The window of the flushed batch must not close the next batch early
+         long startTime = System.currentTimeMillis();
+         batcher.add(new BundleEvent(BundleEvent.STARTED, bundle), Arrays.<BundleListener> asList(listener));
+         Thread.sleep(300);
+         listener.assertEvents();
+
+         assertTrue(listener.await(1));
+         assertTrue("Delivered after the window", System.currentTimeMillis() - startTime >= 350);
+         listener.assertEvents(BundleEvent.STARTED);
+      }
+      finally
+      {
+         batcher.close();
+      }
+   }
+
+   @Test
+   public void testFlushOnClose() throws Exception
+   {
+      BundleEventBatcher batcher = new BundleEventBatcher(dispatcher, 100, 60000);
+      RecordingListener listener = new RecordingListener();
+      batcher.add(new BundleEvent(BundleEvent.INSTALLED, bundle), Arrays.<BundleListener> asList(listener));
+      batcher.close();
+      assertTrue(listener.await(1));
+      listener.assertEvents(BundleEvent.INSTALLED);
+
+      // Events added after close are not held back
+      batcher.add(new BundleEvent(BundleEvent.UNINSTALLED, bundle), Arrays.<BundleListener> asList(listener));
+      assertTrue(listener.await(1));
+      listener.assertEvents(BundleEvent.UNINSTALLED);
+   }
+
+   static class RecordingListener implements BundleListener
+   {
+      private final List<Integer> events = new ArrayList<Integer>();
+
+      public synchronized void bundleChanged(BundleEvent event)
+      {
+         events.add(event.getType());
+      }
+
+      boolean await(int expected) throws InterruptedException
+      {
+         long deadline = System.currentTimeMillis() + 5000;
+         while (size() < expected && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+         return size() == expected;
+      }
+
+      synchronized int size()
+      {
+         return events.size();
+      }
+
+      synchronized void assertEvents(Integer... expected)
+      {
+         assertEquals(Arrays.asList(expected), events);
+         events.clear();
+      }
+   }
+}
@@ -0,0 +1,265 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.plugin.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Test the {@link EventDispatcher}
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 18-Oct-2010
+ */
+public class EventDispatcherTestCase
+{
+   @Test
+   public void testPerListenerOrdering() throws Exception
+   {
+      EventDispatcher dispatcher = new EventDispatcher(4, 1000, 5000);
+      try
+      {
+         int listenerCount = 5;
+         int eventCount = 200;
+         final CountDownLatch latch = new CountDownLatch(listenerCount * eventCount);
+         List<RecordingListener> listeners = new ArrayList<RecordingListener>();
+         for (int i = 0; i < listenerCount; i++)
+            listeners.add(new RecordingListener());
+
+         // Interleave the events of all listeners
+         for (int event = 0; event < eventCount; event++)
+         {
+            for (final RecordingListener listener : listeners)
+            {
+               final Integer value = event;
+               dispatcher.dispatch(listener, new Runnable()
+               {
+                  public void run()
+                  {
+                     listener.add(value);
+                     latch.countDown();
+                  }
+               });
+            }
+         }
+         assertTrue("All events delivered", latch.await(10, TimeUnit.SECONDS));
+
+         for (RecordingListener listener : listeners)
+         {
+            List<Integer> received = listener.getReceived();
+            assertEquals(eventCount, received.size());
+            for (int i = 0; i < eventCount; i++)
+               assertEquals(Integer.valueOf(i), received.get(i));
+         }
+         assertEquals(0, dispatcher.getDroppedEventCount());
+      }
+      finally
+      {
+         dispatcher.shutdown();
+      }
+   }
+
+   @Test
+   public void testBoundedQueueDropsEvents() throws Exception
+   {
+      EventDispatcher dispatcher = new EventDispatcher(1, 2, 100);
+      try
+      {
+         Object listener = new Object();
+         BlockingTask blocking = new BlockingTask();
+         dispatcher.dispatch(listener, blocking);
+         assertTrue("Blocking task started", blocking.started.await(5, TimeUnit.SECONDS));
+
+         // Fill the queue of the listener
+         CountingTask counting = new CountingTask();
+         dispatcher.dispatch(listener, counting);
+         dispatcher.dispatch(listener, counting);
+         assertEquals(2, dispatcher.getPendingEventCount());
+
+         // The listener does not catch up within the offer timeout
+         long startTime = System.currentTimeMillis();
+         dispatcher.dispatch(listener, counting);
+         assertTrue("Waited for the listener", System.currentTimeMillis() - startTime >= 90);
+         assertEquals(1, dispatcher.getDroppedEventCount());
+         assertEquals(2, dispatcher.getPendingEventCount());
+
+         // Another listener is not affected
+         CountingTask other = new CountingTask();
+         dispatcher.dispatch(new Object(), other);
+
+         blocking.release.countDown();
+         assertTrue("Events delivered", counting.await(2));
+         assertTrue("Events delivered", other.await(1));
+         assertEquals(1, dispatcher.getDroppedEventCount());
+      }
+      finally
+      {
+         dispatcher.shutdown();
+      }
+   }
+
+   @Test
+   public void testBoundedQueueWaitsForListener() throws Exception
+   {
+      EventDispatcher dispatcher = new EventDispatcher(1, 1, 5000);
+      try
+      {
+         Object listener = new Object();
+         final BlockingTask blocking = new BlockingTask();
+         dispatcher.dispatch(listener, blocking);
+         assertTrue("Blocking task started", blocking.started.await(5, TimeUnit.SECONDS));
+
+         CountingTask counting = new CountingTask();
+         dispatcher.dispatch(listener, counting);
+
+         // Let the listener catch up while the next dispatch waits
+         new Thread()
+         {
+            public void run()
+            {
+               try
+               {
+                  Thread.sleep(100);
+               }
+               catch (InterruptedException ex)
+               {
+                  // ignore
+               }
+               blocking.release.countDown();
+            }
+         }.start();
+         dispatcher.dispatch(listener, counting);
+
+         assertTrue("Events delivered", counting.await(2));
+         assertEquals(0, dispatcher.getDroppedEventCount());
+      }
+      finally
+      {
+         dispatcher.shutdown();
+      }
+   }
+
+   @Test
+   public void testShutdown() throws Exception
+   {
+      EventDispatcher dispatcher = new EventDispatcher(2, 100, 5000);
+      final CountingTask counting = new CountingTask();
+      final Object listener = new Object();
+      for (int i = 0; i < 10; i++)
+      {
+         // Pending events may dispatch further events
+         dispatcher.dispatch(listener, counting);
+         dispatcher.dispatch(new Object(), new DispatchingTask(dispatcher, listener, counting));
+      }
+      dispatcher.shutdown();
+      assertTrue("Pending events delivered", counting.await(20));
+      assertTrue(dispatcher.isShutdown());
+
+      // Events that are dispatched after shutdown are dropped and counted
+      assertEquals(0, dispatcher.getDroppedEventCount());
+      dispatcher.dispatch(listener, counting);
+      dispatcher.dispatch(listener, counting);
+      Thread.sleep(100);
+      assertEquals(20, counting.count.get());
+      assertEquals(0, dispatcher.getPendingEventCount());
+      assertEquals(2, dispatcher.getDroppedEventCount());
+   }
+
+   static class RecordingListener
+   {
+      private final List<Integer> received = new ArrayList<Integer>();
+
+      synchronized void add(Integer value)
+      {
+         received.add(value);
+      }
+
+      synchronized List<Integer> getReceived()
+      {
+         return new ArrayList<Integer>(received);
+      }
+   }
+
+   static class BlockingTask implements Runnable
+   {
+      final CountDownLatch started = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+
+      public void run()
+      {
+         started.countDown();
+         try
+         {
+            release.await(10, TimeUnit.SECONDS);
+         }
+         catch (InterruptedException ex)
+         {
+            // ignore
+         }
+      }
+   }
+
+   static class CountingTask implements Runnable
+   {
+      final AtomicInteger count = new AtomicInteger();
+
+      public void run()
+      {
+         count.incrementAndGet();
+      }
+
+      boolean await(int expected) throws InterruptedException
+      {
+         long deadline = System.currentTimeMillis() + 5000;
+         while (count.get() < expected && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+         return count.get() == expected;
+      }
+   }
+
+   static class DispatchingTask implements Runnable
+   {
+      private final EventDispatcher dispatcher;
+      private final Object listener;
+      private final Runnable task;
+
+      DispatchingTask(EventDispatcher dispatcher, Object listener, Runnable task)
+      {
+         this.dispatcher = dispatcher;
+         this.listener = listener;
+         this.task = task;
+      }
+
+      public void run()
+      {
+         dispatcher.dispatch(listener, task);
+      }
+   }
+}
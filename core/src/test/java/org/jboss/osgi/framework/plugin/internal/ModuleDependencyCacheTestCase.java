@@ -0,0 +1,121 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.plugin.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.jboss.modules.ModuleIdentifier;
+import org.jboss.osgi.framework.plugin.internal.ModuleManagerPluginImpl.BoundedCache;
+import org.jboss.osgi.framework.plugin.internal.ModuleManagerPluginImpl.ModuleDependencyKey;
+import org.junit.Test;
+
+/**
+ * Test the keys and the cache that share DependencySpecs and filters between modules
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 18-Oct-2010
+ */
+public class ModuleDependencyCacheTestCase
+{
+   private static final ModuleIdentifier EXPORTER_A = ModuleIdentifier.create("jbosgi.exporter-a", "1.0.0");
+   private static final ModuleIdentifier EXPORTER_B = ModuleIdentifier.create("jbosgi.exporter-b", "1.0.0");
+
+   @Test
+   public void testEqualKeys() throws Exception
+   {
+      Set<String> paths = new LinkedHashSet<String>(Arrays.asList("org/acme/a", "org/acme/b"));
+      Set<String> reversed = new LinkedHashSet<String>(Arrays.asList("org/acme/b", "org/acme/a"));
+
+      ModuleDependencyKey key = new ModuleDependencyKey(EXPORTER_A, paths, false, false);
+      ModuleDependencyKey other = new ModuleDependencyKey(ModuleIdentifier.create("jbosgi.exporter-a", "1.0.0"), reversed, false, false);
+      assertEquals(key, other);
+      assertEquals(key.hashCode(), other.hashCode());
+
+      ModuleDependencyKey acceptAll = new ModuleDependencyKey(EXPORTER_A, null, false, false);
+      assertEquals(acceptAll, new ModuleDependencyKey(EXPORTER_A, null, false, false));
+   }
+
+   @Test
+   public void testDifferentKeys() throws Exception
+   {
+      Set<String> paths = new HashSet<String>(Arrays.asList("org/acme/a"));
+      ModuleDependencyKey key = new ModuleDependencyKey(EXPORTER_A, paths, false, false);
+
+      assertFalse(key.equals(new ModuleDependencyKey(EXPORTER_B, paths, false, false)));
+      assertFalse(key.equals(new ModuleDependencyKey(EXPORTER_A, new HashSet<String>(Arrays.asList("org/acme/b")), false, false)));
+      assertFalse(key.equals(new ModuleDependencyKey(EXPORTER_A, null, false, false)));
+      assertFalse(key.equals(new ModuleDependencyKey(EXPORTER_A, paths, true, false)));
+      assertFalse(key.equals(new ModuleDependencyKey(EXPORTER_A, paths, false, true)));
+   }
+
+   @Test
+   public void testKeyIsNotAffectedByLaterChanges() throws Exception
+   {
+      Set<String> paths = new HashSet<String>(Arrays.asList("org/acme/a"));
+      ModuleDependencyKey key = new ModuleDependencyKey(EXPORTER_A, paths, false, false);
+      int hashCode = key.hashCode();
+
+      // The holder keeps adding paths to its own set
+      paths.add("org/acme/b");
+      assertEquals(hashCode, key.hashCode());
+      assertEquals(key, new ModuleDependencyKey(EXPORTER_A, new HashSet<String>(Arrays.asList("org/acme/a")), false, false));
+   }
+
+   @Test
+   public void testSharedValue() throws Exception
+   {
+      Map<ModuleDependencyKey, Object> cache = new BoundedCache<ModuleDependencyKey, Object>(16);
+      Set<String> paths = new HashSet<String>(Arrays.asList("org/acme/a"));
+      Object spec = new Object();
+      cache.put(new ModuleDependencyKey(EXPORTER_A, paths, false, false), spec);
+
+      // A module that imports the same paths from the same exporter gets the same instance
+      Set<String> otherPaths = new HashSet<String>(Arrays.asList("org/acme/a"));
+      assertSame(spec, cache.get(new ModuleDependencyKey(EXPORTER_A, otherPaths, false, false)));
+      assertNull(cache.get(new ModuleDependencyKey(EXPORTER_B, otherPaths, false, false)));
+   }
+
+   @Test
+   public void testEviction() throws Exception
+   {
+      Map<String, String> cache = new BoundedCache<String, String>(2);
+      cache.put("a", "A");
+      cache.put("b", "B");
+      cache.get("a");
+
+      // The least recently used entry is evicted
+      cache.put("c", "C");
+      assertEquals(2, cache.size());
+      assertEquals("A", cache.get("a"));
+      assertNull(cache.get("b"));
+      assertEquals("C", cache.get("c"));
+   }
+}
@@ -0,0 +1,237 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.plugin.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.jboss.osgi.framework.bundle.BundleStorageState;
+import org.jboss.osgi.framework.bundle.BundleStorageState.PropertiesWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the {@link WriteBehindPropertiesWriter}
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 18-Oct-2010
+ */
+public class WriteBehindPropertiesWriterTestCase
+{
+   private RecordingWriter delegate;
+   private List<File> storageDirs;
+
+   @Before
+   public void setUp()
+   {
+      delegate = new RecordingWriter();
+      storageDirs = new ArrayList<File>();
+   }
+
+   @After
+   public void tearDown()
+   {
+      for (File storageDir : storageDirs)
+         storageDir.delete();
+   }
+
+   @Test
+   public void testCoalescing() throws Exception
+   {
+      WriteBehindPropertiesWriter writer = new WriteBehindPropertiesWriter(delegate, 60000);
+      try
+      {
+         BundleStorageState stateA = createStorageState(writer, 1);
+         BundleStorageState stateB = createStorageState(writer, 2);
+         for (int i = 0; i < 5; i++)
+            writer.writeProperties(stateA, getProperties("a", i));
+         writer.writeProperties(stateB, getProperties("b", 0));
+         writer.writeProperties(stateB, getProperties("b", 1));
+         delegate.assertWrites();
+
+         // Only the latest properties of each storage state are written
+         writer.flush();
+         delegate.assertWrites("1:a=4", "2:b=1");
+
+         writer.flush();
+         delegate.assertWrites();
+      }
+      finally
+      {
+         writer.close();
+      }
+   }
+
+   @Test
+   public void testWriteAfterDelay() throws Exception
+   {
+      WriteBehindPropertiesWriter writer = new WriteBehindPropertiesWriter(delegate, 200);
+      try
+      {
+         BundleStorageState stateA = createStorageState(writer, 1);
+         writer.writeProperties(stateA, getProperties("a", 0));
+         writer.writeProperties(stateA, getProperties("a", 1));
+         delegate.assertWrites();
+
+         assertTrue("Written after the delay", delegate.awaitWrites(1));
+         delegate.assertWrites("1:a=1");
+
+         // The next change schedules another write
+         writer.writeProperties(stateA, getProperties("a", 2));
+         assertTrue("Written after the delay", delegate.awaitWrites(1));
+         delegate.assertWrites("1:a=2");
+      }
+      finally
+      {
+         writer.close();
+      }
+   }
+
+   @Test
+   public void testFlushStorageState() throws Exception
+   {
+      WriteBehindPropertiesWriter writer = new WriteBehindPropertiesWriter(delegate, 60000);
+      try
+      {
+         BundleStorageState stateA = createStorageState(writer, 1);
+         BundleStorageState stateB = createStorageState(writer, 2);
+         writer.writeProperties(stateA, getProperties("a", 0));
+         writer.writeProperties(stateB, getProperties("b", 0));
+
+         writer.flush(stateB);
+         delegate.assertWrites("2:b=0");
+
+         writer.flush(stateB);
+         delegate.assertWrites();
+      }
+      finally
+      {
+         writer.close();
+      }
+      delegate.assertWrites("1:a=0");
+   }
+
+   @Test
+   public void testDeleteDropsPendingWrites() throws Exception
+   {
+      WriteBehindPropertiesWriter writer = new WriteBehindPropertiesWriter(delegate, 60000);
+      try
+      {
+         BundleStorageState stateA = createStorageState(writer, 1);
+         BundleStorageState stateB = createStorageState(writer, 2);
+         writer.writeProperties(stateA, getProperties("a", 0));
+         writer.writeProperties(stateB, getProperties("b", 0));
+
+         writer.deleteProperties(stateA);
+         delegate.assertWrites("1:deleted");
+
+         // The pending write of the deleted storage state does not resurrect it
+         writer.flush();
+         delegate.assertWrites("2:b=0");
+      }
+      finally
+      {
+         writer.close();
+      }
+   }
+
+   @Test
+   public void testWriteThroughAfterClose() throws Exception
+   {
+      WriteBehindPropertiesWriter writer = new WriteBehindPropertiesWriter(delegate, 60000);
+      BundleStorageState stateA = createStorageState(writer, 1);
+      writer.writeProperties(stateA, getProperties("a", 0));
+
+      writer.close();
+      delegate.assertWrites("1:a=0");
+
+      writer.writeProperties(stateA, getProperties("a", 1));
+      delegate.assertWrites("1:a=1");
+   }
+
+   private BundleStorageState createStorageState(PropertiesWriter writer, long bundleId) throws IOException
+   {
+      File storageDir = File.createTempFile("write-behind", ".dir");
+      storageDir.delete();
+      storageDir.mkdirs();
+      storageDirs.add(storageDir);
+
+      Properties props = new Properties();
+      props.setProperty(BundleStorageState.PROPERTY_BUNDLE_ID, String.valueOf(bundleId));
+      props.setProperty(BundleStorageState.PROPERTY_BUNDLE_REV, "0");
+      props.setProperty(BundleStorageState.PROPERTY_BUNDLE_LOCATION, "location" + bundleId);
+      props.setProperty(BundleStorageState.PROPERTY_LAST_MODIFIED, "0");
+      return BundleStorageState.createFromProperties(storageDir, props, writer);
+   }
+
+   private Properties getProperties(String key, int value)
+   {
+      Properties props = new Properties();
+      props.setProperty(key, String.valueOf(value));
+      return props;
+   }
+
+   static class RecordingWriter implements PropertiesWriter
+   {
+      private final List<String> writes = new ArrayList<String>();
+
+      public synchronized void writeProperties(BundleStorageState storageState, Properties props) throws IOException
+      {
+         for (String key : props.stringPropertyNames())
+            writes.add(storageState.getBundleId() + ":" + key + "=" + props.getProperty(key));
+      }
+
+      public synchronized void deleteProperties(BundleStorageState storageState)
+      {
+         writes.add(storageState.getBundleId() + ":deleted");
+      }
+
+      boolean awaitWrites(int expected) throws InterruptedException
+      {
+         long deadline = System.currentTimeMillis() + 5000;
+         while (size() < expected && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+         return size() == expected;
+      }
+
+      synchronized int size()
+      {
+         return writes.size();
+      }
+
+      synchronized void assertWrites(String... expected)
+      {
+         List<String> list = new ArrayList<String>();
+         for (String aux : expected)
+            list.add(aux);
+         assertEquals(list, writes);
+         writes.clear();
+      }
+   }
+}
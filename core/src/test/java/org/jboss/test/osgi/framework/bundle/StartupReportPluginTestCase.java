@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.osgi.framework.bundle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.InputStream;
+
+import org.jboss.osgi.framework.bundle.AbstractBundle;
+import org.jboss.osgi.framework.plugin.StartupReport;
+import org.jboss.osgi.framework.plugin.StartupReport.BundleTiming;
+import org.jboss.osgi.framework.plugin.StartupReportPlugin;
+import org.jboss.osgi.framework.plugin.StartupReportPlugin.Phase;
+import org.jboss.osgi.framework.plugin.internal.StartupReportPluginImpl;
+import org.jboss.osgi.testing.OSGiManifestBuilder;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.test.osgi.framework.AbstractFrameworkTest;
+import org.jboss.test.osgi.framework.simple.bundleC.SimpleActivator;
+import org.jboss.test.osgi.framework.simple.bundleC.SimpleService;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+/**
+ * Test that the {@link StartupReportPlugin} only keeps the records of the startup
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 18-Oct-2010
+ */
+public class StartupReportPluginTestCase extends AbstractFrameworkTest
+{
+   @Test
+   public void testNoRecordsAfterStartup() throws Exception
+   {
+      StartupReportPlugin plugin = getBundleManager().getPlugin(StartupReportPlugin.class);
+      Bundle bundle = installBundle(getArchive());
+      try
+      {
+         bundle.start();
+         assertBundleState(Bundle.ACTIVE, bundle.getState());
+         assertNull(getBundleTiming(plugin.getStartupReport(), bundle.getBundleId()));
+      }
+      finally
+      {
+         bundle.uninstall();
+      }
+   }
+
+   @Test
+   public void testRecordsUntilStarted() throws Exception
+   {
+      StartupReportPlugin plugin = new StartupReportPluginImpl(getBundleManager());
+      Bundle bundleA = installBundle(getArchive());
+      Bundle bundleB = installBundle(getArchive("startup-report-b"));
+      try
+      {
+         AbstractBundle bundleStateA = AbstractBundle.assertBundleState(bundleA);
+         AbstractBundle bundleStateB = AbstractBundle.assertBundleState(bundleB);
+         long now = System.nanoTime();
+         plugin.recordPhase(bundleStateA, Phase.INSTALL, now, now + 10);
+         plugin.recordPhase(bundleStateB, Phase.INSTALL, now, now + 20);
+         assertEquals(10, getBundleTiming(plugin.getStartupReport(), bundleA.getBundleId()).getDuration(Phase.INSTALL));
+
+         // The records of a removed bundle are dropped
+         plugin.removeRecords(bundleStateA);
+         assertNull(getBundleTiming(plugin.getStartupReport(), bundleA.getBundleId()));
+         assertEquals(20, getBundleTiming(plugin.getStartupReport(), bundleB.getBundleId()).getDuration(Phase.INSTALL));
+
+         // Phases after startup are ignored
+         plugin.frameworkStarted();
+         now = System.nanoTime();
+         plugin.recordPhase(bundleStateA, Phase.ACTIVATE, now, now + 10);
+         plugin.recordPhase(bundleStateB, Phase.ACTIVATE, now, now + 10);
+         StartupReport report = plugin.getStartupReport();
+         assertNull(getBundleTiming(report, bundleA.getBundleId()));
+         assertEquals(-1, getBundleTiming(report, bundleB.getBundleId()).getBegin(Phase.ACTIVATE));
+      }
+      finally
+      {
+         bundleB.uninstall();
+         bundleA.uninstall();
+      }
+   }
+
+   private BundleTiming getBundleTiming(StartupReport report, long bundleId)
+   {
+      for (BundleTiming timing : report.getBundleTimings())
+      {
+         if (timing.getBundleId() == bundleId)
+            return timing;
+      }
+      return null;
+   }
+
+   private JavaArchive getArchive()
+   {
+      return getArchive("startup-report-a");
+   }
+
+   private JavaArchive getArchive(String name)
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, name);
+      archive.addClasses(SimpleService.class, SimpleActivator.class);
+      archive.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleManifestVersion(2);
+            builder.addBundleSymbolicName(archive.getName());
+            builder.addBundleActivator(SimpleActivator.class);
+            return builder.openStream();
+         }
+      });
+      return archive;
+   }
+}
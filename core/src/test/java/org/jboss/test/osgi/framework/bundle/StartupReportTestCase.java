@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.osgi.framework.bundle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.osgi.framework.plugin.StartupReport;
+import org.jboss.osgi.framework.plugin.StartupReport.BundleTiming;
+import org.jboss.osgi.framework.plugin.StartupReport.Segment;
+import org.jboss.osgi.framework.plugin.StartupReportPlugin.Phase;
+import org.junit.Test;
+
+/**
+ * Test the {@link StartupReport}
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 25-Jan-2011
+ */
+public class StartupReportTestCase
+{
+   @Test
+   public void testBundleOrder() throws Exception
+   {
+      BundleTiming fast = createTiming(1, 1, Phase.INSTALL, 0, 10, Phase.ACTIVATE, 100, 110);
+      BundleTiming slow = createTiming(2, 1, Phase.INSTALL, 10, 20, Phase.ACTIVATE, 110, 300, Phase.ACTIVATOR, 120, 290);
+
+      StartupReport report = new StartupReport(400, Arrays.asList(fast, slow));
+      List<BundleTiming> timings = report.getBundleTimings();
+      assertEquals(slow, timings.get(0));
+      assertEquals(fast, timings.get(1));
+
+      // Nested phases do not add to the total
+      assertEquals(200, slow.getTotalDuration());
+      assertEquals(170, slow.getDuration(Phase.ACTIVATOR));
+      assertEquals(0, slow.getDuration(Phase.RESOLVE));
+      assertEquals(-1, slow.getBegin(Phase.RESOLVE));
+   }
+
+   @Test
+   public void testStartLevels() throws Exception
+   {
+      BundleTiming bundleA = createTiming(1, 1, Phase.ACTIVATE, 100, 150);
+      BundleTiming bundleB = createTiming(2, 1, Phase.ACTIVATION_WAIT, 90, 100, Phase.ACTIVATE, 150, 200);
+      BundleTiming bundleC = createTiming(3, 2, Phase.ACTIVATE, 200, 260);
+
+      StartupReport report = new StartupReport(300, Arrays.asList(bundleA, bundleB, bundleC));
+      Map<Integer, Long> levels = report.getStartLevelDurations();
+      assertEquals(2, levels.size());
+      assertEquals(new Long(110), levels.get(1));
+      assertEquals(new Long(60), levels.get(2));
+   }
+
+   @Test
+   public void testCriticalPath() throws Exception
+   {
+      BundleTiming bundleA = createTiming(1, 1, Phase.INSTALL, 0, 10, Phase.RESOLVE, 30, 50, Phase.ACTIVATE, 60, 100);
+      BundleTiming bundleB = createTiming(2, 1, Phase.INSTALL, 10, 25, Phase.RESOLVE, 30, 50, Phase.ACTIVATE, 100, 180);
+      // Installed and activated concurrently with bundle B
+      BundleTiming bundleC = createTiming(3, 1, Phase.INSTALL, 12, 20, Phase.ACTIVATE, 110, 120);
+      // Activated after the framework has started
+      BundleTiming bundleD = createTiming(4, 1, Phase.ACTIVATE, 250, 260);
+
+      StartupReport report = new StartupReport(200, Arrays.asList(bundleA, bundleB, bundleC, bundleD));
+      List<Segment> path = report.getCriticalPath();
+      assertEquals(5, path.size());
+      assertSegment(path.get(0), bundleA, Phase.INSTALL);
+      assertSegment(path.get(1), bundleB, Phase.INSTALL);
+      assertEquals(Phase.RESOLVE, path.get(2).getPhase());
+      assertSegment(path.get(3), bundleA, Phase.ACTIVATE);
+      assertSegment(path.get(4), bundleB, Phase.ACTIVATE);
+
+      String text = report.toString();
+      assertTrue(text, text.startsWith("Startup report"));
+   }
+
+   private void assertSegment(Segment segment, BundleTiming timing, Phase phase)
+   {
+      assertEquals(timing, segment.getBundleTiming());
+      assertEquals(phase, segment.getPhase());
+   }
+
+   private BundleTiming createTiming(long bundleId, int startLevel, Object... phases)
+   {
+      long[] begins = new long[Phase.values().length];
+      long[] ends = new long[Phase.values().length];
+      Arrays.fill(begins, -1);
+      Arrays.fill(ends, -1);
+      for (int i = 0; i < phases.length; i += 3)
+      {
+         int index = ((Phase)phases[i]).ordinal();
+         begins[index] = ((Number)phases[i + 1]).longValue();
+         ends[index] = ((Number)phases[i + 2]).longValue();
+      }
+      return new BundleTiming(bundleId, "bundle" + bundleId, startLevel, begins, ends);
+   }
+}
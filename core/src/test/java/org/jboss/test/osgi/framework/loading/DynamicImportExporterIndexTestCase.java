@@ -0,0 +1,145 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.osgi.framework.loading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.util.List;
+
+import org.jboss.modules.ModuleIdentifier;
+import org.jboss.osgi.framework.bundle.AbstractBundle;
+import org.jboss.osgi.framework.plugin.ModuleManagerPlugin;
+import org.jboss.osgi.testing.OSGiManifestBuilder;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.test.osgi.framework.AbstractFrameworkTest;
+import org.jboss.test.osgi.framework.loading.subA.SimpleActivator;
+import org.jboss.test.osgi.framework.loading.subB.SimpleService;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+/**
+ * Test that dynamic imports are served by the exporting modules index.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 18-Oct-2010
+ */
+public class DynamicImportExporterIndexTestCase extends AbstractFrameworkTest
+{
+   @Test
+   public void testDynamicImportFromIndexedExporter() throws Exception
+   {
+      ModuleManagerPlugin moduleManager = getBundleManager().getPlugin(ModuleManagerPlugin.class);
+      String packageName = SimpleService.class.getPackage().getName();
+
+      Bundle importerA = installBundle(getImporterArchive("dynamic-importer-a"));
+      try
+      {
+         Bundle importerB = installBundle(getImporterArchive("dynamic-importer-b"));
+         try
+         {
+            Bundle other = installBundle(getExporterArchive("dynamic-other", SimpleActivator.class));
+            try
+            {
+               Bundle exporter = installBundle(getExporterArchive("dynamic-exporter", SimpleService.class));
+               try
+               {
+                  // Unresolved bundles are not indexed
+                  assertTrue(moduleManager.getExportingModules(packageName).isEmpty());
+
+                  // The exporter is resolved for the dynamic import
+                  assertLoadClass(importerA, SimpleService.class.getName(), exporter);
+                  assertBundleState(Bundle.RESOLVED, exporter.getState());
+
+                  // Bundles that do not export the package are not resolved
+                  assertBundleState(Bundle.INSTALLED, other.getState());
+
+                  ModuleIdentifier identifier = AbstractBundle.assertBundleState(exporter).getModuleIdentifier();
+                  List<ModuleIdentifier> exporters = moduleManager.getExportingModules(packageName);
+                  assertEquals(1, exporters.size());
+                  assertEquals(identifier, exporters.get(0));
+
+                  // The resolved exporter is found through the index
+                  assertLoadClass(importerB, SimpleService.class.getName(), exporter);
+                  assertBundleState(Bundle.INSTALLED, other.getState());
+               }
+               finally
+               {
+                  exporter.uninstall();
+               }
+            }
+            finally
+            {
+               other.uninstall();
+            }
+         }
+         finally
+         {
+            importerB.uninstall();
+         }
+      }
+      finally
+      {
+         importerA.uninstall();
+      }
+   }
+
+   private JavaArchive getImporterArchive(String symbolicName)
+   {
+      // DynamicImport-Package: org.jboss.test.osgi.framework.loading.*
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, symbolicName);
+      archive.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleManifestVersion(2);
+            builder.addBundleSymbolicName(archive.getName());
+            builder.addDynamicImportPackages("org.jboss.test.osgi.framework.loading.*");
+            return builder.openStream();
+         }
+      });
+      return archive;
+   }
+
+   private JavaArchive getExporterArchive(String symbolicName, final Class<?> exportedClass)
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, symbolicName);
+      archive.addClasses(exportedClass);
+      archive.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleManifestVersion(2);
+            builder.addBundleSymbolicName(archive.getName());
+            builder.addExportPackages(exportedClass);
+            builder.addImportPackages("org.osgi.framework");
+            return builder.openStream();
+         }
+      });
+      return archive;
+   }
+}
@@ -0,0 +1,80 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.osgi.framework.loading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.jboss.osgi.framework.loading.DynamicImportMatcher;
+import org.junit.Test;
+
+/**
+ * Test the {@link DynamicImportMatcher}
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 19-Jan-2011
+ */
+public class DynamicImportMatcherTestCase
+{
+   @Test
+   public void testNoPatterns() throws Exception
+   {
+      DynamicImportMatcher matcher = DynamicImportMatcher.create(Collections.<String> emptyList());
+      assertSame(DynamicImportMatcher.NONE, matcher);
+      assertTrue("No patterns", matcher.isEmpty());
+      assertNull(matcher.findMatchingPattern("org.acme.Foo"));
+   }
+
+   @Test
+   public void testMatchAll() throws Exception
+   {
+      DynamicImportMatcher matcher = DynamicImportMatcher.create(Arrays.asList("org.acme", "*"));
+      assertEquals("*", matcher.findMatchingPattern("org.acme.Foo"));
+      assertEquals("*", matcher.findMatchingPattern("Foo"));
+   }
+
+   @Test
+   public void testExactPackage() throws Exception
+   {
+      DynamicImportMatcher matcher = DynamicImportMatcher.create(Arrays.asList("org.acme"));
+      assertEquals("org.acme", matcher.findMatchingPattern("org.acme.Foo"));
+      assertNull(matcher.findMatchingPattern("org.acme.sub.Foo"));
+      assertNull(matcher.findMatchingPattern("org.acmex.Foo"));
+      assertNull(matcher.findMatchingPattern("org.Foo"));
+      assertNull(matcher.findMatchingPattern("Foo"));
+   }
+
+   @Test
+   public void testWildcardPackage() throws Exception
+   {
+      DynamicImportMatcher matcher = DynamicImportMatcher.create(Arrays.asList("org.acme.*"));
+      assertEquals("org.acme.*", matcher.findMatchingPattern("org.acme.Foo"));
+      assertEquals("org.acme.*", matcher.findMatchingPattern("org.acme.sub.Foo"));
+      assertNull(matcher.findMatchingPattern("org.acmex.Foo"));
+      assertNull(matcher.findMatchingPattern("org.Foo"));
+   }
+}
@@ -21,11 +21,19 @@
  */
 package org.jboss.test.osgi.framework.loading;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Collection;
 
 import org.jboss.modules.ClassSpec;
@@ -35,6 +43,8 @@ import org.jboss.modules.ResourceLoader;
 import org.jboss.osgi.framework.loading.VirtualFileResourceLoader;
 import org.jboss.osgi.testing.OSGiManifestBuilder;
 import org.jboss.osgi.testing.OSGiTestHelper;
+import org.jboss.osgi.vfs.AbstractVFS;
+import org.jboss.osgi.vfs.VFSUtils;
 import org.jboss.osgi.vfs.VirtualFile;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.asset.Asset;
@@ -96,6 +106,82 @@ public class VirtualFileResourceLoaderTestCase
       assertNotNull("ClassSpec not null", result);
    }
 
+   @Test
+   public void testClassBytes() throws Exception
+   {
+      ResourceLoader loader = new VirtualFileResourceLoader(rootFile);
+      String fileName = getClassFileName(SimpleActivator.class);
+      ClassSpec result = loader.getClassSpec(fileName);
+      assertArrayEquals(getClassBytes(SimpleActivator.class), result.getBytes());
+
+      // Read again through the reused buffer
+      fileName = getClassFileName(SimpleService.class);
+      result = loader.getClassSpec(fileName);
+      assertArrayEquals(getClassBytes(SimpleService.class), result.getBytes());
+
+      assertNull("No ClassSpec", loader.getClassSpec("org/jboss/test/osgi/framework/loading/subA/Missing.class"));
+   }
+
+   @Test
+   public void testLargeClassBytes() throws Exception
+   {
+      // Larger than the initial read buffer
+      final byte[] bytes = new byte[100 * 1024];
+      for (int i = 0; i < bytes.length; i++)
+         bytes[i] = (byte)i;
+
+      JavaArchive archive = ShrinkWrap.create(JavaArchive.class, "large-bundle");
+      archive.addResource(new Asset()
+      {
+         public InputStream openStream()
+         {
+            return new ByteArrayInputStream(bytes);
+         }
+      }, "large/Large.class");
+
+      VirtualFile largeFile = OSGiTestHelper.toVirtualFile(archive);
+      try
+      {
+         ResourceLoader loader = new VirtualFileResourceLoader(largeFile);
+         assertArrayEquals(bytes, loader.getClassSpec("large/Large.class").getBytes());
+
+         // A smaller class read afterwards gets an array of its exact size
+         loader = new VirtualFileResourceLoader(rootFile);
+         String fileName = getClassFileName(SimpleActivator.class);
+         assertArrayEquals(getClassBytes(SimpleActivator.class), loader.getClassSpec(fileName).getBytes());
+      }
+      finally
+      {
+         largeFile.close();
+      }
+   }
+
+   @Test
+   public void testExplodedClassBytes() throws Exception
+   {
+      File rootDir = File.createTempFile("exploded-bundle", ".dir");
+      rootDir.delete();
+      String fileName = getClassFileName(SimpleActivator.class);
+      File classFile = writeFile(rootDir, fileName, getClassBytes(SimpleActivator.class));
+      File manifestFile = writeFile(rootDir, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes());
+
+      VirtualFile explodedFile = AbstractVFS.toVirtualFile(rootDir.toURI().toURL());
+      try
+      {
+         ResourceLoader loader = new VirtualFileResourceLoader(explodedFile);
+         ClassSpec result = loader.getClassSpec(fileName);
+         assertArrayEquals(getClassBytes(SimpleActivator.class), result.getBytes());
+
+         assertNull("No ClassSpec", loader.getClassSpec(getClassFileName(SimpleService.class)));
+      }
+      finally
+      {
+         explodedFile.close();
+         classFile.delete();
+         manifestFile.delete();
+      }
+   }
+
    @Test
    public void testPackageSpec() throws Exception
    {
@@ -134,4 +220,34 @@ public class VirtualFileResourceLoaderTestCase
       assertTrue(paths.contains("META-INF"));
       assertTrue(paths.contains(""));
    }
-}
\ No newline at end of file
+
+   private static String getClassFileName(Class<?> clazz)
+   {
+      return clazz.getName().replace('.', '/') + ".class";
+   }
+
+   private static byte[] getClassBytes(Class<?> clazz) throws IOException
+   {
+      InputStream input = clazz.getClassLoader().getResourceAsStream(getClassFileName(clazz));
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      VFSUtils.copyStream(input, output);
+      input.close();
+      return output.toByteArray();
+   }
+
+   private static File writeFile(File rootDir, String path, byte[] bytes) throws IOException
+   {
+      File file = new File(rootDir, path);
+      file.getParentFile().mkdirs();
+      OutputStream output = new FileOutputStream(file);
+      try
+      {
+         output.write(bytes);
+      }
+      finally
+      {
+         output.close();
+      }
+      return file;
+   }
+}
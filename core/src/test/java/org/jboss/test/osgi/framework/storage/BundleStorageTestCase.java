@@ -23,6 +23,7 @@ package org.jboss.test.osgi.framework.storage;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -98,6 +99,30 @@ public class BundleStorageTestCase extends AbstractFrameworkTest
       assertFalse("Storage dir deleted", storageDir.exists());
    }
 
+   @Test
+   public void testPersistedRootFile() throws Exception
+   {
+      BundleManager bundleManager = getBundleManager();
+      BundleStoragePlugin plugin = bundleManager.getPlugin(BundleStoragePlugin.class);
+
+      JavaArchive archive = getArchive();
+      BundleStorageState storageState = plugin.createStorageState(bundleManager.getNextBundleId(), archive.getName(), toVirtualFile(archive));
+      try
+      {
+         // The root of a persisted bundle is opened on first access
+         BundleStorageState persisted = BundleStorageState.createFromStorage(storageState.getBundleStorageDir());
+         VirtualFile rootFile = persisted.getRootFile();
+         assertNotNull("Root file not null", rootFile);
+         assertSame(rootFile, persisted.getRootFile());
+         assertNotNull("Manifest found", rootFile.getChild("META-INF/MANIFEST.MF"));
+         persisted.deleteRevisionStorage();
+      }
+      finally
+      {
+         storageState.deleteBundleStorage();
+      }
+   }
+
    private void assertStorageState(BundleStorageState storageState)
    {
       assertNotNull("BundleStorageState not null", storageState);
@@ -0,0 +1,163 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.osgi.framework.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.jboss.osgi.framework.bundle.BundleManager;
+import org.jboss.osgi.framework.bundle.BundleStorageState;
+import org.jboss.osgi.framework.plugin.internal.BundleStoragePluginImpl;
+import org.jboss.osgi.framework.plugin.internal.JournalBundleStoragePluginImpl;
+import org.jboss.test.osgi.framework.AbstractFrameworkTest;
+import org.junit.Test;
+
+/**
+ * Test the journal based bundle storage
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 17-Jan-2011
+ */
+public class JournalBundleStorageTestCase extends AbstractFrameworkTest
+{
+   @Test
+   public void testJournalRoundTrip() throws Exception
+   {
+      BundleManager bundleManager = getBundleManager();
+      JournalBundleStoragePluginImpl plugin = new JournalBundleStoragePluginImpl(bundleManager);
+      long bundleId = bundleManager.getNextBundleId();
+      try
+      {
+         BundleStorageState storageState = plugin.createStorageState(bundleId, "journal-location", null);
+         assertNotNull("BundleStorageState not null", storageState);
+         assertEquals(0, storageState.getRevision());
+         storageState.setPersistentlyStarted(true);
+         storageState.setBundleActivationPolicyUsed(true);
+
+         File propertiesFile = new File(storageState.getBundleStorageDir() + "/" + BundleStorageState.BUNDLE_PERSISTENT_PROPERTIES);
+         assertFalse("Properties file not written", propertiesFile.exists());
+         plugin.destroyPlugin();
+
+         // Reload the journal
+         plugin = new JournalBundleStoragePluginImpl(bundleManager);
+         BundleStorageState reloaded = getStorageState(plugin, bundleId);
+         assertNotNull("BundleStorageState reloaded", reloaded);
+         assertEquals("journal-location", reloaded.getLocation());
+         assertTrue("Persistently started", reloaded.isPersistentlyStarted());
+         assertTrue("Activation policy used", reloaded.isBundleActivationPolicyUsed());
+
+         // A new revision for the same bundle
+         storageState = plugin.createStorageState(bundleId, "journal-location", null);
+         assertEquals(1, storageState.getRevision());
+
+         storageState.deleteBundleStorage();
+         assertNull("BundleStorageState deleted", getStorageState(plugin, bundleId));
+         plugin.destroyPlugin();
+
+         plugin = new JournalBundleStoragePluginImpl(bundleManager);
+         assertNull("BundleStorageState deleted", getStorageState(plugin, bundleId));
+      }
+      finally
+      {
+         plugin.destroyPlugin();
+         File journalFile = new File(plugin.getStorageDir(bundleId).getParentFile(), "bundle-journal.dat");
+         plugin.getStorageDir(bundleId).delete();
+         journalFile.delete();
+      }
+   }
+
+   @Test
+   public void testCorruptJournal() throws Exception
+   {
+      assertMigration(new byte[] { 'g', 'a', 'r', 'b', 'a', 'g', 'e', '!', 0, 0, 0, 0 });
+   }
+
+   @Test
+   public void testEmptyJournal() throws Exception
+   {
+      // A journal file without header, as left by an interrupted migration
+      assertMigration(new byte[0]);
+   }
+
+   private void assertMigration(byte[] journalContent) throws Exception
+   {
+      BundleManager bundleManager = getBundleManager();
+      BundleStoragePluginImpl propsPlugin = new BundleStoragePluginImpl(bundleManager);
+      long bundleId = bundleManager.getNextBundleId();
+      File storageDir = propsPlugin.getStorageDir(bundleId);
+      File journalFile = new File(storageDir.getParentFile(), "bundle-journal.dat");
+      File corruptFile = new File(storageDir.getParentFile(), "bundle-journal.dat.corrupt");
+      JournalBundleStoragePluginImpl plugin = null;
+      try
+      {
+         // A bundle that was persisted before the journal was corrupted
+         BundleStorageState storageState = propsPlugin.createStorageState(bundleId, "migrated-location", null);
+         storageState.setPersistentlyStarted(true);
+         propsPlugin.destroyPlugin();
+
+         FileOutputStream output = new FileOutputStream(journalFile);
+         output.write(journalContent);
+         output.close();
+
+         // The unreadable journal is moved aside and the properties files are migrated
+         plugin = new JournalBundleStoragePluginImpl(bundleManager);
+         BundleStorageState migrated = getStorageState(plugin, bundleId);
+         assertNotNull("BundleStorageState migrated", migrated);
+         assertEquals("migrated-location", migrated.getLocation());
+         assertTrue("Persistently started", migrated.isPersistentlyStarted());
+         assertTrue("Corrupt journal kept: " + corruptFile, corruptFile.exists());
+         assertEquals(journalContent.length, corruptFile.length());
+         assertTrue("Journal recreated", journalFile.length() > journalContent.length);
+
+         // The new journal is loaded without migration
+         migrated.setPersistentlyStarted(false);
+         plugin.destroyPlugin();
+         plugin = new JournalBundleStoragePluginImpl(bundleManager);
+         assertFalse("Journal entry wins", getStorageState(plugin, bundleId).isPersistentlyStarted());
+      }
+      finally
+      {
+         if (plugin != null)
+            plugin.destroyPlugin();
+         new File(storageDir + "/" + BundleStorageState.BUNDLE_PERSISTENT_PROPERTIES).delete();
+         storageDir.delete();
+         journalFile.delete();
+         corruptFile.delete();
+      }
+   }
+
+   private BundleStorageState getStorageState(JournalBundleStoragePluginImpl plugin, long bundleId) throws Exception
+   {
+      for (BundleStorageState aux : plugin.getBundleStorageStates())
+      {
+         if (aux.getBundleId() == bundleId)
+            return aux;
+      }
+      return null;
+   }
+}
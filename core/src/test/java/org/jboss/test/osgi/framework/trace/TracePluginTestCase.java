@@ -0,0 +1,109 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.osgi.framework.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.osgi.framework.plugin.TraceEvent;
+import org.jboss.osgi.framework.plugin.TraceListener;
+import org.jboss.osgi.framework.plugin.TracePlugin;
+import org.jboss.osgi.framework.plugin.TracePlugin.EventType;
+import org.jboss.osgi.framework.plugin.internal.TracePluginImpl;
+import org.jboss.test.osgi.framework.AbstractFrameworkTest;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+/**
+ * Test the threshold based framework tracing
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 26-Jan-2011
+ */
+public class TracePluginTestCase extends AbstractFrameworkTest
+{
+   @Test
+   public void testThresholds() throws Exception
+   {
+      String resolveProp = TracePlugin.PROP_JBOSS_OSGI_TRACE_THRESHOLD + ".resolve";
+      String defineProp = TracePlugin.PROP_JBOSS_OSGI_TRACE_THRESHOLD + ".class_define";
+      System.setProperty(TracePlugin.PROP_JBOSS_OSGI_TRACE_THRESHOLD, "500");
+      System.setProperty(resolveProp, "0");
+      System.setProperty(defineProp, "-1");
+      TracePlugin tracePlugin;
+      try
+      {
+         tracePlugin = new TracePluginImpl(getBundleManager());
+      }
+      finally
+      {
+         System.clearProperty(TracePlugin.PROP_JBOSS_OSGI_TRACE_THRESHOLD);
+         System.clearProperty(resolveProp);
+         System.clearProperty(defineProp);
+      }
+
+      final List<TraceEvent> events = new ArrayList<TraceEvent>();
+      tracePlugin.addTraceListener(new TraceListener()
+      {
+         public void traceEvent(TraceEvent event)
+         {
+            events.add(event);
+         }
+      });
+
+      assertTrue(tracePlugin.isEnabled(EventType.RESOLVE));
+      assertTrue(tracePlugin.isEnabled(EventType.BUNDLE_STATE));
+      assertFalse(tracePlugin.isEnabled(EventType.CLASS_DEFINE));
+      assertTrue(tracePlugin.isEnabled(EventType.CLASS_READ));
+
+      // Below the default threshold of 500us
+      tracePlugin.traceEvent(EventType.BUNDLE_STATE, 0, 499999, "bundle", Bundle.ACTIVE);
+      assertEquals(0, events.size());
+
+      tracePlugin.traceEvent(EventType.BUNDLE_STATE, 0, 500000, "bundle", Bundle.ACTIVE);
+      assertEquals(1, events.size());
+      TraceEvent event = events.get(0);
+      assertEquals(EventType.BUNDLE_STATE, event.getType());
+      assertEquals(500000, event.getDuration());
+      assertEquals("bundle", event.getSubject());
+      assertEquals(Bundle.ACTIVE, event.getDetail());
+      assertEquals("ACTIVE", event.getDetailString());
+      assertEquals(Thread.currentThread().getName(), event.getThreadName());
+
+      // Every resolver run is traced
+      tracePlugin.traceEvent(EventType.RESOLVE, 100, 100, "module", null);
+      assertEquals(2, events.size());
+
+      // Class definitions are not traced at all
+      tracePlugin.traceEvent(EventType.CLASS_DEFINE, 0, Long.MAX_VALUE, "root", "A.class");
+      assertEquals(2, events.size());
+
+      // Class reads have their own threshold
+      tracePlugin.traceEvent(EventType.CLASS_READ, 0, 500000, "root", "A.class");
+      assertEquals(3, events.size());
+      assertEquals("A.class", events.get(2).getDetailString());
+   }
+}
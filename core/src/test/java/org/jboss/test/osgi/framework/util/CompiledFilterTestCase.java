@@ -0,0 +1,119 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.osgi.framework.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.jboss.osgi.framework.util.CompiledFilter;
+import org.jboss.osgi.framework.util.CompiledFilter.FilterCache;
+import org.junit.Test;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.Version;
+
+/**
+ * Test the {@link CompiledFilter} against the filter implementation in {@link FrameworkUtil}
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 12-Jan-2011
+ */
+public class CompiledFilterTestCase
+{
+   @Test
+   public void testMatchLikeFrameworkUtil() throws Exception
+   {
+      Hashtable<String, Object> props = new Hashtable<String, Object>();
+      props.put("objectClass", new String[] { "a.B", "c.D" });
+      props.put("Name", "foo bar");
+      props.put("port", new Integer(8080));
+      props.put("dbl", new Double(1.5));
+      props.put("flag", Boolean.TRUE);
+      props.put("ver", Version.parseVersion("1.2.3"));
+      props.put("list", Arrays.asList("x", "y(z)"));
+      props.put("ints", new int[] { 1, 2, 3 });
+
+      String[] filters = new String[] { "(objectClass=a.B)", "(objectclass=c.*)", "(name=foo bar)", "(NAME=foo*)", "(name=*o b*)", "(name~=FOOBAR)",
+            "(port=8080)", "(port>=8000)", "(port<=80)", "(port= 8080 )", "(dbl>=1.4)", "(flag=true)", "(ver>=1.2)", "(ver<=1.0)", "(list=y\\(z\\))",
+            "(ints=2)", "(&(objectClass=a.B)(port=8080))", "(|(port=1)(name=foo bar))", "(!(port=1))", "(missing=*)", "(port=*)" };
+
+      for (String filterStr : filters)
+      {
+         Filter expected = FrameworkUtil.createFilter(filterStr);
+         Filter filter = CompiledFilter.compile(filterStr);
+         assertEquals(filterStr, expected.toString(), filter.toString());
+         assertEquals(filterStr, expected.match(props), filter.match(props));
+         assertEquals(filterStr, expected.matchCase(props), filter.matchCase(props));
+         assertTrue(filterStr, filter.equals(expected));
+      }
+   }
+
+   @Test
+   public void testInvalidSyntax() throws Exception
+   {
+      for (String filterStr : new String[] { "(a=b", "a=b", "(a=)", "(=b)", "(a=b)x" })
+      {
+         try
+         {
+            CompiledFilter.compile(filterStr);
+            fail("InvalidSyntaxException expected for: " + filterStr);
+         }
+         catch (InvalidSyntaxException ex)
+         {
+            // expected
+         }
+      }
+   }
+
+   @Test
+   public void testFilterCache() throws Exception
+   {
+      FilterCache filterCache = new FilterCache(2);
+      CompiledFilter filter = filterCache.compile("(&(objectClass=a.B)(type=y)(port>=80))");
+      assertSame(filter, filterCache.compile("(&(objectClass=a.B)(type=y)(port>=80))"));
+      assertNotSame(filter, CompiledFilter.compile("(&(objectClass=a.B)(type=y)(port>=80))"));
+
+      List<CompiledFilter> items = filter.getRequiredItems();
+      assertEquals(3, items.size());
+      assertEquals(CompiledFilter.EQUAL, items.get(0).getOperation());
+      assertEquals("objectClass", items.get(0).getAttribute());
+      assertEquals("a.B", items.get(0).getValue());
+      assertEquals(CompiledFilter.GREATER, items.get(2).getOperation());
+
+      // The least recently used filter is evicted
+      filterCache.compile("(a=1)");
+      filterCache.compile("(a=2)");
+      assertEquals(2, filterCache.size());
+      assertNotSame(filter, filterCache.compile("(&(objectClass=a.B)(type=y)(port>=80))"));
+
+      // Caches are not shared
+      assertNotSame(filterCache.compile("(a=1)"), new FilterCache(2).compile("(a=1)"));
+   }
+}
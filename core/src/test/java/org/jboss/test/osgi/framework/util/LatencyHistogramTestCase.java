@@ -0,0 +1,111 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.osgi.framework.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.jboss.osgi.framework.util.LatencyHistogram;
+import org.jboss.osgi.framework.util.StripedCounter;
+import org.junit.Test;
+
+/**
+ * Test the {@link LatencyHistogram} and the {@link StripedCounter}
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 24-Jan-2011
+ */
+public class LatencyHistogramTestCase
+{
+   @Test
+   public void testEmptyHistogram() throws Exception
+   {
+      LatencyHistogram.Snapshot snapshot = new LatencyHistogram("empty").getSnapshot();
+      assertEquals(0, snapshot.getCount());
+      assertEquals(0, snapshot.getMeanTime());
+      assertEquals(0, snapshot.getPercentile(99));
+   }
+
+   @Test
+   public void testPercentiles() throws Exception
+   {
+      LatencyHistogram histogram = new LatencyHistogram("latency");
+      for (int i = 1; i <= 1000; i++)
+         histogram.record(i * 1000L);
+
+      LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+      assertEquals(1000, snapshot.getCount());
+      assertEquals(1000000L, snapshot.getMaxTime());
+      assertEquals(500500L, snapshot.getMeanTime());
+      assertWithinError(500000L, snapshot.getPercentile(50));
+      assertWithinError(990000L, snapshot.getPercentile(99));
+      assertEquals(1000000L, snapshot.getPercentile(100));
+   }
+
+   @Test
+   public void testExtremeValues() throws Exception
+   {
+      LatencyHistogram histogram = new LatencyHistogram("extreme");
+      histogram.record(-1);
+      histogram.record(0);
+      histogram.record(Long.MAX_VALUE);
+
+      LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+      assertEquals(3, snapshot.getCount());
+      assertEquals(0, snapshot.getPercentile(50));
+      assertEquals(Long.MAX_VALUE, snapshot.getPercentile(100));
+
+      histogram.reset();
+      assertEquals(0, histogram.getSnapshot().getCount());
+   }
+
+   @Test
+   public void testStripedCounter() throws Exception
+   {
+      final StripedCounter counter = new StripedCounter();
+      Thread[] threads = new Thread[8];
+      for (int i = 0; i < threads.length; i++)
+      {
+         threads[i] = new Thread()
+         {
+            public void run()
+            {
+               for (int k = 0; k < 10000; k++)
+                  counter.increment();
+            }
+         };
+         threads[i].start();
+      }
+      for (Thread thread : threads)
+         thread.join();
+
+      assertEquals(80000, counter.get());
+      counter.add(-80000);
+      assertEquals(0, counter.get());
+   }
+
+   private void assertWithinError(long expected, long actual)
+   {
+      // The bucket resolution gives an error of less than 1/8
+      assertTrue("Expected " + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 8);
+   }
+}
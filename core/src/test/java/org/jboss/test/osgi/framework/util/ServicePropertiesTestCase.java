@@ -0,0 +1,140 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.test.osgi.framework.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Set;
+
+import org.jboss.osgi.framework.util.CompiledFilter;
+import org.jboss.osgi.framework.util.ServiceProperties;
+import org.junit.Test;
+import org.osgi.framework.Constants;
+
+/**
+ * Test the immutable {@link ServiceProperties}
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 27-Jan-2011
+ */
+public class ServicePropertiesTestCase
+{
+   @Test
+   public void testCaseInsensitiveLookup() throws Exception
+   {
+      Hashtable<String, Object> props = new Hashtable<String, Object>();
+      props.put("Name", "foo");
+      props.put("service.RANKING", new Integer(10));
+      String[] clazzes = new String[] { "a.B" };
+
+      ServiceProperties snapshot = new ServiceProperties(props, 42, clazzes, 0);
+      assertEquals("foo", snapshot.get("name"));
+      assertEquals("foo", snapshot.get("NAME"));
+      assertEquals("foo", snapshot.getLowerCase("name"));
+      assertNull(snapshot.get("other"));
+      assertNull(snapshot.get(new Object()));
+
+      assertEquals(42, snapshot.getServiceId());
+      assertEquals(new Long(42), snapshot.get(Constants.SERVICE_ID));
+      assertSame(clazzes, snapshot.getObjectClass());
+      assertSame(clazzes, snapshot.get("OBJECTCLASS"));
+      assertEquals(10, snapshot.getServiceRanking());
+      assertEquals(0, snapshot.getVersion());
+
+      // The keys are returned as given
+      Set<String> keys = new HashSet<String>(Arrays.asList(snapshot.getKeys()));
+      assertEquals(new HashSet<String>(Arrays.asList(Constants.SERVICE_ID, Constants.OBJECTCLASS, "Name", "service.RANKING")), keys);
+      assertEquals(4, snapshot.size());
+   }
+
+   @Test
+   public void testReservedKeys() throws Exception
+   {
+      Hashtable<String, Object> props = new Hashtable<String, Object>();
+      props.put("SERVICE.ID", new Long(1));
+      props.put("objectclass", "x.Y");
+      props.put(Constants.SERVICE_RANKING, "not an integer");
+
+      ServiceProperties snapshot = new ServiceProperties(props, 7, new String[] { "a.B" }, 3);
+      assertEquals(new Long(7), snapshot.get(Constants.SERVICE_ID));
+      assertEquals("a.B", ((String[])snapshot.get(Constants.OBJECTCLASS))[0]);
+      assertEquals(0, snapshot.getServiceRanking());
+      assertEquals(3, snapshot.size());
+      assertEquals(3, snapshot.getVersion());
+
+      // The registrant's dictionary is not modified
+      assertEquals(new Long(1), props.get("SERVICE.ID"));
+      assertFalse(props.containsKey(Constants.SERVICE_ID));
+   }
+
+   @Test
+   public void testCaseVariants() throws Exception
+   {
+      Hashtable<String, Object> props = new Hashtable<String, Object>();
+      props.put("name", "foo");
+      props.put("NAME", "bar");
+      try
+      {
+         new ServiceProperties(props, 1, new String[] { "a.B" }, 0);
+         fail("IllegalArgumentException expected");
+      }
+      catch (IllegalArgumentException ex)
+      {
+         // expected
+      }
+   }
+
+   @Test
+   public void testImmutable() throws Exception
+   {
+      ServiceProperties snapshot = new ServiceProperties(null, 1, new String[] { "a.B" }, 0);
+      assertEquals(2, snapshot.size());
+      try
+      {
+         snapshot.put("foo", "bar");
+         fail("UnsupportedOperationException expected");
+      }
+      catch (UnsupportedOperationException ex)
+      {
+         // expected
+      }
+   }
+
+   @Test
+   public void testFilterMatch() throws Exception
+   {
+      Hashtable<String, Object> props = new Hashtable<String, Object>();
+      props.put("Port", new Integer(8080));
+      ServiceProperties snapshot = new ServiceProperties(props, 1, new String[] { "a.B" }, 0);
+
+      assertTrue(CompiledFilter.compile("(&(objectClass=a.B)(PORT>=8000))").match(snapshot));
+      assertFalse(CompiledFilter.compile("(port=80)").match(snapshot));
+   }
+}
@@ -373,6 +373,72 @@ public class DynamicImportPackageTestCase extends OSGiFrameworkTest
       }
    }
 
+   @Test
+   public void testCachedMissDroppedOnInstall() throws Exception
+   {
+      // Bundle-SymbolicName: dynamic-wildcard-a
+      // Export-Package: org.jboss.test.osgi.framework.classloader.support.a 
+      // DynamicImport-Package: org.jboss.test.osgi.framework.classloader.*
+      final JavaArchive archiveA = ShrinkWrap.create(JavaArchive.class, "dynamic-wildcard-a");
+      archiveA.addClass(A.class);
+      archiveA.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleManifestVersion(2);
+            builder.addBundleSymbolicName(archiveA.getName());
+            builder.addExportPackages(A.class.getPackage().getName());
+            builder.addDynamicImportPackages("org.jboss.test.osgi.framework.classloader.*");
+            return builder.openStream();
+         }
+      });
+
+      // Bundle-SymbolicName: dynamic-wildcard-c
+      // Export-Package: org.jboss.test.osgi.framework.classloader.support.c
+      final JavaArchive archiveC = ShrinkWrap.create(JavaArchive.class, "dynamic-wildcard-c");
+      archiveC.addClasses(C.class);
+      archiveC.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleManifestVersion(2);
+            builder.addBundleSymbolicName(archiveC.getName());
+            builder.addExportPackages(C.class.getPackage().getName());
+            return builder.openStream();
+         }
+      });
+
+      Bundle bundleA = installBundle(archiveA);
+      assertBundleState(Bundle.INSTALLED, bundleA.getState());
+      try
+      {
+         assertLoadClass(bundleA, A.class.getName(), bundleA);
+
+         // The second miss is answered from the negative class cache
+         assertLoadClassFail(bundleA, C.class.getName());
+         assertLoadClassFail(bundleA, C.class.getName());
+
+         // Installing the exporter changes the wiring generation
+         Bundle bundleC = installBundle(archiveC);
+         assertBundleState(Bundle.INSTALLED, bundleC.getState());
+         try
+         {
+            assertLoadClass(bundleA, C.class.getName(), bundleC);
+            assertBundleState(Bundle.RESOLVED, bundleC.getState());
+         }
+         finally
+         {
+            bundleC.uninstall();
+         }
+      }
+      finally
+      {
+         bundleA.uninstall();
+      }
+   }
+
    @Test
    public void testPackageAvailableOnInstall() throws Exception
    {
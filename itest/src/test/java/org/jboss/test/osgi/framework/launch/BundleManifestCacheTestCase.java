@@ -0,0 +1,228 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.framework.launch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import org.jboss.osgi.spi.util.ServiceLoader;
+import org.jboss.osgi.testing.OSGiFrameworkTest;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Version;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.launch.FrameworkFactory;
+
+/**
+ * Test the manifest cache that is used when persisted bundles are installed on restart
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 18-Oct-2010
+ */
+public class BundleManifestCacheTestCase extends OSGiFrameworkTest
+{
+   static final String CACHED_MANIFEST = "cached-manifest.mf";
+   static final String CACHE_KEY_SECTION = "jbosgi-cache-key";
+
+   File storageDir = new File("target/test-osgi-store").getAbsoluteFile();
+   Framework framework;
+
+   @BeforeClass
+   public static void beforeClass()
+   {
+      // prevent framework creation
+   }
+
+   @Before
+   public void setUp() throws Exception
+   {
+      Map<String, String> props = new HashMap<String, String>();
+      props.put("org.osgi.framework.storage", storageDir.getAbsolutePath());
+      props.put("org.osgi.framework.storage.clean", "onFirstInit");
+
+      FrameworkFactory factory = ServiceLoader.loadService(FrameworkFactory.class);
+      framework = factory.newFramework(props);
+      framework.start();
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      framework.stop();
+      framework.waitForStop(2000);
+   }
+
+   @Test
+   public void testManifestWithoutVersion() throws Exception
+   {
+      JavaArchive archive = getBundleArchive("cached-bundle", "1.0.0");
+      BundleContext context = framework.getBundleContext();
+      Bundle bundle = context.installBundle(archive.getName(), toInputStream(archive));
+      long bundleId = bundle.getBundleId();
+
+      // The cached manifest has its main attributes, although the bundle manifest has no Manifest-Version
+      File cacheFile = getCacheFile(bundleId);
+      assertTrue("File exists: " + cacheFile, cacheFile.exists());
+      Manifest manifest = readManifest(cacheFile);
+      assertEquals("cached-bundle", manifest.getMainAttributes().getValue("Bundle-SymbolicName"));
+      assertEquals("1.0.0", manifest.getMainAttributes().getValue("Bundle-Version"));
+      assertNotNull("Cache key", manifest.getAttributes(CACHE_KEY_SECTION));
+
+      // Modify the cached manifest, so that a cache hit can be told apart from a miss
+      manifest.getMainAttributes().putValue("Bundle-Version", "1.0.1");
+      writeManifest(cacheFile, manifest);
+
+      bundle = restart().getBundle(bundleId);
+      assertEquals("Cache hit", Version.parseVersion("1.0.1"), bundle.getVersion());
+      assertEquals("cached-bundle", bundle.getSymbolicName());
+   }
+
+   @Test
+   public void testInvalidatedOnLastModified() throws Exception
+   {
+      JavaArchive archive = getBundleArchive("cached-bundle", "1.0.0");
+      BundleContext context = framework.getBundleContext();
+      Bundle bundle = context.installBundle(archive.getName(), toInputStream(archive));
+      long bundleId = bundle.getBundleId();
+
+      // A cached manifest with a different Last-Modified is stale
+      File cacheFile = getCacheFile(bundleId);
+      Manifest manifest = readManifest(cacheFile);
+      manifest.getMainAttributes().putValue("Bundle-Version", "1.0.1");
+      Attributes key = manifest.getAttributes(CACHE_KEY_SECTION);
+      key.putValue("Last-Modified", String.valueOf(Long.parseLong(key.getValue("Last-Modified")) - 1000));
+      writeManifest(cacheFile, manifest);
+
+      bundle = restart().getBundle(bundleId);
+      assertEquals("Cache miss", Version.parseVersion("1.0.0"), bundle.getVersion());
+
+      // The cached manifest is written again
+      manifest = readManifest(cacheFile);
+      assertEquals("1.0.0", manifest.getMainAttributes().getValue("Bundle-Version"));
+   }
+
+   @Test
+   public void testInvalidatedOnRevision() throws Exception
+   {
+      JavaArchive archive = getBundleArchive("cached-bundle", "1.0.0");
+      BundleContext context = framework.getBundleContext();
+      Bundle bundle = context.installBundle(archive.getName(), toInputStream(archive));
+      long bundleId = bundle.getBundleId();
+
+      // A cached manifest with a different Revision is stale
+      File cacheFile = getCacheFile(bundleId);
+      Manifest manifest = readManifest(cacheFile);
+      manifest.getMainAttributes().putValue("Bundle-Version", "1.0.1");
+      Attributes key = manifest.getAttributes(CACHE_KEY_SECTION);
+      key.putValue("Revision", String.valueOf(Integer.parseInt(key.getValue("Revision")) + 1));
+      writeManifest(cacheFile, manifest);
+
+      bundle = restart().getBundle(bundleId);
+      assertEquals("Cache miss", Version.parseVersion("1.0.0"), bundle.getVersion());
+
+      // An updated bundle is a new revision
+      archive = getBundleArchive("cached-bundle", "2.0.0");
+      bundle.update(toInputStream(archive));
+      assertEquals(Version.parseVersion("2.0.0"), bundle.getVersion());
+
+      bundle = restart().getBundle(bundleId);
+      assertEquals(Version.parseVersion("2.0.0"), bundle.getVersion());
+   }
+
+   private BundleContext restart() throws Exception
+   {
+      framework.stop();
+      framework.waitForStop(2000);
+      framework.start();
+      assertBundleState(Bundle.ACTIVE, framework.getState());
+      return framework.getBundleContext();
+   }
+
+   private File getCacheFile(long bundleId)
+   {
+      return new File(storageDir + "/bundle-" + bundleId + "/" + CACHED_MANIFEST);
+   }
+
+   private Manifest readManifest(File file) throws Exception
+   {
+      InputStream input = new FileInputStream(file);
+      try
+      {
+         return new Manifest(input);
+      }
+      finally
+      {
+         input.close();
+      }
+   }
+
+   private void writeManifest(File file, Manifest manifest) throws Exception
+   {
+      long lastModified = file.lastModified();
+      FileOutputStream output = new FileOutputStream(file);
+      try
+      {
+         manifest.write(output);
+      }
+      finally
+      {
+         output.close();
+      }
+      file.setLastModified(lastModified);
+   }
+
+   private JavaArchive getBundleArchive(String symbolicName, final String version)
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, symbolicName);
+      archive.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            // A manifest without Manifest-Version
+            StringBuffer buffer = new StringBuffer();
+            buffer.append("Bundle-ManifestVersion: 2\n");
+            buffer.append("Bundle-SymbolicName: " + archive.getName() + "\n");
+            buffer.append("Bundle-Version: " + version + "\n");
+            return new ByteArrayInputStream(buffer.toString().getBytes());
+         }
+      });
+      return archive;
+   }
+}
@@ -22,6 +22,7 @@
 package org.jboss.test.osgi.framework.launch;
 
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -151,12 +152,74 @@ public class PersistentBundleStartupTestCase extends OSGiFrameworkTest
       assertBundleState(Bundle.RESOLVED, framework.getState());
    }
 
+   @Test
+   public void testPersistedBundlesInstalledInIdOrder() throws Exception
+   {
+      Map<String,String> props = new HashMap<String, String>();
+      props.put("org.osgi.framework.storage", storageDir.getAbsolutePath());
+      props.put("org.osgi.framework.storage.clean", "onFirstInit");
+      
+      FrameworkFactory factory = ServiceLoader.loadService(FrameworkFactory.class);
+      Framework framework = factory.newFramework(props);
+      
+      framework.start();
+      assertBundleState(Bundle.ACTIVE, framework.getState());
+      
+      BundleContext context = framework.getBundleContext();
+      Map<Long, String> symbolicNames = new HashMap<Long, String>();
+      for (int i = 0; i < 12; i++)
+      {
+         JavaArchive archive = getBundleArchive("simple-bundle" + i);
+         Bundle bundle = context.installBundle(archive.getName(), toInputStream(archive));
+         symbolicNames.put(bundle.getBundleId(), bundle.getSymbolicName());
+         if (i % 3 == 0)
+            bundle.start();
+      }
+      
+      framework.stop();
+      framework.waitForStop(2000);
+      
+      // Restart the Framework, the persisted bundles are parsed in parallel
+      framework.start();
+      assertBundleState(Bundle.ACTIVE, framework.getState());
+      
+      context = framework.getBundleContext();
+      Bundle[] bundles = context.getBundles();
+      assertEquals(symbolicNames.size() + 1, bundles.length);
+      
+      // The bundles keep their ids and are installed in id order
+      long lastId = -1;
+      for (Bundle bundle : bundles)
+      {
+         assertTrue("Ascending bundle id: " + bundle, bundle.getBundleId() > lastId);
+         lastId = bundle.getBundleId();
+         if (bundle.getBundleId() != 0)
+            assertEquals(symbolicNames.get(bundle.getBundleId()), bundle.getSymbolicName());
+      }
+      
+      for (Long bundleId : symbolicNames.keySet())
+      {
+         Bundle bundle = context.getBundle(bundleId);
+         int index = Integer.parseInt(bundle.getSymbolicName().substring("simple-bundle".length()));
+         assertBundleState(index % 3 == 0 ? Bundle.ACTIVE : Bundle.INSTALLED, bundle.getState());
+      }
+
+      framework.stop();
+      framework.waitForStop(2000);
+      assertBundleState(Bundle.RESOLVED, framework.getState());
+   }
+
    private JavaArchive getBundleArchive()
+   {
+      return getBundleArchive("simple-bundle");
+   }
+
+   private JavaArchive getBundleArchive(String symbolicName)
    {
       // Bundle-Version: 1.0.0
       // Bundle-SymbolicName: simple-bundle
       // Bundle-Activator: org.jboss.osgi.msc.framework.simple.bundle.SimpleActivator
-      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, "simple-bundle");
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, symbolicName);
       archive.addClasses(SimpleService.class, SimpleActivator.class);
       archive.setManifest(new Asset()
       {
@@ -0,0 +1,267 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.framework.packageadmin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jboss.osgi.testing.OSGiFrameworkTest;
+import org.jboss.osgi.testing.OSGiManifestBuilder;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.test.osgi.framework.classloader.support.b.B;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.Version;
+import org.osgi.service.packageadmin.ExportedPackage;
+import org.osgi.service.packageadmin.PackageAdmin;
+import org.osgi.service.packageadmin.RequiredBundle;
+
+/**
+ * Test that the PackageAdmin wiring queries reflect the current wires
+ * after refreshPackages and uninstall.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 18-Oct-2010
+ */
+public class PackageAdminWiringQueriesTestCase extends OSGiFrameworkTest
+{
+   private static final String PACKAGE_NAME = B.class.getPackage().getName();
+
+   @Test
+   public void testWiringQueries() throws Exception
+   {
+      PackageAdmin pa = getPackageAdmin();
+      Bundle exporter = installBundle(getExporterArchive("wiring-exporter", "1.0.0"));
+      Bundle unwired = installBundle(getExporterArchive("wiring-unwired", "2.0.0"));
+      Bundle importer = installBundle(getImporterArchive("wiring-importer"));
+      Bundle requirer = installBundle(getRequirerArchive("wiring-requirer", "wiring-exporter"));
+      try
+      {
+         assertTrue(pa.resolveBundles(null));
+         assertWiring(pa, exporter, importer, requirer);
+
+         // The wired exporter is preferred over the unwired exporter with the higher version
+         ExportedPackage exported = pa.getExportedPackage(PACKAGE_NAME);
+         assertEquals(exporter, exported.getExportingBundle());
+         assertEquals(Version.parseVersion("1.0.0"), exported.getVersion());
+
+         ExportedPackage[] unwiredPackages = pa.getExportedPackages(unwired);
+         assertEquals(1, unwiredPackages.length);
+         assertEquals(0, unwiredPackages[0].getImportingBundles().length);
+      }
+      finally
+      {
+         requirer.uninstall();
+         importer.uninstall();
+         unwired.uninstall();
+         exporter.uninstall();
+      }
+   }
+
+   @Test
+   public void testWiringQueriesAfterRefresh() throws Exception
+   {
+      PackageAdmin pa = getPackageAdmin();
+      Bundle exporter = installBundle(getExporterArchive("wiring-exporter", "1.0.0"));
+      Bundle importer = installBundle(getImporterArchive("wiring-importer"));
+      Bundle requirer = installBundle(getRequirerArchive("wiring-requirer", "wiring-exporter"));
+      try
+      {
+         assertTrue(pa.resolveBundles(null));
+         assertWiring(pa, exporter, importer, requirer);
+         ExportedPackage stale = pa.getExportedPackage(PACKAGE_NAME);
+
+         refreshPackages(pa, new Bundle[] { exporter });
+         assertBundleState(Bundle.INSTALLED, exporter.getState());
+         assertBundleState(Bundle.INSTALLED, importer.getState());
+         assertBundleState(Bundle.INSTALLED, requirer.getState());
+
+         // Unresolved bundles are not wired
+         assertNull(pa.getExportedPackage(PACKAGE_NAME));
+         assertNull(stale.getImportingBundles());
+         RequiredBundle[] required = pa.getRequiredBundles("wiring-exporter");
+         for (int i = 0; required != null && i < required.length; i++)
+            assertEquals(0, required[i].getRequiringBundles().length);
+
+         // The wires of the previous resolve are not reported again
+         assertTrue(pa.resolveBundles(null));
+         assertWiring(pa, exporter, importer, requirer);
+      }
+      finally
+      {
+         requirer.uninstall();
+         importer.uninstall();
+         exporter.uninstall();
+      }
+   }
+
+   @Test
+   public void testWiringQueriesAfterUninstall() throws Exception
+   {
+      PackageAdmin pa = getPackageAdmin();
+      Bundle exporter = installBundle(getExporterArchive("wiring-exporter", "1.0.0"));
+      Bundle importer = installBundle(getImporterArchive("wiring-importer"));
+      Bundle requirer = installBundle(getRequirerArchive("wiring-requirer", "wiring-exporter"));
+      try
+      {
+         assertTrue(pa.resolveBundles(null));
+         assertWiring(pa, exporter, importer, requirer);
+
+         // The importers are removed from the wire index
+         importer.uninstall();
+         requirer.uninstall();
+         refreshPackages(pa, new Bundle[] { importer, requirer });
+
+         ExportedPackage exported = pa.getExportedPackage(PACKAGE_NAME);
+         assertNotNull("ExportedPackage not null", exported);
+         assertEquals(0, exported.getImportingBundles().length);
+         RequiredBundle[] required = pa.getRequiredBundles("wiring-exporter");
+         assertEquals(1, required.length);
+         assertEquals(0, required[0].getRequiringBundles().length);
+         assertNull(pa.getRequiredBundles("wiring-requirer"));
+
+         // The uninstalled exporter is removal pending until the packages are refreshed
+         exporter.uninstall();
+         assertNull(exported.getImportingBundles());
+         assertNull(required[0].getRequiringBundles());
+         refreshPackages(pa, new Bundle[] { exporter });
+         assertNull(pa.getExportedPackage(PACKAGE_NAME));
+         assertNull(pa.getRequiredBundles("wiring-exporter"));
+      }
+      finally
+      {
+         if (requirer.getState() != Bundle.UNINSTALLED)
+            requirer.uninstall();
+         if (importer.getState() != Bundle.UNINSTALLED)
+            importer.uninstall();
+         if (exporter.getState() != Bundle.UNINSTALLED)
+            exporter.uninstall();
+      }
+   }
+
+   private void assertWiring(PackageAdmin pa, Bundle exporter, Bundle importer, Bundle requirer)
+   {
+      ExportedPackage exported = pa.getExportedPackage(PACKAGE_NAME);
+      assertNotNull("ExportedPackage not null", exported);
+      assertEquals(exporter, exported.getExportingBundle());
+
+      // Bundles that require the exporter are considered to import its packages
+      Set<Bundle> expected = new HashSet<Bundle>(Arrays.asList(importer, requirer));
+      Bundle[] importing = exported.getImportingBundles();
+      assertEquals(2, importing.length);
+      assertEquals(expected, new HashSet<Bundle>(Arrays.asList(importing)));
+
+      RequiredBundle[] required = pa.getRequiredBundles(exporter.getSymbolicName());
+      assertEquals(1, required.length);
+      assertEquals(exporter, required[0].getBundle());
+      assertEquals(Arrays.asList(requirer), Arrays.asList(required[0].getRequiringBundles()));
+
+      // A null symbolic name also reports the requiring bundles
+      boolean found = false;
+      for (RequiredBundle aux : pa.getRequiredBundles(null))
+      {
+         if (exporter.equals(aux.getBundle()))
+         {
+            assertEquals(Arrays.asList(requirer), Arrays.asList(aux.getRequiringBundles()));
+            found = true;
+         }
+      }
+      assertTrue("Exporter found", found);
+   }
+
+   private void refreshPackages(PackageAdmin pa, Bundle[] bundles) throws Exception
+   {
+      getSystemContext().addFrameworkListener(this);
+      try
+      {
+         pa.refreshPackages(bundles);
+         assertFrameworkEvent(FrameworkEvent.PACKAGES_REFRESHED, getSystemContext().getBundle(0), null);
+      }
+      finally
+      {
+         getSystemContext().removeFrameworkListener(this);
+      }
+   }
+
+   private JavaArchive getExporterArchive(String name, final String version)
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, name);
+      archive.addClass(B.class);
+      archive.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleManifestVersion(2);
+            builder.addBundleSymbolicName(archive.getName());
+            builder.addBundleVersion(version);
+            builder.addExportPackages(PACKAGE_NAME + ";version=" + version);
+            return builder.openStream();
+         }
+      });
+      return archive;
+   }
+
+   private JavaArchive getImporterArchive(String name)
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, name);
+      archive.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleManifestVersion(2);
+            builder.addBundleSymbolicName(archive.getName());
+            builder.addImportPackages(PACKAGE_NAME + ";version=\"[1.0,2.0)\"");
+            return builder.openStream();
+         }
+      });
+      return archive;
+   }
+
+   private JavaArchive getRequirerArchive(String name, final String requiredName)
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, name);
+      archive.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleManifestVersion(2);
+            builder.addBundleSymbolicName(archive.getName());
+            builder.addRequireBundle(requiredName);
+            return builder.openStream();
+         }
+      });
+      return archive;
+   }
+}
@@ -0,0 +1,308 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.framework.packageadmin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.osgi.spi.util.ServiceLoader;
+import org.jboss.osgi.testing.OSGiFrameworkTest;
+import org.jboss.osgi.testing.OSGiManifestBuilder;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.test.osgi.framework.classloader.support.a.A;
+import org.jboss.test.osgi.framework.classloader.support.b.B;
+import org.jboss.test.osgi.framework.classloader.support.c.C;
+import org.jboss.test.osgi.framework.startlevel.support.BarrierActivator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.launch.FrameworkFactory;
+import org.osgi.service.packageadmin.PackageAdmin;
+import org.osgi.service.startlevel.StartLevel;
+
+/**
+ * Test that refreshPackages stops and restarts the dependent bundles one start level at a time
+ * when refresh parallelism is enabled.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 18-Oct-2010
+ */
+public class RefreshPackagesParallelTestCase extends OSGiFrameworkTest
+{
+   File storageDir = new File("target/test-osgi-store").getAbsoluteFile();
+   Framework framework;
+   StartLevel startLevel;
+   PackageAdmin packageAdmin;
+   List<FrameworkEvent> events = new ArrayList<FrameworkEvent>();
+   List<String> bundleEvents = new ArrayList<String>();
+
+   @BeforeClass
+   public static void beforeClass()
+   {
+      // prevent framework creation
+   }
+
+   @Before
+   public void setUp() throws Exception
+   {
+      System.getProperties().put(BarrierActivator.BARRIER, new CyclicBarrier(1));
+      System.getProperties().put(BarrierActivator.STARTED, new AtomicInteger());
+      System.getProperties().put(BarrierActivator.STOPPED, new AtomicInteger());
+
+      Map<String, String> props = new HashMap<String, String>();
+      props.put("org.osgi.framework.storage", storageDir.getAbsolutePath());
+      props.put("org.osgi.framework.storage.clean", "onFirstInit");
+      props.put("org.osgi.framework.startlevel.beginning", "3");
+      props.put("org.jboss.osgi.refresh.parallelism", "4");
+
+      FrameworkFactory factory = ServiceLoader.loadService(FrameworkFactory.class);
+      framework = factory.newFramework(props);
+      framework.start();
+
+      BundleContext context = framework.getBundleContext();
+      startLevel = (StartLevel)context.getService(context.getServiceReference(StartLevel.class.getName()));
+      packageAdmin = (PackageAdmin)context.getService(context.getServiceReference(PackageAdmin.class.getName()));
+      context.addFrameworkListener(new FrameworkListener()
+      {
+         public void frameworkEvent(FrameworkEvent event)
+         {
+            synchronized (events)
+            {
+               events.add(event);
+               events.notifyAll();
+            }
+         }
+      });
+      context.addBundleListener(new SynchronousBundleListener()
+      {
+         public void bundleChanged(BundleEvent event)
+         {
+            String prefix;
+            if (event.getType() == BundleEvent.STARTED)
+               prefix = "STARTED:";
+            else if (event.getType() == BundleEvent.STOPPED)
+               prefix = "STOPPED:";
+            else
+               return;
+
+            synchronized (bundleEvents)
+            {
+               bundleEvents.add(prefix + event.getBundle().getSymbolicName());
+            }
+         }
+      });
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      if (framework != null)
+      {
+         framework.stop();
+         framework.waitForStop(10000);
+      }
+      System.getProperties().remove(BarrierActivator.BARRIER);
+      System.getProperties().remove(BarrierActivator.STARTED);
+      System.getProperties().remove(BarrierActivator.STOPPED);
+   }
+
+   @Test
+   public void testRefreshRestartsTransitiveImporters() throws Exception
+   {
+      // A imports B, B imports C
+      Bundle bundleC = installBundle(getBundle("bundleC", C.class, null), 1);
+      Bundle bundleB = installBundle(getBundle("bundleB", B.class, C.class), 2);
+      Bundle bundleA = installBundle(getBundle("bundleA", null, B.class), 3);
+      Bundle other = installBundle(getBundle("other", A.class, null), 3);
+
+      Class<?> classB = bundleA.loadClass(B.class.getName());
+      assertEquals(bundleB, packageAdmin.getBundle(classB));
+
+      clearBundleEvents();
+      refreshPackages(bundleC);
+
+      // Dependent bundles are stopped from the highest start level down and restarted in reverse
+      List<String> expected = Arrays.asList("STOPPED:bundleA", "STOPPED:bundleB", "STOPPED:bundleC", "STARTED:bundleC", "STARTED:bundleB", "STARTED:bundleA");
+      assertEquals(expected, getBundleEvents());
+
+      assertBundleState(Bundle.ACTIVE, bundleA.getState());
+      assertBundleState(Bundle.ACTIVE, bundleB.getState());
+      assertBundleState(Bundle.ACTIVE, bundleC.getState());
+      assertBundleState(Bundle.ACTIVE, other.getState());
+
+      // Bundle A is wired to the new revision of bundle B
+      assertNotSame(classB, bundleA.loadClass(B.class.getName()));
+   }
+
+   @Test
+   public void testRefreshOneStartLevelAtATime() throws Exception
+   {
+      // Two independent groups, each with an exporter on level 1 and an importer on level 2
+      Bundle exporterB = installBundle(getBundle("exporterB", B.class, null), 1);
+      Bundle exporterC = installBundle(getBundle("exporterC", C.class, null), 1);
+      Bundle importerB = installBundle(getBarrierBundle("importerB", B.class), 2);
+      Bundle importerC = installBundle(getBarrierBundle("importerC", C.class), 2);
+      assertEquals(2, getCount(BarrierActivator.STARTED));
+
+      // The importers only get past the barrier when they are stopped and started concurrently
+      System.getProperties().put(BarrierActivator.BARRIER, new CyclicBarrier(2));
+
+      clearBundleEvents();
+      refreshPackages(exporterB, exporterC);
+      assertEquals(2, getCount(BarrierActivator.STOPPED));
+      assertEquals(4, getCount(BarrierActivator.STARTED));
+
+      // Both importers are stopped before any exporter is stopped, and both exporters
+      // are started before any importer is started
+      List<String> recorded = getBundleEvents();
+      assertEquals(8, recorded.size());
+      assertTrue(recorded.toString(), recorded.subList(0, 2).containsAll(Arrays.asList("STOPPED:importerB", "STOPPED:importerC")));
+      assertTrue(recorded.toString(), recorded.subList(2, 4).containsAll(Arrays.asList("STOPPED:exporterB", "STOPPED:exporterC")));
+      assertTrue(recorded.toString(), recorded.subList(4, 6).containsAll(Arrays.asList("STARTED:exporterB", "STARTED:exporterC")));
+      assertTrue(recorded.toString(), recorded.subList(6, 8).containsAll(Arrays.asList("STARTED:importerB", "STARTED:importerC")));
+
+      assertBundleState(Bundle.ACTIVE, exporterB.getState());
+      assertBundleState(Bundle.ACTIVE, exporterC.getState());
+      assertBundleState(Bundle.ACTIVE, importerB.getState());
+      assertBundleState(Bundle.ACTIVE, importerC.getState());
+   }
+
+   private Bundle installBundle(JavaArchive archive, int bundleStartLevel) throws Exception
+   {
+      BundleContext context = framework.getBundleContext();
+      Bundle bundle = context.installBundle(archive.getName(), toInputStream(archive));
+      startLevel.setBundleStartLevel(bundle, bundleStartLevel);
+      bundle.start();
+      assertBundleState(Bundle.ACTIVE, bundle.getState());
+      return bundle;
+   }
+
+   private void refreshPackages(Bundle... bundles) throws Exception
+   {
+      synchronized (events)
+      {
+         events.clear();
+         packageAdmin.refreshPackages(bundles);
+         long deadline = System.currentTimeMillis() + 10000;
+         while (getEvents(FrameworkEvent.PACKAGES_REFRESHED).isEmpty() && System.currentTimeMillis() < deadline)
+            events.wait(100);
+
+         assertEquals(1, getEvents(FrameworkEvent.PACKAGES_REFRESHED).size());
+         assertEquals(0, getEvents(FrameworkEvent.ERROR).size());
+      }
+   }
+
+   private List<FrameworkEvent> getEvents(int type)
+   {
+      List<FrameworkEvent> result = new ArrayList<FrameworkEvent>();
+      for (FrameworkEvent event : events)
+      {
+         if (event.getType() == type)
+            result.add(event);
+      }
+      return result;
+   }
+
+   private void clearBundleEvents()
+   {
+      synchronized (bundleEvents)
+      {
+         bundleEvents.clear();
+      }
+   }
+
+   private List<String> getBundleEvents()
+   {
+      synchronized (bundleEvents)
+      {
+         return new ArrayList<String>(bundleEvents);
+      }
+   }
+
+   private int getCount(String key)
+   {
+      return ((AtomicInteger)System.getProperties().get(key)).get();
+   }
+
+   private JavaArchive getBundle(String name, final Class<?> exported, final Class<?> imported)
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, name);
+      if (exported != null)
+         archive.addClass(exported);
+      archive.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleSymbolicName(archive.getName());
+            builder.addBundleManifestVersion(2);
+            if (exported != null)
+               builder.addExportPackages(exported);
+            if (imported != null)
+               builder.addImportPackages(imported);
+            return builder.openStream();
+         }
+      });
+      return archive;
+   }
+
+   private JavaArchive getBarrierBundle(String name, final Class<?> imported)
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, name);
+      archive.addClass(BarrierActivator.class);
+      archive.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleSymbolicName(archive.getName());
+            builder.addBundleManifestVersion(2);
+            builder.addBundleActivator(BarrierActivator.class);
+            builder.addImportPackages("org.osgi.framework");
+            builder.addImportPackages(imported);
+            return builder.openStream();
+         }
+      });
+      return archive;
+   }
+}
@@ -0,0 +1,172 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.framework.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.jboss.osgi.spi.util.ServiceLoader;
+import org.jboss.osgi.testing.OSGiFrameworkTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.launch.FrameworkFactory;
+
+/**
+ * Test that service lookups narrowed by the attribute index 
+ * return the same services as an unindexed filter scan.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 18-Oct-2010
+ */
+public class ServiceAttributeIndexTestCase extends OSGiFrameworkTest
+{
+   static final String[] FILTERS = new String[] { 
+      "(name=a)", "(NAME=a)", "(name=b)", "(name=c)", "(name=*)", "(name=a*)", "(!(name=a))", 
+      "(port=80)", "(port=*)", "(&(name=a)(port=80))", "(|(name=a)(name=b))", "(|(name=a)(port=8080))", 
+      "(&(objectClass=java.lang.String)(name=a))", "(&(name=a)(!(port=80)))", "(name~=A)" };
+
+   File storageDir = new File("target/test-osgi-store").getAbsoluteFile();
+   Framework framework;
+   BundleContext context;
+   List<ServiceRegistration> registrations;
+
+   @BeforeClass
+   public static void beforeClass()
+   {
+      // prevent framework creation
+   }
+
+   @Before
+   public void setUp() throws Exception
+   {
+      Map<String, String> props = new HashMap<String, String>();
+      props.put("org.osgi.framework.storage", storageDir.getAbsolutePath());
+      props.put("org.osgi.framework.storage.clean", "onFirstInit");
+      props.put("org.jboss.osgi.service.index.keys", "name,port");
+
+      FrameworkFactory factory = ServiceLoader.loadService(FrameworkFactory.class);
+      framework = factory.newFramework(props);
+      framework.start();
+      assertBundleState(Bundle.ACTIVE, framework.getState());
+
+      context = framework.getBundleContext();
+      registrations = new ArrayList<ServiceRegistration>();
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      if (framework != null)
+      {
+         framework.stop();
+         framework.waitForStop(2000);
+      }
+   }
+
+   @Test
+   public void testIndexedLookup() throws Exception
+   {
+      register("name", "a", "port", 80);
+      register("name", "b", "port", "80");
+      register("NAME", "a");
+      register("name", new String[] { "a", "b" });
+      register("name", new Vector<String>(Arrays.asList("b", "c")));
+      register("name", 1, "port", new int[] { 80, 8080 });
+      register("port", 8080);
+      register();
+
+      assertIndexedLookup();
+   }
+
+   @Test
+   public void testIndexedLookupAfterModify() throws Exception
+   {
+      ServiceRegistration sregA = register("name", "a", "port", 80);
+      ServiceRegistration sregB = register("name", "b");
+      register("name", "c");
+      assertIndexedLookup();
+
+      sregA.setProperties(properties("name", "b"));
+      assertIndexedLookup();
+
+      sregB.setProperties(properties("port", 80, Constants.SERVICE_RANKING, 10));
+      assertIndexedLookup();
+
+      sregA.unregister();
+      registrations.remove(sregA);
+      assertIndexedLookup();
+   }
+
+   private void assertIndexedLookup() throws Exception
+   {
+      ServiceReference[] all = context.getServiceReferences(null, null);
+      assertNotNull("Services not null", all);
+      for (String filterStr : FILTERS)
+      {
+         Filter filter = FrameworkUtil.createFilter(filterStr);
+         List<ServiceReference> expected = new ArrayList<ServiceReference>();
+         for (ServiceReference sref : all)
+         {
+            if (filter.match(sref))
+               expected.add(sref);
+         }
+         ServiceReference[] srefs = context.getServiceReferences(null, filterStr);
+         List<ServiceReference> actual = srefs != null ? Arrays.asList(srefs) : new ArrayList<ServiceReference>();
+         assertEquals("Services for " + filterStr, expected, actual);
+      }
+   }
+
+   private ServiceRegistration register(Object... keyValues)
+   {
+      ServiceRegistration sreg = context.registerService(String.class.getName(), "" + registrations.size(), properties(keyValues));
+      registrations.add(sreg);
+      return sreg;
+   }
+
+   private Dictionary<String, Object> properties(Object... keyValues)
+   {
+      Dictionary<String, Object> props = new Hashtable<String, Object>();
+      for (int i = 0; i < keyValues.length; i += 2)
+         props.put((String)keyValues[i], keyValues[i + 1]);
+      return props;
+   }
+}
@@ -30,14 +30,19 @@ import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.jboss.osgi.spi.util.ConstantsHelper;
 import org.jboss.osgi.testing.OSGiFrameworkTest;
 import org.junit.Test;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.framework.hooks.service.EventHook;
 
 /**
@@ -89,9 +94,75 @@ public class ServiceEventHookTestCase extends OSGiFrameworkTest
          }
       };
 
-      context.registerService(EventHook.class.getName(), hook, null);
-      context.registerService(Runnable.class.getName(), service, null);
+      ServiceRegistration hookReg = context.registerService(EventHook.class.getName(), hook, null);
+      ServiceRegistration sreg = context.registerService(Runnable.class.getName(), service, null);
       assertTrue("Events called", events.size() > 0);
       assertTrue("Events all good", allGood[0]);
+
+      sreg.unregister();
+      hookReg.unregister();
+   }
+
+   @Test
+   public void testEventHookRegisteredConcurrently() throws Exception
+   {
+      final BundleContext context = getFramework().getBundleContext();
+
+      // Keep firing service events from another thread
+      final AtomicBoolean running = new AtomicBoolean(true);
+      final List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+      Thread thread = new Thread(new Runnable()
+      {
+         public void run()
+         {
+            try
+            {
+               while (running.get())
+               {
+                  ServiceRegistration sreg = context.registerService(Runnable.class.getName(), this, null);
+                  sreg.unregister();
+               }
+            }
+            catch (Throwable th)
+            {
+               errors.add(th);
+            }
+         }
+      });
+      thread.start();
+      try
+      {
+         for (int i = 0; i < 100; i++)
+         {
+            final String probe = "probe" + i;
+            final AtomicBoolean called = new AtomicBoolean();
+            EventHook hook = new EventHook()
+            {
+               @Override
+               @SuppressWarnings("rawtypes")
+               public void event(ServiceEvent event, Collection contexts)
+               {
+                  if (probe.equals(event.getServiceReference().getProperty("probe")))
+                     called.set(true);
+               }
+            };
+            ServiceRegistration hookReg = context.registerService(EventHook.class.getName(), hook, null);
+
+            // A hook must see every event that is fired after its registration returned
+            Dictionary<String, Object> props = new Hashtable<String, Object>();
+            props.put("probe", probe);
+            ServiceRegistration sreg = context.registerService(String.class.getName(), probe, props);
+            assertTrue("Hook called for " + probe, called.get());
+
+            sreg.unregister();
+            hookReg.unregister();
+         }
+      }
+      finally
+      {
+         running.set(false);
+         thread.join(5000);
+      }
+      assertTrue("No errors: " + errors, errors.isEmpty());
    }
 }
@@ -0,0 +1,179 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.framework.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.jboss.osgi.testing.OSGiFrameworkTest;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Test that service listeners are notified correctly, whether or not
+ * their filter lets them be indexed by objectClass.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 18-Oct-2010
+ */
+public class ServiceListenerIndexTestCase extends OSGiFrameworkTest
+{
+   static final String X = "org.jboss.test.X";
+   static final String Y = "org.jboss.test.Y";
+   static final String Z = "org.jboss.test.Z";
+
+   @Test
+   public void testListenerBuckets() throws Exception
+   {
+      BundleContext context = getSystemContext();
+
+      RecordingListener byClassX = new RecordingListener();
+      RecordingListener byClassCase = new RecordingListener();
+      RecordingListener byClassAndProp = new RecordingListener();
+      RecordingListener byEitherClass = new RecordingListener();
+      RecordingListener byProp = new RecordingListener();
+      RecordingListener unfiltered = new RecordingListener();
+      RecordingListener notClassX = new RecordingListener();
+
+      context.addServiceListener(byClassX, "(objectClass=" + X + ")");
+      context.addServiceListener(byClassCase, "(OBJECTCLASS=" + X + ")");
+      context.addServiceListener(byClassAndProp, "(&(objectClass=" + X + ")(foo=bar))");
+      context.addServiceListener(byEitherClass, "(|(objectClass=" + X + ")(objectClass=" + Y + "))");
+      context.addServiceListener(byProp, "(foo=bar)");
+      context.addServiceListener(unfiltered);
+      context.addServiceListener(notClassX, "(!(objectClass=" + X + "))");
+      try
+      {
+         ServiceRegistration sregX = context.registerService(X, "x", props("x", "foo", "bar"));
+         ServiceRegistration sregY = context.registerService(Y, "y", props("y"));
+         ServiceRegistration sregXZ = context.registerService(new String[] { Z, X }, "xz", props("xz"));
+         ServiceRegistration sregZ = context.registerService(Z, "z", props("z", "foo", "bar"));
+
+         byClassX.assertEvents("REGISTERED:x", "REGISTERED:xz");
+         byClassCase.assertEvents("REGISTERED:x", "REGISTERED:xz");
+         byClassAndProp.assertEvents("REGISTERED:x");
+         byEitherClass.assertEvents("REGISTERED:x", "REGISTERED:y", "REGISTERED:xz");
+         byProp.assertEvents("REGISTERED:x", "REGISTERED:z");
+         unfiltered.assertEvents("REGISTERED:x", "REGISTERED:y", "REGISTERED:xz", "REGISTERED:z");
+         notClassX.assertEvents("REGISTERED:y", "REGISTERED:z");
+
+         // A modify that leaves the filter of an indexed listener
+         sregX.setProperties(props("x", "foo", "baz"));
+         sregZ.setProperties(props("z", "foo", "baz"));
+
+         byClassX.assertEvents("MODIFIED:x");
+         byClassCase.assertEvents("MODIFIED:x");
+         byClassAndProp.assertEvents("MODIFIED_ENDMATCH:x");
+         byEitherClass.assertEvents("MODIFIED:x");
+         byProp.assertEvents("MODIFIED_ENDMATCH:x", "MODIFIED_ENDMATCH:z");
+         unfiltered.assertEvents("MODIFIED:x", "MODIFIED:z");
+         notClassX.assertEvents("MODIFIED:z");
+
+         // Replacing the filter moves the listener to another bucket
+         context.addServiceListener(byClassX, "(objectClass=" + Y + ")");
+         context.addServiceListener(notClassX, "(objectClass=" + Z + ")");
+
+         sregX.unregister();
+         sregY.unregister();
+         sregXZ.unregister();
+         sregZ.unregister();
+
+         byClassX.assertEvents("UNREGISTERING:y");
+         byClassCase.assertEvents("UNREGISTERING:x", "UNREGISTERING:xz");
+         byClassAndProp.assertEvents();
+         byEitherClass.assertEvents("UNREGISTERING:x", "UNREGISTERING:y", "UNREGISTERING:xz");
+         byProp.assertEvents();
+         unfiltered.assertEvents("UNREGISTERING:x", "UNREGISTERING:y", "UNREGISTERING:xz", "UNREGISTERING:z");
+         notClassX.assertEvents("UNREGISTERING:xz", "UNREGISTERING:z");
+      }
+      finally
+      {
+         for (ServiceListener listener : Arrays.asList(byClassX, byClassCase, byClassAndProp, byEitherClass, byProp, unfiltered, notClassX))
+            context.removeServiceListener(listener);
+      }
+   }
+
+   @Test
+   public void testRemovedListener() throws Exception
+   {
+      BundleContext context = getSystemContext();
+
+      RecordingListener listener = new RecordingListener();
+      context.addServiceListener(listener, "(objectClass=" + X + ")");
+      context.removeServiceListener(listener);
+
+      ServiceRegistration sreg = context.registerService(X, "x", props("x"));
+      sreg.unregister();
+      listener.assertEvents();
+   }
+
+   private Dictionary<String, Object> props(String name, String... keyValues)
+   {
+      Dictionary<String, Object> props = new Hashtable<String, Object>();
+      props.put("name", name);
+      for (int i = 0; i < keyValues.length; i += 2)
+         props.put(keyValues[i], keyValues[i + 1]);
+      return props;
+   }
+
+   static class RecordingListener implements ServiceListener
+   {
+      private final List<String> events = new ArrayList<String>();
+
+      @Override
+      public synchronized void serviceChanged(ServiceEvent event)
+      {
+         events.add(getTypeName(event.getType()) + ":" + event.getServiceReference().getProperty("name"));
+      }
+
+      synchronized void assertEvents(String... expected)
+      {
+         assertEquals(Arrays.asList(expected), events);
+         events.clear();
+      }
+
+      private static String getTypeName(int type)
+      {
+         switch (type)
+         {
+            case ServiceEvent.REGISTERED:
+               return "REGISTERED";
+            case ServiceEvent.MODIFIED:
+               return "MODIFIED";
+            case ServiceEvent.MODIFIED_ENDMATCH:
+               return "MODIFIED_ENDMATCH";
+            case ServiceEvent.UNREGISTERING:
+               return "UNREGISTERING";
+            default:
+               return "UNKNOWN";
+         }
+      }
+   }
+}
@@ -0,0 +1,336 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.framework.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.osgi.testing.OSGiFrameworkTest;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Test the MODIFIED and MODIFIED_ENDMATCH events and the ranking order 
+ * for modified service properties.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 18-Oct-2010
+ */
+public class ServiceModifiedTestCase extends OSGiFrameworkTest
+{
+   static final String CLAZZ = ServiceModifiedTestCase.class.getName();
+
+   @Test
+   public void testModifiedEndMatch() throws Exception
+   {
+      BundleContext context = getSystemContext();
+      context.addServiceListener(this, "(foo=bar)");
+
+      ServiceRegistration sreg = context.registerService(CLAZZ, "A", getProperties(0, "bar"));
+      ServiceReference sref = sreg.getReference();
+      try
+      {
+         assertServiceEvent(ServiceEvent.REGISTERED, sref);
+
+         sreg.setProperties(getProperties(1, "bar"));
+         assertServiceEvent(ServiceEvent.MODIFIED, sref);
+
+         // The listener only matched the previous properties
+         sreg.setProperties(getProperties(1, "baz"));
+         assertServiceEvent(ServiceEvent.MODIFIED_ENDMATCH, sref);
+
+         // The listener matched neither the previous nor the current properties
+         sreg.setProperties(getProperties(1, "qux"));
+         assertNoServiceEvent();
+
+         sreg.setProperties(getProperties(1, "bar"));
+         assertServiceEvent(ServiceEvent.MODIFIED, sref);
+
+         sreg.unregister();
+         sreg = null;
+         assertServiceEvent(ServiceEvent.UNREGISTERING, sref);
+      }
+      finally
+      {
+         context.removeServiceListener(this);
+         if (sreg != null)
+            sreg.unregister();
+      }
+   }
+
+   @Test
+   public void testEndMatchBeforeMatch() throws Exception
+   {
+      assertEndMatchPerListener(true);
+   }
+
+   @Test
+   public void testMatchBeforeEndMatch() throws Exception
+   {
+      assertEndMatchPerListener(false);
+   }
+
+   private void assertEndMatchPerListener(boolean endMatchFirst) throws Exception
+   {
+      BundleContext context = getSystemContext();
+      Dictionary<String, Object> props = getProperties(0, "bar");
+      props.put("xxx", "yyy");
+      ServiceRegistration sreg = context.registerService(CLAZZ, "A", props);
+
+      // Two listeners stop matching, one listener still matches
+      RecordingListener endingA = new RecordingListener();
+      RecordingListener endingB = new RecordingListener();
+      RecordingListener matching = new RecordingListener();
+      if (endMatchFirst)
+      {
+         context.addServiceListener(endingA, "(foo=bar)");
+         context.addServiceListener(matching, "(xxx=yyy)");
+         context.addServiceListener(endingB, "(foo=bar)");
+      }
+      else
+      {
+         context.addServiceListener(matching, "(xxx=yyy)");
+         context.addServiceListener(endingA, "(foo=bar)");
+         context.addServiceListener(endingB, "(foo=bar)");
+      }
+      try
+      {
+         props.put("foo", "baz");
+         sreg.setProperties(props);
+
+         assertEquals(Collections.singletonList(ServiceEvent.MODIFIED_ENDMATCH), endingA.types);
+         assertEquals(Collections.singletonList(ServiceEvent.MODIFIED_ENDMATCH), endingB.types);
+         assertEquals(Collections.singletonList(ServiceEvent.MODIFIED), matching.types);
+      }
+      finally
+      {
+         context.removeServiceListener(endingA);
+         context.removeServiceListener(endingB);
+         context.removeServiceListener(matching);
+         sreg.unregister();
+      }
+   }
+
+   @Test
+   public void testNestedModify() throws Exception
+   {
+      BundleContext context = getSystemContext();
+      final ServiceRegistration sreg = context.registerService(CLAZZ, "A", getProperties(0, "bar"));
+
+      // Modifies the service again while the MODIFIED event is delivered
+      ServiceListener modifier = new ServiceListener()
+      {
+         public void serviceChanged(ServiceEvent event)
+         {
+            if (event.getType() == ServiceEvent.MODIFIED && "bar".equals(event.getServiceReference().getProperty("foo")))
+               sreg.setProperties(getProperties(0, "baz"));
+         }
+      };
+      final List<Integer> types = new ArrayList<Integer>();
+      ServiceListener recorder = new ServiceListener()
+      {
+         public void serviceChanged(ServiceEvent event)
+         {
+            types.add(event.getType());
+         }
+      };
+      context.addServiceListener(modifier, "(foo=bar)");
+      context.addServiceListener(recorder, "(foo=bar)");
+      try
+      {
+         sreg.setProperties(getProperties(1, "bar"));
+
+         // The nested modification ends the match, independent of the listener order 
+         // the outer modification is still delivered for its own snapshot
+         assertEquals("Two events: " + types, 2, types.size());
+         assertTrue("MODIFIED: " + types, types.contains(ServiceEvent.MODIFIED));
+         assertTrue("MODIFIED_ENDMATCH: " + types, types.contains(ServiceEvent.MODIFIED_ENDMATCH));
+         assertEquals("baz", sreg.getReference().getProperty("foo"));
+      }
+      finally
+      {
+         context.removeServiceListener(modifier);
+         context.removeServiceListener(recorder);
+         sreg.unregister();
+      }
+   }
+
+   @Test
+   public void testConcurrentModify() throws Exception
+   {
+      BundleContext context = getSystemContext();
+      final ServiceRegistration sregA = context.registerService(CLAZZ, "A", getProperties(0, "bar"));
+      ServiceRegistration sregB = context.registerService(CLAZZ, "B", getProperties(50, "bar"));
+
+      final List<Integer> types = new ArrayList<Integer>();
+      ServiceListener recorder = new ServiceListener()
+      {
+         public void serviceChanged(ServiceEvent event)
+         {
+            synchronized (types)
+            {
+               types.add(event.getType());
+            }
+         }
+      };
+      context.addServiceListener(recorder, "(foo=bar)");
+      try
+      {
+         int threads = 4;
+         final int count = 50;
+         final CountDownLatch startLatch = new CountDownLatch(1);
+         final CountDownLatch doneLatch = new CountDownLatch(threads);
+         for (int i = 0; i < threads; i++)
+         {
+            final int offset = i * count;
+            new Thread()
+            {
+               public void run()
+               {
+                  try
+                  {
+                     startLatch.await();
+                     for (int j = 0; j < count; j++)
+                        sregA.setProperties(getProperties(offset + j, "bar"));
+                  }
+                  catch (InterruptedException ex)
+                  {
+                     // ignore
+                  }
+                  finally
+                  {
+                     doneLatch.countDown();
+                  }
+               }
+            }.start();
+         }
+         startLatch.countDown();
+         assertTrue("Modifications done", doneLatch.await(10, TimeUnit.SECONDS));
+
+         // Every modification matched the listener for its own snapshot
+         assertEquals(threads * count, types.size());
+         for (Integer type : types)
+            assertEquals(ServiceEvent.MODIFIED, type.intValue());
+
+         // The registry order is consistent with the final ranking
+         int ranking = (Integer)sregA.getReference().getProperty(Constants.SERVICE_RANKING);
+         if (ranking > 50)
+            assertServiceOrder(context, "B", "A");
+         else
+            assertServiceOrder(context, "A", "B");
+      }
+      finally
+      {
+         context.removeServiceListener(recorder);
+         sregA.unregister();
+         sregB.unregister();
+      }
+   }
+
+   @Test
+   public void testRankingResortBeforeModified() throws Exception
+   {
+      final BundleContext context = getSystemContext();
+      ServiceRegistration sregA = context.registerService(CLAZZ, "A", getProperties(0, "bar"));
+      ServiceRegistration sregB = context.registerService(CLAZZ, "B", getProperties(10, "bar"));
+
+      // Record the highest ranked service while the MODIFIED event is delivered 
+      final List<Object> highest = new ArrayList<Object>();
+      ServiceListener listener = new ServiceListener()
+      {
+         public void serviceChanged(ServiceEvent event)
+         {
+            ServiceReference sref = context.getServiceReference(CLAZZ);
+            highest.add(context.getService(sref));
+            context.ungetService(sref);
+         }
+      };
+      context.addServiceListener(listener, "(" + Constants.OBJECTCLASS + "=" + CLAZZ + ")");
+      try
+      {
+         assertServiceOrder(context, "A", "B");
+
+         sregA.setProperties(getProperties(20, "bar"));
+         assertServiceOrder(context, "B", "A");
+
+         sregA.setProperties(getProperties(5, "bar"));
+         assertServiceOrder(context, "A", "B");
+
+         assertEquals("A", highest.get(0));
+         assertEquals("B", highest.get(1));
+      }
+      finally
+      {
+         context.removeServiceListener(listener);
+         sregA.unregister();
+         sregB.unregister();
+      }
+   }
+
+   static class RecordingListener implements ServiceListener
+   {
+      final List<Integer> types = new ArrayList<Integer>();
+
+      public void serviceChanged(ServiceEvent event)
+      {
+         types.add(event.getType());
+      }
+   }
+
+   private void assertServiceOrder(BundleContext context, String... expected) throws Exception
+   {
+      ServiceReference[] srefs = context.getServiceReferences(CLAZZ, null);
+      assertNotNull("Service references not null", srefs);
+      assertEquals(expected.length, srefs.length);
+      for (int i = 0; i < expected.length; i++)
+      {
+         assertEquals("Service at index " + i, expected[i], context.getService(srefs[i]));
+         context.ungetService(srefs[i]);
+      }
+
+      ServiceReference sref = context.getServiceReference(CLAZZ);
+      assertEquals(expected[expected.length - 1], context.getService(sref));
+      context.ungetService(sref);
+   }
+
+   private static Dictionary<String, Object> getProperties(int ranking, String foo)
+   {
+      Dictionary<String, Object> props = new Hashtable<String, Object>();
+      props.put(Constants.SERVICE_RANKING, ranking);
+      props.put("foo", foo);
+      return props;
+   }
+}
@@ -0,0 +1,124 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.framework.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import org.jboss.osgi.testing.OSGiFrameworkTest;
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Test that the per objectClass service index keeps its ranking order
+ * across register, unregister and modify.
+ *
+ * @author thomas.diesler@jboss.com
+ * @since 18-Oct-2010
+ */
+public class ServiceRankingTestCase extends OSGiFrameworkTest
+{
+   static final String CLAZZ = ServiceRankingTestCase.class.getName();
+
+   @Test
+   public void testRankingOrder() throws Exception
+   {
+      BundleContext context = getSystemContext();
+
+      ServiceRegistration sregA = context.registerService(CLAZZ, "A", getProperties(0));
+      ServiceRegistration sregB = context.registerService(CLAZZ, "B", getProperties(10));
+      ServiceRegistration sregC = context.registerService(CLAZZ, "C", getProperties(5));
+      try
+      {
+         assertServiceOrder(context, "A", "C", "B");
+
+         // Equal ranking, the service with the lower id wins
+         ServiceRegistration sregD = context.registerService(CLAZZ, "D", getProperties(10));
+         assertServiceOrder(context, "A", "C", "D", "B");
+         sregD.unregister();
+
+         sregB.unregister();
+         sregB = null;
+         assertServiceOrder(context, "A", "C");
+
+         sregA.setProperties(getProperties(20));
+         assertServiceOrder(context, "C", "A");
+
+         sregA.setProperties(getProperties(-1));
+         assertServiceOrder(context, "A", "C");
+
+         // Modify without a ranking change keeps the order
+         Dictionary<String, Object> props = getProperties(5);
+         props.put("foo", "bar");
+         sregC.setProperties(props);
+         assertServiceOrder(context, "A", "C");
+
+         sregC.unregister();
+         sregC = null;
+         sregA.unregister();
+         sregA = null;
+         assertNull(context.getServiceReferences(CLAZZ, null));
+         assertNull(context.getServiceReference(CLAZZ));
+      }
+      finally
+      {
+         for (ServiceRegistration sreg : new ServiceRegistration[] { sregA, sregB, sregC })
+         {
+            if (sreg != null)
+               sreg.unregister();
+         }
+      }
+   }
+
+   private void assertServiceOrder(BundleContext context, String... expected) throws Exception
+   {
+      ServiceReference[] srefs = context.getServiceReferences(CLAZZ, null);
+      assertNotNull("Service references not null", srefs);
+      assertEquals(expected.length, srefs.length);
+      for (int i = 0; i < expected.length; i++)
+         assertEquals("Service at index " + i, expected[i], context.getService(srefs[i]));
+
+      for (int i = 0; i < srefs.length - 1; i++)
+         assertEquals("Ascending order", -1, srefs[i].compareTo(srefs[i + 1]));
+
+      ServiceReference sref = context.getServiceReference(CLAZZ);
+      assertEquals(expected[expected.length - 1], context.getService(sref));
+      
+      for (ServiceReference aux : srefs)
+         context.ungetService(aux);
+      context.ungetService(sref);
+   }
+
+   private Dictionary<String, Object> getProperties(int ranking)
+   {
+      Dictionary<String, Object> props = new Hashtable<String, Object>();
+      props.put(Constants.SERVICE_RANKING, ranking);
+      return props;
+   }
+}
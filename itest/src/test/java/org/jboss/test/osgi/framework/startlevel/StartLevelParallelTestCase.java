@@ -0,0 +1,315 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.framework.startlevel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.osgi.spi.util.ServiceLoader;
+import org.jboss.osgi.testing.OSGiFrameworkTest;
+import org.jboss.osgi.testing.OSGiManifestBuilder;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.jboss.test.osgi.framework.simple.bundleA.SimpleActivator;
+import org.jboss.test.osgi.framework.simple.bundleA.SimpleService;
+import org.jboss.test.osgi.framework.simple.bundleB.BeanB;
+import org.jboss.test.osgi.framework.startlevel.support.BarrierActivator;
+import org.jboss.test.osgi.framework.startlevel.support.FailingActivator;
+import org.jboss.test.osgi.framework.startlevel.support.LazyConsumerActivator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.launch.FrameworkFactory;
+import org.osgi.service.startlevel.StartLevel;
+
+/**
+ * Test that the bundles of a start level are started and stopped concurrently
+ * when start level parallelism is enabled.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 18-Oct-2010
+ */
+public class StartLevelParallelTestCase extends OSGiFrameworkTest
+{
+   File storageDir = new File("target/test-osgi-store").getAbsoluteFile();
+   Framework framework;
+   StartLevel startLevel;
+   List<FrameworkEvent> events = new ArrayList<FrameworkEvent>();
+
+   @BeforeClass
+   public static void beforeClass()
+   {
+      // prevent framework creation
+   }
+
+   @Before
+   public void setUp() throws Exception
+   {
+      System.getProperties().put(BarrierActivator.BARRIER, new CyclicBarrier(3));
+      System.getProperties().put(BarrierActivator.STARTED, new AtomicInteger());
+      System.getProperties().put(BarrierActivator.STOPPED, new AtomicInteger());
+
+      Map<String, String> props = new HashMap<String, String>();
+      props.put("org.osgi.framework.storage", storageDir.getAbsolutePath());
+      props.put("org.osgi.framework.storage.clean", "onFirstInit");
+      props.put("org.jboss.osgi.startlevel.parallelism", "4");
+
+      FrameworkFactory factory = ServiceLoader.loadService(FrameworkFactory.class);
+      framework = factory.newFramework(props);
+      framework.start();
+
+      BundleContext context = framework.getBundleContext();
+      startLevel = (StartLevel)context.getService(context.getServiceReference(StartLevel.class.getName()));
+      context.addFrameworkListener(new FrameworkListener()
+      {
+         public void frameworkEvent(FrameworkEvent event)
+         {
+            synchronized (events)
+            {
+               events.add(event);
+               events.notifyAll();
+            }
+         }
+      });
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      if (framework != null)
+      {
+         framework.stop();
+         framework.waitForStop(10000);
+      }
+      System.getProperties().remove(BarrierActivator.BARRIER);
+      System.getProperties().remove(BarrierActivator.STARTED);
+      System.getProperties().remove(BarrierActivator.STOPPED);
+   }
+
+   @Test
+   public void testParallelStartStop() throws Exception
+   {
+      List<Bundle> bundles = new ArrayList<Bundle>();
+      for (int i = 0; i < 3; i++)
+         bundles.add(installBundle(getBarrierBundle("barrier" + i), 2, 0));
+
+      changeStartLevel(2);
+      for (Bundle bundle : bundles)
+         assertBundleState(Bundle.ACTIVE, bundle.getState());
+      assertEquals(3, getCount(BarrierActivator.STARTED));
+      assertEquals(0, getErrorEvents().size());
+
+      // Sequential stops would not get past the barrier
+      changeStartLevel(1);
+      for (Bundle bundle : bundles)
+         assertBundleState(Bundle.RESOLVED, bundle.getState());
+      assertEquals(3, getCount(BarrierActivator.STOPPED));
+      assertEquals(0, getErrorEvents().size());
+
+      // Also stopped in parallel on framework shutdown
+      changeStartLevel(2);
+      framework.stop();
+      framework.waitForStop(10000);
+      framework = null;
+      assertEquals(6, getCount(BarrierActivator.STOPPED));
+   }
+
+   @Test
+   public void testErrorEventPerBundle() throws Exception
+   {
+      List<Bundle> bundles = new ArrayList<Bundle>();
+      for (int i = 0; i < 3; i++)
+         bundles.add(installBundle(getBarrierBundle("barrier" + i), 2, 0));
+      Bundle failing = installBundle(getFailingBundle("failing"), 2, 0);
+
+      changeStartLevel(2);
+      for (Bundle bundle : bundles)
+         assertBundleState(Bundle.ACTIVE, bundle.getState());
+      assertBundleState(Bundle.RESOLVED, failing.getState());
+
+      // The failing bundle does not affect the other bundles of its start level
+      List<FrameworkEvent> errors = getErrorEvents();
+      assertEquals(1, errors.size());
+      assertEquals(failing, errors.get(0).getBundle());
+      assertEquals(3, getCount(BarrierActivator.STARTED));
+   }
+
+   @Test
+   public void testLazyActivation() throws Exception
+   {
+      Bundle lazyProvider = installBundle(getLazyBundle("lazy-provider", true), 2, Bundle.START_ACTIVATION_POLICY);
+      Bundle lazyOther = installBundle(getLazyBundle("lazy-other", false), 2, Bundle.START_ACTIVATION_POLICY);
+      Bundle consumer = installBundle(getConsumerBundle("lazy-consumer"), 2, 0);
+
+      // The consumer triggers the activation of the provider while the provider may be started concurrently
+      changeStartLevel(2);
+      assertBundleState(Bundle.ACTIVE, consumer.getState());
+      assertBundleState(Bundle.ACTIVE, lazyProvider.getState());
+      assertBundleState(Bundle.STARTING, lazyOther.getState());
+      assertEquals(0, getErrorEvents().size());
+
+      lazyOther.loadClass(LazyConsumerActivator.SERVICE_CLASS);
+      assertBundleState(Bundle.ACTIVE, lazyOther.getState());
+
+      changeStartLevel(1);
+      assertBundleState(Bundle.RESOLVED, consumer.getState());
+      assertBundleState(Bundle.RESOLVED, lazyProvider.getState());
+      assertBundleState(Bundle.RESOLVED, lazyOther.getState());
+      assertEquals(0, getErrorEvents().size());
+   }
+
+   private Bundle installBundle(JavaArchive archive, int bundleStartLevel, int options) throws Exception
+   {
+      BundleContext context = framework.getBundleContext();
+      Bundle bundle = context.installBundle(archive.getName(), toInputStream(archive));
+      startLevel.setBundleStartLevel(bundle, bundleStartLevel);
+      bundle.start(options);
+      assertBundleState(Bundle.INSTALLED, bundle.getState());
+      return bundle;
+   }
+
+   private void changeStartLevel(int level) throws Exception
+   {
+      synchronized (events)
+      {
+         events.clear();
+         startLevel.setStartLevel(level);
+         long deadline = System.currentTimeMillis() + 10000;
+         while (getEvents(FrameworkEvent.STARTLEVEL_CHANGED).isEmpty() && System.currentTimeMillis() < deadline)
+            events.wait(100);
+      }
+      assertEquals(level, startLevel.getStartLevel());
+   }
+
+   private List<FrameworkEvent> getErrorEvents()
+   {
+      synchronized (events)
+      {
+         return getEvents(FrameworkEvent.ERROR);
+      }
+   }
+
+   private List<FrameworkEvent> getEvents(int type)
+   {
+      List<FrameworkEvent> result = new ArrayList<FrameworkEvent>();
+      for (FrameworkEvent event : events)
+      {
+         if (event.getType() == type)
+            result.add(event);
+      }
+      return result;
+   }
+
+   private int getCount(String key)
+   {
+      return ((AtomicInteger)System.getProperties().get(key)).get();
+   }
+
+   private JavaArchive getBarrierBundle(String name)
+   {
+      return getActivatorBundle(name, BarrierActivator.class);
+   }
+
+   private JavaArchive getFailingBundle(String name)
+   {
+      return getActivatorBundle(name, FailingActivator.class);
+   }
+
+   private JavaArchive getActivatorBundle(String name, final Class<? extends BundleActivator> activator)
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, name);
+      archive.addClass(activator);
+      archive.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleSymbolicName(archive.getName());
+            builder.addBundleManifestVersion(2);
+            builder.addBundleActivator(activator);
+            builder.addImportPackages("org.osgi.framework");
+            return builder.openStream();
+         }
+      });
+      return archive;
+   }
+
+   private JavaArchive getLazyBundle(String name, final boolean export)
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, name);
+      archive.addClasses(SimpleActivator.class, SimpleService.class, BeanB.class);
+      archive.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleSymbolicName(archive.getName());
+            builder.addBundleManifestVersion(2);
+            builder.addBundleActivator(SimpleActivator.class.getName());
+            builder.addBundleActivationPolicy(Constants.ACTIVATION_LAZY);
+            builder.addImportPackages("org.osgi.framework");
+            if (export)
+               builder.addExportPackages(SimpleService.class);
+            return builder.openStream();
+         }
+      });
+      return archive;
+   }
+
+   private JavaArchive getConsumerBundle(String name)
+   {
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, name);
+      archive.addClass(LazyConsumerActivator.class);
+      archive.setManifest(new Asset()
+      {
+         public InputStream openStream()
+         {
+            OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+            builder.addBundleSymbolicName(archive.getName());
+            builder.addBundleManifestVersion(2);
+            builder.addBundleActivator(LazyConsumerActivator.class);
+            builder.addImportPackages("org.osgi.framework");
+            builder.addImportPackages(SimpleService.class);
+            return builder.openStream();
+         }
+      });
+      return archive;
+   }
+}
@@ -0,0 +1,64 @@
+/*
+* JBoss, Home of Professional Open Source
+* Copyright 2009, Red Hat Middleware LLC, and individual contributors
+* as indicated by the @author tags. See the copyright.txt file in the
+* distribution for a full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+package org.jboss.test.osgi.framework.startlevel.support;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+
+/**
+ * An activator that only starts and stops when all bundles that share 
+ * the barrier are started or stopped concurrently.
+ * 
+ * The barrier and the counters are passed through the system properties,
+ * so that every bundle class loader sees the same instances.
+ * 
+ * @author thomas.diesler@jboss.com
+ * @since 18-Oct-2010
+ */
+public class BarrierActivator implements BundleActivator
+{
+   public static final String BARRIER = "org.jboss.test.osgi.startlevel.barrier";
+   public static final String STARTED = "org.jboss.test.osgi.startlevel.started";
+   public static final String STOPPED = "org.jboss.test.osgi.startlevel.stopped";
+
+   public void start(BundleContext context) throws Exception
+   {
+      awaitBarrier();
+      ((AtomicInteger)System.getProperties().get(STARTED)).incrementAndGet();
+   }
+
+   public void stop(BundleContext context) throws Exception
+   {
+      awaitBarrier();
+      ((AtomicInteger)System.getProperties().get(STOPPED)).incrementAndGet();
+   }
+
+   private void awaitBarrier() throws Exception
+   {
+      CyclicBarrier barrier = (CyclicBarrier)System.getProperties().get(BARRIER);
+      barrier.await(5, TimeUnit.SECONDS);
+   }
+}